@@ -0,0 +1,50 @@
+package com.papenko.filestorage.entity;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileBenchmark {
+    @Param({"0", "10", "1000"})
+    private int tagCount;
+
+    private List<String> tags;
+    private File file;
+
+    @Setup
+    public void setUp() {
+        tags = new ArrayList<>(tagCount);
+        for (int i = 0; i < tagCount; i++) {
+            tags.add((i % 2 == 0 ? "Tag" : "tag") + i / 2);
+        }
+        file = new File("id0", "Presentation.PDF", 123123L, tags);
+    }
+
+    @Benchmark
+    public File constructor() {
+        return new File("id0", "Presentation.PDF", 123123L, tags);
+    }
+
+    @Benchmark
+    public File constructorWithoutTags() {
+        return new File(null, "file.mp3", 123123L, null);
+    }
+
+    @Benchmark
+    public List<String> normalizeTags() {
+        return File.normalizeTags(tags);
+    }
+
+    @Benchmark
+    public File withTags() {
+        return file.withTags(tags);
+    }
+}
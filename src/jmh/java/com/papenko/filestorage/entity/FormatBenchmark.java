@@ -0,0 +1,44 @@
+package com.papenko.filestorage.entity;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FormatBenchmark {
+    /**
+     * first, last and no match for the detectors checked one after another by the File constructor
+     */
+    @Param({"report.docx", "SONG.CDA", "archive.tar.gz"})
+    private String fileName;
+
+    @Benchmark
+    public String categoryOf() {
+        return ExtensionClassifier.categoryOf(fileName);
+    }
+
+    @Benchmark
+    public boolean isDocumentFormat() {
+        return DocumentFormat.isDocumentFormat(fileName);
+    }
+
+    @Benchmark
+    public boolean isVideoFormat() {
+        return VideoFormat.isVideoFormat(fileName);
+    }
+
+    @Benchmark
+    public boolean isImageFormat() {
+        return ImageFormat.isImageFormat(fileName);
+    }
+
+    @Benchmark
+    public boolean isAudioFormat() {
+        return AudioFormat.isAudioFormat(fileName);
+    }
+}
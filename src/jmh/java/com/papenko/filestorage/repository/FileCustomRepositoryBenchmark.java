@@ -0,0 +1,72 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.entity.File;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchResponseSections;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileCustomRepositoryBenchmark {
+    @Param({"10", "100"})
+    private int pageSize;
+
+    private FileRequests requests;
+    private SearchResponse response;
+    private Pageable pageable;
+    private String cursor;
+
+    @Setup
+    public void setUp() {
+        final MappingElasticsearchConverter converter =
+                new MappingElasticsearchConverter(new SimpleElasticsearchMappingContext());
+        converter.afterPropertiesSet();
+        // only the converter is needed, nothing is sent to Elasticsearch
+        requests = new FileRequests(converter, 10000, 5242880, 5, 1000);
+        final SearchHit[] hits = new SearchHit[pageSize];
+        for (int i = 0; i < pageSize; i++) {
+            final String id = "id" + i;
+            hits[i] = new SearchHit(i, id, null, Map.of());
+            hits[i].sourceRef(new BytesArray("{\"_class\":\"com.papenko.filestorage.entity.File\",\"id\":\"" + id +
+                    "\",\"name\":\"file" + i + ".mp3\",\"size\":" + i + ",\"tags\":[\"audio\",\"jazz\",\"tag" + i +
+                    "\"]}"));
+            hits[i].sortValues(new Object[]{id}, new DocValueFormat[]{DocValueFormat.RAW});
+        }
+        response = new SearchResponse(new SearchResponseSections(
+                new SearchHits(hits, new TotalHits(1_000_000, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO), 0),
+                null, null, false, null, null, 1),
+                null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+        pageable = PageRequest.of(500, pageSize);
+        cursor = SearchAfterCursor.encode(new Object[]{"id499"});
+    }
+
+    @Benchmark
+    public CursorPage<File> convertToPage() {
+        return requests.convertToPage(response, pageable);
+    }
+
+    @Benchmark
+    public SearchSourceBuilder getSearchSourceBuilderWithCursor() {
+        return requests.getSearchSourceBuilder(List.of("audio", "jazz"), pageable, "file", null, cursor);
+    }
+}
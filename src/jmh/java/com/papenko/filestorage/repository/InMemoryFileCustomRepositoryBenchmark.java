@@ -0,0 +1,98 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.entity.File;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tag intersection queries of the in-memory repository against scanning the same files, at 1M and 10M files.
+ * Every file has "common" with probability 1/2, "medium" with 1/10 and "rare" with 1/100, plus one of 1000 other tags.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx12g")
+@State(Scope.Benchmark)
+public class InMemoryFileCustomRepositoryBenchmark {
+    private static final List<String> TWO_TAGS = List.of("common", "medium");
+    private static final List<String> THREE_TAGS = List.of("common", "medium", "rare");
+
+    @Param({"1000000", "10000000"})
+    private int files;
+
+    private InMemoryFileCustomRepository repository;
+    /**
+     * the same files in a plain list, as a store without an inverted index would scan them
+     */
+    private List<File> scanned;
+    private Pageable pageable;
+
+    @Setup
+    public void setUp() {
+        repository = new InMemoryFileCustomRepository(16, 1000);
+        scanned = new ArrayList<>(files);
+        pageable = PageRequest.of(0, 10);
+        final Random random = new Random(files);
+        final Instant createdAt = Instant.ofEpochMilli(0);
+        for (int i = 0; i < files; i++) {
+            final List<String> tags = new ArrayList<>(4);
+            tags.add("tag" + random.nextInt(1000));
+            if (random.nextInt(2) == 0) {
+                tags.add("common");
+            }
+            if (random.nextInt(10) == 0) {
+                tags.add("medium");
+            }
+            if (random.nextInt(100) == 0) {
+                tags.add("rare");
+            }
+            scanned.add(repository.index(new File("id" + i, "file" + i + ".bin", (long) i, tags, createdAt)));
+        }
+    }
+
+    @Benchmark
+    public CursorPage<File> intersectTwoTags() {
+        return repository.findAllByTagsContainingAllIn(TWO_TAGS, pageable, null, null, null);
+    }
+
+    @Benchmark
+    public CursorPage<File> intersectThreeTags() {
+        return repository.findAllByTagsContainingAllIn(THREE_TAGS, pageable, null, null, null);
+    }
+
+    @Benchmark
+    public long scanTwoTags() {
+        return scan(TWO_TAGS);
+    }
+
+    @Benchmark
+    public long scanThreeTags() {
+        return scan(THREE_TAGS);
+    }
+
+    /**
+     * counts the matching files and keeps the first page, as a listing with an exact total does
+     */
+    private long scan(List<String> tags) {
+        final List<File> page = new ArrayList<>(pageable.getPageSize());
+        long total = 0;
+        for (File file : scanned) {
+            if (file.getTags().containsAll(tags)) {
+                if (page.size() < pageable.getPageSize()) {
+                    page.add(file);
+                }
+                total++;
+            }
+        }
+        return total + page.size();
+    }
+}
@@ -0,0 +1,68 @@
+package com.papenko.filestorage.service;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.papenko.filestorage.dto.FileValidityCheckReport;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.repository.FileCustomRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.action.DocWriteResponse;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileServiceBenchmark {
+    @Param({"10", "1000"})
+    private int tagCount;
+
+    private FileService fileService;
+    private File validFile;
+    private File invalidFile;
+    private List<String> tags;
+
+    @Setup
+    public void setUp() {
+        final FileCustomRepository repository = (FileCustomRepository) Proxy.newProxyInstance(
+                FileCustomRepository.class.getClassLoader(),
+                new Class<?>[]{FileCustomRepository.class},
+                (proxy, method, args) -> DocWriteResponse.Result.UPDATED);
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        fileService = new FileService(repository, 1000, meterRegistry,
+                Caffeine.newBuilder().build(), Caffeine.newBuilder().build(), Caffeine.newBuilder().build(),
+                Caffeine.newBuilder().build(),
+                new IngestQueue(false, repository, 1, 1, Duration.ZERO, Duration.ofSeconds(30), "none", meterRegistry));
+        validFile = new File(null, "file.mp3", 123123L, null);
+        invalidFile = new File(null, "file.mp3", -1L, null);
+        tags = new ArrayList<>(tagCount);
+        for (int i = 0; i < tagCount; i++) {
+            tags.add("Tag" + i);
+        }
+    }
+
+    @Benchmark
+    public FileValidityCheckReport isFileValid() {
+        return FileService.isFileValid(validFile);
+    }
+
+    @Benchmark
+    public FileValidityCheckReport isFileValidForInvalidFile() {
+        return FileService.isFileValid(invalidFile);
+    }
+
+    /**
+     * tags are removed by a script in Elasticsearch, what is left in the service is their normalization
+     */
+    @Benchmark
+    public void deleteTags() {
+        fileService.deleteTags("id0", tags);
+    }
+}
@@ -0,0 +1,154 @@
+package com.papenko.filestorage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Closed-loop load test of a running file storage: every one of "connections" clients sends its next request as soon
+ * as the previous one is answered, for "duration" seconds after "warmup" seconds. Reports throughput, latency
+ * percentiles and the peak heap and thread count of the server, read from its actuator.
+ * <p>
+ * Run it once against the default (Spring MVC) and once against the "reactive" (WebFlux) profile to compare them:
+ * "./mvnw -Ploadtest verify -Dloadtest.args='connections=5000 duration=60 seed=10000'".
+ * Arguments: url (GET to send), base (server root), connections, duration, warmup, seed (files to upload first).
+ */
+public class LoadTest {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>(Map.of(
+                "base", "http://localhost:8080",
+                "url", "/file?tags=loadtest&size=10",
+                "connections", "5000",
+                "duration", "60",
+                "warmup", "10",
+                "seed", "0"));
+        for (String arg : args) {
+            final String[] keyValue = arg.split("=", 2);
+            options.put(keyValue[0], keyValue[1]);
+        }
+        final String base = options.get("base");
+        final URI uri = URI.create(base + options.get("url"));
+        final int connections = Integer.parseInt(options.get("connections"));
+        final long warmupNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("warmup")));
+        final long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.get("duration")));
+
+        final HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 2))
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        seed(client, base, Integer.parseInt(options.get("seed")));
+
+        final ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor();
+        final AtomicLong peakHeap = new AtomicLong();
+        final AtomicLong peakThreads = new AtomicLong();
+        monitor.scheduleAtFixedRate(() -> {
+            peakHeap.accumulateAndGet((long) metric(client, base, "jvm.memory.used?tag=area:heap"), Math::max);
+            peakThreads.accumulateAndGet((long) metric(client, base, "jvm.threads.live"), Math::max);
+        }, 0, 1, TimeUnit.SECONDS);
+
+        final Recorder recorder = new Recorder(TimeUnit.MINUTES.toNanos(1), 3);
+        final AtomicLong errors = new AtomicLong();
+        final long start = System.nanoTime();
+        final long measureFrom = start + warmupNanos;
+        final long deadline = measureFrom + durationNanos;
+        final CountDownLatch done = new CountDownLatch(connections);
+        final HttpRequest request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(60)).build();
+        for (int i = 0; i < connections; i++) {
+            send(client, request, recorder, errors, measureFrom, deadline, done);
+        }
+        done.await();
+        monitor.shutdownNow();
+
+        final Histogram histogram = recorder.getIntervalHistogram();
+        final double seconds = durationNanos / 1e9;
+        System.out.printf("%s, %d connections, %.0f s%n", uri, connections, seconds);
+        System.out.printf("requests %d, errors %d, throughput %.1f req/s%n",
+                histogram.getTotalCount(), errors.get(), histogram.getTotalCount() / seconds);
+        System.out.printf("latency ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                histogram.getValueAtPercentile(50) / 1e6, histogram.getValueAtPercentile(90) / 1e6,
+                histogram.getValueAtPercentile(99) / 1e6, histogram.getValueAtPercentile(99.9) / 1e6,
+                histogram.getMaxValue() / 1e6);
+        System.out.printf("server: peak heap used %.1f MiB, peak live threads %d%n",
+                peakHeap.get() / 1024.0 / 1024.0, peakThreads.get());
+        System.exit(0);
+    }
+
+    private static void send(HttpClient client, HttpRequest request, Recorder recorder, AtomicLong errors,
+                             long measureFrom, long deadline, CountDownLatch done) {
+        final long sent = System.nanoTime();
+        if (sent >= deadline) {
+            done.countDown();
+            return;
+        }
+        client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+            final long received = System.nanoTime();
+            if (sent >= measureFrom && received < deadline) {
+                recorder.recordValue(Math.min(received - sent, TimeUnit.MINUTES.toNanos(1)));
+                if (e != null || response.statusCode() >= 400) {
+                    if (errors.getAndIncrement() == 0) {
+                        System.err.println("first error: " + (e != null ? e : "status " + response.statusCode()));
+                    }
+                }
+            }
+            send(client, request, recorder, errors, measureFrom, deadline, done);
+        });
+    }
+
+    /**
+     * uploads files tagged "loadtest" through the bulk endpoint and waits until they are searchable
+     */
+    private static void seed(HttpClient client, String base, int files) throws IOException, InterruptedException {
+        if (files == 0) {
+            return;
+        }
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < files; i++) {
+            body.append("{\"name\":\"file").append(i).append(".txt\",\"size\":").append(i)
+                    .append(",\"tags\":[\"loadtest\"]}\n");
+        }
+        final HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(base + "/file/_bulk"))
+                .header("Content-Type", "application/x-ndjson")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("seeding failed: " + response.body());
+        }
+        // bulk uploads become searchable after the next refresh, which happens every second by default
+        Thread.sleep(2000);
+    }
+
+    private static double metric(HttpClient client, String base, String name) {
+        try {
+            final HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(URI.create(base + "/actuator/metrics/" + name)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            double sum = 0;
+            for (var measurement : OBJECT_MAPPER.readTree(response.body()).get("measurements")) {
+                sum += measurement.get("value").asDouble();
+            }
+            return sum;
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+}
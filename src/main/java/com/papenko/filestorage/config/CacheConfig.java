@@ -0,0 +1,103 @@
+package com.papenko.filestorage.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.SlimFilePage;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.service.FilePageCacheKey;
+import com.papenko.filestorage.service.FileStatsCacheKey;
+import com.papenko.filestorage.service.TagCountsCacheKey;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+@Configuration
+public class CacheConfig {
+
+    /**
+     * Files by ID, read through by {@code FileService.findById} and invalidated by every write of this instance.
+     * Writes of other instances become visible once the entry expires. Hits, misses and evictions are published
+     * as cache_* metrics with cache="files-by-id".
+     */
+    @Bean
+    public Cache<String, File> fileByIdCache(@Value("${file-storage.cache.files-by-id.enabled:true}") boolean enabled,
+                                             @Value("${file-storage.cache.files-by-id.max-size:10000}") long maxSize,
+                                             @Value("${file-storage.cache.files-by-id.expire-after-write:60s}")
+                                                     Duration expireAfterWrite,
+                                             MeterRegistry meterRegistry) {
+        final Cache<String, File> cache = Caffeine.newBuilder()
+                // a disabled cache evicts every entry right away on the calling thread, so nothing is ever served
+                .maximumSize(enabled ? maxSize : 0)
+                .executor(enabled ? ForkJoinPool.commonPool() : (Executor) Runnable::run)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "files-by-id");
+    }
+
+    /**
+     * Listings by {@code FileService.findPageByTagsAndName}. Keys carry the write generation, so a write of this
+     * instance makes all earlier pages unreachable; they are evicted by size. Writes of other instances become
+     * visible once the entry expires. Metrics are published with cache="file-pages".
+     */
+    @Bean
+    public Cache<FilePageCacheKey, SlimFilePage> filePageCache(
+            @Value("${file-storage.cache.file-pages.enabled:true}") boolean enabled,
+            @Value("${file-storage.cache.file-pages.max-size:1000}") long maxSize,
+            @Value("${file-storage.cache.file-pages.expire-after-write:10s}") Duration expireAfterWrite,
+            MeterRegistry meterRegistry) {
+        final Cache<FilePageCacheKey, SlimFilePage> cache = Caffeine.newBuilder()
+                .maximumSize(enabled ? maxSize : 0)
+                .executor(enabled ? ForkJoinPool.commonPool() : (Executor) Runnable::run)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "file-pages");
+    }
+
+    /**
+     * Tag counts by {@code FileService.countTags}, made unreachable by writes of this instance like listings.
+     * Metrics are published with cache="tag-counts".
+     */
+    @Bean
+    public Cache<TagCountsCacheKey, TagCounts> tagCountsCache(
+            @Value("${file-storage.cache.tag-counts.enabled:true}") boolean enabled,
+            @Value("${file-storage.cache.tag-counts.max-size:1000}") long maxSize,
+            @Value("${file-storage.cache.tag-counts.expire-after-write:5s}") Duration expireAfterWrite,
+            MeterRegistry meterRegistry) {
+        final Cache<TagCountsCacheKey, TagCounts> cache = Caffeine.newBuilder()
+                .maximumSize(enabled ? maxSize : 0)
+                .executor(enabled ? ForkJoinPool.commonPool() : (Executor) Runnable::run)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "tag-counts");
+    }
+
+    /**
+     * Size statistics by {@code FileService.stats}, made unreachable by writes of this instance like listings.
+     * Metrics are published with cache="file-stats".
+     */
+    @Bean
+    public Cache<FileStatsCacheKey, FileStats> fileStatsCache(
+            @Value("${file-storage.cache.file-stats.enabled:true}") boolean enabled,
+            @Value("${file-storage.cache.file-stats.max-size:1000}") long maxSize,
+            @Value("${file-storage.cache.file-stats.expire-after-write:5s}") Duration expireAfterWrite,
+            MeterRegistry meterRegistry) {
+        final Cache<FileStatsCacheKey, FileStats> cache = Caffeine.newBuilder()
+                .maximumSize(enabled ? maxSize : 0)
+                .executor(enabled ? ForkJoinPool.commonPool() : (Executor) Runnable::run)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .build();
+        return CaffeineCacheMetrics.monitor(meterRegistry, cache, "file-stats");
+    }
+}
@@ -1,17 +1,118 @@
 package com.papenko.filestorage.config;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.elasticsearch.client.ClientConfiguration;
-import org.springframework.data.elasticsearch.client.RestClients;
 import org.springframework.data.elasticsearch.config.AbstractElasticsearchConfiguration;
-import org.springframework.data.elasticsearch.repository.config.EnableElasticsearchRepositories;
+
+import java.util.Arrays;
 
 @Configuration
-@EnableElasticsearchRepositories(basePackages = "com.papenko.filestorage.repository")
 public class ElasticsearchConfig extends AbstractElasticsearchConfiguration {
+    private final HttpHost[] hosts;
+    private final int maxConnectionsTotal;
+    private final int maxConnectionsPerRoute;
+    private final int connectTimeoutMillis;
+    private final int socketTimeoutMillis;
+    private final int connectionRequestTimeoutMillis;
+    private final long keepAliveMillis;
+    private final boolean compressionEnabled;
+
+    public ElasticsearchConfig(@Value("${file-storage.elasticsearch.hosts:localhost:9200}") String[] hosts,
+                               @Value("${file-storage.elasticsearch.max-connections-total:30}")
+                                       int maxConnectionsTotal,
+                               @Value("${file-storage.elasticsearch.max-connections-per-route:10}")
+                                       int maxConnectionsPerRoute,
+                               @Value("${file-storage.elasticsearch.connect-timeout-millis:1000}")
+                                       int connectTimeoutMillis,
+                               @Value("${file-storage.elasticsearch.socket-timeout-millis:30000}")
+                                       int socketTimeoutMillis,
+                               @Value("${file-storage.elasticsearch.connection-request-timeout-millis:-1}")
+                                       int connectionRequestTimeoutMillis,
+                               @Value("${file-storage.elasticsearch.keep-alive-millis:60000}") long keepAliveMillis,
+                               @Value("${file-storage.elasticsearch.compression-enabled:false}")
+                                       boolean compressionEnabled) {
+        this.hosts = Arrays.stream(hosts).map(String::trim).map(HttpHost::create).toArray(HttpHost[]::new);
+        this.maxConnectionsTotal = maxConnectionsTotal;
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+        this.connectionRequestTimeoutMillis = connectionRequestTimeoutMillis;
+        this.keepAliveMillis = keepAliveMillis;
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    /**
+     * The pool is a bean of its own so that its usage can be reported, see {@code GET /health/elasticsearch}
+     * and the file.elasticsearch.pool.* gauges.
+     */
+    @Bean
+    public PoolingNHttpClientConnectionManager elasticsearchConnectionManager() throws IOReactorException {
+        final var ioReactorConfig = IOReactorConfig.custom()
+                .setConnectTimeout(connectTimeoutMillis)
+                .setSoTimeout(socketTimeoutMillis)
+                .setSoKeepAlive(true)
+                .build();
+        final var connectionManager =
+                new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(ioReactorConfig));
+        connectionManager.setMaxTotal(maxConnectionsTotal);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        return connectionManager;
+    }
+
+    @Bean
+    public MeterBinder elasticsearchConnectionPoolMetrics(PoolingNHttpClientConnectionManager connectionManager) {
+        return registry -> {
+            Gauge.builder("file.elasticsearch.pool.leased", connectionManager, cm -> cm.getTotalStats().getLeased())
+                    .description("connections executing a request").register(registry);
+            Gauge.builder("file.elasticsearch.pool.pending", connectionManager, cm -> cm.getTotalStats().getPending())
+                    .description("requests waiting for a connection").register(registry);
+            Gauge.builder("file.elasticsearch.pool.available", connectionManager,
+                    cm -> cm.getTotalStats().getAvailable())
+                    .description("idle connections").register(registry);
+            Gauge.builder("file.elasticsearch.pool.max", connectionManager, cm -> cm.getTotalStats().getMax())
+                    .description("max connections").register(registry);
+        };
+    }
+
     @Override
     public RestHighLevelClient elasticsearchClient() {
-        return RestClients.create(ClientConfiguration.localhost()).rest();
+        final PoolingNHttpClientConnectionManager connectionManager;
+        try {
+            connectionManager = elasticsearchConnectionManager();
+        } catch (IOReactorException e) {
+            throw new IllegalStateException("could not create Elasticsearch connection pool", e);
+        }
+        final RestClientBuilder builder = RestClient.builder(hosts)
+                .setHttpClientConfigCallback(httpClient ->
+                        // the default builder isn't used for compression, so everything it needs is set here
+                        (compressionEnabled ? new GzipHttpAsyncClient.Builder() : httpClient)
+                                .setDefaultRequestConfig(RequestConfig.custom()
+                                        .setConnectTimeout(connectTimeoutMillis)
+                                        .setSocketTimeout(socketTimeoutMillis)
+                                        .setConnectionRequestTimeout(connectionRequestTimeoutMillis)
+                                        .build())
+                                .setConnectionManager(connectionManager)
+                                .setKeepAliveStrategy((response, context) -> {
+                                    // honour a shorter "Keep-Alive: timeout=" from the server, but never keep idle
+                                    // sockets longer than configured, so that load balancers don't close them under
+                                    // our feet
+                                    final long fromServer = DefaultConnectionKeepAliveStrategy.INSTANCE
+                                            .getKeepAliveDuration(response, context);
+                                    return fromServer > 0 ? Math.min(fromServer, keepAliveMillis) : keepAliveMillis;
+                                }));
+        return new RestHighLevelClient(builder);
     }
 }
@@ -0,0 +1,101 @@
+package com.papenko.filestorage.config;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.entity.NByteArrayEntity;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzips request bodies sent to Elasticsearch (the 7.6 low-level client has no switch for it). The body is replaced
+ * where the request is handed to the HTTP client, because the client streams it from the request producer built
+ * before any interceptor runs. Elasticsearch decompresses requests whatever http.compression is set to.
+ */
+class GzipHttpAsyncClient extends CloseableHttpAsyncClient {
+    private final CloseableHttpAsyncClient client;
+
+    GzipHttpAsyncClient(CloseableHttpAsyncClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return client.isRunning();
+    }
+
+    @Override
+    public void start() {
+        client.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer,
+                                 HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context,
+                                 FutureCallback<T> callback) {
+        final HttpAsyncRequestProducer compressed;
+        try {
+            compressed = compress(requestProducer);
+        } catch (IOException | HttpException e) {
+            final BasicFuture<T> future = new BasicFuture<>(callback);
+            future.failed(e);
+            return future;
+        }
+        return client.execute(compressed, responseConsumer, context, callback);
+    }
+
+    /**
+     * @return a producer of the request with its body gzipped, or the given one if there is nothing to compress
+     */
+    static HttpAsyncRequestProducer compress(HttpAsyncRequestProducer requestProducer)
+            throws IOException, HttpException {
+        final HttpRequest request = requestProducer.generateRequest();
+        if (!(request instanceof HttpEntityEnclosingRequest)) {
+            return requestProducer;
+        }
+        final var entityEnclosingRequest = (HttpEntityEnclosingRequest) request;
+        final HttpEntity entity = entityEnclosingRequest.getEntity();
+        // the client sends the same request object again when it retries on another host
+        if (entity == null || entity.getContentEncoding() != null) {
+            return requestProducer;
+        }
+        final var bytes = new ByteArrayOutputStream();
+        try (var gzip = new GZIPOutputStream(bytes)) {
+            entity.writeTo(gzip);
+        }
+        final var gzipped = new NByteArrayEntity(bytes.toByteArray());
+        gzipped.setContentType(entity.getContentType());
+        gzipped.setContentEncoding("gzip");
+        entityEnclosingRequest.setEntity(gzipped);
+        requestProducer.close();
+        return HttpAsyncMethods.create(requestProducer.getTarget(), request);
+    }
+
+    /**
+     * builds the client like the default builder would, wrapped
+     */
+    static class Builder extends HttpAsyncClientBuilder {
+        @Override
+        public CloseableHttpAsyncClient build() {
+            return new GzipHttpAsyncClient(super.build());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.papenko.filestorage.config;
+
+import org.apache.http.HttpHost;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.elasticsearch.client.ClientConfiguration;
+import org.springframework.data.elasticsearch.client.reactive.ReactiveElasticsearchClient;
+import org.springframework.data.elasticsearch.client.reactive.ReactiveRestClients;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Non-blocking client of the "reactive" profile, connected to the same hosts with the same timeouts as the blocking
+ * one. The reactive template and repositories on top of it are auto-configured.
+ * Pool sizes, keep-alive and compression only apply to the blocking client.
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveElasticsearchConfig {
+
+    @Bean
+    public ReactiveElasticsearchClient reactiveElasticsearchClient(
+            @Value("${file-storage.elasticsearch.hosts:localhost:9200}") String[] hosts,
+            @Value("${file-storage.elasticsearch.connect-timeout-millis:1000}") long connectTimeoutMillis,
+            @Value("${file-storage.elasticsearch.socket-timeout-millis:30000}") long socketTimeoutMillis) {
+        final HttpHost[] httpHosts = Arrays.stream(hosts).map(String::trim).map(HttpHost::create)
+                .toArray(HttpHost[]::new);
+        final var builder = ClientConfiguration.builder()
+                .connectedTo(Arrays.stream(httpHosts).map(HttpHost::toHostString).toArray(String[]::new));
+        final boolean ssl = Arrays.stream(httpHosts).anyMatch(host -> "https".equals(host.getSchemeName()));
+        return ReactiveRestClients.create((ssl ? builder.usingSsl() : builder)
+                .withConnectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .withSocketTimeout(Duration.ofMillis(socketTimeoutMillis))
+                .build());
+    }
+}
@@ -0,0 +1,79 @@
+package com.papenko.filestorage.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.env.Environment;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+@Configuration
+@Profile("reactive")
+public class ReactiveWebConfig {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReactiveWebConfig.class);
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    /**
+     * switches of the servlet variant this one has no counterpart for, with their defaults
+     */
+    private static final List<String> UNSUPPORTED_SWITCHES = List.of("file-storage.cache.files-by-id.enabled:true",
+            "file-storage.cache.file-pages.enabled:true", "file-storage.cache.tag-counts.enabled:true",
+            "file-storage.cache.file-stats.enabled:true", "file-storage.ingest.batching.enabled:false");
+
+    /**
+     * Tomcat is on the classpath for the default profile and would be preferred otherwise
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Lets WebFlux read and write newline delimited JSON (it only knows application/stream+json in this version).
+     * Ordered after the customizer that sets Boot's ObjectMapper, which it overrides.
+     */
+    @Bean
+    @Order(1)
+    public CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+        final MimeType[] mimeTypes = {MediaType.APPLICATION_JSON, new MimeType("application", "*+json"),
+                APPLICATION_NDJSON};
+        return configurer -> {
+            final var encoder = new Jackson2JsonEncoder(objectMapper, mimeTypes);
+            encoder.setStreamingMediaTypes(List.of(APPLICATION_NDJSON, MediaType.APPLICATION_STREAM_JSON));
+            configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+            configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper, mimeTypes));
+        };
+    }
+
+    /**
+     * Warns about the caches and the ingest queue switched on, as this variant reads every request from
+     * Elasticsearch and flushes every write, so that nobody counts on them by mistake.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warnAboutUnsupportedSwitches(ApplicationReadyEvent event) {
+        final List<String> unsupported = getUnsupportedSwitches(event.getApplicationContext().getEnvironment());
+        if (!unsupported.isEmpty()) {
+            LOGGER.warn("{} switched on, but not supported by the reactive profile, which doesn't cache, " +
+                    "coalesce listings or queue writes; switch off to silence", unsupported);
+        }
+    }
+
+    static List<String> getUnsupportedSwitches(Environment environment) {
+        return UNSUPPORTED_SWITCHES.stream()
+                .filter(property -> Boolean.parseBoolean(environment.resolvePlaceholders("${" + property + "}")))
+                .map(property -> property.substring(0, property.indexOf(':')))
+                .collect(Collectors.toList());
+    }
+}
@@ -1,81 +1,380 @@
 package com.papenko.filestorage.controller;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.RuntimeJsonMappingException;
 import com.papenko.filestorage.dto.*;
 import com.papenko.filestorage.entity.File;
 import com.papenko.filestorage.exception.*;
+import com.papenko.filestorage.repository.FileCustomRepository;
 import com.papenko.filestorage.service.FileService;
+import com.papenko.filestorage.service.IngestAck;
+import org.elasticsearch.action.support.WriteRequest;
+import org.springframework.context.annotation.Profile;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.http.HttpStatus;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.Function;
 
 @RestController
 @RequestMapping("file")
+@Profile("!reactive")
 public class FileController {
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+    /**
+     * index.max_result_window of Elasticsearch, the most files page and size can reach without a cursor
+     */
+    static final int MAX_RESULT_WINDOW = 10000;
     private final FileService fileService;
+    private final ObjectMapper objectMapper;
 
-    public FileController(FileService fileService) {
+    public FileController(FileService fileService, ObjectMapper objectMapper) {
         this.fileService = fileService;
+        this.objectMapper = objectMapper;
     }
 
+    /**
+     * @param ack with ingest batching enabled, "flush" (default) returns once the file is stored, "enqueue" once it
+     *            is queued; ignored otherwise
+     */
     @PostMapping
-    public ResponseEntity<ResponseEntityBody> upload(@RequestBody File file) {
-        final File uploadedFile = fileService.uploadFile(file);
+    public ResponseEntity<ResponseEntityBody> upload(@RequestBody File file,
+                                                     @RequestParam(defaultValue = "flush") String ack) {
+        final File uploadedFile = fileService.uploadFile(file, parseAck(ack, FileUpload400Exception::new));
         return ResponseEntity.ok(new Id(uploadedFile.getId()));
     }
 
-    @ExceptionHandler(FileUpload400Exception.class)
-    public ResponseEntity<ErrorMessage> handleException(FileUpload400Exception e) {
-        return ResponseEntity.badRequest().body(new ErrorMessage(false, e.getMessage()));
+    static IngestAck parseAck(String ack, Function<String, RuntimeException> badRequest) {
+        try {
+            return IngestAck.valueOf(ack.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw badRequest.apply("ack must be one of flush, enqueue");
+        }
     }
 
+    /**
+     * Accepts either a JSON array of files or newline delimited JSON with one file per line. Files are stored in
+     * batches while the body is read, so a file that can't be read ends the upload and is reported as the last item,
+     * after the files stored before it. Only a body in which no file can be read is refused, with nothing stored.
+     */
+    @PostMapping(value = "_bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public ResponseEntity<BulkReport> bulkUpload(InputStream body) throws IOException {
+        try (MappingIterator<File> files = objectMapper.readerFor(File.class).readValues(body)) {
+            return ResponseEntity.ok(fileService.uploadFiles(new BulkFiles(files)));
+        } catch (JsonProcessingException e) {
+            throw new FileUpload400Exception("request body is malformed");
+        }
+    }
+
+    /**
+     * files of a bulk upload, then null for the first one that can't be read, after which the parser can't tell
+     * where the next one starts
+     */
+    private static class BulkFiles implements Iterator<File> {
+        private final MappingIterator<File> files;
+        private File file;
+        private boolean pending;
+        private boolean ended;
+        private boolean read;
+
+        BulkFiles(MappingIterator<File> files) {
+            this.files = files;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (pending || ended) {
+                return pending;
+            }
+            try {
+                if (files.hasNextValue()) {
+                    file = files.nextValue();
+                    pending = true;
+                } else {
+                    ended = true;
+                }
+            } catch (JsonProcessingException | RuntimeJsonMappingException e) {
+                if (!read) {
+                    throw new FileUpload400Exception("request body is malformed");
+                }
+                file = null;
+                pending = true;
+                ended = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return pending;
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            pending = false;
+            read = true;
+            return file;
+        }
+    }
+
+    /**
+     * Reads newline delimited JSON one line at a time and writes back {@link Id} or {@link ErrorMessage} per non-empty
+     * line, in order of lines, as newline delimited JSON flushed after each batch. The next line is only read once the
+     * previous batch is stored, so a slow or overloaded Elasticsearch slows the client down instead of filling memory.
+     * A malformed line fails alone; a failure of Elasticsearch after the first batch can only abort the response.
+     */
+    @PostMapping(value = "_import", consumes = APPLICATION_NDJSON_VALUE)
+    public void importFiles(InputStream body, HttpServletResponse response) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        final JsonGenerator generator = createLineGenerator(response.getOutputStream());
+        // set only once there is something to write, so that a failure before that is still reported as JSON
+        fileService.importFiles(new FileLines(reader, objectMapper.readerFor(File.class)), results -> {
+            response.setContentType(APPLICATION_NDJSON_VALUE);
+            try {
+                for (ResponseEntityBody result : results) {
+                    generator.writeObject(result);
+                    generator.writeRaw('\n');
+                }
+                generator.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        response.setContentType(APPLICATION_NDJSON_VALUE);
+        generator.flush();
+    }
+
+    /**
+     * generator of newline delimited JSON, whose lines would otherwise start with a space separating them
+     */
+    private JsonGenerator createLineGenerator(OutputStream out) throws IOException {
+        return objectMapper.getFactory().createGenerator(out).setRootValueSeparator(null);
+    }
+
+    /**
+     * file per non-empty line, null for a line that is not a file
+     */
+    private static class FileLines implements Iterator<File> {
+        private final BufferedReader reader;
+        private final ObjectReader fileReader;
+        private String line;
+
+        FileLines(BufferedReader reader, ObjectReader fileReader) {
+            this.reader = reader;
+            this.fileReader = fileReader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (line == null || line.isBlank()) {
+                    line = reader.readLine();
+                    if (line == null) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public File next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final String current = line;
+            line = null;
+            try {
+                return fileReader.readValue(current);
+            } catch (JsonProcessingException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * All matching files as newline delimited JSON, written from one scroll batch at a time and flushed after each,
+     * so that exports of any size take constant memory. A failure after the first batch can only abort the response.
+     */
+    @GetMapping("_export")
+    public ResponseEntity<StreamingResponseBody> export(@RequestParam(required = false) List<String> tags,
+                                                        @RequestParam(required = false) String q) {
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE))
+                .body(out -> {
+                    final JsonGenerator generator = createLineGenerator(out);
+                    fileService.exportByTagsAndName(tags, q, files -> {
+                        try {
+                            for (File file : files) {
+                                generator.writeObject(file);
+                                generator.writeRaw('\n');
+                            }
+                            generator.flush();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    generator.flush();
+                });
+    }
+
+    /**
+     * counts files per tag, including the category tags assigned on upload, among files matching tags and q
+     */
+    @GetMapping("tags")
+    public ResponseEntity<TagCounts> countTags(@RequestParam(required = false) List<String> tags,
+                                               @RequestParam(required = false) String q,
+                                               @RequestParam(defaultValue = "100") int size) {
+        return ResponseEntity.ok(fileService.countTags(tags, q, size));
+    }
+
+    /**
+     * size statistics and the largest files among files matching tags and q, optionally per tag as well
+     */
+    @GetMapping("_stats")
+    public ResponseEntity<FileStats> stats(@RequestParam(required = false) List<String> tags,
+                                           @RequestParam(required = false) String q,
+                                           @RequestParam(defaultValue = "10") int top,
+                                           @RequestParam(defaultValue = "false") boolean byTag,
+                                           @RequestParam(defaultValue = "100") int size) {
+        return ResponseEntity.ok(fileService.stats(tags, q, top, byTag, size));
+    }
+
+    @GetMapping("{ID}")
+    public ResponseEntity<File> findById(@PathVariable(name = "ID") String id) {
+        return ResponseEntity.ok(fileService.findById(id));
+    }
+
+    /**
+     * @param refresh "true" (default) refreshes the index right away, "wait_for" waits for the next refresh,
+     *                "false" returns without making the deletion visible to searches yet
+     */
     @DeleteMapping("{ID}")
-    public ResponseEntity<SuccessStatus> delete(@PathVariable(name = "ID") String id) {
-        fileService.delete(id);
+    public ResponseEntity<SuccessStatus> delete(@PathVariable(name = "ID") String id,
+                                                @RequestParam(defaultValue = "true") String refresh) {
+        fileService.delete(id, parseRefreshPolicy(refresh));
         return ResponseEntity.ok(new SuccessStatus(true));
     }
 
-    @ExceptionHandler(FileDelete404Exception.class)
-    public ResponseEntity<ErrorMessage> handleException(FileDelete404Exception e) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, e.getMessage()));
+    static WriteRequest.RefreshPolicy parseRefreshPolicy(String refresh) {
+        try {
+            return WriteRequest.RefreshPolicy.parse(refresh);
+        } catch (IllegalArgumentException e) {
+            throw new FileDelete400Exception("refresh must be one of true, false, wait_for");
+        }
     }
 
+    /**
+     * @param ack like in {@link #upload}
+     */
     @PostMapping("{ID}/tags")
     public ResponseEntity<SuccessStatus> postTags(@PathVariable(name = "ID") String id,
-                                                  @RequestBody List<String> tags) {
-        fileService.updateTags(id, tags);
+                                                  @RequestBody List<String> tags,
+                                                  @RequestParam(defaultValue = "flush") String ack) {
+        fileService.updateTags(id, tags, parseAck(ack, FileUpdateTags400Exception::new));
         return ResponseEntity.ok(new SuccessStatus(true));
     }
 
-    @ExceptionHandler(FileUpdateTags404Exception.class)
-    public ResponseEntity<ErrorMessage> handleException(FileUpdateTags404Exception e) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, e.getMessage()));
-    }
-
+    /**
+     * @param ack like in {@link #upload}
+     */
     @DeleteMapping("{ID}/tags")
     public ResponseEntity<SuccessStatus> deleteTags(@PathVariable(name = "ID") String id,
-                                                    @RequestBody List<String> tags) {
-        fileService.deleteTags(id, tags);
+                                                    @RequestBody List<String> tags,
+                                                    @RequestParam(defaultValue = "flush") String ack) {
+        fileService.deleteTags(id, tags, parseAck(ack, FileDeleteTags400Exception::new));
         return ResponseEntity.ok(new SuccessStatus(true));
     }
 
-    @ExceptionHandler(FileDeleteTags404Exception.class)
-    public ResponseEntity<ErrorMessage> handleException(FileDeleteTags404Exception e) {
-        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, e.getMessage()));
+    /**
+     * adds tags to the files with the given IDs, reporting per file, or to all files matching the filter
+     */
+    @PostMapping("_tags")
+    public ResponseEntity<ResponseEntityBody> postTagsOfMany(@RequestBody TagsEdit edit) {
+        return ResponseEntity.ok(fileService.updateTagsOfMany(edit));
     }
 
-    @ExceptionHandler(FileDeleteTags400Exception.class)
-    public ResponseEntity<ErrorMessage> handleException(FileDeleteTags400Exception e) {
-        return ResponseEntity.badRequest().body(new ErrorMessage(false, e.getMessage()));
+    /**
+     * removes tags from the files with the given IDs, reporting per file, or from all files matching the filter
+     */
+    @DeleteMapping("_tags")
+    public ResponseEntity<ResponseEntityBody> deleteTagsOfMany(@RequestBody TagsEdit edit) {
+        return ResponseEntity.ok(fileService.deleteTagsOfMany(edit));
     }
 
+    /**
+     * @param sort "size", "name" or "created", optionally followed by ",asc" (default) or ",desc"; files are ordered
+     *             by ID after it, or only by ID without it
+     * @param category "document", "video", "image" or "audio", matched against the category of files rather than
+     *                 their tags, so that it still holds once the category tag is removed
+     */
     @GetMapping
     public ResponseEntity<SlimFilePage> findByTagsAndName(@RequestParam(required = false) List<String> tags,
                                                           @RequestParam(required = false) String q,
+                                                          @RequestParam(required = false) String category,
                                                           @RequestParam(defaultValue = "0") int page,
-                                                          @RequestParam(defaultValue = "10") int size) {
-        return ResponseEntity.ok().body(fileService.findPageByTagsAndName(tags, PageRequest.of(page, size), q));
+                                                          @RequestParam(defaultValue = "10") int size,
+                                                          @RequestParam(required = false) String sort,
+                                                          @RequestParam(required = false) String cursor) {
+        return ResponseEntity.ok()
+                .body(fileService.findPageByTagsAndName(tags, toPageRequest(page, size, sort, cursor), q, category,
+                        cursor));
+    }
+
+    /**
+     * @param cursor if given, the page number is ignored, so only the size is checked against the window
+     * @throws FileFind400Exception if the page is negative, the size not positive or, without a cursor, the page
+     *                              reaches past {@link #MAX_RESULT_WINDOW}
+     */
+    static PageRequest toPageRequest(int page, int size, String sort, String cursor) {
+        if (page < 0) {
+            throw new FileFind400Exception("page must not be negative");
+        }
+        if (size < 1) {
+            throw new FileFind400Exception("size must be positive");
+        }
+        // in long, as page * size may overflow an int
+        if ((cursor == null ? (page + 1L) * size : size) > MAX_RESULT_WINDOW) {
+            throw new FileFind400Exception("page and size must not reach past the first " + MAX_RESULT_WINDOW +
+                    " files, use cursor to page further");
+        }
+        if (sort == null) {
+            return PageRequest.of(page, size);
+        }
+        final String[] keyAndDirection = sort.split(",", -1);
+        final String key = keyAndDirection[0].trim();
+        if (!FileCustomRepository.SORT_FIELDS.containsKey(key)) {
+            throw new FileFind400Exception("sort must be one of size, name, created");
+        }
+        if (keyAndDirection.length == 1) {
+            return PageRequest.of(page, size, Sort.by(key));
+        }
+        final Optional<Sort.Direction> direction = keyAndDirection.length == 2 ?
+                Sort.Direction.fromOptionalString(keyAndDirection[1].trim()) :
+                Optional.empty();
+        return PageRequest.of(page, size, Sort.by(direction
+                .orElseThrow(() -> new FileFind400Exception("sort direction must be one of asc, desc")), key));
     }
 }
@@ -0,0 +1,70 @@
+package com.papenko.filestorage.controller;
+
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.exception.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * turns exceptions of {@link FileController} and {@link ReactiveFileController} into {@link ErrorMessage} responses
+ */
+@RestControllerAdvice(assignableTypes = {FileController.class, ReactiveFileController.class})
+public class FileExceptionHandler {
+
+    @ExceptionHandler(FileUpload400Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileUpload400Exception e) {
+        return ResponseEntity.badRequest().body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileFind404Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileFind404Exception e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileDelete400Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileDelete400Exception e) {
+        return ResponseEntity.badRequest().body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileDelete404Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileDelete404Exception e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileUpdateTags404Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileUpdateTags404Exception e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileUpdateTags400Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileUpdateTags400Exception e) {
+        return ResponseEntity.badRequest().body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileDeleteTags404Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileDeleteTags404Exception e) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileDeleteTags400Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileDeleteTags400Exception e) {
+        return ResponseEntity.badRequest().body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileFind400Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileFind400Exception e) {
+        return ResponseEntity.badRequest().body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileIngest429Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileIngest429Exception e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).body(new ErrorMessage(false, e.getMessage()));
+    }
+
+    @ExceptionHandler(FileIngest504Exception.class)
+    public ResponseEntity<ErrorMessage> handleException(FileIngest504Exception e) {
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(new ErrorMessage(false, e.getMessage()));
+    }
+}
@@ -1,5 +1,7 @@
 package com.papenko.filestorage.controller;
 
+import com.papenko.filestorage.dto.ConnectionPoolStats;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -8,9 +10,25 @@ import org.springframework.web.bind.annotation.RestController;
 @RestController
 @RequestMapping("health")
 public class HealthController {
+    private final PoolingNHttpClientConnectionManager elasticsearchConnectionManager;
+
+    public HealthController(PoolingNHttpClientConnectionManager elasticsearchConnectionManager) {
+        this.elasticsearchConnectionManager = elasticsearchConnectionManager;
+    }
 
     @GetMapping("ping")
     public ResponseEntity<String> ping() {
         return ResponseEntity.ok("pong");
     }
+
+    /**
+     * Usage of the Elasticsearch connection pool. A steadily non-zero "pending" means requests wait for a connection,
+     * and file-storage.elasticsearch.max-connections-* should be raised.
+     */
+    @GetMapping("elasticsearch")
+    public ResponseEntity<ConnectionPoolStats> elasticsearch() {
+        final var stats = elasticsearchConnectionManager.getTotalStats();
+        return ResponseEntity.ok(new ConnectionPoolStats(stats.getLeased(), stats.getPending(), stats.getAvailable(),
+                stats.getMax()));
+    }
 }
@@ -0,0 +1,67 @@
+package com.papenko.filestorage.controller;
+
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.RolloverReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.repository.FileIndexManager;
+import com.papenko.filestorage.service.FileService;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+@RestController
+@Profile("!memory & !reactive")
+@RequestMapping("admin/index")
+public class IndexController {
+    private final FileIndexManager fileIndexManager;
+    private final FileService fileService;
+
+    public IndexController(FileIndexManager fileIndexManager, FileService fileService) {
+        this.fileIndexManager = fileIndexManager;
+        this.fileService = fileService;
+    }
+
+    /**
+     * Rolls the write index over to a new backing index if it meets file-storage.index.rollover.* conditions,
+     * meant to be called periodically. Listings and edits keep covering files of every backing index.
+     *
+     * @param force true to roll over regardless of the conditions
+     */
+    @PostMapping("_rollover")
+    public ResponseEntity<RolloverReport> rollover(@RequestParam(defaultValue = "false") boolean force)
+            throws IOException {
+        return ResponseEntity.ok(fileIndexManager.rollover(force));
+    }
+
+    /**
+     * Starts storing the category of files indexed before it was kept, so that filtering listings by category finds
+     * them, and returns the task doing it right away. Meant to be called once after upgrading; calling it again only
+     * visits files that still have none.
+     */
+    @PostMapping("_backfill-category")
+    public ResponseEntity<UpdateByQueryTask> backfillCategories() {
+        final UpdateByQueryTask task = fileService.backfillCategories();
+        return ResponseEntity.status(task.isCompleted() ? HttpStatus.OK : HttpStatus.ACCEPTED).body(task);
+    }
+
+    /**
+     * @param task ID returned by {@link #backfillCategories()}
+     */
+    @GetMapping("_tasks/{task}")
+    public ResponseEntity<ResponseEntityBody> getUpdateByQueryTask(@PathVariable String task) {
+        final UpdateByQueryTask status = fileService.getUpdateByQueryTask(task);
+        if (status == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new ErrorMessage(false, "task not found"));
+        }
+        return ResponseEntity.ok(status);
+    }
+}
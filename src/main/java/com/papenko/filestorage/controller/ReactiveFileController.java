@@ -0,0 +1,208 @@
+package com.papenko.filestorage.controller;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.papenko.filestorage.dto.*;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileDeleteTags400Exception;
+import com.papenko.filestorage.exception.FileUpdateTags400Exception;
+import com.papenko.filestorage.exception.FileUpload400Exception;
+import com.papenko.filestorage.service.ReactiveFileService;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.codec.DecodingException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.papenko.filestorage.controller.FileController.APPLICATION_NDJSON_VALUE;
+
+/**
+ * the endpoints of {@link FileController} on WebFlux, active with the "reactive" profile
+ */
+@RestController
+@RequestMapping("file")
+@Profile("reactive")
+public class ReactiveFileController {
+    private final ReactiveFileService fileService;
+    private final ObjectMapper objectMapper;
+
+    public ReactiveFileController(ReactiveFileService fileService, ObjectMapper objectMapper) {
+        this.fileService = fileService;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * @param ack only checked, as there is no ingest queue in this variant: every file is stored once this returns
+     */
+    @PostMapping
+    public Mono<ResponseEntity<Id>> upload(@RequestBody Mono<File> file,
+                                           @RequestParam(defaultValue = "flush") String ack) {
+        return Mono.fromRunnable(() -> FileController.parseAck(ack, FileUpload400Exception::new))
+                .then(file)
+                .onErrorMap(ReactiveFileController::isMalformedBody,
+                        e -> new FileUpload400Exception("request body is malformed"))
+                .flatMap(fileService::uploadFile)
+                .map(uploadedFile -> ResponseEntity.ok(new Id(uploadedFile.getId())));
+    }
+
+    /**
+     * Accepts either a JSON array of files or newline delimited JSON with one file per line. A file that can't be read
+     * ends the upload and is reported as the last item, like in {@link FileController#bulkUpload}; only a body in
+     * which no file can be read is refused, with nothing stored.
+     */
+    @PostMapping(value = "_bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE})
+    public Mono<ResponseEntity<BulkReport>> bulkUpload(@RequestBody Flux<File> files) {
+        final AtomicBoolean read = new AtomicBoolean();
+        return fileService.uploadFiles(files
+                .doOnNext(file -> read.set(true))
+                .map(Optional::of)
+                .onErrorResume(ReactiveFileController::isMalformedBody, e -> read.get() ?
+                        Mono.just(Optional.empty()) :
+                        Mono.error(new FileUpload400Exception("request body is malformed"))))
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * Reads newline delimited JSON and writes back {@link Id} or {@link ErrorMessage} per non-empty line, in order of
+     * lines, as newline delimited JSON. Lines are read only as fast as batches of them are stored, and a malformed
+     * line fails alone, like in {@link FileController#importFiles}. Typed as wildcard, since the JSON encoder refuses
+     * the {@link ResponseEntityBody} marker interface but writes each element by its own class.
+     */
+    @PostMapping(value = "_import", consumes = APPLICATION_NDJSON_VALUE, produces = APPLICATION_NDJSON_VALUE)
+    public Flux<?> importFiles(@RequestBody Flux<String> lines) {
+        final ObjectReader fileReader = objectMapper.readerFor(File.class);
+        return fileService.importFiles(lines
+                .filter(line -> !line.isBlank())
+                .map(line -> {
+                    try {
+                        return Optional.of(fileReader.readValue(line));
+                    } catch (JsonProcessingException e) {
+                        return Optional.empty();
+                    }
+                }));
+    }
+
+    private static boolean isMalformedBody(Throwable e) {
+        return e instanceof DecodingException || e instanceof ServerWebInputException;
+    }
+
+    /**
+     * counts files per tag, including the category tags assigned on upload, among files matching tags and q
+     */
+    @GetMapping("tags")
+    public Mono<ResponseEntity<TagCounts>> countTags(@RequestParam(required = false) List<String> tags,
+                                                     @RequestParam(required = false) String q,
+                                                     @RequestParam(defaultValue = "100") int size) {
+        return fileService.countTags(tags, q, size).map(ResponseEntity::ok);
+    }
+
+    /**
+     * size statistics and the largest files among files matching tags and q, optionally per tag as well
+     */
+    @GetMapping("_stats")
+    public Mono<ResponseEntity<FileStats>> stats(@RequestParam(required = false) List<String> tags,
+                                                 @RequestParam(required = false) String q,
+                                                 @RequestParam(defaultValue = "10") int top,
+                                                 @RequestParam(defaultValue = "false") boolean byTag,
+                                                 @RequestParam(defaultValue = "100") int size) {
+        return fileService.stats(tags, q, top, byTag, size).map(ResponseEntity::ok);
+    }
+
+    @GetMapping("{ID}")
+    public Mono<ResponseEntity<File>> findById(@PathVariable(name = "ID") String id) {
+        return fileService.findById(id).map(ResponseEntity::ok);
+    }
+
+    /**
+     * @param refresh "true" (default) refreshes the index right away, "wait_for" waits for the next refresh,
+     *                "false" returns without making the deletion visible to searches yet
+     */
+    @DeleteMapping("{ID}")
+    public Mono<ResponseEntity<SuccessStatus>> delete(@PathVariable(name = "ID") String id,
+                                                      @RequestParam(defaultValue = "true") String refresh) {
+        return Mono.fromSupplier(() -> FileController.parseRefreshPolicy(refresh))
+                .flatMap(refreshPolicy -> fileService.delete(id, refreshPolicy))
+                .thenReturn(ResponseEntity.ok(new SuccessStatus(true)));
+    }
+
+    /**
+     * @param ack like in {@link #upload}
+     */
+    @PostMapping("{ID}/tags")
+    public Mono<ResponseEntity<SuccessStatus>> postTags(@PathVariable(name = "ID") String id,
+                                                        @RequestBody List<String> tags,
+                                                        @RequestParam(defaultValue = "flush") String ack) {
+        return Mono.fromRunnable(() -> FileController.parseAck(ack, FileUpdateTags400Exception::new))
+                .then(Mono.defer(() -> fileService.updateTags(id, tags)))
+                .thenReturn(ResponseEntity.ok(new SuccessStatus(true)));
+    }
+
+    /**
+     * @param ack like in {@link #upload}
+     */
+    @DeleteMapping("{ID}/tags")
+    public Mono<ResponseEntity<SuccessStatus>> deleteTags(@PathVariable(name = "ID") String id,
+                                                          @RequestBody List<String> tags,
+                                                          @RequestParam(defaultValue = "flush") String ack) {
+        return Mono.fromRunnable(() -> FileController.parseAck(ack, FileDeleteTags400Exception::new))
+                .then(Mono.defer(() -> fileService.deleteTags(id, tags)))
+                .thenReturn(ResponseEntity.ok(new SuccessStatus(true)));
+    }
+
+    /**
+     * adds tags to the files with the given IDs, reporting per file, or to all files matching the filter
+     */
+    @PostMapping("_tags")
+    public Mono<ResponseEntity<?>> postTagsOfMany(@RequestBody TagsEdit edit) {
+        return fileService.updateTagsOfMany(edit).map(ResponseEntity::ok);
+    }
+
+    /**
+     * removes tags from the files with the given IDs, reporting per file, or from all files matching the filter
+     */
+    @DeleteMapping("_tags")
+    public Mono<ResponseEntity<?>> deleteTagsOfMany(@RequestBody TagsEdit edit) {
+        return fileService.deleteTagsOfMany(edit).map(ResponseEntity::ok);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<SlimFilePage>> findByTagsAndName(@RequestParam(required = false) List<String> tags,
+                                                                @RequestParam(required = false) String q,
+                                                                @RequestParam(required = false) String category,
+                                                                @RequestParam(defaultValue = "0") int page,
+                                                                @RequestParam(defaultValue = "10") int size,
+                                                                @RequestParam(required = false) String sort,
+                                                                @RequestParam(required = false) String cursor) {
+        return Mono.fromSupplier(() -> FileController.toPageRequest(page, size, sort, cursor))
+                .flatMap(pageable -> fileService.findPageByTagsAndName(tags, pageable, q, category, cursor))
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * all matching files as newline delimited JSON, written as fast as the client reads them
+     */
+    @GetMapping(produces = APPLICATION_NDJSON_VALUE)
+    public Flux<File> streamByTagsAndName(@RequestParam(required = false) List<String> tags,
+                                          @RequestParam(required = false) String q,
+                                          @RequestParam(required = false) String category) {
+        return fileService.streamByTagsAndName(tags, q, category);
+    }
+
+    /**
+     * same as {@link #streamByTagsAndName}, at the path of the export of the MVC variant
+     */
+    @GetMapping(value = "_export", produces = APPLICATION_NDJSON_VALUE)
+    public Flux<File> export(@RequestParam(required = false) List<String> tags,
+                             @RequestParam(required = false) String q) {
+        return fileService.streamByTagsAndName(tags, q, null);
+    }
+}
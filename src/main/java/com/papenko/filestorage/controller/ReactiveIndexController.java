@@ -0,0 +1,69 @@
+package com.papenko.filestorage.controller;
+
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.RolloverReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.repository.FileIndexManager;
+import com.papenko.filestorage.service.ReactiveFileService;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * non-blocking counterpart of {@link IndexController}
+ */
+@RestController
+@Profile("reactive")
+@RequestMapping("admin/index")
+public class ReactiveIndexController {
+    private final FileIndexManager fileIndexManager;
+    private final ReactiveFileService fileService;
+
+    public ReactiveIndexController(FileIndexManager fileIndexManager, ReactiveFileService fileService) {
+        this.fileIndexManager = fileIndexManager;
+        this.fileService = fileService;
+    }
+
+    /**
+     * {@link FileIndexManager} only has the blocking client, so the rollover runs on a thread meant for blocking
+     * rather than on an event loop
+     *
+     * @see IndexController#rollover
+     */
+    @PostMapping("_rollover")
+    public Mono<ResponseEntity<RolloverReport>> rollover(@RequestParam(defaultValue = "false") boolean force) {
+        return Mono.fromCallable(() -> fileIndexManager.rollover(force))
+                .subscribeOn(Schedulers.boundedElastic())
+                .map(ResponseEntity::ok);
+    }
+
+    /**
+     * @see IndexController#backfillCategories
+     */
+    @PostMapping("_backfill-category")
+    public Mono<ResponseEntity<UpdateByQueryTask>> backfillCategories() {
+        return fileService.backfillCategories()
+                .map(task -> ResponseEntity.status(HttpStatus.ACCEPTED).body(task));
+    }
+
+    /**
+     * @see IndexController#getUpdateByQueryTask
+     */
+    @GetMapping(value = "_tasks/{task}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<ResponseEntityBody>> getUpdateByQueryTask(@PathVariable String task) {
+        return fileService.getUpdateByQueryTask(task)
+                .<ResponseEntity<ResponseEntityBody>>map(ResponseEntity::ok)
+                .defaultIfEmpty(ResponseEntity.status(HttpStatus.NOT_FOUND)
+                        .body(new ErrorMessage(false, "task not found")));
+    }
+}
@@ -0,0 +1,27 @@
+package com.papenko.filestorage.dto;
+
+import java.util.List;
+
+public class BulkReport implements ResponseEntityBody {
+    /**
+     * true if at least one item failed
+     */
+    private final boolean errors;
+    /**
+     * {@link Id} or {@link ErrorMessage} per item, in order of the request
+     */
+    private final List<ResponseEntityBody> items;
+
+    public BulkReport(List<ResponseEntityBody> items) {
+        this.errors = items.stream().anyMatch(ErrorMessage.class::isInstance);
+        this.items = items;
+    }
+
+    public boolean getErrors() {
+        return errors;
+    }
+
+    public List<ResponseEntityBody> getItems() {
+        return items;
+    }
+}
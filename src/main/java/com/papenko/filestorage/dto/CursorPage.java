@@ -0,0 +1,50 @@
+package com.papenko.filestorage.dto;
+
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.util.List;
+
+/**
+ * page that also carries an opaque cursor pointing right after its last element
+ * and tells whether its total is exact or only a lower bound
+ */
+public class CursorPage<T> extends PageImpl<T> {
+    private final long total;
+    private final boolean totalExact;
+    private final String next;
+
+    public CursorPage(List<T> content, Pageable pageable, long total, boolean totalExact, String next) {
+        super(content, pageable, total);
+        this.total = total;
+        this.totalExact = totalExact;
+        this.next = next;
+    }
+
+    /**
+     * unlike {@link PageImpl}, never derives the total from the offset, which is meaningless for cursor pages
+     */
+    @Override
+    public long getTotalElements() {
+        return total;
+    }
+
+    @Override
+    public int getTotalPages() {
+        return getSize() == 0 ? 1 : (int) Math.ceil((double) total / (double) getSize());
+    }
+
+    /**
+     * @return false if the total is a lower bound because counting stopped at the configured threshold
+     */
+    public boolean isTotalExact() {
+        return totalExact;
+    }
+
+    /**
+     * @return cursor for the next page or null if this page is the last one
+     */
+    public String getNext() {
+        return next;
+    }
+}
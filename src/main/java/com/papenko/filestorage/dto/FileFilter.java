@@ -0,0 +1,30 @@
+package com.papenko.filestorage.dto;
+
+import java.util.List;
+
+/**
+ * selects files like the tags and q parameters of {@code GET /file}
+ */
+public class FileFilter {
+    /**
+     * only files containing all of them are selected, if present
+     */
+    private final List<String> tags;
+    /**
+     * only files whose name contains it ignoring case are selected, if present
+     */
+    private final String q;
+
+    public FileFilter(List<String> tags, String q) {
+        this.tags = tags;
+        this.q = q;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public String getQ() {
+        return q;
+    }
+}
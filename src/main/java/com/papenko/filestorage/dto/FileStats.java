@@ -0,0 +1,79 @@
+package com.papenko.filestorage.dto;
+
+import com.papenko.filestorage.entity.File;
+
+import java.util.List;
+import java.util.Map;
+
+public class FileStats implements ResponseEntityBody {
+    /**
+     * number of matching files
+     */
+    private final long count;
+    /**
+     * total size of matching files in bytes
+     */
+    private final long sum;
+    /**
+     * min, max and avg size, null if no file matches
+     */
+    private final Long min;
+    private final Long max;
+    private final Double avg;
+    /**
+     * approximate size below which the given percent of files are, e.g. "99": 4096.0; empty if no file matches
+     */
+    private final Map<String, Double> percentiles;
+    /**
+     * the largest matching files, largest first
+     */
+    private final List<File> largest;
+    /**
+     * the same statistics per tag, most frequent first, if grouped by tag; null otherwise
+     */
+    private final Map<String, FileStats> tags;
+
+    public FileStats(long count, long sum, Long min, Long max, Double avg, Map<String, Double> percentiles,
+                     List<File> largest, Map<String, FileStats> tags) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.avg = avg;
+        this.percentiles = percentiles;
+        this.largest = largest;
+        this.tags = tags;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public Long getMin() {
+        return min;
+    }
+
+    public Long getMax() {
+        return max;
+    }
+
+    public Double getAvg() {
+        return avg;
+    }
+
+    public Map<String, Double> getPercentiles() {
+        return percentiles;
+    }
+
+    public List<File> getLargest() {
+        return largest;
+    }
+
+    public Map<String, FileStats> getTags() {
+        return tags;
+    }
+}
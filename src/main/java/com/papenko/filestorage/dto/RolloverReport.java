@@ -0,0 +1,42 @@
+package com.papenko.filestorage.dto;
+
+import java.util.Map;
+
+public class RolloverReport implements ResponseEntityBody {
+    private final boolean rolledOver;
+    /**
+     * write index before the rollover
+     */
+    private final String oldIndex;
+    /**
+     * write index after the rollover, if rolled over
+     */
+    private final String newIndex;
+    /**
+     * whether each configured condition was met, e.g. "[max_docs: 10000000]": true
+     */
+    private final Map<String, Boolean> conditions;
+
+    public RolloverReport(boolean rolledOver, String oldIndex, String newIndex, Map<String, Boolean> conditions) {
+        this.rolledOver = rolledOver;
+        this.oldIndex = oldIndex;
+        this.newIndex = newIndex;
+        this.conditions = conditions;
+    }
+
+    public boolean isRolledOver() {
+        return rolledOver;
+    }
+
+    public String getOldIndex() {
+        return oldIndex;
+    }
+
+    public String getNewIndex() {
+        return newIndex;
+    }
+
+    public Map<String, Boolean> getConditions() {
+        return conditions;
+    }
+}
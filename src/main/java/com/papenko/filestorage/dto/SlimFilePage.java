@@ -6,18 +6,30 @@ import java.util.List;
 
 public class SlimFilePage {
     private final long total;
+    private final boolean totalExact;
     private final List<File> page;
+    private final String next;
 
-    public SlimFilePage(long total, List<File> page) {
+    public SlimFilePage(long total, boolean totalExact, List<File> page, String next) {
         this.total = total;
+        this.totalExact = totalExact;
         this.page = page;
+        this.next = next;
     }
 
     public long getTotal() {
         return total;
     }
 
+    public boolean isTotalExact() {
+        return totalExact;
+    }
+
     public List<File> getPage() {
         return page;
     }
+
+    public String getNext() {
+        return next;
+    }
 }
@@ -0,0 +1,27 @@
+package com.papenko.filestorage.dto;
+
+import java.util.Map;
+
+public class TagCounts implements ResponseEntityBody {
+    /**
+     * number of matching files per tag, most frequent first
+     */
+    private final Map<String, Long> tags;
+    /**
+     * sum of the counts of the tags left out because of the requested size
+     */
+    private final long other;
+
+    public TagCounts(Map<String, Long> tags, long other) {
+        this.tags = tags;
+        this.other = other;
+    }
+
+    public Map<String, Long> getTags() {
+        return tags;
+    }
+
+    public long getOther() {
+        return other;
+    }
+}
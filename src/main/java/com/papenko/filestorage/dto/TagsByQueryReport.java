@@ -0,0 +1,42 @@
+package com.papenko.filestorage.dto;
+
+import java.util.Map;
+
+public class TagsByQueryReport implements ResponseEntityBody {
+    /**
+     * number of files that needed the edit
+     */
+    private final long total;
+    private final long updated;
+    /**
+     * files skipped because they were modified while being edited, editing them again is safe
+     */
+    private final long versionConflicts;
+    /**
+     * error message per ID of a file that could not be edited
+     */
+    private final Map<String, String> failures;
+
+    public TagsByQueryReport(long total, long updated, long versionConflicts, Map<String, String> failures) {
+        this.total = total;
+        this.updated = updated;
+        this.versionConflicts = versionConflicts;
+        this.failures = failures;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public long getUpdated() {
+        return updated;
+    }
+
+    public long getVersionConflicts() {
+        return versionConflicts;
+    }
+
+    public Map<String, String> getFailures() {
+        return failures;
+    }
+}
@@ -0,0 +1,30 @@
+package com.papenko.filestorage.dto;
+
+import java.util.List;
+
+/**
+ * tags to add to or remove from either the files with the given IDs or all files matching the filter
+ */
+public class TagsEdit {
+    private final List<String> ids;
+    private final FileFilter filter;
+    private final List<String> tags;
+
+    public TagsEdit(List<String> ids, FileFilter filter, List<String> tags) {
+        this.ids = ids;
+        this.filter = filter;
+        this.tags = tags;
+    }
+
+    public List<String> getIds() {
+        return ids;
+    }
+
+    public FileFilter getFilter() {
+        return filter;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+}
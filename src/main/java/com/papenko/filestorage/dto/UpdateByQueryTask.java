@@ -0,0 +1,40 @@
+package com.papenko.filestorage.dto;
+
+public class UpdateByQueryTask implements ResponseEntityBody {
+    /**
+     * ID of the Elasticsearch task running the update by query, "node:number"; null if it ran to completion at once
+     */
+    private final String task;
+    private final boolean completed;
+    /**
+     * counts once completed, null while running or if it failed as a whole
+     */
+    private final TagsByQueryReport report;
+    /**
+     * why it failed as a whole, null unless it did
+     */
+    private final String error;
+
+    public UpdateByQueryTask(String task, boolean completed, TagsByQueryReport report, String error) {
+        this.task = task;
+        this.completed = completed;
+        this.report = report;
+        this.error = error;
+    }
+
+    public String getTask() {
+        return task;
+    }
+
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    public TagsByQueryReport getReport() {
+        return report;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -1,7 +1,5 @@
 package com.papenko.filestorage.entity;
 
-import java.util.Arrays;
-
 public enum AudioFormat {
     A_01(".3gp"),
     A_02(".aa"),
@@ -59,8 +57,6 @@ public enum AudioFormat {
     }
 
     public static boolean isAudioFormat(String fileName) {
-        final String lowerCase = fileName.toLowerCase();
-        return Arrays.stream(values())
-                .anyMatch(audioFormat -> lowerCase.endsWith(audioFormat.extension));
+        return (ExtensionClassifier.formatsOf(fileName) & ExtensionClassifier.AUDIO) != 0;
     }
 }
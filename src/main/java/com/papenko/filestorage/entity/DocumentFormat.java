@@ -1,7 +1,5 @@
 package com.papenko.filestorage.entity;
 
-import java.util.Arrays;
-
 public enum DocumentFormat {
     D_01(".doc"),
     D_02(".docx"),
@@ -27,8 +25,6 @@ public enum DocumentFormat {
     }
 
     public static boolean isDocumentFormat(String fileName) {
-        final String lowerCase = fileName.toLowerCase();
-        return Arrays.stream(values())
-                .anyMatch(documentFormat -> lowerCase.endsWith(documentFormat.extension));
+        return (ExtensionClassifier.formatsOf(fileName) & ExtensionClassifier.DOCUMENT) != 0;
     }
 }
@@ -0,0 +1,134 @@
+package com.papenko.filestorage.entity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Lookup table from file extension to the formats it belongs to, built once from {@link DocumentFormat},
+ * {@link VideoFormat}, {@link ImageFormat} and {@link AudioFormat}.
+ * Lookups hash the extension in place, ignoring case, so they neither copy nor lowercase the file name.
+ */
+public final class ExtensionClassifier {
+    static final int DOCUMENT = 1;
+    static final int VIDEO = 1 << 1;
+    static final int IMAGE = 1 << 2;
+    static final int AUDIO = 1 << 3;
+
+    /**
+     * category tags in order of precedence, indexed by the number of trailing zeros of the format bit
+     */
+    private static final String[] CATEGORIES = {"document", "video", "image", "audio"};
+
+    /**
+     * open addressing table: extension without dot in lower case and bits of all formats it belongs to
+     */
+    private static final String[] KEYS;
+    private static final int[] FORMATS;
+    private static final int MASK;
+    private static final int MAX_EXTENSION_LENGTH;
+
+    static {
+        final List<String> extensions = new ArrayList<>();
+        final List<Integer> formats = new ArrayList<>();
+        for (DocumentFormat format : DocumentFormat.values()) {
+            add(extensions, formats, format.getExtension(), DOCUMENT);
+        }
+        for (VideoFormat format : VideoFormat.values()) {
+            add(extensions, formats, format.getExtension(), VIDEO);
+        }
+        for (ImageFormat format : ImageFormat.values()) {
+            add(extensions, formats, format.getExtension(), IMAGE);
+        }
+        for (AudioFormat format : AudioFormat.values()) {
+            add(extensions, formats, format.getExtension(), AUDIO);
+        }
+
+        final int capacity = Integer.highestOneBit(extensions.size() * 4 - 1) << 1;
+        KEYS = new String[capacity];
+        FORMATS = new int[capacity];
+        MASK = capacity - 1;
+        int maxLength = 0;
+        for (int i = 0; i < extensions.size(); i++) {
+            final String extension = extensions.get(i);
+            int slot = slot(hash(extension, 0));
+            while (KEYS[slot] != null) {
+                slot = (slot + 1) & MASK;
+            }
+            KEYS[slot] = extension;
+            FORMATS[slot] = formats.get(i);
+            maxLength = Math.max(maxLength, extension.length());
+        }
+        MAX_EXTENSION_LENGTH = maxLength;
+    }
+
+    private ExtensionClassifier() {
+    }
+
+    /**
+     * @return "document", "video", "image" or "audio" (first matching in this order) or null if the extension of
+     * the file name belongs to none of the formats
+     */
+    public static String categoryOf(String fileName) {
+        final int formats = formatsOf(fileName);
+        return formats == 0 ? null : CATEGORIES[Integer.numberOfTrailingZeros(formats)];
+    }
+
+    /**
+     * @return {@link #categoryOf} per extension without dot in lower case, for classifying files where this class
+     * is not available, e.g. in scripts run by Elasticsearch
+     */
+    public static Map<String, String> categoriesByExtension() {
+        final Map<String, String> categories = new HashMap<>();
+        for (int slot = 0; slot < KEYS.length; slot++) {
+            if (KEYS[slot] != null) {
+                categories.put(KEYS[slot], CATEGORIES[Integer.numberOfTrailingZeros(FORMATS[slot])]);
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * @return bits of all formats the extension of the file name belongs to, 0 if none
+     */
+    static int formatsOf(String fileName) {
+        final int start = fileName.lastIndexOf('.') + 1;
+        final int length = fileName.length() - start;
+        if (start == 0 || length == 0 || length > MAX_EXTENSION_LENGTH) {
+            return 0;
+        }
+        int slot = slot(hash(fileName, start));
+        while (KEYS[slot] != null) {
+            if (KEYS[slot].length() == length && KEYS[slot].regionMatches(true, 0, fileName, start, length)) {
+                return FORMATS[slot];
+            }
+            slot = (slot + 1) & MASK;
+        }
+        return 0;
+    }
+
+    private static void add(List<String> extensions, List<Integer> formats, String dottedExtension, int format) {
+        final String extension = dottedExtension.substring(1).toLowerCase(Locale.ROOT);
+        final int index = extensions.indexOf(extension);
+        if (index < 0) {
+            extensions.add(extension);
+            formats.add(format);
+        } else {
+            formats.set(index, formats.get(index) | format);
+        }
+    }
+
+    private static int hash(String value, int start) {
+        int hash = 0;
+        for (int i = start; i < value.length(); i++) {
+            hash = 31 * hash + Character.toLowerCase(value.charAt(i));
+        }
+        return hash;
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & MASK;
+    }
+}
@@ -1,64 +1,106 @@
 package com.papenko.filestorage.entity;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.annotation.PersistenceConstructor;
+import org.springframework.data.elasticsearch.annotations.DateFormat;
 import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Field;
+import org.springframework.data.elasticsearch.annotations.FieldType;
+import org.springframework.data.elasticsearch.annotations.Mapping;
+import org.springframework.data.elasticsearch.annotations.Setting;
 
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.stream.Collectors;
 
-@Document(indexName = "file")
+/**
+ * The index is created, and checked against its mapping, by {@code FileIndexManager} rather than by the repository.
+ * Its name is the alias files are read through, which spans all backing indices.
+ */
+@Document(indexName = "file", createIndex = false)
+@Setting(settingPath = "elasticsearch/file-settings.json")
+@Mapping(mappingPath = "elasticsearch/file-mapping.json")
 public class File {
     @Id
     private final String id;
+    /**
+     * only stored as doc values; "name.trigram" holds lowercase 3-grams for substring search,
+     * "name.lowercase" is the whole lowercase name for queries shorter than a trigram
+     */
     private final String name;
     /**
      * file size in bytes
      */
     private final Long size;
+    /**
+     * keyword field normalized to lowercase, so that tag filters match case-insensitively
+     */
     private final List<String> tags;
+    /**
+     * upload time, assigned when the file is indexed unless it is given, e.g. by importing an export;
+     * only the format of the conversion is taken from the annotation, the mapping is in file-mapping.json
+     */
+    @Field(type = FieldType.Date, format = DateFormat.custom, pattern = "epoch_millis")
+    private final Instant createdAt;
+    /**
+     * "document", "video", "image" or "audio" by the extension of the name, also added to the tags, or null;
+     * kept apart from the tags so that removing tags never removes it. Never taken from requests.
+     */
+    @JsonProperty(access = JsonProperty.Access.READ_ONLY)
+    private final String category;
 
     public File(String id, String name, Long size, List<String> tags) {
+        this(id, name, size, tags, null);
+    }
+
+    @JsonCreator
+    public File(String id, String name, Long size, List<String> tags, Instant createdAt) {
         this.id = id;
         this.name = name;
         this.size = size;
-        Optional<String> firstTag = Optional.empty();
-        if (name != null) {
-            firstTag = defineFirstTagIfApplicable();
-        }
+        this.category = name == null ? null : ExtensionClassifier.categoryOf(name);
+        final String firstTag = category;
         List<String> newTags;
-        if (firstTag.isEmpty()) {
+        if (firstTag == null) {
             newTags = tags == null ? List.of() : tags;
         } else {
             newTags = tags == null ?
                     new ArrayList<>(1) :
                     new ArrayList<>(tags);
-            newTags.add(firstTag.get());
+            newTags.add(firstTag);
         }
         this.tags = tags == null ?
                 newTags :
-                List.copyOf(newTags.stream()
-                        .map(String::toLowerCase)
-                        .distinct()
-                        .collect(Collectors.toList()));
+                normalizeTags(newTags);
+        this.createdAt = createdAt;
     }
 
-    private Optional<String> defineFirstTagIfApplicable() {
-        if (DocumentFormat.isDocumentFormat(name)) {
-            return Optional.of("document");
-        }
-        if (VideoFormat.isVideoFormat(name)) {
-            return Optional.of("video");
-        }
-        if (ImageFormat.isImageFormat(name)) {
-            return Optional.of("image");
-        }
-        if (AudioFormat.isAudioFormat(name)) {
-            return Optional.of("audio");
-        }
-        return Optional.empty();
+    /**
+     * Takes the tags as they are stored, so that a category tag removed from them stays removed. Files indexed before
+     * categories were stored get the category of their name.
+     */
+    @PersistenceConstructor
+    private File(String id, String name, Long size, List<String> tags, Instant createdAt, String category) {
+        this.id = id;
+        this.name = name;
+        this.size = size;
+        this.tags = tags == null ? List.of() : tags;
+        this.createdAt = createdAt;
+        this.category = category != null || name == null ? category : ExtensionClassifier.categoryOf(name);
+    }
+
+    /**
+     * @return immutable copy of tags in lower case without duplicates
+     */
+    public static List<String> normalizeTags(List<String> tags) {
+        return List.copyOf(tags.stream()
+                .map(String::toLowerCase)
+                .distinct()
+                .collect(Collectors.toList()));
     }
 
     public String getId() {
@@ -77,8 +119,28 @@ public class File {
         return tags;
     }
 
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
     public File withTags(List<String> newTags) {
-        return new File(id, name, size, newTags);
+        return new File(id, name, size, newTags, createdAt);
+    }
+
+    /**
+     * @param storedTags tags already normalized and holding the category tag only if it wasn't removed
+     * @return copy with exactly these tags and the same category, as it reads back once the tags are stored
+     */
+    public File withStoredTags(List<String> storedTags) {
+        return new File(id, name, size, List.copyOf(storedTags), createdAt, category);
+    }
+
+    public File withCreatedAt(Instant newCreatedAt) {
+        return new File(id, name, size, tags, newCreatedAt);
     }
 
     @Override
@@ -93,11 +155,13 @@ public class File {
         return Objects.equals(id, file.id) &&
                 Objects.equals(name, file.name) &&
                 Objects.equals(size, file.size) &&
-                Objects.equals(tags, file.tags);
+                Objects.equals(tags, file.tags) &&
+                Objects.equals(createdAt, file.createdAt) &&
+                Objects.equals(category, file.category);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, name, size, tags);
+        return Objects.hash(id, name, size, tags, createdAt, category);
     }
 }
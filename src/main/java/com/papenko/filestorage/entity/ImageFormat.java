@@ -1,7 +1,5 @@
 package com.papenko.filestorage.entity;
 
-import java.util.Arrays;
-
 public enum ImageFormat {
     I_01(".jpg"),
     I_02(".jpeg"),
@@ -48,8 +46,6 @@ public enum ImageFormat {
     }
 
     public static boolean isImageFormat(String fileName) {
-        final String lowerCase = fileName.toLowerCase();
-        return Arrays.stream(values())
-                .anyMatch(imageFormat -> lowerCase.endsWith(imageFormat.extension));
+        return (ExtensionClassifier.formatsOf(fileName) & ExtensionClassifier.IMAGE) != 0;
     }
 }
@@ -1,7 +1,5 @@
 package com.papenko.filestorage.entity;
 
-import java.util.Arrays;
-
 public enum VideoFormat {
     V_01(".webm"),
     V_02(".mkv"),
@@ -56,8 +54,6 @@ public enum VideoFormat {
     }
 
     public static boolean isVideoFormat(String fileName) {
-        final String lowerCase = fileName.toLowerCase();
-        return Arrays.stream(values())
-                .anyMatch(videoFormat -> lowerCase.endsWith(videoFormat.extension));
+        return (ExtensionClassifier.formatsOf(fileName) & ExtensionClassifier.VIDEO) != 0;
     }
 }
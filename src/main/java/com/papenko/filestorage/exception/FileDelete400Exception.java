@@ -0,0 +1,7 @@
+package com.papenko.filestorage.exception;
+
+public class FileDelete400Exception extends RuntimeException {
+    public FileDelete400Exception(String errorMessage) {
+        super(errorMessage);
+    }
+}
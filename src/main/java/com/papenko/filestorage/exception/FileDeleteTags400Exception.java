@@ -4,4 +4,8 @@ public class FileDeleteTags400Exception extends RuntimeException {
     public FileDeleteTags400Exception() {
         super("tag not found on file");
     }
+
+    public FileDeleteTags400Exception(String errorMessage) {
+        super(errorMessage);
+    }
 }
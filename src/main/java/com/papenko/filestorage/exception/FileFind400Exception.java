@@ -0,0 +1,7 @@
+package com.papenko.filestorage.exception;
+
+public class FileFind400Exception extends RuntimeException {
+    public FileFind400Exception(String errorMessage) {
+        super(errorMessage);
+    }
+}
@@ -0,0 +1,7 @@
+package com.papenko.filestorage.exception;
+
+public class FileFind404Exception extends RuntimeException {
+    public FileFind404Exception() {
+        super("file not found");
+    }
+}
@@ -0,0 +1,7 @@
+package com.papenko.filestorage.exception;
+
+public class FileIngest429Exception extends RuntimeException {
+    public FileIngest429Exception() {
+        super("too many writes are waiting, retry later");
+    }
+}
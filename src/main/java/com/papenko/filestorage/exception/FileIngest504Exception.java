@@ -0,0 +1,7 @@
+package com.papenko.filestorage.exception;
+
+public class FileIngest504Exception extends RuntimeException {
+    public FileIngest504Exception() {
+        super("the write was not flushed in time, it may still be stored later");
+    }
+}
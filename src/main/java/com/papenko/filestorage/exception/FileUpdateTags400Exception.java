@@ -0,0 +1,7 @@
+package com.papenko.filestorage.exception;
+
+public class FileUpdateTags400Exception extends RuntimeException {
+    public FileUpdateTags400Exception(String errorMessage) {
+        super(errorMessage);
+    }
+}
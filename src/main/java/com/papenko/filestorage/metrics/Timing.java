@@ -0,0 +1,77 @@
+package com.papenko.filestorage.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Supplier;
+
+/**
+ * Times a call into a timer tagged with the operation and the simple class name of the exception it threw
+ * ("none" on success). Percentile histograms are switched on per timer name in application.properties.
+ */
+public final class Timing {
+    public static final String NO_EXCEPTION = "none";
+
+    private Timing() {
+    }
+
+    public static <T> T record(MeterRegistry registry, String name, String operationTag, String operation,
+                               Supplier<T> call) {
+        final Timer.Sample sample = Timer.start(registry);
+        String exception = NO_EXCEPTION;
+        try {
+            return call.get();
+        } catch (RuntimeException | Error e) {
+            exception = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            stop(sample, registry, name, operationTag, operation, exception);
+        }
+    }
+
+    public static void run(MeterRegistry registry, String name, String operationTag, String operation,
+                           Runnable call) {
+        record(registry, name, operationTag, operation, () -> {
+            call.run();
+            return null;
+        });
+    }
+
+    /**
+     * times the call from subscription until it completes or fails; a cancelled call isn't recorded
+     */
+    public static <T> Mono<T> mono(MeterRegistry registry, String name, String operationTag, String operation,
+                                   Mono<T> call) {
+        return Mono.defer(() -> {
+            final Timer.Sample sample = Timer.start(registry);
+            return call
+                    .doOnSuccess(value -> stop(sample, registry, name, operationTag, operation, NO_EXCEPTION))
+                    .doOnError(e -> stop(sample, registry, name, operationTag, operation,
+                            e.getClass().getSimpleName()));
+        });
+    }
+
+    /**
+     * @see #mono
+     */
+    public static <T> Flux<T> flux(MeterRegistry registry, String name, String operationTag, String operation,
+                                   Flux<T> call) {
+        return Flux.defer(() -> {
+            final Timer.Sample sample = Timer.start(registry);
+            return call
+                    .doOnComplete(() -> stop(sample, registry, name, operationTag, operation, NO_EXCEPTION))
+                    .doOnError(e -> stop(sample, registry, name, operationTag, operation,
+                            e.getClass().getSimpleName()));
+        });
+    }
+
+    private static void stop(Timer.Sample sample, MeterRegistry registry, String name, String operationTag,
+                             String operation, String exception) {
+        sample.stop(Timer.builder(name)
+                .tag(operationTag, operation)
+                .tag("exception", exception)
+                .register(registry));
+    }
+}
@@ -1,13 +1,169 @@
 package com.papenko.filestorage.repository;
 
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.Id;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
 import com.papenko.filestorage.entity.File;
-import org.springframework.data.domain.Page;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.support.WriteRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.repository.NoRepositoryBean;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 @NoRepositoryBean
 public interface FileCustomRepository {
-    Page<File> findAllByTagsContainingAllIn(List<String> tags, Pageable pageable, String name);
+    /**
+     * timer of every Elasticsearch request, tagged with operation and exception
+     */
+    String TIMER = "file.elasticsearch";
+    /**
+     * field each sort key of listings sorts on, all sorted on doc values
+     */
+    Map<String, String> SORT_FIELDS = Map.of("size", "size", "name", "name", "created", "createdAt");
+
+    /**
+     * finds the file in any backing index, including one indexed but not refreshed yet
+     *
+     * @return null if there is no such file
+     */
+    File findById(String id);
+
+    /**
+     * indexes the file into the write index and refreshes it, so that it is visible to searches once this returns;
+     * like every file indexed, it is created now unless it has a creation time
+     *
+     * @return the file with its creation time and the ID Elasticsearch assigned, if it had none
+     */
+    File index(File file);
+
+    /**
+     * @param pageable its sort holds keys of {@link #SORT_FIELDS}, ties are broken by ID
+     * @param category only files of it are found, if present
+     * @param cursor   value of {@link CursorPage#getNext()} of the previous page;
+     *               if present, the offset of pageable is ignored
+     */
+    CursorPage<File> findAllByTagsContainingAllIn(List<String> tags, Pageable pageable, String name, String category,
+                                                  String cursor);
+
+    /**
+     * Passes all matching files to the consumer in batches of the configured scroll size, in no particular order.
+     * Only one batch is held at a time, the next one is fetched once the consumer returns.
+     */
+    void scrollAllByTagsContainingAllIn(List<String> tags, String name, Consumer<List<File>> consumer);
+
+    /**
+     * counts files per tag with a single aggregation, without fetching any file
+     *
+     * @param tags only files containing all of them are counted, if present
+     * @param name only files whose name contains it are counted, if present
+     * @param size max number of the most frequent tags to return
+     */
+    TagCounts countTags(List<String> tags, String name, int size);
+
+    /**
+     * computes size statistics and the largest files with aggregations in one search, without fetching hits
+     *
+     * @param tags  only files containing all of them are counted, if present
+     * @param name  only files whose name contains it are counted, if present
+     * @param top   number of the largest files to return, 0 for none
+     * @param byTag true to compute the same statistics for each of the size most frequent tags as well
+     */
+    FileStats stats(List<String> tags, String name, int top, boolean byTag, int size);
+
+    /**
+     * indexes files with as few bulk requests as the configured request size in bytes allows
+     *
+     * @return {@link Id} of the stored file or {@link ErrorMessage} per file, in order of files
+     */
+    List<ResponseEntityBody> bulkIndex(List<File> files);
+
+    /**
+     * Applies writes of any type in order, with as few bulk requests as the configured request size in bytes allows.
+     * Tag edits behave like {@link #addTags(String, List)} and {@link #removeTags(String, List)}, except for
+     * refreshing.
+     *
+     * @param refreshPolicy NONE to return right away, WAIT_UNTIL to wait until the writes are visible to searches
+     * @return item per write, in order of writes; a tag edit of a missing file is a failed item with status NOT_FOUND
+     */
+    List<BulkItemResponse> bulkWrite(List<FileWrite> writes, WriteRequest.RefreshPolicy refreshPolicy);
+
+    /**
+     * adds tags missing on the file in a single scripted update, retrying on concurrent modification
+     *
+     * @param tags normalized tags
+     * @return UPDATED, NOOP if the file already had all the tags, or NOT_FOUND if there is no such file
+     */
+    DocWriteResponse.Result addTags(String id, List<String> tags);
+
+    /**
+     * removes tags from the file in a single scripted update, retrying on concurrent modification
+     *
+     * @param tags normalized tags
+     * @return UPDATED, NOOP if not all the tags are present on the file (then nothing is removed),
+     * or NOT_FOUND if there is no such file
+     */
+    DocWriteResponse.Result removeTags(String id, List<String> tags);
+
+    /**
+     * adds tags missing on each file with scripted updates sent in as few bulk requests as the configured request
+     * size in bytes allows, waiting for a refresh like {@link #addTags(String, List)}
+     *
+     * @param tags normalized tags
+     * @return item per ID, in order of ids; a missing file is a failed item with status NOT_FOUND
+     */
+    List<BulkItemResponse> addTags(List<String> ids, List<String> tags);
+
+    /**
+     * removes tags from each file like {@link #removeTags(String, List)}, in bulk requests like
+     * {@link #addTags(List, List)}
+     *
+     * @param tags normalized tags
+     * @return item per ID, in order of ids; NOOP if not all the tags are present on the file
+     */
+    List<BulkItemResponse> removeTags(List<String> ids, List<String> tags);
+
+    /**
+     * adds tags to every file matching the filter and missing any of them, with a sliced update by query, waiting
+     * until it has completed
+     *
+     * @param tags normalized tags
+     */
+    TagsByQueryReport addTagsByQuery(List<String> filterTags, String name, List<String> tags);
+
+    /**
+     * removes tags from every file matching the filter and containing all of them, with a sliced update by query,
+     * waiting until it has completed
+     *
+     * @param tags normalized tags
+     */
+    TagsByQueryReport removeTagsByQuery(List<String> filterTags, String name, List<String> tags);
+
+    /**
+     * stores the category of every file indexed before categories were kept, with a sliced update by query
+     *
+     * @return the task running it, see {@link #getUpdateByQueryTask}
+     */
+    UpdateByQueryTask backfillCategories();
+
+    /**
+     * @param task ID returned by {@link #backfillCategories()}
+     * @return whether it has completed and with what counts, null if there is no such task
+     */
+    UpdateByQueryTask getUpdateByQueryTask(String task);
+
+    /**
+     * deletes the file with a single delete request to the backing index holding it
+     *
+     * @return DELETED or NOT_FOUND if there is no such file
+     */
+    DocWriteResponse.Result delete(String id, WriteRequest.RefreshPolicy refreshPolicy);
 }
@@ -1,67 +1,530 @@
 package com.papenko.filestorage.repository;
 
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.Id;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
 import com.papenko.filestorage.entity.File;
-import org.elasticsearch.index.query.BoolQueryBuilder;
-import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageImpl;
+import com.papenko.filestorage.metrics.Timing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.domain.Pageable;
-import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
-import org.springframework.data.elasticsearch.core.SearchHitsIterator;
-import org.springframework.data.elasticsearch.core.query.NativeSearchQuery;
-import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
+import org.springframework.data.elasticsearch.core.ElasticsearchExceptionTranslator;
+import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate.ClientCallback;
+import org.springframework.data.elasticsearch.core.document.DocumentAdapters;
 import org.springframework.stereotype.Repository;
 
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-
-import static org.elasticsearch.index.query.QueryBuilders.*;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 @Repository
+@Profile("!memory")
 public class FileCustomRepositoryImpl implements FileCustomRepository {
-    private final ElasticsearchOperations operations;
+    private static final ElasticsearchExceptionTranslator EXCEPTION_TRANSLATOR = new ElasticsearchExceptionTranslator();
+
+    private final FileRequests requests;
+    private final RestHighLevelClient client;
+    private final FileIndexManager fileIndexManager;
+    /**
+     * how many times items rejected because Elasticsearch's write queue is full are resent, waiting exponentially
+     * longer each time starting from {@link #bulkRejectionBackoff}
+     */
+    private final int bulkRejectionRetries;
+    private final TimeValue bulkRejectionBackoff;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary searchHits;
+    private final DistributionSummary searchSkipped;
+    private final DistributionSummary bulkActions;
+    private final DistributionSummary bulkBytes;
+    private final DistributionSummary bulkFailures;
+    private final Counter bulkRejections;
 
-    public FileCustomRepositoryImpl(@Qualifier("elasticsearchOperations") ElasticsearchOperations operations) {
-        this.operations = operations;
+    public FileCustomRepositoryImpl(FileRequests requests,
+                                    RestHighLevelClient client,
+                                    FileIndexManager fileIndexManager,
+                                    @Value("${file-storage.bulk.rejection-retries:8}") int bulkRejectionRetries,
+                                    @Value("${file-storage.bulk.rejection-backoff-millis:50}")
+                                            long bulkRejectionBackoffMillis,
+                                    MeterRegistry meterRegistry) {
+        this.requests = requests;
+        this.client = client;
+        this.fileIndexManager = fileIndexManager;
+        this.bulkRejectionRetries = bulkRejectionRetries;
+        this.bulkRejectionBackoff = TimeValue.timeValueMillis(bulkRejectionBackoffMillis);
+        this.meterRegistry = meterRegistry;
+        this.searchHits = DistributionSummary.builder("file.search.hits")
+                .description("hits returned per listing")
+                .register(meterRegistry);
+        this.searchSkipped = DistributionSummary.builder("file.search.skipped")
+                .description("hits Elasticsearch collected and skipped per offset-paginated listing")
+                .register(meterRegistry);
+        this.bulkActions = DistributionSummary.builder("file.bulk.actions")
+                .description("files per bulk request")
+                .register(meterRegistry);
+        this.bulkBytes = DistributionSummary.builder("file.bulk.bytes")
+                .description("estimated size of a bulk request")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bulkFailures = DistributionSummary.builder("file.bulk.failures")
+                .description("files rejected per bulk request")
+                .register(meterRegistry);
+        this.bulkRejections = Counter.builder("file.bulk.rejections")
+                .description("bulk items rejected by a full write queue and resent")
+                .register(meterRegistry);
     }
 
+    /**
+     * The file is got in real time from the write index, which holds all recent files. Only if it's missing there and
+     * there are older backing indices, it is searched for, as a get can't go through an alias spanning several indices.
+     */
     @Override
-    public Page<File> findAllByTagsContainingAllIn(List<String> tags, Pageable pageable, String name) {
-        try (var closeableIterator = operations.searchForStream(getQueryBuilder(tags, name), File.class)) {
-            return convertToPage(closeableIterator, pageable);
+    public File findById(String id) {
+        final GetRequest getRequest = new GetRequest(requests.getWriteIndexName(), id);
+        final GetResponse response = execute("get", restClient -> restClient.get(getRequest, RequestOptions.DEFAULT));
+        if (response.isExists()) {
+            return requests.convertToFile(DocumentAdapters.from(response));
+        }
+        if (!isRolledOver()) {
+            return null;
         }
+        final SearchRequest request = new SearchRequest(requests.getReadIndexName())
+                .source(requests.getByIdSourceBuilder(id));
+        final SearchHit[] hits = execute("getBySearch", restClient ->
+                restClient.search(request, RequestOptions.DEFAULT)).getHits().getHits();
+        return hits.length > 0 ? requests.convertToFiles(hits).get(0) : null;
+    }
+
+    @Override
+    public File index(File file) {
+        final File created = FileRequests.withCreatedAt(file);
+        final IndexRequest request = requests.toIndexRequest(created, findIndicesOfSuppliedIds(List.of(created)))
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        final String id = execute("index", restClient -> restClient.index(request, RequestOptions.DEFAULT).getId());
+        return new File(id, created.getName(), created.getSize(), created.getTags(), created.getCreatedAt());
     }
 
-    Page<File> convertToPage(SearchHitsIterator<File> iterator, Pageable pageable) {
-        for (int i = 0; i < pageable.getOffset() && iterator.hasNext(); i++) {
-            iterator.next();
+    /**
+     * Single document requests can't go through an alias spanning several indices, so the backing index holding a
+     * file is searched for. A file the search misses is either not refreshed yet, which only a file just written to
+     * the write index can be, or missing.
+     *
+     * @return backing index per ID of the files found, none for an empty list
+     */
+    Map<String, String> findIndices(Collection<String> ids) {
+        final Map<String, String> indices = new HashMap<>();
+        final List<String> pending = new ArrayList<>(ids);
+        for (int from = 0; from < pending.size(); from += FileRequests.MAX_IDS_PER_LOOKUP) {
+            final List<String> lookup =
+                    pending.subList(from, Math.min(from + FileRequests.MAX_IDS_PER_LOOKUP, pending.size()));
+            final SearchRequest request = new SearchRequest(requests.getReadIndexName())
+                    .source(requests.getIndicesSourceBuilder(lookup));
+            final SearchResponse response = execute("findIndices", restClient ->
+                    restClient.search(request, RequestOptions.DEFAULT));
+            for (SearchHit hit : response.getHits().getHits()) {
+                indices.put(hit.getId(), hit.getIndex());
+            }
         }
+        return indices;
+    }
 
-        List<File> result = new ArrayList<>(pageable.getPageSize());
+    /**
+     * Looks up the backing indices of the files with supplied IDs, unless there is only the write index.
+     *
+     * @return backing index per ID of the files found, see {@link #findIndices}
+     */
+    private Map<String, String> findIndicesOfSuppliedIds(List<File> files) {
+        final List<String> ids = FileRequests.getSuppliedIds(files);
+        return ids.isEmpty() || !isRolledOver() ? Map.of() : findIndices(ids);
+    }
 
-        for (int i = 0; i < pageable.getPageSize() && iterator.hasNext(); i++) {
-            result.add(iterator.next().getContent());
+    /**
+     * @see FileIndexManager#isRolledOver
+     */
+    private boolean isRolledOver() {
+        final Boolean rolledOver = fileIndexManager.isRolledOver();
+        if (rolledOver != null) {
+            return rolledOver;
         }
+        final GetAliasesRequest request = new GetAliasesRequest(requests.getReadIndexName());
+        final int backingIndices = execute("getAlias", restClient ->
+                restClient.indices().getAlias(request, RequestOptions.DEFAULT).getAliases().size());
+        fileIndexManager.setBackingIndices(backingIndices);
+        return backingIndices > 1;
+    }
 
-        return new PageImpl<>(result, pageable, result.size());
+    /**
+     * Sends a single document edit to the write index, which holds all recent files, and only if it misses the file
+     * there to the older backing index holding it, see {@link FileRequests#getMissedPositions}.
+     *
+     * @param send sends the edit to the given index
+     */
+    private DocWriteResponse.Result edit(String id, Function<String, DocWriteResponse.Result> send) {
+        final DocWriteResponse.Result result = send.apply(requests.getWriteIndexName());
+        if (result != DocWriteResponse.Result.NOT_FOUND) {
+            return result;
+        }
+        final String index = findIndices(List.of(id)).get(id);
+        return index == null ? result : send.apply(index);
     }
 
-    NativeSearchQuery getQueryBuilder(List<String> tags, String name) {
-        NativeSearchQueryBuilder searchQueryBuilder = new NativeSearchQueryBuilder();
-        BoolQueryBuilder boolQueryBuilder = boolQuery();
+    @Override
+    public CursorPage<File> findAllByTagsContainingAllIn(List<String> tags, Pageable pageable, String name,
+                                                         String category, String cursor) {
+        final SearchRequest request = new SearchRequest(requests.getReadIndexName())
+                .source(requests.getSearchSourceBuilder(tags, pageable, name, category, cursor));
+        final SearchResponse response = execute("search", restClient ->
+                restClient.search(request, RequestOptions.DEFAULT));
+        final CursorPage<File> page = requests.convertToPage(response, pageable);
+        searchHits.record(page.getNumberOfElements());
+        if (cursor == null) {
+            searchSkipped.record(pageable.getOffset());
+        }
+        return page;
+    }
 
-        if (tags != null) {
-            for (String tag : tags) {
-                boolQueryBuilder.must(termQuery("tags", tag));
+    @Override
+    public void scrollAllByTagsContainingAllIn(List<String> tags, String name, Consumer<List<File>> consumer) {
+        final SearchRequest request = new SearchRequest(requests.getReadIndexName())
+                .source(requests.getScrollSourceBuilder(tags, name, null))
+                .scroll(FileRequests.SCROLL_KEEP_ALIVE);
+        SearchResponse response = execute("scroll", restClient -> restClient.search(request, RequestOptions.DEFAULT));
+        try {
+            while (response.getHits().getHits().length > 0) {
+                consumer.accept(requests.convertToFiles(response.getHits().getHits()));
+                final SearchScrollRequest next = new SearchScrollRequest(response.getScrollId())
+                        .scroll(FileRequests.SCROLL_KEEP_ALIVE);
+                response = execute("scroll", restClient -> restClient.scroll(next, RequestOptions.DEFAULT));
             }
+        } finally {
+            clearScroll(response.getScrollId());
         }
+    }
 
-        if (name != null) {
-            boolQueryBuilder.must(regexpQuery("name", ".*" + name + ".*"));
+    private void clearScroll(String scrollId) {
+        final ClearScrollRequest request = new ClearScrollRequest();
+        request.addScrollId(scrollId);
+        try {
+            execute("clearScroll", restClient -> restClient.clearScroll(request, RequestOptions.DEFAULT));
+        } catch (RuntimeException e) {
+            // the scroll expires after its keep-alive anyway, and the original failure matters more
         }
+    }
+
+    @Override
+    public TagCounts countTags(List<String> tags, String name, int size) {
+        final SearchRequest request = new SearchRequest(requests.getReadIndexName())
+                .source(requests.getTagCountsSourceBuilder(tags, name, size));
+        final SearchResponse response = execute("countTags", restClient ->
+                restClient.search(request, RequestOptions.DEFAULT));
+        return requests.convertToTagCounts(response);
+    }
+
+    @Override
+    public FileStats stats(List<String> tags, String name, int top, boolean byTag, int size) {
+        final SearchRequest request = new SearchRequest(requests.getReadIndexName())
+                .source(requests.getStatsSourceBuilder(tags, name, top, byTag, size));
+        final SearchResponse response = execute("stats", restClient ->
+                restClient.search(request, RequestOptions.DEFAULT));
+        return requests.convertToStats(response, byTag);
+    }
 
-        searchQueryBuilder.withFilter(boolQueryBuilder);
+    @Override
+    public List<ResponseEntityBody> bulkIndex(List<File> files) {
+        List<ResponseEntityBody> results = new ArrayList<>(files.size());
 
-        return searchQueryBuilder.build();
+        final Map<String, String> indices = findIndicesOfSuppliedIds(files);
+        for (BulkRequest bulkRequest : requests.toBulkRequests(files, indices)) {
+            for (BulkItemResponse item : bulk("bulk", bulkRequest)) {
+                if (item.isFailed()) {
+                    results.add(new ErrorMessage(false, item.getFailureMessage()));
+                } else {
+                    results.add(new Id(item.getId()));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public List<BulkItemResponse> bulkWrite(List<FileWrite> writes, WriteRequest.RefreshPolicy refreshPolicy) {
+        final List<File> files = new ArrayList<>();
+        for (FileWrite write : writes) {
+            if (write.getType() == FileWrite.Type.INDEX && !write.isGeneratedId()) {
+                files.add(write.getFile());
+            }
+        }
+        final Map<String, String> indices = findIndicesOfSuppliedIds(files);
+        return bulkUpdate("bulkWrite", requests.toWritesBulkRequests(writes, indices, refreshPolicy));
+    }
+
+    @Override
+    public DocWriteResponse.Result addTags(String id, List<String> tags) {
+        return edit(id, index -> update("addTags",
+                requests.getTagsUpdateRequest(index, id, FileRequests.ADD_TAGS_SCRIPT, tags)));
+    }
+
+    @Override
+    public DocWriteResponse.Result removeTags(String id, List<String> tags) {
+        return edit(id, index -> update("removeTags",
+                requests.getTagsUpdateRequest(index, id, FileRequests.REMOVE_TAGS_SCRIPT, tags)));
+    }
+
+    @Override
+    public List<BulkItemResponse> addTags(List<String> ids, List<String> tags) {
+        return bulkUpdate("bulkAddTags",
+                requests.toTagsBulkRequests(ids, Map.of(), FileRequests.ADD_TAGS_SCRIPT, tags));
+    }
+
+    @Override
+    public List<BulkItemResponse> removeTags(List<String> ids, List<String> tags) {
+        return bulkUpdate("bulkRemoveTags",
+                requests.toTagsBulkRequests(ids, Map.of(), FileRequests.REMOVE_TAGS_SCRIPT, tags));
+    }
+
+    /**
+     * sends the requests, then the edits that missed their file in the write index to the backing index holding it
+     */
+    private List<BulkItemResponse> bulkUpdate(String operation, List<BulkRequest> bulkRequests) {
+        final List<BulkItemResponse> items = new ArrayList<>();
+        for (BulkRequest bulkRequest : bulkRequests) {
+            items.addAll(bulk(operation, bulkRequest));
+        }
+        final List<Integer> missed = FileRequests.getMissedPositions(items);
+        if (missed.isEmpty()) {
+            return items;
+        }
+        final List<String> missedIds = new ArrayList<>(missed.size());
+        for (int position : missed) {
+            missedIds.add(items.get(position).getId());
+        }
+        final Map<Integer, DocWriteRequest<?>> redirected =
+                FileRequests.redirect(bulkRequests, missed, findIndices(missedIds));
+        final Iterator<Integer> positions = redirected.keySet().iterator();
+        for (BulkRequest bulkRequest :
+                requests.toBulkRequests(redirected.values(), bulkRequests.get(0).getRefreshPolicy())) {
+            for (BulkItemResponse item : bulk(operation, bulkRequest)) {
+                items.set(positions.next(), item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Sends the bulk request, then resends the items Elasticsearch rejected with 429 because its write queue was full,
+     * backing off exponentially, so that the caller is held back instead of losing them while the cluster catches up.
+     *
+     * @return item per request, in order of requests; still rejected ones once retries are exhausted
+     */
+    List<BulkItemResponse> bulk(String operation, BulkRequest bulkRequest) {
+        final BulkItemResponse[] items = new BulkItemResponse[bulkRequest.numberOfActions()];
+        final Iterator<TimeValue> backoff = BackoffPolicy
+                .exponentialBackoff(bulkRejectionBackoff, bulkRejectionRetries).iterator();
+        List<Integer> positions = null;
+        BulkRequest request = bulkRequest;
+        while (true) {
+            bulkActions.record(request.numberOfActions());
+            bulkBytes.record(request.estimatedSizeInBytes());
+            final BulkRequest sent = request;
+            final BulkResponse response = execute(operation, restClient ->
+                    restClient.bulk(sent, RequestOptions.DEFAULT));
+            final List<Integer> rejected = new ArrayList<>();
+            int failures = 0;
+            for (BulkItemResponse item : response.getItems()) {
+                final int position = positions == null ? item.getItemId() : positions.get(item.getItemId());
+                items[position] = item;
+                if (item.isFailed()) {
+                    failures++;
+                    if (item.status() == RestStatus.TOO_MANY_REQUESTS) {
+                        rejected.add(position);
+                    }
+                }
+            }
+            bulkFailures.record(failures);
+            if (rejected.isEmpty() || !backoff.hasNext() || !sleep(backoff.next())) {
+                return Arrays.asList(items);
+            }
+            bulkRejections.increment(rejected.size());
+            request = new BulkRequest().setRefreshPolicy(bulkRequest.getRefreshPolicy());
+            for (int position : rejected) {
+                request.add(bulkRequest.requests().get(position));
+            }
+            positions = rejected;
+        }
+    }
+
+    /**
+     * @return false if interrupted
+     */
+    private static boolean sleep(TimeValue delay) {
+        try {
+            Thread.sleep(delay.millis());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public TagsByQueryReport addTagsByQuery(List<String> filterTags, String name, List<String> tags) {
+        return awaitUpdateByQuery("addTagsByQuery", requests.getAddTagsByQueryRequest(filterTags, name, tags));
+    }
+
+    @Override
+    public TagsByQueryReport removeTagsByQuery(List<String> filterTags, String name, List<String> tags) {
+        return awaitUpdateByQuery("removeTagsByQuery", requests.getRemoveTagsByQueryRequest(filterTags, name, tags));
+    }
+
+    @Override
+    public UpdateByQueryTask backfillCategories() {
+        return new UpdateByQueryTask(submitUpdateByQuery("backfillCategories", requests.getCategoryBackfillRequest()),
+                false, null, null);
+    }
+
+    /**
+     * The high level client only waits for the response, so the task is submitted through the low level one,
+     * see {@link FileRequests#toUpdateByQueryTaskRequest}.
+     *
+     * @return ID of the task
+     */
+    private String submitUpdateByQuery(String operation, UpdateByQueryRequest request) {
+        return execute(operation, restClient -> {
+            final Response response =
+                    restClient.getLowLevelClient().performRequest(FileRequests.toUpdateByQueryTaskRequest(request));
+            try (InputStream body = response.getEntity().getContent()) {
+                return FileRequests.parseTask(XContentHelper.convertToMap(XContentType.JSON.xContent(), body, false));
+            }
+        });
+    }
+
+    /**
+     * Waits for the update by query by checking its task every now and then, each check well within the socket
+     * timeout however long the update takes.
+     */
+    private TagsByQueryReport awaitUpdateByQuery(String operation, UpdateByQueryRequest request) {
+        final String task = submitUpdateByQuery(operation, request);
+        TimeValue pause = FileRequests.FIRST_TASK_POLL;
+        UpdateByQueryTask status = getUpdateByQueryTask(task);
+        while (status != null && !status.isCompleted()) {
+            if (!sleep(pause)) {
+                throw new UncategorizedElasticsearchException("interrupted while waiting for task " + task, null);
+            }
+            pause = FileRequests.nextTaskPoll(pause);
+            status = getUpdateByQueryTask(task);
+        }
+        return FileRequests.toTagsByQueryReport(task, status);
+    }
+
+    @Override
+    public UpdateByQueryTask getUpdateByQueryTask(String task) {
+        final Request request = FileRequests.getTaskRequest(task);
+        return execute("getUpdateByQueryTask", restClient -> {
+            final Response response;
+            try {
+                response = restClient.getLowLevelClient().performRequest(request);
+            } catch (ResponseException e) {
+                // also for IDs that aren't node:number
+                if (e.getResponse().getStatusLine().getStatusCode() == RestStatus.NOT_FOUND.getStatus() ||
+                        e.getResponse().getStatusLine().getStatusCode() == RestStatus.BAD_REQUEST.getStatus()) {
+                    return null;
+                }
+                throw e;
+            }
+            try (InputStream body = response.getEntity().getContent()) {
+                return FileRequests.toUpdateByQueryTask(task,
+                        XContentHelper.convertToMap(XContentType.JSON.xContent(), body, false));
+            }
+        });
+    }
+
+    @Override
+    public DocWriteResponse.Result delete(String id, WriteRequest.RefreshPolicy refreshPolicy) {
+        return edit(id, index -> delete(new DeleteRequest(index, id).setRefreshPolicy(refreshPolicy)));
+    }
+
+    private DocWriteResponse.Result delete(DeleteRequest request) {
+        return execute("delete", restClient -> {
+            try {
+                return restClient.delete(request, RequestOptions.DEFAULT).getResult();
+            } catch (ElasticsearchStatusException e) {
+                if (e.status() == RestStatus.NOT_FOUND) {
+                    return DocWriteResponse.Result.NOT_FOUND;
+                }
+                throw e;
+            }
+        });
+    }
+
+    private DocWriteResponse.Result update(String operation, UpdateRequest request) {
+        return execute(operation, restClient -> {
+            try {
+                return restClient.update(request, RequestOptions.DEFAULT).getResult();
+            } catch (ElasticsearchStatusException e) {
+                if (e.status() == RestStatus.NOT_FOUND) {
+                    return DocWriteResponse.Result.NOT_FOUND;
+                }
+                throw e;
+            }
+        });
+    }
+
+    private <T> T execute(String operation, ClientCallback<T> callback) {
+        return Timing.record(meterRegistry, TIMER, "operation", operation, () -> {
+            try {
+                return callback.doWithClient(client);
+            } catch (RuntimeException e) {
+                final DataAccessException translated = EXCEPTION_TRANSLATOR.translateExceptionIfPossible(e);
+                throw translated == null ? e : translated;
+            } catch (Exception e) {
+                throw new UncategorizedElasticsearchException(e.getMessage(), e);
+            }
+        });
     }
 }
@@ -0,0 +1,296 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.RolloverReport;
+import com.papenko.filestorage.entity.File;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.indices.CreateIndexRequest;
+import org.elasticsearch.client.indices.GetIndexRequest;
+import org.elasticsearch.client.indices.GetMappingsRequest;
+import org.elasticsearch.client.indices.PutMappingRequest;
+import org.elasticsearch.client.indices.rollover.RolloverRequest;
+import org.elasticsearch.client.indices.rollover.RolloverResponse;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.elasticsearch.core.ElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.ResourceUtil;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Files live in backing indices "file-000001", "file-000002" and so on. The index name of {@link File} is the read
+ * alias spanning all of them, the write alias {@link #WRITE_ALIAS_SUFFIX "-write"} points at the newest one only,
+ * which {@link #rollover} replaces with a new one once it holds enough files.
+ * <p>
+ * Creates the first backing index with both aliases, the mapping and analysis settings shipped with the app and
+ * shard, replica and refresh settings from properties, all in one request, so that no file is ever indexed with
+ * a dynamic mapping. If the aliases exist, fields missing in the mapping of a backing index are added, while startup
+ * fails when other parts of the mapping or the number of shards differ from the expected ones, as that takes
+ * a reindex to fix; replicas and refresh interval are updated in place.
+ */
+@Component
+@Profile("!memory")
+public class FileIndexManager {
+    static final String SETTINGS_PATH = "elasticsearch/file-settings.json";
+    static final String MAPPING_PATH = "elasticsearch/file-mapping.json";
+    static final String SHARDS = "index.number_of_shards";
+    static final String REPLICAS = "index.number_of_replicas";
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+    static final String WRITE_ALIAS_SUFFIX = "-write";
+    /**
+     * Elasticsearch increments the number to name the backing indices rolled over to
+     */
+    static final String FIRST_INDEX_SUFFIX = "-000001";
+    /**
+     * how long a read alias found to span a single backing index is trusted, so how long a rollover by another
+     * instance may go unnoticed, see {@link #isRolledOver}
+     */
+    static final long ROLLOVER_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ElasticsearchOperations operations;
+    private final RestHighLevelClient client;
+    /**
+     * false leaves the indices and aliases to be managed outside the app
+     */
+    private final boolean enabled;
+    private final int shards;
+    private final int replicas;
+    private final String refreshInterval;
+    /**
+     * the write index is rolled over once it holds this many files, 0 for no such condition
+     */
+    private final long rolloverMaxDocs;
+    /**
+     * the write index is rolled over once its primary shards are this large, null for no such condition
+     */
+    private final ByteSizeValue rolloverMaxSize;
+    /**
+     * true once the read alias spans several backing indices; only a rollover adds one, so it never turns false
+     */
+    private volatile boolean rolledOver;
+    /**
+     * {@link System#nanoTime} when the read alias was last found to span a single backing index, null if never
+     */
+    private volatile Long singleIndexCheckedAt;
+
+    public FileIndexManager(@Qualifier("elasticsearchOperations") ElasticsearchOperations operations,
+                            RestHighLevelClient client,
+                            @Value("${file-storage.index.initialize:true}") boolean enabled,
+                            @Value("${file-storage.index.shards:1}") int shards,
+                            @Value("${file-storage.index.replicas:1}") int replicas,
+                            @Value("${file-storage.index.refresh-interval:1s}") String refreshInterval,
+                            @Value("${file-storage.index.rollover.max-docs:0}") long rolloverMaxDocs,
+                            @Value("${file-storage.index.rollover.max-size:50gb}") String rolloverMaxSize) {
+        this.operations = operations;
+        this.client = client;
+        this.enabled = enabled;
+        this.shards = shards;
+        this.replicas = replicas;
+        this.refreshInterval = refreshInterval;
+        this.rolloverMaxDocs = rolloverMaxDocs;
+        this.rolloverMaxSize = rolloverMaxSize.isEmpty() ?
+                null :
+                ByteSizeValue.parseBytesSizeValue(rolloverMaxSize, "file-storage.index.rollover.max-size");
+    }
+
+    static String getWriteAlias(String readAlias) {
+        return readAlias + WRITE_ALIAS_SUFFIX;
+    }
+
+    @PostConstruct
+    public void initialize() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        final String readAlias = operations.getIndexCoordinatesFor(File.class).getIndexName();
+        final String writeAlias = getWriteAlias(readAlias);
+        final String mapping = ResourceUtil.readFileFromClasspath(MAPPING_PATH);
+        if (!client.indices().existsAlias(new GetAliasesRequest(writeAlias), RequestOptions.DEFAULT)) {
+            if (client.indices().exists(new GetIndexRequest(readAlias), RequestOptions.DEFAULT)) {
+                throw new IllegalStateException(readAlias + " exists without alias " + writeAlias + ", reindex it " +
+                        "into " + readAlias + FIRST_INDEX_SUFFIX + " with aliases " + readAlias + " and " + writeAlias);
+            }
+            try {
+                client.indices().create(new CreateIndexRequest(readAlias + FIRST_INDEX_SUFFIX)
+                        .settings(getSettings())
+                        .mapping(mapping, XContentType.JSON)
+                        .alias(new Alias(readAlias))
+                        .alias(new Alias(writeAlias)), RequestOptions.DEFAULT);
+                return;
+            } catch (ElasticsearchStatusException e) {
+                // another instance may have created it in the meantime, then it is checked like any existing index
+                if (e.status() != RestStatus.BAD_REQUEST || !e.getMessage().contains("resource_already_exists")) {
+                    throw e;
+                }
+            }
+        }
+        checkMapping(readAlias, mapping);
+        checkSettings(readAlias);
+    }
+
+    /**
+     * Replaces the write index with a new backing index, created like the first one, if it meets any of the
+     * configured conditions. Files already written stay where they are and are still read through the read alias.
+     *
+     * @param force true to roll over regardless of the conditions
+     */
+    public RolloverReport rollover(boolean force) throws IOException {
+        final String readAlias = operations.getIndexCoordinatesFor(File.class).getIndexName();
+        final RolloverRequest request = new RolloverRequest(getWriteAlias(readAlias), null);
+        if (!force) {
+            if (rolloverMaxDocs > 0) {
+                request.addMaxIndexDocsCondition(rolloverMaxDocs);
+            }
+            if (rolloverMaxSize != null) {
+                request.addMaxIndexSizeCondition(rolloverMaxSize);
+            }
+        }
+        request.getCreateIndexRequest()
+                .settings(getSettings())
+                .mapping(ResourceUtil.readFileFromClasspath(MAPPING_PATH), XContentType.JSON)
+                .alias(new Alias(readAlias));
+        final RolloverResponse response = client.indices().rollover(request, RequestOptions.DEFAULT);
+        if (response.isRolledOver()) {
+            rolledOver = true;
+        }
+        return new RolloverReport(response.isRolledOver(), response.getOldIndex(), response.getNewIndex(),
+                response.getConditionStatus());
+    }
+
+    /**
+     * Files with supplied IDs only have to be looked up in other backing indices than the write index, so that they
+     * aren't stored twice, once there is more than one.
+     *
+     * @return whether the read alias spans several backing indices, null if it has to be checked and passed to
+     * {@link #setBackingIndices} first
+     */
+    Boolean isRolledOver() {
+        if (rolledOver) {
+            return true;
+        }
+        final Long checkedAt = singleIndexCheckedAt;
+        return checkedAt != null && System.nanoTime() - checkedAt < ROLLOVER_CHECK_INTERVAL_NANOS ? false : null;
+    }
+
+    /**
+     * @param count number of backing indices the read alias spans
+     */
+    void setBackingIndices(int count) {
+        if (count > 1) {
+            rolledOver = true;
+        } else {
+            singleIndexCheckedAt = System.nanoTime();
+        }
+    }
+
+    Settings getSettings() {
+        return Settings.builder()
+                .loadFromSource(ResourceUtil.readFileFromClasspath(SETTINGS_PATH), XContentType.JSON)
+                .put(SHARDS, shards)
+                .put(REPLICAS, replicas)
+                .put(REFRESH_INTERVAL, refreshInterval)
+                .build();
+    }
+
+    private void checkMapping(String index, String mapping) throws IOException {
+        final Map<String, Object> expected = XContentHelper
+                .convertToMap(new BytesArray(mapping), false, XContentType.JSON).v2();
+        final Map<String, MappingMetaData> mappings = client.indices()
+                .getMapping(new GetMappingsRequest().indices(index), RequestOptions.DEFAULT).mappings();
+        for (Map.Entry<String, MappingMetaData> entry : mappings.entrySet()) {
+            String drift = findDrift(expected, entry.getValue().sourceAsMap(), "");
+            if (drift != null) {
+                drift = putMapping(entry.getKey(), mapping, expected, drift);
+            }
+            if (drift != null) {
+                throw new IllegalStateException("mapping of index " + entry.getKey() + " differs from " +
+                        MAPPING_PATH + " at \"" + drift + "\", reindex into an index created with it");
+            }
+        }
+    }
+
+    /**
+     * Puts the expected mapping to the index, which Elasticsearch accepts if it only adds fields, as a newer version
+     * of the app does; documents indexed before just lack them.
+     *
+     * @return path of the first field that still differs, null if none does
+     */
+    private String putMapping(String index, String mapping, Map<String, Object> expected, String drift)
+            throws IOException {
+        try {
+            client.indices().putMapping(new PutMappingRequest(index).source(mapping, XContentType.JSON),
+                    RequestOptions.DEFAULT);
+        } catch (ElasticsearchStatusException e) {
+            if (e.status() == RestStatus.BAD_REQUEST) {
+                return drift;
+            }
+            throw e;
+        }
+        final MappingMetaData updated = client.indices()
+                .getMapping(new GetMappingsRequest().indices(index), RequestOptions.DEFAULT).mappings().get(index);
+        return findDrift(expected, updated.sourceAsMap(), "");
+    }
+
+    /**
+     * @return path of the first setting or field that differs, null if none does
+     */
+    static String findDrift(Map<?, ?> expected, Map<?, ?> actual, String path) {
+        final Set<Object> keys = new HashSet<>(expected.keySet());
+        keys.addAll(actual.keySet());
+        for (Object key : keys) {
+            final String keyPath = path.isEmpty() ? key.toString() : path + "." + key;
+            final Object expectedValue = expected.get(key);
+            final Object actualValue = actual.get(key);
+            if (expectedValue instanceof Map && actualValue instanceof Map) {
+                final String drift = findDrift((Map<?, ?>) expectedValue, (Map<?, ?>) actualValue, keyPath);
+                if (drift != null) {
+                    return drift;
+                }
+            } else if (!Objects.equals(String.valueOf(expectedValue), String.valueOf(actualValue))) {
+                return keyPath;
+            }
+        }
+        return null;
+    }
+
+    private void checkSettings(String index) throws IOException {
+        final GetSettingsResponse response = client.indices()
+                .getSettings(new GetSettingsRequest().indices(index), RequestOptions.DEFAULT);
+        for (Iterator<String> indices = response.getIndexToSettings().keysIt(); indices.hasNext(); ) {
+            final String concreteIndex = indices.next();
+            final String actualShards = response.getSetting(concreteIndex, SHARDS);
+            if (!String.valueOf(shards).equals(actualShards)) {
+                throw new IllegalStateException("index " + concreteIndex + " has " + actualShards +
+                        " shards instead of " + shards + ", reindex into an index created with them");
+            }
+            if (!String.valueOf(replicas).equals(response.getSetting(concreteIndex, REPLICAS)) ||
+                    !refreshInterval.equals(response.getSetting(concreteIndex, REFRESH_INTERVAL))) {
+                client.indices().putSettings(new UpdateSettingsRequest(concreteIndex).settings(Settings.builder()
+                        .put(REPLICAS, replicas)
+                        .put(REFRESH_INTERVAL, refreshInterval)), RequestOptions.DEFAULT);
+            }
+        }
+    }
+}
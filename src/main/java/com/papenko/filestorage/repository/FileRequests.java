@@ -0,0 +1,688 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.entity.ExtensionClassifier;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileFind400Exception;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Percentile;
+import org.elasticsearch.search.aggregations.metrics.Percentiles;
+import org.elasticsearch.search.aggregations.metrics.Stats;
+import org.elasticsearch.search.aggregations.metrics.TopHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
+import org.springframework.data.elasticsearch.core.convert.ElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.document.DocumentAdapters;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.elasticsearch.index.query.QueryBuilders.*;
+
+/**
+ * Builds the requests of {@link FileCustomRepositoryImpl} and {@link ReactiveFileCustomRepositoryImpl} and reads
+ * their responses, so that both stacks search and write exactly alike. It sends nothing, so it needs no client.
+ */
+@Component
+@Profile("!memory")
+public class FileRequests {
+    /**
+     * unique keyword field every listing is finally sorted by, so that search_after cursors are stable
+     */
+    static final String TIEBREAKER_FIELD = "id";
+    static final String CATEGORY_FIELD = "category";
+    private static final int TRIGRAM_LENGTH = 3;
+    /**
+     * how long Elasticsearch keeps a scroll open between two requests for its next batch
+     */
+    static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+    static final String TAG_COUNTS_AGGREGATION = "tags";
+    static final String SIZE_STATS_AGGREGATION = "size_stats";
+    static final String SIZE_PERCENTILES_AGGREGATION = "size_percentiles";
+    static final String LARGEST_FILES_AGGREGATION = "largest";
+    /**
+     * percents of files {@link FileCustomRepository#stats} reports the size below, like a latency histogram
+     */
+    static final double[] SIZE_PERCENTS = {50, 90, 95, 99};
+    static final String ADD_TAGS_SCRIPT = "" +
+            "if (ctx._source.tags == null) { ctx._source.tags = new ArrayList(); }" +
+            "boolean changed = false;" +
+            "for (tag in params.tags) {" +
+            "  if (!ctx._source.tags.contains(tag)) { ctx._source.tags.add(tag); changed = true; }" +
+            "}" +
+            "if (!changed) { ctx.op = 'none'; }";
+    static final String REMOVE_TAGS_SCRIPT = "" +
+            "if (ctx._source.tags == null || !ctx._source.tags.containsAll(params.tags)) { ctx.op = 'none'; }" +
+            "else { ctx._source.tags.removeAll(params.tags); }";
+    /**
+     * scripts of tag edits by query, whose query selects only the files they change, see
+     * {@link #getTagsUpdateByQueryRequest}
+     */
+    static final String ADD_MISSING_TAGS_SCRIPT = "" +
+            "if (ctx._source.tags == null) { ctx._source.tags = new ArrayList(); }" +
+            "for (tag in params.tags) {" +
+            "  if (!ctx._source.tags.contains(tag)) { ctx._source.tags.add(tag); }" +
+            "}";
+    static final String REMOVE_PRESENT_TAGS_SCRIPT = "ctx._source.tags.removeAll(params.tags);";
+    /**
+     * classifies a file indexed before categories were kept like {@link File} does, by the extension of its name
+     */
+    static final String BACKFILL_CATEGORY_SCRIPT = "" +
+            "String name = ctx._source.name;" +
+            "int dot = name == null ? -1 : name.lastIndexOf('.');" +
+            "String category = dot < 0 ? null : params.categories.get(name.substring(dot + 1).toLowerCase());" +
+            "if (category == null) { ctx.op = 'noop'; } else { ctx._source.category = category; }";
+    /**
+     * max number of IDs whose backing indices are looked up with one search, well below index.max_result_window
+     */
+    static final int MAX_IDS_PER_LOOKUP = 1000;
+    /**
+     * pauses between checks of whether an update by query awaited by the caller has completed, doubling from the first
+     */
+    static final TimeValue FIRST_TASK_POLL = TimeValue.timeValueMillis(50);
+    static final TimeValue LAST_TASK_POLL = TimeValue.timeValueSeconds(1);
+
+    private final ElasticsearchConverter converter;
+    /**
+     * hits are counted exactly up to this number, above it the total is a lower bound
+     */
+    private final int trackTotalHitsUpTo;
+    /**
+     * a bulk request is sent as soon as its estimated size reaches this number of bytes
+     */
+    private final long bulkMaxBytes;
+    /**
+     * how many times a scripted update is retried when the document is modified concurrently
+     */
+    private final int retryOnConflict;
+    /**
+     * number of files fetched per scroll request when exporting or streaming
+     */
+    private final int scrollSize;
+
+    public FileRequests(ElasticsearchConverter converter,
+                        @Value("${file-storage.search.track-total-hits-up-to:10000}") int trackTotalHitsUpTo,
+                        @Value("${file-storage.bulk.max-bytes:5242880}") long bulkMaxBytes,
+                        @Value("${file-storage.update.retry-on-conflict:5}") int retryOnConflict,
+                        @Value("${file-storage.stream.scroll-size:1000}") int scrollSize) {
+        this.converter = converter;
+        this.trackTotalHitsUpTo = trackTotalHitsUpTo;
+        this.bulkMaxBytes = bulkMaxBytes;
+        this.retryOnConflict = retryOnConflict;
+        this.scrollSize = scrollSize;
+    }
+
+    /**
+     * alias spanning all backing indices, see {@link FileIndexManager}
+     */
+    String getReadIndexName() {
+        return converter.getMappingContext().getRequiredPersistentEntity(File.class).getIndexCoordinates()
+                .getIndexName();
+    }
+
+    /**
+     * alias of the newest backing index, where new files are indexed
+     */
+    String getWriteIndexName() {
+        return FileIndexManager.getWriteAlias(getReadIndexName());
+    }
+
+    SearchSourceBuilder getByIdSourceBuilder(String id) {
+        return new SearchSourceBuilder()
+                .query(idsQuery().addIds(id))
+                .size(1)
+                .trackTotalHits(false);
+    }
+
+    /**
+     * @return the file created now, to the millisecond the field holds, unless it has a creation time
+     */
+    static File withCreatedAt(File file) {
+        return file.getCreatedAt() == null ? file.withCreatedAt(Instant.now().truncatedTo(ChronoUnit.MILLIS)) : file;
+    }
+
+    SearchSourceBuilder getIndicesSourceBuilder(Collection<String> ids) {
+        return new SearchSourceBuilder()
+                .query(idsQuery().addIds(ids.toArray(new String[0])))
+                .size(ids.size())
+                .fetchSource(false)
+                .trackTotalHits(false);
+    }
+
+    /**
+     * sorted by _doc, the cheapest order to scroll in
+     */
+    SearchSourceBuilder getScrollSourceBuilder(List<String> tags, String name, String category) {
+        return new SearchSourceBuilder()
+                .query(getQueryBuilder(tags, name, category))
+                .size(scrollSize)
+                .sort("_doc", SortOrder.ASC);
+    }
+
+    SearchSourceBuilder getTagCountsSourceBuilder(List<String> tags, String name, int size) {
+        return new SearchSourceBuilder()
+                .query(getQueryBuilder(tags, name))
+                .size(0)
+                .trackTotalHits(false)
+                .aggregation(AggregationBuilders.terms(TAG_COUNTS_AGGREGATION)
+                        .field("tags")
+                        .size(size));
+    }
+
+    TagCounts convertToTagCounts(SearchResponse response) {
+        final Terms terms = response.getAggregations().get(TAG_COUNTS_AGGREGATION);
+        final Map<String, Long> counts = new LinkedHashMap<>();
+        for (Terms.Bucket bucket : terms.getBuckets()) {
+            counts.put(bucket.getKeyAsString(), bucket.getDocCount());
+        }
+        return new TagCounts(counts, terms.getSumOfOtherDocCounts());
+    }
+
+    SearchSourceBuilder getStatsSourceBuilder(List<String> tags, String name, int top, boolean byTag, int size) {
+        final SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(getQueryBuilder(tags, name))
+                .size(0)
+                .trackTotalHits(false);
+        getSizeAggregations(top).forEach(source::aggregation);
+        if (byTag) {
+            final AggregationBuilder terms = AggregationBuilders.terms(TAG_COUNTS_AGGREGATION)
+                    .field("tags")
+                    .size(size);
+            getSizeAggregations(top).forEach(terms::subAggregation);
+            source.aggregation(terms);
+        }
+        return source;
+    }
+
+    /**
+     * the aggregations of one {@link FileStats}, all computed from doc values of size except the largest files
+     */
+    private static List<AggregationBuilder> getSizeAggregations(int top) {
+        final List<AggregationBuilder> aggregations = new ArrayList<>(3);
+        aggregations.add(AggregationBuilders.stats(SIZE_STATS_AGGREGATION).field("size"));
+        aggregations.add(AggregationBuilders.percentiles(SIZE_PERCENTILES_AGGREGATION)
+                .field("size")
+                .percentiles(SIZE_PERCENTS));
+        if (top > 0) {
+            aggregations.add(AggregationBuilders.topHits(LARGEST_FILES_AGGREGATION)
+                    .size(top)
+                    .sort("size", SortOrder.DESC)
+                    .sort(TIEBREAKER_FIELD, SortOrder.ASC));
+        }
+        return aggregations;
+    }
+
+    FileStats convertToStats(SearchResponse response, boolean byTag) {
+        final Aggregations aggregations = response.getAggregations();
+        Map<String, FileStats> tags = null;
+        if (byTag) {
+            final Terms terms = aggregations.get(TAG_COUNTS_AGGREGATION);
+            tags = new LinkedHashMap<>();
+            for (Terms.Bucket bucket : terms.getBuckets()) {
+                tags.put(bucket.getKeyAsString(), convertToStats(bucket.getAggregations(), null));
+            }
+        }
+        return convertToStats(aggregations, tags);
+    }
+
+    private FileStats convertToStats(Aggregations aggregations, Map<String, FileStats> tags) {
+        final Stats stats = aggregations.get(SIZE_STATS_AGGREGATION);
+        final Percentiles percentiles = aggregations.get(SIZE_PERCENTILES_AGGREGATION);
+        final TopHits largest = aggregations.get(LARGEST_FILES_AGGREGATION);
+        final boolean empty = stats.getCount() == 0;
+        final Map<String, Double> sizes = new LinkedHashMap<>();
+        if (!empty) {
+            for (Percentile percentile : percentiles) {
+                sizes.put(BigDecimal.valueOf(percentile.getPercent()).stripTrailingZeros().toPlainString(),
+                        percentile.getValue());
+            }
+        }
+        return new FileStats(stats.getCount(), (long) stats.getSum(),
+                empty ? null : (long) stats.getMin(),
+                empty ? null : (long) stats.getMax(),
+                empty ? null : stats.getAvg(),
+                sizes,
+                largest == null ? List.of() : convertToFiles(largest.getHits().getHits()),
+                tags);
+    }
+
+    /**
+     * @param indices backing index per ID of a file already stored outside the write index
+     */
+    List<BulkRequest> toBulkRequests(List<File> files, Map<String, String> indices) {
+        final List<IndexRequest> requests = new ArrayList<>(files.size());
+        for (File file : files) {
+            requests.add(toIndexRequest(file, indices));
+        }
+        return toBulkRequests(requests, WriteRequest.RefreshPolicy.NONE);
+    }
+
+    /**
+     * A file with the ID of one already stored replaces it in the backing index holding it, so that it isn't stored
+     * twice once the write index has been rolled over, see {@link #getSuppliedIds}. Any other file is indexed into
+     * the write index.
+     *
+     * @param indices backing index per ID of a file already stored outside the write index
+     */
+    IndexRequest toIndexRequest(File file, Map<String, String> indices) {
+        return new IndexRequest(file.getId() == null ?
+                getWriteIndexName() :
+                indices.getOrDefault(file.getId(), getWriteIndexName()))
+                .id(file.getId())
+                .source(converter.mapObject(withCreatedAt(file)).toJson(), XContentType.JSON);
+    }
+
+    /**
+     * @param indices backing index per ID of a file stored outside the write index, tag edits of other files are sent
+     *                to the write index first, see {@link #getMissedPositions}
+     */
+    List<BulkRequest> toWritesBulkRequests(List<FileWrite> writes, Map<String, String> indices,
+                                           WriteRequest.RefreshPolicy refreshPolicy) {
+        final List<DocWriteRequest<?>> requests = new ArrayList<>(writes.size());
+        for (FileWrite write : writes) {
+            switch (write.getType()) {
+                case INDEX:
+                    requests.add(toIndexRequest(write.getFile(), indices));
+                    break;
+                case ADD_TAGS:
+                    requests.add(getTagsUpdateRequest(getIndexName(indices, write.getId()), write.getId(),
+                            ADD_TAGS_SCRIPT, write.getTags()).setRefreshPolicy(WriteRequest.RefreshPolicy.NONE));
+                    break;
+                case REMOVE_TAGS:
+                    requests.add(getTagsUpdateRequest(getIndexName(indices, write.getId()), write.getId(),
+                            REMOVE_TAGS_SCRIPT, write.getTags()).setRefreshPolicy(WriteRequest.RefreshPolicy.NONE));
+                    break;
+            }
+        }
+        return toBulkRequests(requests, refreshPolicy);
+    }
+
+    /**
+     * Tag edits of a bulk request can't wait for a refresh each, the whole request does instead.
+     *
+     * @param indices like in {@link #toWritesBulkRequests}
+     */
+    List<BulkRequest> toTagsBulkRequests(List<String> ids, Map<String, String> indices, String script,
+                                         List<String> tags) {
+        final List<UpdateRequest> requests = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            requests.add(getTagsUpdateRequest(getIndexName(indices, id), id, script, tags)
+                    .setRefreshPolicy(WriteRequest.RefreshPolicy.NONE));
+        }
+        return toBulkRequests(requests, WriteRequest.RefreshPolicy.WAIT_UNTIL);
+    }
+
+    private String getIndexName(Map<String, String> indices, String id) {
+        return indices.getOrDefault(id, getWriteIndexName());
+    }
+
+    List<BulkRequest> toBulkRequests(Collection<? extends DocWriteRequest<?>> requests,
+                                     WriteRequest.RefreshPolicy refreshPolicy) {
+        final String index = getWriteIndexName();
+        List<BulkRequest> bulkRequests = new ArrayList<>();
+        BulkRequest bulkRequest = new BulkRequest(index).setRefreshPolicy(refreshPolicy);
+
+        for (DocWriteRequest<?> request : requests) {
+            bulkRequest.add(request);
+            if (bulkRequest.estimatedSizeInBytes() >= bulkMaxBytes) {
+                bulkRequests.add(bulkRequest);
+                bulkRequest = new BulkRequest(index).setRefreshPolicy(refreshPolicy);
+            }
+        }
+        if (bulkRequest.numberOfActions() > 0) {
+            bulkRequests.add(bulkRequest);
+        }
+
+        return bulkRequests;
+    }
+
+    /**
+     * IDs of files to index whose backing index is looked up first, as the client chose them and a file with the same
+     * ID may already be stored in an older backing index. Generated IDs are new, and so is any file while there is
+     * only one backing index, when the lookup is skipped, see {@link FileIndexManager#isRolledOver}.
+     */
+    static List<String> getSuppliedIds(List<File> files) {
+        final List<String> ids = new ArrayList<>();
+        for (File file : files) {
+            if (file.getId() != null) {
+                ids.add(file.getId());
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Edits are sent to the write index, which holds all recent files, without looking the files up first. Only the
+     * ones that miss their file there look it up among older backing indices and are sent again, see
+     * {@link #redirect}.
+     *
+     * @return positions of the edits that missed their file in the write index, in order
+     */
+    static List<Integer> getMissedPositions(List<BulkItemResponse> items) {
+        final List<Integer> positions = new ArrayList<>();
+        for (int position = 0; position < items.size(); position++) {
+            final BulkItemResponse item = items.get(position);
+            if (item.isFailed() && item.getOpType() == DocWriteRequest.OpType.UPDATE &&
+                    item.status() == RestStatus.NOT_FOUND) {
+                positions.add(position);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * @param sent    requests whose items missed their file at the given positions
+     * @param indices backing index per ID of a file found outside the write index
+     * @return the missed edits of found files, sent to their backing index instead, by position in order
+     */
+    static Map<Integer, DocWriteRequest<?>> redirect(List<BulkRequest> sent, List<Integer> missed,
+                                                     Map<String, String> indices) {
+        final List<DocWriteRequest<?>> requests = new ArrayList<>();
+        for (BulkRequest bulkRequest : sent) {
+            requests.addAll(bulkRequest.requests());
+        }
+        final Map<Integer, DocWriteRequest<?>> redirected = new LinkedHashMap<>();
+        for (int position : missed) {
+            final UpdateRequest request = (UpdateRequest) requests.get(position);
+            final String index = indices.get(request.id());
+            if (index != null) {
+                redirected.put(position, request.index(index));
+            }
+        }
+        return redirected;
+    }
+
+    /**
+     * The script runs on the primary shard, which re-applies it if the document changes in between,
+     * so concurrent tag edits of the same file never overwrite each other.
+     * Waits for a refresh instead of forcing one, so that the change is visible to searches once this returns.
+     */
+    UpdateRequest getTagsUpdateRequest(String index, String id, String script, List<String> tags) {
+        return new UpdateRequest(index, id)
+                .script(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, script, Map.of("tags", tags)))
+                .retryOnConflict(retryOnConflict)
+                .setRefreshPolicy(WriteRequest.RefreshPolicy.WAIT_UNTIL);
+    }
+
+    /**
+     * adds the tags to the matching files missing any of them
+     */
+    UpdateByQueryRequest getAddTagsByQueryRequest(List<String> filterTags, String name, List<String> tags) {
+        final BoolQueryBuilder allTags = boolQuery();
+        tags.forEach(tag -> allTags.must(termQuery("tags", tag)));
+        return getTagsUpdateByQueryRequest(getQueryBuilder(filterTags, name).mustNot(allTags),
+                ADD_MISSING_TAGS_SCRIPT, tags);
+    }
+
+    /**
+     * removes the tags from the matching files having all of them
+     */
+    UpdateByQueryRequest getRemoveTagsByQueryRequest(List<String> filterTags, String name, List<String> tags) {
+        final BoolQueryBuilder query = getQueryBuilder(filterTags, name);
+        tags.forEach(tag -> query.must(termQuery("tags", tag)));
+        return getTagsUpdateByQueryRequest(query, REMOVE_PRESENT_TAGS_SCRIPT, tags);
+    }
+
+    /**
+     * The query only selects files the edit changes, so the script never has to skip one. Files modified while
+     * the request runs are counted as version conflicts instead of aborting it. Shards are processed in parallel
+     * slices, and the index is refreshed once at the end.
+     */
+    UpdateByQueryRequest getTagsUpdateByQueryRequest(QueryBuilder query, String script, List<String> tags) {
+        return new UpdateByQueryRequest(getReadIndexName())
+                .setQuery(query)
+                .setScript(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, script, Map.of("tags", tags)))
+                .setSlices(AbstractBulkByScrollRequest.AUTO_SLICES)
+                .setAbortOnVersionConflict(false)
+                .setRefresh(true);
+    }
+
+    /**
+     * Selects only files without a category, so running it again after an interruption resumes where it stopped;
+     * files whose name has no known extension are skipped by the script.
+     */
+    UpdateByQueryRequest getCategoryBackfillRequest() {
+        return new UpdateByQueryRequest(getReadIndexName())
+                .setQuery(boolQuery().mustNot(existsQuery(CATEGORY_FIELD)))
+                .setScript(new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, BACKFILL_CATEGORY_SCRIPT,
+                        Map.of("categories", ExtensionClassifier.categoriesByExtension())))
+                .setSlices(AbstractBulkByScrollRequest.AUTO_SLICES)
+                .setAbortOnVersionConflict(false)
+                .setRefresh(true);
+    }
+
+    /**
+     * Submits the update by query as a task instead of waiting for its response, which on a large index takes longer
+     * than the socket timeout while Elasticsearch carries on. Neither high level client can do that, so the request
+     * is a low level one, with the parameters the high level client sends and wait_for_completion=false.
+     */
+    static Request toUpdateByQueryTaskRequest(UpdateByQueryRequest request) {
+        final Request taskRequest =
+                new Request("POST", "/" + String.join(",", request.indices()) + "/_update_by_query");
+        taskRequest.addParameter("wait_for_completion", "false");
+        taskRequest.addParameter("conflicts", request.isAbortOnVersionConflict() ? "abort" : "proceed");
+        taskRequest.addParameter("slices", request.getSlices() == AbstractBulkByScrollRequest.AUTO_SLICES ?
+                "auto" :
+                Integer.toString(request.getSlices()));
+        taskRequest.addParameter("refresh", Boolean.toString(request.isRefresh()));
+        taskRequest.setJsonEntity(Strings.toString(request));
+        return taskRequest;
+    }
+
+    /**
+     * @return ID of the task submitted by {@link #toUpdateByQueryTaskRequest}
+     */
+    static String parseTask(Map<String, Object> submitted) {
+        final Object task = submitted.get("task");
+        if (task == null) {
+            throw new UncategorizedElasticsearchException("update by query was not submitted as a task: " + submitted,
+                    null);
+        }
+        return task.toString();
+    }
+
+    static Request getTaskRequest(String task) {
+        return new Request("GET", "/_tasks/" + task);
+    }
+
+    /**
+     * @param status body of GET _tasks/{task}, with the response of the update by query once it has completed
+     */
+    @SuppressWarnings("unchecked")
+    static UpdateByQueryTask toUpdateByQueryTask(String task, Map<String, Object> status) {
+        if (!Boolean.TRUE.equals(status.get("completed"))) {
+            return new UpdateByQueryTask(task, false, null, null);
+        }
+        final Map<String, Object> error = (Map<String, Object>) status.get("error");
+        if (error != null) {
+            return new UpdateByQueryTask(task, true, null, reason(error));
+        }
+        final Map<String, Object> response = (Map<String, Object>) status.get("response");
+        final Map<String, String> failures = new LinkedHashMap<>();
+        for (Map<String, Object> failure : (List<Map<String, Object>>) response.getOrDefault("failures", List.of())) {
+            if (failure.get("id") == null) {
+                // a search failure, of a shard rather than of a file
+                return new UpdateByQueryTask(task, true, null, "update by query failed to search: " +
+                        reason((Map<String, Object>) failure.get("reason")));
+            }
+            failures.put(failure.get("id").toString(), reason((Map<String, Object>) failure.get("cause")));
+        }
+        return new UpdateByQueryTask(task, true, new TagsByQueryReport(count(response, "total"),
+                count(response, "updated"), count(response, "version_conflicts"), failures), null);
+    }
+
+    private static String reason(Map<String, Object> cause) {
+        return cause == null ? "unknown" : cause.get("type") + ": " + cause.get("reason");
+    }
+
+    private static long count(Map<String, Object> response, String field) {
+        final Object count = response.get(field);
+        return count == null ? 0 : ((Number) count).longValue();
+    }
+
+    /**
+     * @return report of the completed task awaited by the caller
+     * @throws UncategorizedElasticsearchException if the task is gone or failed as a whole
+     */
+    static TagsByQueryReport toTagsByQueryReport(String task, UpdateByQueryTask status) {
+        if (status == null) {
+            throw new UncategorizedElasticsearchException("task " + task + " is gone", null);
+        }
+        if (status.getError() != null) {
+            throw new UncategorizedElasticsearchException(status.getError(), null);
+        }
+        return status.getReport();
+    }
+
+    /**
+     * @return the pause before the next check of a task, double the previous one up to {@link #LAST_TASK_POLL}
+     */
+    static TimeValue nextTaskPoll(TimeValue pause) {
+        return TimeValue.timeValueMillis(Math.min(pause.millis() * 2, LAST_TASK_POLL.millis()));
+    }
+
+    SearchSourceBuilder getSearchSourceBuilder(List<String> tags, Pageable pageable, String name, String category,
+                                               String cursor) {
+        final SearchSourceBuilder source = new SearchSourceBuilder()
+                .query(getQueryBuilder(tags, name, category))
+                .size(pageable.getPageSize())
+                .trackTotalHitsUpTo(trackTotalHitsUpTo);
+        for (Sort.Order order : pageable.getSort()) {
+            source.sort(FileCustomRepository.SORT_FIELDS.get(order.getProperty()),
+                    order.isAscending() ? SortOrder.ASC : SortOrder.DESC);
+        }
+        source.sort(TIEBREAKER_FIELD, SortOrder.ASC);
+        if (cursor == null) {
+            source.from((int) pageable.getOffset());
+        } else {
+            final Object[] sortValues = SearchAfterCursor.decode(cursor);
+            // a cursor of a listing sorted otherwise can't continue this one
+            if (sortValues.length != source.sorts().size()) {
+                throw new FileFind400Exception("cursor is invalid");
+            }
+            source.searchAfter(sortValues);
+        }
+        return source;
+    }
+
+    CursorPage<File> convertToPage(SearchResponse response, Pageable pageable) {
+        final SearchHit[] hits = response.getHits().getHits();
+        final TotalHits totalHits = response.getHits().getTotalHits();
+        final List<File> result = convertToFiles(hits);
+
+        final String next = hits.length == 0 || hits.length < pageable.getPageSize() ?
+                null :
+                SearchAfterCursor.encode(hits[hits.length - 1].getSortValues());
+
+        return new CursorPage<>(result, pageable, totalHits.value,
+                totalHits.relation == TotalHits.Relation.EQUAL_TO, next);
+    }
+
+    List<File> convertToFiles(SearchHit[] hits) {
+        final List<File> files = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            files.add(convertToFile(DocumentAdapters.from(hit)));
+        }
+        return files;
+    }
+
+    /**
+     * @param document a hit or the result of a get, see {@link DocumentAdapters}
+     */
+    File convertToFile(Document document) {
+        return converter.read(File.class, document);
+    }
+
+    BoolQueryBuilder getQueryBuilder(List<String> tags, String name) {
+        BoolQueryBuilder boolQueryBuilder = boolQuery();
+
+        if (tags != null) {
+            for (String tag : tags) {
+                boolQueryBuilder.must(termQuery("tags", tag));
+            }
+        }
+
+        if (name != null) {
+            boolQueryBuilder.must(getNameQueryBuilder(name));
+        }
+
+        return boolQueryBuilder;
+    }
+
+    /**
+     * Also matches files of the category, in filter context: the clause doesn't score, so Elasticsearch caches
+     * the files matching it per segment and browsing a category is served from that cache.
+     */
+    BoolQueryBuilder getQueryBuilder(List<String> tags, String name, String category) {
+        final BoolQueryBuilder boolQueryBuilder = getQueryBuilder(tags, name);
+        if (category != null) {
+            boolQueryBuilder.filter(termQuery(CATEGORY_FIELD, category));
+        }
+        return boolQueryBuilder;
+    }
+
+    /**
+     * Matches files whose name contains the given string ignoring case. The string is never interpreted as a pattern:
+     * trigrams of it are matched as a phrase, so lookups don't scan the term dictionary. Only strings too short
+     * to form a trigram fall back to an escaped wildcard over lowercase names.
+     */
+    QueryBuilder getNameQueryBuilder(String name) {
+        if (name.length() >= TRIGRAM_LENGTH) {
+            return matchPhraseQuery("name.trigram", name);
+        }
+        return wildcardQuery("name.lowercase", "*" + escapeWildcard(name.toLowerCase(Locale.ROOT)) + "*");
+    }
+
+    private static String escapeWildcard(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '*' || c == '?' || c == '\\') {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,77 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.entity.File;
+
+import java.util.List;
+
+/**
+ * one write of {@link FileCustomRepository#bulkWrite}: indexing a file, or adding or removing tags of a file
+ */
+public final class FileWrite {
+    public enum Type {INDEX, ADD_TAGS, REMOVE_TAGS}
+
+    private final Type type;
+    private final String id;
+    private final File file;
+    private final List<String> tags;
+    /**
+     * whether the ID of the file to index was generated for it, so that no stored file can have it
+     */
+    private final boolean generatedId;
+
+    private FileWrite(Type type, String id, File file, List<String> tags, boolean generatedId) {
+        this.type = type;
+        this.id = id;
+        this.file = file;
+        this.tags = tags;
+        this.generatedId = generatedId;
+    }
+
+    /**
+     * @param file file with an ID the client chose, which a stored file may have already
+     */
+    public static FileWrite index(File file) {
+        return new FileWrite(Type.INDEX, file.getId(), file, null, false);
+    }
+
+    /**
+     * @param file file with an ID just generated for it
+     */
+    public static FileWrite indexNew(File file) {
+        return new FileWrite(Type.INDEX, file.getId(), file, null, true);
+    }
+
+    /**
+     * @param tags normalized tags
+     */
+    public static FileWrite addTags(String id, List<String> tags) {
+        return new FileWrite(Type.ADD_TAGS, id, null, tags, false);
+    }
+
+    /**
+     * @param tags normalized tags
+     */
+    public static FileWrite removeTags(String id, List<String> tags) {
+        return new FileWrite(Type.REMOVE_TAGS, id, null, tags, false);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public boolean isGeneratedId() {
+        return generatedId;
+    }
+}
@@ -0,0 +1,800 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.Id;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileFind400Exception;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.shard.ShardId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * Keeps files in memory instead of Elasticsearch, selected by the "memory" profile for running without a cluster.
+ * Nothing survives a restart.
+ * <p>
+ * Files are spread over stripes by the hash of their ID, each guarded by its own read-write lock, so that writes to
+ * different stripes never wait for each other. Searches hold one stripe at a time, except unsorted listings, which
+ * hold the read locks of all stripes, taken in stripe order, from matching to fetching. Within a stripe, every
+ * file gets the next int ordinal, which keys its slot in the stripe, and every tag and category maps to an
+ * {@link OrdinalBitmap} of the ordinals of its files. Files having all the given tags are the intersection of their
+ * bitmaps, smallest first; a name filter is then checked on that intersection only.
+ * <p>
+ * Across stripes, file number {@code ordinal * stripes + stripe} is the global ordinal unsorted listings are ordered
+ * by, and cursors of those listings hold it. Sorted listings break ties by it rather than by ID. Every write is visible
+ * to searches once it returns and totals are always exact, whatever refresh policy is asked for.
+ */
+@Repository
+@Profile("memory")
+public class InMemoryFileCustomRepository implements FileCustomRepository {
+    /**
+     * shard reported by write items, as if all files were in one shard of the file index
+     */
+    private static final ShardId SHARD_ID = new ShardId("file", "_na_", 0);
+    private static final String TYPE = "_doc";
+
+    private final Stripe[] stripes;
+    /**
+     * number of files passed to the consumer at a time when exporting
+     */
+    private final int scrollSize;
+
+    public InMemoryFileCustomRepository(@Value("${file-storage.memory.stripes:16}") int stripes,
+                                        @Value("${file-storage.stream.scroll-size:1000}") int scrollSize) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("file-storage.memory.stripes must be positive");
+        }
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.scrollSize = scrollSize;
+    }
+
+    private Stripe stripeOf(String id) {
+        return stripes[Math.floorMod(id.hashCode(), stripes.length)];
+    }
+
+    @Override
+    public File findById(String id) {
+        final Stripe stripe = stripeOf(id);
+        final Lock lock = stripe.readLock();
+        try {
+            final Integer ordinal = stripe.ordinals.get(id);
+            return ordinal == null ? null : stripe.files.get(ordinal);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public File index(File file) {
+        final File created = FileRequests.withCreatedAt(file);
+        final String id = created.getId() == null ? UUIDs.base64UUID() : created.getId();
+        final File stored = new File(id, created.getName(), created.getSize(), created.getTags(),
+                created.getCreatedAt());
+        final Stripe stripe = stripeOf(id);
+        final Lock lock = stripe.writeLock();
+        try {
+            stripe.put(stored);
+        } finally {
+            lock.unlock();
+        }
+        return stored;
+    }
+
+    @Override
+    public CursorPage<File> findAllByTagsContainingAllIn(List<String> tags, Pageable pageable, String name,
+                                                         String category, String cursor) {
+        final List<Sort.Order> orders = pageable.getSort().toList();
+        Object[] after = null;
+        if (cursor != null) {
+            after = SearchAfterCursor.decode(cursor);
+            // a cursor of a listing sorted otherwise can't continue this one
+            if (after.length != orders.size() + 1 || !(after[orders.size()] instanceof Number)) {
+                throw new FileFind400Exception("cursor is invalid");
+            }
+        }
+        return orders.isEmpty() ?
+                findPageInOrdinalOrder(tags, pageable, name, category, after) :
+                findSortedPage(tags, pageable, orders, name, category, after);
+    }
+
+    /**
+     * Seeks the global ordinal at the offset, see {@link #seek}, or right after the cursor in every bitmap, then merges
+     * the matching ordinals of all stripes in global ordinal order for the page only, before fetching its files.
+     * All stripes stay read locked meanwhile, so that the page, the total and the cursor agree on the files matched;
+     * a writer only waits for the lock of its own stripe, so taking them in stripe order can't deadlock.
+     */
+    private CursorPage<File> findPageInOrdinalOrder(List<String> tags, Pageable pageable, String name,
+                                                    String category, Object[] after) {
+        final Lock[] locks = new Lock[stripes.length];
+        try {
+            for (int s = 0; s < stripes.length; s++) {
+                locks[s] = stripes[s].readLock();
+            }
+            return findPageInOrdinalOrderLocked(tags, pageable, name, category, after);
+        } finally {
+            for (Lock lock : locks) {
+                if (lock != null) {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private CursorPage<File> findPageInOrdinalOrderLocked(List<String> tags, Pageable pageable, String name,
+                                                          String category, Object[] after) {
+        final OrdinalBitmap[] matches = new OrdinalBitmap[stripes.length];
+        long total = 0;
+        for (int s = 0; s < stripes.length; s++) {
+            matches[s] = stripes[s].match(tags, name, category);
+            total += matches[s].cardinality();
+        }
+        final long from = after == null ? seek(matches, pageable.getOffset()) : ((Number) after[0]).longValue() + 1;
+        final int[] positions = new int[stripes.length];
+        for (int s = 0; s < stripes.length; s++) {
+            final long ordinal = getFirstOrdinal(from, s);
+            positions[s] = ordinal > Integer.MAX_VALUE ? -1 : matches[s].next((int) ordinal);
+        }
+        final List<File> content = new ArrayList<>((int) Math.min(pageable.getPageSize(), total));
+        long last = -1;
+        while (content.size() < pageable.getPageSize()) {
+            int min = -1;
+            for (int s = 0; s < stripes.length; s++) {
+                if (positions[s] >= 0 && (min < 0 || positions[s] < positions[min])) {
+                    min = s;
+                }
+            }
+            if (min < 0) {
+                break;
+            }
+            content.add(stripes[min].files.get(positions[min]));
+            last = (long) positions[min] * stripes.length + min;
+            positions[min] = matches[min].next(positions[min] + 1);
+        }
+        final String next = content.isEmpty() || content.size() < pageable.getPageSize() ?
+                null :
+                SearchAfterCursor.encode(new Object[]{last});
+        return new CursorPage<>(content, pageable, total, true, next);
+    }
+
+    /**
+     * Binary searches the global ordinals for the one with offset matches below it, counting the matches below each
+     * candidate by {@link OrdinalBitmap#rank} in every stripe instead of walking past them one by one.
+     *
+     * @return the global ordinal the page at the offset starts from, past the last match if there are not more
+     */
+    private long seek(OrdinalBitmap[] matches, long offset) {
+        long low = 0;
+        long high = 0;
+        for (int s = 0; s < stripes.length; s++) {
+            final int last = matches[s].select(matches[s].cardinality() - 1);
+            if (last >= 0) {
+                high = Math.max(high, (long) last * stripes.length + s + 1);
+            }
+        }
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            long below = 0;
+            for (int s = 0; s < stripes.length; s++) {
+                below += matches[s].rank((int) Math.min(getFirstOrdinal(middle, s), Integer.MAX_VALUE));
+            }
+            if (below < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first ordinal of the stripe whose global ordinal is the given one or more
+     */
+    private long getFirstOrdinal(long globalOrdinal, int stripe) {
+        return Math.max(0, globalOrdinal - stripe + stripes.length - 1) / stripes.length;
+    }
+
+    /**
+     * Keeps only the first offset + size matching files, or size after the cursor, in a heap whose top is the last of
+     * them, as bitmaps hold no order other than the ordinal one. Only those are sorted.
+     */
+    private CursorPage<File> findSortedPage(List<String> tags, Pageable pageable, List<Sort.Order> orders,
+                                            String name, String category, Object[] after) {
+        final Comparator<Object[]> comparator = getSortValuesComparator(orders);
+        final Comparator<Hit> hitComparator = (a, b) -> comparator.compare(a.sortValues, b.sortValues);
+        final Object[] cursorValues = after == null ? null : normalizeSortValues(after, orders);
+        final long kept = (after == null ? pageable.getOffset() : 0) + pageable.getPageSize();
+        final PriorityQueue<Hit> top = new PriorityQueue<>(hitComparator.reversed());
+        long total = 0;
+        for (int s = 0; s < stripes.length; s++) {
+            final Stripe stripe = stripes[s];
+            final Lock lock = stripe.readLock();
+            try {
+                final OrdinalBitmap match = stripe.match(tags, name, category);
+                total += match.cardinality();
+                for (int o = match.next(0); o >= 0; o = match.next(o + 1)) {
+                    final Hit hit = new Hit(stripe.files.get(o), (long) o * stripes.length + s, orders);
+                    if (cursorValues != null && comparator.compare(hit.sortValues, cursorValues) <= 0) {
+                        continue;
+                    }
+                    if (top.size() < kept) {
+                        top.add(hit);
+                    } else if (hitComparator.compare(hit, top.peek()) < 0) {
+                        top.poll();
+                        top.add(hit);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        final List<Hit> hits = new ArrayList<>(top);
+        hits.sort(hitComparator);
+        final int from = after == null ? (int) Math.min(pageable.getOffset(), hits.size()) : 0;
+        final List<File> content = new ArrayList<>(hits.size() - from);
+        for (int i = from; i < hits.size(); i++) {
+            content.add(hits.get(i).file);
+        }
+        final String next = content.isEmpty() || content.size() < pageable.getPageSize() ?
+                null :
+                SearchAfterCursor.encode(hits.get(hits.size() - 1).sortValues);
+        return new CursorPage<>(content, pageable, total, true, next);
+    }
+
+    /**
+     * Sort value of a file for a key of {@link #SORT_FIELDS}, as Elasticsearch returns it: sizes and creation times
+     * as numbers, missing ones as the largest value sorting ascending and the smallest sorting descending.
+     */
+    private static Object getSortValue(File file, Sort.Order order) {
+        final Long missing = order.isAscending() ? Long.MAX_VALUE : Long.MIN_VALUE;
+        switch (order.getProperty()) {
+            case "size":
+                return file.getSize() == null ? missing : file.getSize();
+            case "created":
+                return file.getCreatedAt() == null ? missing : file.getCreatedAt().toEpochMilli();
+            case "name":
+                return file.getName() == null ? "" : file.getName();
+            default:
+                throw new FileFind400Exception("sort must be one of " + SORT_FIELDS.keySet());
+        }
+    }
+
+    /**
+     * @return sort values of a cursor as {@link #getSortValue} returns them, to be compared with those of files
+     */
+    private static Object[] normalizeSortValues(Object[] sortValues, List<Sort.Order> orders) {
+        final Object[] normalized = new Object[sortValues.length];
+        for (int i = 0; i < sortValues.length; i++) {
+            final boolean text = i < orders.size() && orders.get(i).getProperty().equals("name");
+            if (text != sortValues[i] instanceof String) {
+                throw new FileFind400Exception("cursor is invalid");
+            }
+            normalized[i] = text ? sortValues[i] : (Object) ((Number) sortValues[i]).longValue();
+        }
+        return normalized;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Comparator<Object[]> getSortValuesComparator(List<Sort.Order> orders) {
+        return (a, b) -> {
+            for (int i = 0; i < orders.size(); i++) {
+                final int compared = ((Comparable<Object>) a[i]).compareTo(b[i]);
+                if (compared != 0) {
+                    return orders.get(i).isAscending() ? compared : -compared;
+                }
+            }
+            return Long.compare((Long) a[orders.size()], (Long) b[orders.size()]);
+        };
+    }
+
+    @Override
+    public void scrollAllByTagsContainingAllIn(List<String> tags, String name, Consumer<List<File>> consumer) {
+        for (Stripe stripe : stripes) {
+            int from = 0;
+            while (from >= 0) {
+                final List<File> batch = new ArrayList<>(scrollSize);
+                final Lock lock = stripe.readLock();
+                try {
+                    final OrdinalBitmap match = stripe.match(tags, name, null);
+                    for (from = match.next(from); from >= 0 && batch.size() < scrollSize; from = match.next(from + 1)) {
+                        batch.add(stripe.files.get(from));
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                // only one batch is held at a time, and no lock while the consumer runs
+                if (!batch.isEmpty()) {
+                    consumer.accept(batch);
+                }
+            }
+        }
+    }
+
+    @Override
+    public TagCounts countTags(List<String> tags, String name, int size) {
+        final Map<String, Long> counts = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            final Lock lock = stripe.readLock();
+            try {
+                final OrdinalBitmap match = stripe.match(tags, name, null);
+                if (match.isEmpty()) {
+                    continue;
+                }
+                stripe.tagIndex.forEach((tag, ordinals) -> {
+                    final int count = match.andCardinality(ordinals);
+                    if (count > 0) {
+                        counts.merge(tag, (long) count, Long::sum);
+                    }
+                });
+            } finally {
+                lock.unlock();
+            }
+        }
+        // ordered like terms buckets: most frequent first, then by tag
+        final List<Map.Entry<String, Long>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        final Map<String, Long> top = new LinkedHashMap<>();
+        long other = 0;
+        for (Map.Entry<String, Long> entry : entries) {
+            if (top.size() < size) {
+                top.put(entry.getKey(), entry.getValue());
+            } else {
+                other += entry.getValue();
+            }
+        }
+        return new TagCounts(top, other);
+    }
+
+    @Override
+    public FileStats stats(List<String> tags, String name, int top, boolean byTag, int size) {
+        final List<File> matching = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            final Lock lock = stripe.readLock();
+            try {
+                stripe.addFiles(stripe.match(tags, name, null), matching);
+            } finally {
+                lock.unlock();
+            }
+        }
+        Map<String, FileStats> byTags = null;
+        if (byTag) {
+            byTags = new LinkedHashMap<>();
+            for (String tag : countTags(tags, name, size).getTags().keySet()) {
+                final List<String> tagFilter = new ArrayList<>(tags == null ? List.of() : tags);
+                tagFilter.add(tag);
+                final List<File> tagged = new ArrayList<>();
+                for (Stripe stripe : stripes) {
+                    final Lock lock = stripe.readLock();
+                    try {
+                        stripe.addFiles(stripe.match(tagFilter, name, null), tagged);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                byTags.put(tag, computeStats(tagged, top, null));
+            }
+        }
+        return computeStats(matching, top, byTags);
+    }
+
+    /**
+     * Computes exact percentiles, interpolating between the two sizes around each rank, where Elasticsearch
+     * estimates them.
+     */
+    private static FileStats computeStats(List<File> files, int top, Map<String, FileStats> tags) {
+        final long[] sizes = new long[files.size()];
+        long sum = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            final Long size = files.get(i).getSize();
+            sizes[i] = size == null ? 0 : size;
+            sum += sizes[i];
+        }
+        Arrays.sort(sizes);
+        final boolean empty = sizes.length == 0;
+        final Map<String, Double> percentiles = new LinkedHashMap<>();
+        if (!empty) {
+            for (double percent : FileRequests.SIZE_PERCENTS) {
+                final double rank = percent / 100 * (sizes.length - 1);
+                final int below = (int) Math.floor(rank);
+                final int above = Math.min(below + 1, sizes.length - 1);
+                percentiles.put(BigDecimal.valueOf(percent).stripTrailingZeros().toPlainString(),
+                        sizes[below] + (rank - below) * (sizes[above] - sizes[below]));
+            }
+        }
+        final List<File> largest = new ArrayList<>(files);
+        largest.sort(Comparator.comparing((File file) -> file.getSize() == null ? 0 : file.getSize())
+                .reversed()
+                .thenComparing(File::getId));
+        return new FileStats(sizes.length, sum,
+                empty ? null : sizes[0],
+                empty ? null : sizes[sizes.length - 1],
+                empty ? null : (double) sum / sizes.length,
+                percentiles,
+                List.copyOf(largest.subList(0, Math.min(top, largest.size()))),
+                tags);
+    }
+
+    @Override
+    public List<ResponseEntityBody> bulkIndex(List<File> files) {
+        final List<ResponseEntityBody> results = new ArrayList<>(files.size());
+        for (File file : files) {
+            results.add(new Id(index(file).getId()));
+        }
+        return results;
+    }
+
+    @Override
+    public List<BulkItemResponse> bulkWrite(List<FileWrite> writes, WriteRequest.RefreshPolicy refreshPolicy) {
+        final List<BulkItemResponse> items = new ArrayList<>(writes.size());
+        for (FileWrite write : writes) {
+            final int item = items.size();
+            switch (write.getType()) {
+                case INDEX:
+                    final String id = index(write.getFile()).getId();
+                    items.add(new BulkItemResponse(item, DocWriteRequest.OpType.INDEX,
+                            new IndexResponse(SHARD_ID, TYPE, id, 0, 1, 1, true)));
+                    break;
+                case ADD_TAGS:
+                    items.add(toItem(item, write.getId(), addTags(write.getId(), write.getTags())));
+                    break;
+                case REMOVE_TAGS:
+                    items.add(toItem(item, write.getId(), removeTags(write.getId(), write.getTags())));
+                    break;
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return item of a tag edit like Elasticsearch reports it, a failed one with status NOT_FOUND for a missing file
+     */
+    private static BulkItemResponse toItem(int item, String id, DocWriteResponse.Result result) {
+        if (result == DocWriteResponse.Result.NOT_FOUND) {
+            return new BulkItemResponse(item, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure(
+                    SHARD_ID.getIndexName(), TYPE, id, new DocumentMissingException(SHARD_ID, TYPE, id)));
+        }
+        return new BulkItemResponse(item, DocWriteRequest.OpType.UPDATE,
+                new UpdateResponse(SHARD_ID, TYPE, id, 0, 1, 1, result));
+    }
+
+    @Override
+    public DocWriteResponse.Result addTags(String id, List<String> tags) {
+        return editTags(id, current -> !current.containsAll(tags), current -> {
+            final List<String> added = new ArrayList<>(current);
+            for (String tag : tags) {
+                if (!added.contains(tag)) {
+                    added.add(tag);
+                }
+            }
+            return added;
+        });
+    }
+
+    @Override
+    public DocWriteResponse.Result removeTags(String id, List<String> tags) {
+        return editTags(id, current -> current.containsAll(tags), current -> {
+            final List<String> removed = new ArrayList<>(current);
+            removed.removeAll(tags);
+            return removed;
+        });
+    }
+
+    /**
+     * @param changes whether the edit changes the stored tags of the file, NOOP if it doesn't
+     */
+    private DocWriteResponse.Result editTags(String id, Predicate<List<String>> changes,
+                                             Function<List<String>, List<String>> edit) {
+        final Stripe stripe = stripeOf(id);
+        final Lock lock = stripe.writeLock();
+        try {
+            final Integer ordinal = stripe.ordinals.get(id);
+            if (ordinal == null) {
+                return DocWriteResponse.Result.NOT_FOUND;
+            }
+            final List<String> current = stripe.tags.get(ordinal);
+            if (!changes.test(current)) {
+                return DocWriteResponse.Result.NOOP;
+            }
+            stripe.setTags(ordinal, edit.apply(current));
+            return DocWriteResponse.Result.UPDATED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<BulkItemResponse> addTags(List<String> ids, List<String> tags) {
+        final List<BulkItemResponse> items = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            items.add(toItem(items.size(), id, addTags(id, tags)));
+        }
+        return items;
+    }
+
+    @Override
+    public List<BulkItemResponse> removeTags(List<String> ids, List<String> tags) {
+        final List<BulkItemResponse> items = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            items.add(toItem(items.size(), id, removeTags(id, tags)));
+        }
+        return items;
+    }
+
+    @Override
+    public TagsByQueryReport addTagsByQuery(List<String> filterTags, String name, List<String> tags) {
+        long updated = 0;
+        for (Stripe stripe : stripes) {
+            final Lock lock = stripe.writeLock();
+            try {
+                final OrdinalBitmap match = stripe.match(filterTags, name, null);
+                for (int o = match.next(0); o >= 0; o = match.next(o + 1)) {
+                    final List<String> current = stripe.tags.get(o);
+                    if (!current.containsAll(tags)) {
+                        final List<String> added = new ArrayList<>(current);
+                        tags.stream().filter(tag -> !added.contains(tag)).forEach(added::add);
+                        stripe.setTags(o, added);
+                        updated++;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return new TagsByQueryReport(updated, updated, 0, Map.of());
+    }
+
+    @Override
+    public TagsByQueryReport removeTagsByQuery(List<String> filterTags, String name, List<String> tags) {
+        final List<String> allTags = new ArrayList<>(filterTags == null ? List.of() : filterTags);
+        allTags.addAll(tags);
+        long updated = 0;
+        for (Stripe stripe : stripes) {
+            final Lock lock = stripe.writeLock();
+            try {
+                final OrdinalBitmap match = stripe.match(allTags, name, null);
+                for (int o = match.next(0); o >= 0; o = match.next(o + 1)) {
+                    final List<String> removed = new ArrayList<>(stripe.tags.get(o));
+                    removed.removeAll(tags);
+                    stripe.setTags(o, removed);
+                    updated++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return new TagsByQueryReport(updated, updated, 0, Map.of());
+    }
+
+    /**
+     * every file kept in memory has its category from the moment it is indexed, so there is nothing to run
+     */
+    @Override
+    public UpdateByQueryTask backfillCategories() {
+        return new UpdateByQueryTask(null, true, new TagsByQueryReport(0, 0, 0, Map.of()), null);
+    }
+
+    /**
+     * @return null, no update runs as a task in memory
+     */
+    @Override
+    public UpdateByQueryTask getUpdateByQueryTask(String task) {
+        return null;
+    }
+
+    @Override
+    public DocWriteResponse.Result delete(String id, WriteRequest.RefreshPolicy refreshPolicy) {
+        final Stripe stripe = stripeOf(id);
+        final Lock lock = stripe.writeLock();
+        try {
+            final Integer ordinal = stripe.ordinals.get(id);
+            if (ordinal == null) {
+                return DocWriteResponse.Result.NOT_FOUND;
+            }
+            stripe.remove(ordinal);
+            return DocWriteResponse.Result.DELETED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * A file and the sort values of a sorted listing: one per sort key, then its global ordinal.
+     */
+    private static final class Hit {
+        private final File file;
+        private final Object[] sortValues;
+
+        Hit(File file, long globalOrdinal, List<Sort.Order> orders) {
+            this.file = file;
+            this.sortValues = new Object[orders.size() + 1];
+            for (int i = 0; i < orders.size(); i++) {
+                sortValues[i] = getSortValue(file, orders.get(i));
+            }
+            sortValues[orders.size()] = globalOrdinal;
+        }
+    }
+
+    /**
+     * Files of one stripe by ordinal and the bitmaps indexing them. Ordinals are never reused, so a deleted file
+     * leaves an empty slot behind and a cursor never points at another file than the one it was taken from.
+     * Every method expects the caller to hold the matching lock.
+     */
+    private static final class Stripe {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> ordinals = new HashMap<>();
+        /**
+         * file per ordinal, null once deleted
+         */
+        private final List<File> files = new ArrayList<>();
+        /**
+         * tags per ordinal as edited, which are those of the file except that the category is added back to the file
+         * whenever it is created; tag edits and filters see these, like they see the stored tags in Elasticsearch
+         */
+        private final List<List<String>> tags = new ArrayList<>();
+        private final OrdinalBitmap live = new OrdinalBitmap();
+        private final Map<String, OrdinalBitmap> tagIndex = new HashMap<>();
+        private final Map<String, OrdinalBitmap> categoryIndex = new HashMap<>();
+
+        Lock readLock() {
+            final Lock readLock = lock.readLock();
+            readLock.lock();
+            return readLock;
+        }
+
+        Lock writeLock() {
+            final Lock writeLock = lock.writeLock();
+            writeLock.lock();
+            return writeLock;
+        }
+
+        /**
+         * replaces the file with the same ID, if any, keeping its ordinal
+         */
+        void put(File file) {
+            Integer ordinal = ordinals.get(file.getId());
+            if (ordinal == null) {
+                ordinal = files.size();
+                ordinals.put(file.getId(), ordinal);
+                files.add(file);
+                tags.add(file.getTags());
+                live.add(ordinal);
+            } else {
+                unindex(ordinal);
+                files.set(ordinal, file);
+                tags.set(ordinal, file.getTags());
+            }
+            index(ordinal);
+        }
+
+        void setTags(int ordinal, List<String> newTags) {
+            unindex(ordinal);
+            // the same list in both, so that a removed category tag is neither read back nor matched
+            final File file = files.get(ordinal).withStoredTags(newTags);
+            files.set(ordinal, file);
+            tags.set(ordinal, file.getTags());
+            index(ordinal);
+        }
+
+        void remove(int ordinal) {
+            unindex(ordinal);
+            ordinals.remove(files.get(ordinal).getId());
+            files.set(ordinal, null);
+            tags.set(ordinal, null);
+            live.remove(ordinal);
+        }
+
+        private void index(int ordinal) {
+            for (String tag : tags.get(ordinal)) {
+                tagIndex.computeIfAbsent(tag, key -> new OrdinalBitmap()).add(ordinal);
+            }
+            final String category = files.get(ordinal).getCategory();
+            if (category != null) {
+                categoryIndex.computeIfAbsent(category, key -> new OrdinalBitmap()).add(ordinal);
+            }
+        }
+
+        private void unindex(int ordinal) {
+            for (String tag : tags.get(ordinal)) {
+                removeFromIndex(tagIndex, tag, ordinal);
+            }
+            final String category = files.get(ordinal).getCategory();
+            if (category != null) {
+                removeFromIndex(categoryIndex, category, ordinal);
+            }
+        }
+
+        private static void removeFromIndex(Map<String, OrdinalBitmap> index, String key, int ordinal) {
+            final OrdinalBitmap ordinals = index.get(key);
+            if (ordinals != null && ordinals.remove(ordinal) && ordinals.isEmpty()) {
+                index.remove(key);
+            }
+        }
+
+        /**
+         * Intersects the bitmaps of the tags and the category, smallest first so that every intersection is at most
+         * as large as it, then keeps the files whose name contains the given one ignoring case.
+         *
+         * @return a new bitmap of the matching ordinals
+         */
+        OrdinalBitmap match(List<String> filterTags, String name, String category) {
+            final List<OrdinalBitmap> filters = new ArrayList<>();
+            if (filterTags != null) {
+                for (String tag : filterTags) {
+                    final OrdinalBitmap ordinals = tagIndex.get(tag.toLowerCase(Locale.ROOT));
+                    if (ordinals == null) {
+                        return new OrdinalBitmap();
+                    }
+                    filters.add(ordinals);
+                }
+            }
+            if (category != null) {
+                final OrdinalBitmap ordinals = categoryIndex.get(category.toLowerCase(Locale.ROOT));
+                if (ordinals == null) {
+                    return new OrdinalBitmap();
+                }
+                filters.add(ordinals);
+            }
+            OrdinalBitmap match;
+            if (filters.isEmpty()) {
+                match = live.copy();
+            } else {
+                filters.sort(Comparator.comparingInt(OrdinalBitmap::cardinality));
+                match = filters.get(0).copy();
+                for (int i = 1; i < filters.size() && !match.isEmpty(); i++) {
+                    match = match.and(filters.get(i));
+                }
+            }
+            if (name != null) {
+                final String lowercaseName = name.toLowerCase(Locale.ROOT);
+                final OrdinalBitmap named = new OrdinalBitmap();
+                for (int o = match.next(0); o >= 0; o = match.next(o + 1)) {
+                    final String fileName = files.get(o).getName();
+                    if (fileName != null && fileName.toLowerCase(Locale.ROOT).contains(lowercaseName)) {
+                        named.add(o);
+                    }
+                }
+                match = named;
+            }
+            return match;
+        }
+
+        void addFiles(OrdinalBitmap ordinals, List<File> target) {
+            for (int o = ordinals.next(0); o >= 0; o = ordinals.next(o + 1)) {
+                target.add(files.get(o));
+            }
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package com.papenko.filestorage.repository;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative int ordinals laid out like a roaring bitmap: ordinals are grouped into chunks by
+ * their high 16 bits, and each chunk keeps the low 16 bits either as a sorted array while it holds up to
+ * {@link #ARRAY_MAX} of them (2 bytes each) or as a 65536-bit bitmap beyond that (8 KB, 1 bit each). Intersecting
+ * two sets only visits the chunks both have, merging arrays or ANDing words. Not thread-safe.
+ */
+final class OrdinalBitmap {
+    /**
+     * largest array chunk, above it a bitmap chunk is smaller
+     */
+    static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1 << 10;
+
+    private char[] keys;
+    private Chunk[] chunks;
+    private int size;
+    private int cardinality;
+
+    OrdinalBitmap() {
+        this(new char[4], new Chunk[4], 0, 0);
+    }
+
+    private OrdinalBitmap(char[] keys, Chunk[] chunks, int size, int cardinality) {
+        this.keys = keys;
+        this.chunks = chunks;
+        this.size = size;
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @return false if the ordinal was already present
+     */
+    boolean add(int ordinal) {
+        final char key = (char) (ordinal >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i < 0) {
+            i = -i - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                chunks = Arrays.copyOf(chunks, size * 2);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(chunks, i, chunks, i + 1, size - i);
+            keys[i] = key;
+            chunks[i] = new ArrayChunk(new char[4], 0);
+            size++;
+        }
+        final Chunk chunk = chunks[i];
+        final int before = chunk.cardinality;
+        chunks[i] = chunk.add((char) ordinal);
+        if (chunks[i].cardinality == before) {
+            return false;
+        }
+        cardinality++;
+        return true;
+    }
+
+    /**
+     * @return false if the ordinal was not present
+     */
+    boolean remove(int ordinal) {
+        final int i = Arrays.binarySearch(keys, 0, size, (char) (ordinal >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        final Chunk chunk = chunks[i];
+        final int before = chunk.cardinality;
+        chunks[i] = chunk.remove((char) ordinal);
+        if (chunks[i].cardinality == before) {
+            return false;
+        }
+        cardinality--;
+        if (chunks[i].cardinality == 0) {
+            System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+            System.arraycopy(chunks, i + 1, chunks, i, size - i - 1);
+            chunks[--size] = null;
+        }
+        return true;
+    }
+
+    boolean contains(int ordinal) {
+        final int i = Arrays.binarySearch(keys, 0, size, (char) (ordinal >>> 16));
+        return i >= 0 && chunks[i].contains((char) ordinal);
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * iterates in ordinal order: {@code for (int o = bitmap.next(0); o >= 0; o = bitmap.next(o + 1))}
+     *
+     * @return the smallest ordinal not less than from, -1 if there is none
+     */
+    int next(int from) {
+        if (from < 0) {
+            return -1;
+        }
+        final char key = (char) (from >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0) {
+            final int low = chunks[i].next(from & 0xFFFF);
+            if (low >= 0) {
+                return key << 16 | low;
+            }
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        // every chunk holds at least one ordinal
+        return i < size ? keys[i] << 16 | chunks[i].next(0) : -1;
+    }
+
+    /**
+     * Counts the chunks below the one of the ordinal by their cardinalities, so only that chunk is looked into.
+     *
+     * @return number of ordinals less than the given one
+     */
+    int rank(int ordinal) {
+        if (ordinal <= 0) {
+            return 0;
+        }
+        final char key = (char) (ordinal >>> 16);
+        final int i = Arrays.binarySearch(keys, 0, size, key);
+        final int below = i >= 0 ? i : -i - 1;
+        int count = 0;
+        for (int j = 0; j < below; j++) {
+            count += chunks[j].cardinality;
+        }
+        return i >= 0 ? count + chunks[i].rank(ordinal & 0xFFFF) : count;
+    }
+
+    /**
+     * Skips whole chunks by their cardinalities, so only the chunk holding the result is looked into.
+     *
+     * @param rank number of ordinals less than the one to return
+     * @return the ordinal, -1 if there are not more than rank ordinals
+     */
+    int select(int rank) {
+        if (rank < 0 || rank >= cardinality) {
+            return -1;
+        }
+        int remaining = rank;
+        int i = 0;
+        while (remaining >= chunks[i].cardinality) {
+            remaining -= chunks[i++].cardinality;
+        }
+        return keys[i] << 16 | chunks[i].select(remaining);
+    }
+
+    /**
+     * @return a new set of the ordinals present in both
+     */
+    OrdinalBitmap and(OrdinalBitmap other) {
+        final int capacity = Math.max(1, Math.min(size, other.size));
+        final OrdinalBitmap result = new OrdinalBitmap(new char[capacity], new Chunk[capacity], 0, 0);
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                final Chunk chunk = chunks[i].and(other.chunks[j]);
+                if (chunk.cardinality > 0) {
+                    result.keys[result.size] = keys[i];
+                    result.chunks[result.size++] = chunk;
+                    result.cardinality += chunk.cardinality;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return number of ordinals present in both, without building the intersection
+     */
+    int andCardinality(OrdinalBitmap other) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                count += chunks[i].andCardinality(other.chunks[j]);
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    OrdinalBitmap copy() {
+        final Chunk[] copies = new Chunk[Math.max(1, size)];
+        for (int i = 0; i < size; i++) {
+            copies[i] = chunks[i].copy();
+        }
+        return new OrdinalBitmap(Arrays.copyOf(keys, copies.length), copies, size, cardinality);
+    }
+
+    /**
+     * Low 16 bits of the ordinals of one chunk. Updates return the chunk to keep in place of this one, as an array
+     * chunk turns into a bitmap chunk once it grows past {@link #ARRAY_MAX} and back once it shrinks to half of it.
+     */
+    private abstract static class Chunk {
+        int cardinality;
+
+        abstract Chunk add(char low);
+
+        abstract Chunk remove(char low);
+
+        abstract boolean contains(char low);
+
+        /**
+         * @return the smallest low bits not less than from, -1 if there are none
+         */
+        abstract int next(int from);
+
+        /**
+         * @return number of low bits less than the given ones
+         */
+        abstract int rank(int low);
+
+        /**
+         * @param rank less than the cardinality
+         * @return low bits with rank low bits less than them
+         */
+        abstract int select(int rank);
+
+        abstract Chunk and(Chunk other);
+
+        abstract int andCardinality(Chunk other);
+
+        abstract Chunk copy();
+    }
+
+    private static final class ArrayChunk extends Chunk {
+        private char[] values;
+
+        ArrayChunk(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Chunk add(char low) {
+            int i = Arrays.binarySearch(values, 0, cardinality, low);
+            if (i >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_MAX) {
+                return toBitmap().add(low);
+            }
+            i = -i - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, cardinality * 2));
+            }
+            System.arraycopy(values, i, values, i + 1, cardinality - i);
+            values[i] = low;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        Chunk remove(char low) {
+            final int i = Arrays.binarySearch(values, 0, cardinality, low);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+                cardinality--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        @Override
+        int next(int from) {
+            final int i = Arrays.binarySearch(values, 0, cardinality, (char) from);
+            final int at = i >= 0 ? i : -i - 1;
+            return at < cardinality ? values[at] : -1;
+        }
+
+        @Override
+        int rank(int low) {
+            final int i = Arrays.binarySearch(values, 0, cardinality, (char) low);
+            return i >= 0 ? i : -i - 1;
+        }
+
+        @Override
+        int select(int rank) {
+            return values[rank];
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            final char[] result = new char[Math.min(cardinality, other.cardinality)];
+            int count = 0;
+            if (other instanceof ArrayChunk) {
+                final ArrayChunk array = (ArrayChunk) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        result[count++] = values[i];
+                    }
+                }
+            }
+            return new ArrayChunk(result, count);
+        }
+
+        @Override
+        int andCardinality(Chunk other) {
+            int count = 0;
+            if (other instanceof ArrayChunk) {
+                final ArrayChunk array = (ArrayChunk) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        count++;
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < cardinality; i++) {
+                    if (other.contains(values[i])) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+
+        @Override
+        Chunk copy() {
+            return new ArrayChunk(Arrays.copyOf(values, Math.max(1, cardinality)), cardinality);
+        }
+
+        private BitmapChunk toBitmap() {
+            final long[] words = new long[WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            return new BitmapChunk(words, cardinality);
+        }
+    }
+
+    private static final class BitmapChunk extends Chunk {
+        private final long[] words;
+
+        BitmapChunk(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Chunk add(char low) {
+            final long bit = 1L << low;
+            if ((words[low >>> 6] & bit) == 0) {
+                words[low >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        Chunk remove(char low) {
+            final long bit = 1L << low;
+            if ((words[low >>> 6] & bit) != 0) {
+                words[low >>> 6] &= ~bit;
+                cardinality--;
+                // not right at ARRAY_MAX, so that adding and removing around it doesn't convert every time
+                if (cardinality <= ARRAY_MAX / 2) {
+                    return toArray(words, cardinality);
+                }
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char low) {
+            return (words[low >>> 6] & 1L << low) != 0;
+        }
+
+        @Override
+        int next(int from) {
+            int w = from >>> 6;
+            long word = words[w] & -1L << from;
+            while (word == 0) {
+                if (++w == WORDS) {
+                    return -1;
+                }
+                word = words[w];
+            }
+            return w << 6 | Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        int rank(int low) {
+            final int w = low >>> 6;
+            int count = 0;
+            for (int i = 0; i < w; i++) {
+                count += Long.bitCount(words[i]);
+            }
+            // the shift is taken modulo 64, so a low at a word boundary counts nothing of its word
+            return (low & 63) == 0 ? count : count + Long.bitCount(words[w] & -1L >>> 64 - (low & 63));
+        }
+
+        @Override
+        int select(int rank) {
+            int remaining = rank;
+            int w = 0;
+            while (remaining >= Long.bitCount(words[w])) {
+                remaining -= Long.bitCount(words[w++]);
+            }
+            long word = words[w];
+            for (; remaining > 0; remaining--) {
+                word &= word - 1;
+            }
+            return w << 6 | Long.numberOfTrailingZeros(word);
+        }
+
+        @Override
+        Chunk and(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.and(this);
+            }
+            final long[] otherWords = ((BitmapChunk) other).words;
+            final long[] result = new long[WORDS];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                result[w] = words[w] & otherWords[w];
+                count += Long.bitCount(result[w]);
+            }
+            return count > ARRAY_MAX ? new BitmapChunk(result, count) : toArray(result, count);
+        }
+
+        @Override
+        int andCardinality(Chunk other) {
+            if (other instanceof ArrayChunk) {
+                return other.andCardinality(this);
+            }
+            final long[] otherWords = ((BitmapChunk) other).words;
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                count += Long.bitCount(words[w] & otherWords[w]);
+            }
+            return count;
+        }
+
+        @Override
+        Chunk copy() {
+            return new BitmapChunk(words.clone(), cardinality);
+        }
+
+        private static ArrayChunk toArray(long[] words, int cardinality) {
+            final char[] values = new char[Math.max(1, cardinality)];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    values[count++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                }
+            }
+            return new ArrayChunk(values, count);
+        }
+    }
+}
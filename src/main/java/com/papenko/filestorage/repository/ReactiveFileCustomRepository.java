@@ -0,0 +1,109 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.Id;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.entity.File;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.repository.NoRepositoryBean;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * non-blocking counterpart of {@link FileCustomRepository}, sending the same requests
+ */
+@NoRepositoryBean
+public interface ReactiveFileCustomRepository {
+    /**
+     * @see FileCustomRepository#findById
+     */
+    Mono<File> findById(String id);
+
+    /**
+     * @see FileCustomRepository#index
+     */
+    Mono<File> index(File file);
+
+    /**
+     * @see FileCustomRepository#findAllByTagsContainingAllIn
+     */
+    Mono<CursorPage<File>> findAllByTagsContainingAllIn(List<String> tags, Pageable pageable, String name,
+                                                        String category, String cursor);
+
+    /**
+     * @see FileCustomRepository#countTags
+     */
+    Mono<TagCounts> countTags(List<String> tags, String name, int size);
+
+    /**
+     * @see FileCustomRepository#stats
+     */
+    Mono<FileStats> stats(List<String> tags, String name, int top, boolean byTag, int size);
+
+    /**
+     * emits all matching files in no particular order, scrolling to the next batch only as they are consumed
+     */
+    Flux<File> streamAllByTagsContainingAllIn(List<String> tags, String name, String category);
+
+    /**
+     * @return {@link Id} of the stored file or {@link ErrorMessage} per file, in order of files
+     * @see FileCustomRepository#bulkIndex
+     */
+    Mono<List<ResponseEntityBody>> bulkIndex(List<File> files);
+
+    /**
+     * @see FileCustomRepository#addTags(String, List)
+     */
+    Mono<DocWriteResponse.Result> addTags(String id, List<String> tags);
+
+    /**
+     * @see FileCustomRepository#removeTags(String, List)
+     */
+    Mono<DocWriteResponse.Result> removeTags(String id, List<String> tags);
+
+    /**
+     * @see FileCustomRepository#addTags(List, List)
+     */
+    Mono<List<BulkItemResponse>> addTags(List<String> ids, List<String> tags);
+
+    /**
+     * @see FileCustomRepository#removeTags(List, List)
+     */
+    Mono<List<BulkItemResponse>> removeTags(List<String> ids, List<String> tags);
+
+    /**
+     * @see FileCustomRepository#addTagsByQuery
+     */
+    Mono<TagsByQueryReport> addTagsByQuery(List<String> filterTags, String name, List<String> tags);
+
+    /**
+     * @see FileCustomRepository#removeTagsByQuery
+     */
+    Mono<TagsByQueryReport> removeTagsByQuery(List<String> filterTags, String name, List<String> tags);
+
+    /**
+     * @see FileCustomRepository#delete
+     */
+    Mono<DocWriteResponse.Result> delete(String id, WriteRequest.RefreshPolicy refreshPolicy);
+
+    /**
+     * @see FileCustomRepository#backfillCategories
+     */
+    Mono<UpdateByQueryTask> backfillCategories();
+
+    /**
+     * @return empty if there is no such task
+     * @see FileCustomRepository#getUpdateByQueryTask
+     */
+    Mono<UpdateByQueryTask> getUpdateByQueryTask(String task);
+}
@@ -0,0 +1,534 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.Id;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.metrics.Timing;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregation;
+import org.elasticsearch.search.aggregations.bucket.terms.ParsedStringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.metrics.InternalTDigestPercentiles;
+import org.elasticsearch.search.aggregations.metrics.ParsedStats;
+import org.elasticsearch.search.aggregations.metrics.ParsedTDigestPercentiles;
+import org.elasticsearch.search.aggregations.metrics.ParsedTopHits;
+import org.elasticsearch.search.aggregations.metrics.StatsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.TopHitsAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.client.reactive.ReactiveElasticsearchClient;
+import org.springframework.data.elasticsearch.core.document.DocumentAdapters;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Repository;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+@Repository
+@Profile("reactive")
+public class ReactiveFileCustomRepositoryImpl implements ReactiveFileCustomRepository {
+    /**
+     * parsers of the aggregations requested, looked up by the type prefixed to their names with typed_keys
+     */
+    private static final NamedXContentRegistry AGGREGATION_PARSERS = new NamedXContentRegistry(List.of(
+            new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(StringTerms.NAME),
+                    (parser, name) -> ParsedStringTerms.fromXContent(parser, (String) name)),
+            new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(StatsAggregationBuilder.NAME),
+                    (parser, name) -> ParsedStats.fromXContent(parser, (String) name)),
+            new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(InternalTDigestPercentiles.NAME),
+                    (parser, name) -> ParsedTDigestPercentiles.fromXContent(parser, (String) name)),
+            new NamedXContentRegistry.Entry(Aggregation.class, new ParseField(TopHitsAggregationBuilder.NAME),
+                    (parser, name) -> ParsedTopHits.fromXContent(parser, (String) name))));
+
+    private final ReactiveElasticsearchClient client;
+    /**
+     * builds the requests, so that both stacks search and write exactly alike
+     */
+    private final FileRequests requests;
+    private final FileIndexManager fileIndexManager;
+    /**
+     * @see FileCustomRepositoryImpl#bulk
+     */
+    private final int bulkRejectionRetries;
+    private final TimeValue bulkRejectionBackoff;
+    private final MeterRegistry meterRegistry;
+    private final DistributionSummary searchHits;
+    private final DistributionSummary searchSkipped;
+    private final DistributionSummary bulkActions;
+    private final DistributionSummary bulkBytes;
+    private final DistributionSummary bulkFailures;
+    private final Counter bulkRejections;
+
+    /**
+     * registers the same meters as {@link FileCustomRepositoryImpl}, so that both stacks are watched alike
+     */
+    public ReactiveFileCustomRepositoryImpl(ReactiveElasticsearchClient client,
+                                            FileRequests requests,
+                                            FileIndexManager fileIndexManager,
+                                            @Value("${file-storage.bulk.rejection-retries:8}")
+                                                    int bulkRejectionRetries,
+                                            @Value("${file-storage.bulk.rejection-backoff-millis:50}")
+                                                    long bulkRejectionBackoffMillis,
+                                            MeterRegistry meterRegistry) {
+        this.client = client;
+        this.requests = requests;
+        this.fileIndexManager = fileIndexManager;
+        this.bulkRejectionRetries = bulkRejectionRetries;
+        this.bulkRejectionBackoff = TimeValue.timeValueMillis(bulkRejectionBackoffMillis);
+        this.meterRegistry = meterRegistry;
+        this.searchHits = DistributionSummary.builder("file.search.hits")
+                .description("hits returned per listing")
+                .register(meterRegistry);
+        this.searchSkipped = DistributionSummary.builder("file.search.skipped")
+                .description("hits Elasticsearch collected and skipped per offset-paginated listing")
+                .register(meterRegistry);
+        this.bulkActions = DistributionSummary.builder("file.bulk.actions")
+                .description("files per bulk request")
+                .register(meterRegistry);
+        this.bulkBytes = DistributionSummary.builder("file.bulk.bytes")
+                .description("estimated size of a bulk request")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.bulkFailures = DistributionSummary.builder("file.bulk.failures")
+                .description("files rejected per bulk request")
+                .register(meterRegistry);
+        this.bulkRejections = Counter.builder("file.bulk.rejections")
+                .description("bulk items rejected by a full write queue and resent")
+                .register(meterRegistry);
+    }
+
+    /**
+     * @see FileCustomRepositoryImpl#findById
+     */
+    @Override
+    public Mono<File> findById(String id) {
+        return timed("get", client.get(HttpHeaders.EMPTY, new GetRequest(requests.getWriteIndexName(), id)))
+                .map(result -> requests.convertToFile(DocumentAdapters.from(result)))
+                .switchIfEmpty(isRolledOver().flatMap(rolledOver -> rolledOver ?
+                        timed("getBySearch", client.search(HttpHeaders.EMPTY,
+                                new SearchRequest(requests.getReadIndexName())
+                                        .source(requests.getByIdSourceBuilder(id))).next())
+                                .map(hit -> requests.convertToFile(DocumentAdapters.from(hit))) :
+                        Mono.empty()));
+    }
+
+    @Override
+    public Mono<File> index(File file) {
+        final File created = FileRequests.withCreatedAt(file);
+        return findIndicesOfSuppliedIds(List.of(created))
+                .flatMap(indices -> timed("index", client.index(HttpHeaders.EMPTY,
+                        requests.toIndexRequest(created, indices)
+                                .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE))))
+                .map(response -> new File(response.getId(), created.getName(), created.getSize(), created.getTags(),
+                        created.getCreatedAt()));
+    }
+
+    /**
+     * @see FileCustomRepositoryImpl#findIndicesOfSuppliedIds
+     */
+    private Mono<Map<String, String>> findIndicesOfSuppliedIds(List<File> files) {
+        final List<String> ids = FileRequests.getSuppliedIds(files);
+        return ids.isEmpty() ?
+                Mono.just(Map.of()) :
+                isRolledOver().flatMap(rolledOver -> rolledOver ? findIndices(ids) : Mono.just(Map.of()));
+    }
+
+    /**
+     * @see FileIndexManager#isRolledOver
+     */
+    private Mono<Boolean> isRolledOver() {
+        return Mono.defer(() -> {
+            final Boolean rolledOver = fileIndexManager.isRolledOver();
+            if (rolledOver != null) {
+                return Mono.just(rolledOver);
+            }
+            return perform("getAlias", Mono.fromSupplier(() ->
+                    new Request(HttpMethod.GET.name(), "/_alias/" + requests.getReadIndexName())))
+                    .map(aliases -> {
+                        fileIndexManager.setBackingIndices(aliases.size());
+                        return aliases.size() > 1;
+                    });
+        });
+    }
+
+    /**
+     * @see FileCustomRepositoryImpl#findIndices
+     */
+    private Mono<Map<String, String>> findIndices(List<String> ids) {
+        final int lookups = (ids.size() + FileRequests.MAX_IDS_PER_LOOKUP - 1) / FileRequests.MAX_IDS_PER_LOOKUP;
+        return Flux.range(0, lookups)
+                .concatMap(lookup -> timed("findIndices", client.search(HttpHeaders.EMPTY,
+                        new SearchRequest(requests.getReadIndexName())
+                                .source(requests.getIndicesSourceBuilder(ids.subList(
+                                        lookup * FileRequests.MAX_IDS_PER_LOOKUP,
+                                        Math.min((lookup + 1) * FileRequests.MAX_IDS_PER_LOOKUP, ids.size())))))))
+                .collectMap(SearchHit::getId, SearchHit::getIndex, HashMap::new);
+    }
+
+    /**
+     * @see FileCustomRepositoryImpl#edit
+     */
+    private Mono<DocWriteResponse.Result> edit(String id, Function<String, Mono<DocWriteResponse.Result>> send) {
+        return send.apply(requests.getWriteIndexName())
+                .flatMap(result -> result != DocWriteResponse.Result.NOT_FOUND ?
+                        Mono.just(result) :
+                        findIndices(List.of(id)).flatMap(indices -> indices.containsKey(id) ?
+                                send.apply(indices.get(id)) :
+                                Mono.just(result)));
+    }
+
+    @Override
+    public Mono<CursorPage<File>> findAllByTagsContainingAllIn(List<String> tags, Pageable pageable, String name,
+                                                               String category, String cursor) {
+        return search("search", Mono.fromSupplier(() ->
+                requests.getSearchSourceBuilder(tags, pageable, name, category, cursor)))
+                .map(response -> {
+                    final CursorPage<File> page = requests.convertToPage(response, pageable);
+                    searchHits.record(page.getNumberOfElements());
+                    if (cursor == null) {
+                        searchSkipped.record(pageable.getOffset());
+                    }
+                    return page;
+                });
+    }
+
+    @Override
+    public Mono<TagCounts> countTags(List<String> tags, String name, int size) {
+        return search("countTags", Mono.fromSupplier(() -> requests.getTagCountsSourceBuilder(tags, name, size)))
+                .map(requests::convertToTagCounts);
+    }
+
+    @Override
+    public Mono<FileStats> stats(List<String> tags, String name, int top, boolean byTag, int size) {
+        return search("stats", Mono.fromSupplier(() -> requests.getStatsSourceBuilder(tags, name, top, byTag, size)))
+                .map(response -> requests.convertToStats(response, byTag));
+    }
+
+    /**
+     * Goes through the low-level client, because {@link ReactiveElasticsearchClient#search} only emits hits,
+     * while a page needs the total as well and tag counts and stats need the aggregations.
+     */
+    private Mono<SearchResponse> search(String operation, Mono<SearchSourceBuilder> source) {
+        return timed(operation, source
+                .flatMap(builder -> client.execute(webClient -> webClient.post()
+                        .uri("/{index}/_search?typed_keys=true", requests.getReadIndexName())
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(builder.toString())
+                        .exchange()))
+                .flatMap(response -> response.bodyToMono(byte[].class)
+                        .defaultIfEmpty(new byte[0])
+                        .flatMap(body -> response.statusCode().isError() ?
+                                Mono.error(new ElasticsearchStatusException(new String(body),
+                                        RestStatus.fromCode(response.rawStatusCode()))) :
+                                Mono.just(parseSearchResponse(body)))));
+    }
+
+    @Override
+    public Flux<File> streamAllByTagsContainingAllIn(List<String> tags, String name, String category) {
+        return timed("scroll", client.scroll(HttpHeaders.EMPTY, new SearchRequest(requests.getReadIndexName())
+                .source(requests.getScrollSourceBuilder(tags, name, category))
+                .scroll(FileRequests.SCROLL_KEEP_ALIVE)))
+                .map(hit -> requests.convertToFile(DocumentAdapters.from(hit)));
+    }
+
+    @Override
+    public Mono<List<ResponseEntityBody>> bulkIndex(List<File> files) {
+        return findIndicesOfSuppliedIds(files)
+                .flatMap(indices -> bulk("bulk", requests.toBulkRequests(files, indices)))
+                .map(items -> {
+                    final List<ResponseEntityBody> results = new ArrayList<>(items.size());
+                    for (BulkItemResponse item : items) {
+                        results.add(item.isFailed() ?
+                                new ErrorMessage(false, item.getFailureMessage()) :
+                                new Id(item.getId()));
+                    }
+                    return results;
+                });
+    }
+
+    @Override
+    public Mono<DocWriteResponse.Result> addTags(String id, List<String> tags) {
+        return edit(id, index ->
+                update("addTags", requests.getTagsUpdateRequest(index, id, FileRequests.ADD_TAGS_SCRIPT, tags)));
+    }
+
+    @Override
+    public Mono<DocWriteResponse.Result> removeTags(String id, List<String> tags) {
+        return edit(id, index ->
+                update("removeTags", requests.getTagsUpdateRequest(index, id, FileRequests.REMOVE_TAGS_SCRIPT, tags)));
+    }
+
+    @Override
+    public Mono<List<BulkItemResponse>> addTags(List<String> ids, List<String> tags) {
+        return bulkTags("bulkAddTags", ids, FileRequests.ADD_TAGS_SCRIPT, tags);
+    }
+
+    @Override
+    public Mono<List<BulkItemResponse>> removeTags(List<String> ids, List<String> tags) {
+        return bulkTags("bulkRemoveTags", ids, FileRequests.REMOVE_TAGS_SCRIPT, tags);
+    }
+
+    private Mono<List<BulkItemResponse>> bulkTags(String operation, List<String> ids, String script,
+                                                  List<String> tags) {
+        return Mono.fromSupplier(() -> requests.toTagsBulkRequests(ids, Map.of(), script, tags))
+                .flatMap(bulkRequests -> bulkUpdate(operation, bulkRequests));
+    }
+
+    /**
+     * @see FileCustomRepositoryImpl#bulkUpdate
+     */
+    private Mono<List<BulkItemResponse>> bulkUpdate(String operation, List<BulkRequest> bulkRequests) {
+        return bulk(operation, bulkRequests).flatMap(items -> {
+            final List<Integer> missed = FileRequests.getMissedPositions(items);
+            if (missed.isEmpty()) {
+                return Mono.just(items);
+            }
+            final List<String> missedIds = new ArrayList<>(missed.size());
+            for (int position : missed) {
+                missedIds.add(items.get(position).getId());
+            }
+            return findIndices(missedIds).flatMap(indices -> {
+                final Map<Integer, DocWriteRequest<?>> redirected =
+                        FileRequests.redirect(bulkRequests, missed, indices);
+                final Iterator<Integer> positions = redirected.keySet().iterator();
+                return bulk(operation,
+                        requests.toBulkRequests(redirected.values(), bulkRequests.get(0).getRefreshPolicy()))
+                        .map(retried -> {
+                            for (BulkItemResponse item : retried) {
+                                items.set(positions.next(), item);
+                            }
+                            return items;
+                        });
+            });
+        });
+    }
+
+    private Mono<List<BulkItemResponse>> bulk(String operation, List<BulkRequest> bulkRequests) {
+        return Flux.fromIterable(bulkRequests)
+                .concatMap(bulkRequest -> bulk(operation, bulkRequest))
+                .concatMapIterable(items -> items)
+                .collectList();
+    }
+
+    /**
+     * Sends the bulk request, then resends the items Elasticsearch rejected with 429 because its write queue was full
+     * after the same backoff as {@link FileCustomRepositoryImpl#bulk}, waiting on a timer instead of a thread.
+     *
+     * @return item per request, in order of requests; still rejected ones once retries are exhausted
+     */
+    Mono<List<BulkItemResponse>> bulk(String operation, BulkRequest bulkRequest) {
+        return Mono.defer(() -> {
+            final BulkItemResponse[] items = new BulkItemResponse[bulkRequest.numberOfActions()];
+            final Iterator<TimeValue> backoff = BackoffPolicy
+                    .exponentialBackoff(bulkRejectionBackoff, bulkRejectionRetries).iterator();
+            return resend(operation, bulkRequest, bulkRequest, null, items, backoff)
+                    .then(Mono.fromSupplier(() -> Arrays.asList(items)));
+        });
+    }
+
+    /**
+     * @param request the items of the bulk request still to send
+     * @param positions position in the bulk request per item of the request, null when it's the bulk request
+     */
+    private Mono<Void> resend(String operation, BulkRequest bulkRequest, BulkRequest request, List<Integer> positions,
+                              BulkItemResponse[] items, Iterator<TimeValue> backoff) {
+        bulkActions.record(request.numberOfActions());
+        bulkBytes.record(request.estimatedSizeInBytes());
+        return timed(operation, client.bulk(HttpHeaders.EMPTY, request)).flatMap(response -> {
+            final List<Integer> rejected = new ArrayList<>();
+            int failures = 0;
+            for (BulkItemResponse item : response.getItems()) {
+                final int position = positions == null ? item.getItemId() : positions.get(item.getItemId());
+                items[position] = item;
+                if (item.isFailed()) {
+                    failures++;
+                    if (item.status() == RestStatus.TOO_MANY_REQUESTS) {
+                        rejected.add(position);
+                    }
+                }
+            }
+            bulkFailures.record(failures);
+            if (rejected.isEmpty() || !backoff.hasNext()) {
+                return Mono.empty();
+            }
+            bulkRejections.increment(rejected.size());
+            final BulkRequest retry = new BulkRequest().setRefreshPolicy(bulkRequest.getRefreshPolicy());
+            for (int position : rejected) {
+                retry.add(bulkRequest.requests().get(position));
+            }
+            return Mono.delay(Duration.ofMillis(backoff.next().millis()))
+                    .then(Mono.defer(() -> resend(operation, bulkRequest, retry, rejected, items, backoff)));
+        });
+    }
+
+    @Override
+    public Mono<DocWriteResponse.Result> delete(String id, WriteRequest.RefreshPolicy refreshPolicy) {
+        return edit(id, index -> timed("delete", client.delete(HttpHeaders.EMPTY,
+                new DeleteRequest(index, id).setRefreshPolicy(refreshPolicy)))
+                .map(DocWriteResponse::getResult)
+                .onErrorResume(ReactiveFileCustomRepositoryImpl::isNotFound,
+                        e -> Mono.just(DocWriteResponse.Result.NOT_FOUND))
+                .defaultIfEmpty(DocWriteResponse.Result.NOT_FOUND));
+    }
+
+    private Mono<DocWriteResponse.Result> update(String operation, UpdateRequest request) {
+        return timed(operation, client.update(HttpHeaders.EMPTY, request))
+                .map(DocWriteResponse::getResult)
+                .onErrorResume(ReactiveFileCustomRepositoryImpl::isNotFound,
+                        e -> Mono.just(DocWriteResponse.Result.NOT_FOUND))
+                .defaultIfEmpty(DocWriteResponse.Result.NOT_FOUND);
+    }
+
+    @Override
+    public Mono<TagsByQueryReport> addTagsByQuery(List<String> filterTags, String name, List<String> tags) {
+        return awaitUpdateByQuery("addTagsByQuery",
+                Mono.fromSupplier(() -> requests.getAddTagsByQueryRequest(filterTags, name, tags)));
+    }
+
+    @Override
+    public Mono<TagsByQueryReport> removeTagsByQuery(List<String> filterTags, String name, List<String> tags) {
+        return awaitUpdateByQuery("removeTagsByQuery", Mono.fromSupplier(() ->
+                requests.getRemoveTagsByQueryRequest(filterTags, name, tags)));
+    }
+
+    @Override
+    public Mono<UpdateByQueryTask> backfillCategories() {
+        return submitUpdateByQuery("backfillCategories", Mono.fromSupplier(requests::getCategoryBackfillRequest))
+                .map(task -> new UpdateByQueryTask(task, false, null, null));
+    }
+
+    /**
+     * @return ID of the task, see {@link FileRequests#toUpdateByQueryTaskRequest}
+     */
+    private Mono<String> submitUpdateByQuery(String operation, Mono<UpdateByQueryRequest> request) {
+        return perform(operation, request.map(FileRequests::toUpdateByQueryTaskRequest))
+                .map(FileRequests::parseTask);
+    }
+
+    /**
+     * checks the task like {@link FileCustomRepositoryImpl} does, pausing on a timer instead of a thread
+     */
+    private Mono<TagsByQueryReport> awaitUpdateByQuery(String operation, Mono<UpdateByQueryRequest> request) {
+        return submitUpdateByQuery(operation, request).flatMap(task -> awaitTask(task, FileRequests.FIRST_TASK_POLL));
+    }
+
+    private Mono<TagsByQueryReport> awaitTask(String task, TimeValue pause) {
+        return getUpdateByQueryTask(task)
+                .flatMap(status -> status.isCompleted() ?
+                        Mono.fromCallable(() -> FileRequests.toTagsByQueryReport(task, status)) :
+                        Mono.delay(Duration.ofMillis(pause.millis()))
+                                .then(Mono.defer(() -> awaitTask(task, FileRequests.nextTaskPoll(pause)))))
+                .switchIfEmpty(Mono.fromCallable(() -> FileRequests.toTagsByQueryReport(task, null)));
+    }
+
+    @Override
+    public Mono<UpdateByQueryTask> getUpdateByQueryTask(String task) {
+        return perform("getUpdateByQueryTask", Mono.fromSupplier(() -> FileRequests.getTaskRequest(task)))
+                .map(status -> FileRequests.toUpdateByQueryTask(task, status))
+                // also for IDs that aren't node:number
+                .onErrorResume(e -> isNotFound(e) || e instanceof ElasticsearchException &&
+                        ((ElasticsearchException) e).status() == RestStatus.BAD_REQUEST, e -> Mono.empty());
+    }
+
+    /**
+     * sends a request built for the low-level client through the web client
+     *
+     * @return the JSON response as a map
+     */
+    private Mono<Map<String, Object>> perform(String operation, Mono<Request> request) {
+        return timed(operation, request
+                .flatMap(lowLevel -> Mono.fromCallable(() -> lowLevel.getEntity() == null ?
+                        new byte[0] :
+                        EntityUtils.toByteArray(lowLevel.getEntity()))
+                        .flatMap(entity -> client.execute(webClient -> {
+                            final WebClient.RequestBodySpec spec = webClient
+                                    .method(HttpMethod.valueOf(lowLevel.getMethod()))
+                                    .uri(builder -> {
+                                        builder.path(lowLevel.getEndpoint());
+                                        lowLevel.getParameters().forEach(builder::queryParam);
+                                        return builder.build();
+                                    });
+                            return (entity.length == 0 ?
+                                    spec :
+                                    spec.contentType(MediaType.APPLICATION_JSON).bodyValue(entity))
+                                    .exchange();
+                        })))
+                .flatMap(response -> response.bodyToMono(byte[].class)
+                        .defaultIfEmpty(new byte[0])
+                        .flatMap(body -> response.statusCode().isError() ?
+                                Mono.error(new ElasticsearchStatusException(new String(body),
+                                        RestStatus.fromCode(response.rawStatusCode()))) :
+                                Mono.just(XContentHelper.convertToMap(new BytesArray(body), false,
+                                        XContentType.JSON).v2()))));
+    }
+
+    private <T> Mono<T> timed(String operation, Mono<T> call) {
+        return Timing.mono(meterRegistry, FileCustomRepository.TIMER, "operation", operation, call);
+    }
+
+    private <T> Flux<T> timed(String operation, Flux<T> call) {
+        return Timing.flux(meterRegistry, FileCustomRepository.TIMER, "operation", operation, call);
+    }
+
+    private static boolean isNotFound(Throwable e) {
+        return e instanceof ElasticsearchException && ((ElasticsearchException) e).status() == RestStatus.NOT_FOUND;
+    }
+
+    static SearchResponse parseSearchResponse(byte[] body) {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(AGGREGATION_PARSERS,
+                DeprecationHandler.THROW_UNSUPPORTED_OPERATION, body)) {
+            return SearchResponse.fromXContent(parser);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.papenko.filestorage.repository;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.papenko.filestorage.exception.FileFind400Exception;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Encodes sort values of the last hit of a page into an opaque url-safe cursor and back,
+ * so the next page can be fetched with search_after instead of skipping previous hits.
+ */
+final class SearchAfterCursor {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private SearchAfterCursor() {
+    }
+
+    static String encode(Object[] sortValues) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(MAPPER.writeValueAsBytes(sortValues));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("sort values can not be serialized", e);
+        }
+    }
+
+    static Object[] decode(String cursor) {
+        try {
+            final Object[] sortValues = MAPPER.readValue(Base64.getUrlDecoder().decode(cursor), Object[].class);
+            if (sortValues == null || sortValues.length == 0) {
+                throw new FileFind400Exception("cursor is invalid");
+            }
+            for (Object sortValue : sortValues) {
+                if (!(sortValue instanceof String || sortValue instanceof Number)) {
+                    throw new FileFind400Exception("cursor is invalid");
+                }
+            }
+            return sortValues;
+        } catch (IllegalArgumentException | IOException e) {
+            throw new FileFind400Exception("cursor is invalid");
+        }
+    }
+}
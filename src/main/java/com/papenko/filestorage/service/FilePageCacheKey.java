@@ -0,0 +1,75 @@
+package com.papenko.filestorage.service;
+
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Identifies a listing: files containing all tags (so their order, duplicates and case don't matter, as tags and
+ * categories are matched case-insensitively), name query, category, page, size, sort and cursor. The write
+ * generation it was read at makes pages read before any later write unreachable.
+ */
+public final class FilePageCacheKey {
+    private final long generation;
+    private final Set<String> tags;
+    private final String name;
+    private final String category;
+    private final int page;
+    private final int size;
+    private final Sort sort;
+    private final String cursor;
+
+    FilePageCacheKey(long generation, List<String> tags, String name, String category, int page, int size, Sort sort,
+                     String cursor) {
+        this.generation = generation;
+        this.tags = normalize(tags);
+        this.name = name;
+        this.category = category == null ? null : category.toLowerCase(Locale.ROOT);
+        this.page = page;
+        this.size = size;
+        this.sort = sort;
+        this.cursor = cursor;
+    }
+
+    /**
+     * @return the tags lowercased the way the tags field normalizes them, in a set
+     */
+    static Set<String> normalize(List<String> tags) {
+        if (tags == null) {
+            return Set.of();
+        }
+        final Set<String> normalized = new TreeSet<>();
+        for (String tag : tags) {
+            normalized.add(tag.toLowerCase(Locale.ROOT));
+        }
+        return normalized;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FilePageCacheKey that = (FilePageCacheKey) o;
+        return generation == that.generation &&
+                page == that.page &&
+                size == that.size &&
+                tags.equals(that.tags) &&
+                Objects.equals(name, that.name) &&
+                Objects.equals(category, that.category) &&
+                sort.equals(that.sort) &&
+                Objects.equals(cursor, that.cursor);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(generation, tags, name, category, page, size, sort, cursor);
+    }
+}
@@ -1,39 +1,265 @@
 package com.papenko.filestorage.service;
 
-import com.papenko.filestorage.dto.FileValidityCheckReport;
-import com.papenko.filestorage.dto.SlimFilePage;
+import com.papenko.filestorage.dto.*;
 import com.papenko.filestorage.entity.File;
 import com.papenko.filestorage.exception.*;
+import com.papenko.filestorage.metrics.Timing;
 import com.papenko.filestorage.repository.FileCustomRepository;
-import com.papenko.filestorage.repository.FileRepository;
+import com.papenko.filestorage.repository.FileWrite;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.apache.logging.log4j.util.Strings;
-import org.springframework.data.domain.Page;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 @Service
 public class FileService {
-    private final FileRepository fileRepository;
+    /**
+     * timer of every public method, tagged with method and exception
+     */
+    static final String TIMER = "file.service";
+    /**
+     * counter of listings, tagged with flight "executed" or "coalesced" into an equal listing already running
+     */
+    static final String LISTINGS = "file.service.listings";
+    /**
+     * Elasticsearch refuses to return more hits per bucket by default (index.max_inner_result_window)
+     */
+    static final int MAX_STATS_TOP = 100;
+    /**
+     * error of a bulk file that can't be read; the parser can't find where the next one starts, so it's the last item
+     */
+    static final String FILE_MALFORMED = "file is malformed, the rest of the body was not read";
+    /**
+     * error of an import line that can't be read; the next line is read as usual
+     */
+    static final String LINE_MALFORMED = "line is malformed";
+    /**
+     * path segments routed to other endpoints than GET and DELETE /file/{ID}, so files with such IDs couldn't be read
+     * or deleted by ID
+     */
+    static final Set<String> RESERVED_IDS = Set.of("tags", "_stats", "_export", "_bulk", "_import", "_tags");
     private final FileCustomRepository fileCustomRepository;
+    /**
+     * max number of files held in memory and written with one {@link FileCustomRepository#bulkIndex} call
+     */
+    private final int bulkMaxActions;
+    private final MeterRegistry meterRegistry;
+    /**
+     * read through by {@link #findById}, every write invalidates the files it touches once it has been made
+     */
+    private final Cache<String, File> fileByIdCache;
+    /**
+     * read through by {@link #findPageByTagsAndName} at the current {@link #writeGeneration}
+     */
+    private final Cache<FilePageCacheKey, SlimFilePage> filePageCache;
+    /**
+     * read through by {@link #countTags} at the current {@link #writeGeneration}
+     */
+    private final Cache<TagCountsCacheKey, TagCounts> tagCountsCache;
+    /**
+     * read through by {@link #stats} at the current {@link #writeGeneration}
+     */
+    private final Cache<FileStatsCacheKey, FileStats> fileStatsCache;
+    /**
+     * incremented once every write has been made, so that listings started after a write never hit pages cached
+     * before it
+     */
+    private final AtomicLong writeGeneration = new AtomicLong();
+    /**
+     * shares one search between equal listings requested at the same time while the listing cache is disabled,
+     * null otherwise as the cache already makes them wait for the one loading the page
+     */
+    private final SingleFlight<FilePageCacheKey, SlimFilePage> listingFlights;
+    /**
+     * single file writes go through it if it is enabled
+     */
+    private final IngestQueue ingestQueue;
 
-    public FileService(FileRepository fileRepository, FileCustomRepository fileCustomRepository) {
-        this.fileRepository = fileRepository;
+    public FileService(FileCustomRepository fileCustomRepository,
+                       @Value("${file-storage.bulk.max-actions:1000}") int bulkMaxActions,
+                       MeterRegistry meterRegistry, Cache<String, File> fileByIdCache,
+                       Cache<FilePageCacheKey, SlimFilePage> filePageCache,
+                       Cache<TagCountsCacheKey, TagCounts> tagCountsCache,
+                       Cache<FileStatsCacheKey, FileStats> fileStatsCache, IngestQueue ingestQueue) {
         this.fileCustomRepository = fileCustomRepository;
+        this.bulkMaxActions = bulkMaxActions;
+        this.meterRegistry = meterRegistry;
+        this.fileByIdCache = fileByIdCache;
+        this.filePageCache = filePageCache;
+        this.tagCountsCache = tagCountsCache;
+        this.fileStatsCache = fileStatsCache;
+        this.listingFlights = isDisabled(filePageCache) ? new SingleFlight<>(meterRegistry, LISTINGS) : null;
+        this.ingestQueue = ingestQueue;
+    }
+
+    public File findById(String id) {
+        return Timing.record(meterRegistry, TIMER, "method", "findById", () -> {
+            final File file = fileByIdCache.get(id, fileCustomRepository::findById);
+            if (file == null) {
+                throw new FileFind404Exception();
+            }
+            return file;
+        });
     }
 
     public File uploadFile(File file) {
-        final FileValidityCheckReport report = isFileValid(file);
-        if (!report.isValid()) {
-            throw new FileUpload400Exception(report.getErrorMessage());
+        return uploadFile(file, IngestAck.FLUSH);
+    }
+
+    /**
+     * @param ack when to return if the {@link IngestQueue} is enabled, ignored otherwise
+     */
+    public File uploadFile(File file, IngestAck ack) {
+        return Timing.record(meterRegistry, TIMER, "method", "uploadFile", () -> {
+            final FileValidityCheckReport report = isFileValid(file);
+            if (!report.isValid()) {
+                throw new FileUpload400Exception(report.getErrorMessage());
+            }
+            if (ingestQueue.isEnabled()) {
+                // the ID is assigned here rather than by Elasticsearch, so that it can be returned before the flush
+                final FileWrite write = file.getId() == null ?
+                        FileWrite.indexNew(new File(UUIDs.base64UUID(), file.getName(), file.getSize(),
+                                file.getTags(), file.getCreatedAt())) :
+                        FileWrite.index(file);
+                final BulkItemResponse item = enqueue(write, ack);
+                if (item != null && item.isFailed()) {
+                    throw new UncategorizedElasticsearchException(item.getFailureMessage(),
+                            item.getFailure().getCause());
+                }
+                return write.getFile();
+            }
+            try {
+                return fileCustomRepository.index(file);
+            } finally {
+                invalidate(file.getId());
+            }
+        });
+    }
+
+    /**
+     * Queues the write and invalidates the file once it is flushed, whether the caller waits for it or not.
+     *
+     * @return item of the write if acknowledged on flush, null if on enqueue
+     */
+    private BulkItemResponse enqueue(FileWrite write, IngestAck ack) {
+        final CompletableFuture<BulkItemResponse> flushed = ingestQueue.submit(write)
+                .whenComplete((item, e) -> invalidate(write.getId()));
+        if (ack == IngestAck.ENQUEUE) {
+            return null;
+        }
+        try {
+            return flushed.get(ingestQueue.getAckTimeout().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UncategorizedElasticsearchException(e.getCause().toString(), e.getCause());
+        } catch (TimeoutException e) {
+            // the write stays queued, and the file is still invalidated once it is flushed
+            throw new FileIngest504Exception();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileIngest504Exception();
+        }
+    }
+
+    /**
+     * validates and stores files in bounded batches while reading them, so the whole upload never sits in memory
+     *
+     * @param files null for a file that could not be read, after which no file follows
+     * @return {@link Id} of the stored file or {@link ErrorMessage} per file, in order of files
+     */
+    public BulkReport uploadFiles(Iterator<File> files) {
+        return Timing.record(meterRegistry, TIMER, "method", "uploadFiles", () -> {
+            final List<ResponseEntityBody> items = new ArrayList<>();
+            uploadInBatches(files, FILE_MALFORMED, items::addAll);
+            return new BulkReport(items);
+        });
+    }
+
+    /**
+     * Validates and stores files like {@link #uploadFiles}, but passes the results on batch by batch, so that neither
+     * the files nor their results ever sit in memory. The next file is read only once the previous batch is stored.
+     *
+     * @param files  file per line, null for a line that could not be parsed
+     * @param result {@link Id} of the stored file or {@link ErrorMessage} per line, in order of lines
+     */
+    public void importFiles(Iterator<File> files, Consumer<List<ResponseEntityBody>> result) {
+        Timing.run(meterRegistry, TIMER, "method", "importFiles", () -> uploadInBatches(files, LINE_MALFORMED, result));
+    }
+
+    /**
+     * Passes on results once every file among them has been stored, each time a batch is full or as many invalid
+     * files as a batch holds are waiting, so that at most twice {@link #bulkMaxActions} results are held at a time.
+     */
+    private void uploadInBatches(Iterator<File> files, String malformed, Consumer<List<ResponseEntityBody>> result) {
+        final List<ResponseEntityBody> items = new ArrayList<>(bulkMaxActions);
+        final List<File> batch = new ArrayList<>(bulkMaxActions);
+        final List<Integer> batchPositions = new ArrayList<>(bulkMaxActions);
+
+        while (files.hasNext()) {
+            final File file = files.next();
+            final FileValidityCheckReport report = file == null ?
+                    new FileValidityCheckReport(false, malformed) :
+                    isFileValid(file);
+            if (report.isValid()) {
+                batchPositions.add(items.size());
+                items.add(null);
+                batch.add(file);
+            } else {
+                items.add(new ErrorMessage(false, report.getErrorMessage()));
+            }
+            if (batch.size() == bulkMaxActions || items.size() - batch.size() == bulkMaxActions) {
+                flush(batch, batchPositions, items);
+                result.accept(items);
+                items.clear();
+            }
+        }
+        flush(batch, batchPositions, items);
+        if (!items.isEmpty()) {
+            result.accept(items);
+        }
+    }
+
+    private void flush(List<File> batch, List<Integer> batchPositions, List<ResponseEntityBody> items) {
+        if (batch.isEmpty()) {
+            return;
         }
-        return fileRepository.save(file);
+        final List<ResponseEntityBody> results;
+        try {
+            results = fileCustomRepository.bulkIndex(batch);
+        } finally {
+            batch.forEach(file -> invalidate(file.getId()));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            items.set(batchPositions.get(i), results.get(i));
+        }
+        batch.clear();
+        batchPositions.clear();
     }
 
-    FileValidityCheckReport isFileValid(File file) {
+    static FileValidityCheckReport isFileValid(File file) {
         if (Strings.isBlank(file.getName())) {
             return new FileValidityCheckReport(false, "file name is missing");
         }
@@ -43,41 +269,302 @@ public class FileService {
         if (file.getSize() < 0) {
             return new FileValidityCheckReport(false, "file size is negative");
         }
+        if (file.getId() != null && RESERVED_IDS.contains(file.getId())) {
+            return new FileValidityCheckReport(false, "file ID is reserved");
+        }
         return new FileValidityCheckReport(true, null);
     }
 
-    public void delete(String id) {
-        if (!fileRepository.existsById(id)) {
-            throw new FileDelete404Exception();
-        }
-        fileRepository.deleteById(id);
+    /**
+     * @param refreshPolicy IMMEDIATE to make the deletion visible to searches right away, NONE to skip refreshing
+     */
+    public void delete(String id, WriteRequest.RefreshPolicy refreshPolicy) {
+        Timing.run(meterRegistry, TIMER, "method", "delete", () -> {
+            final DocWriteResponse.Result result;
+            try {
+                result = fileCustomRepository.delete(id, refreshPolicy);
+            } finally {
+                invalidate(id);
+            }
+            if (result == DocWriteResponse.Result.NOT_FOUND) {
+                throw new FileDelete404Exception();
+            }
+        });
     }
 
     public void updateTags(String id, List<String> tags) {
-        final Optional<File> fileOptional = fileRepository.findById(id);
-        if (fileOptional.isEmpty()) {
+        updateTags(id, tags, IngestAck.FLUSH);
+    }
+
+    /**
+     * @param ack when to return if the {@link IngestQueue} is enabled, ignored otherwise;
+     *            on enqueue a missing file isn't reported
+     */
+    public void updateTags(String id, List<String> tags, IngestAck ack) {
+        Timing.run(meterRegistry, TIMER, "method", "updateTags", () -> {
+            final List<String> normalizedTags = File.normalizeTags(tags);
+            if (ingestQueue.isEnabled()) {
+                checkQueuedTagsEdit(enqueue(FileWrite.addTags(id, normalizedTags), ack), FileService::checkTagsAdded);
+                return;
+            }
+            final DocWriteResponse.Result result;
+            try {
+                result = fileCustomRepository.addTags(id, normalizedTags);
+            } finally {
+                invalidate(id);
+            }
+            checkTagsAdded(result);
+        });
+    }
+
+    public void deleteTags(String id, List<String> tags) {
+        deleteTags(id, tags, IngestAck.FLUSH);
+    }
+
+    /**
+     * @param ack when to return if the {@link IngestQueue} is enabled, ignored otherwise;
+     *            on enqueue neither a missing file nor a missing tag is reported
+     */
+    public void deleteTags(String id, List<String> tags, IngestAck ack) {
+        Timing.run(meterRegistry, TIMER, "method", "deleteTags", () -> {
+            final List<String> normalizedTags = File.normalizeTags(tags);
+            if (ingestQueue.isEnabled()) {
+                checkQueuedTagsEdit(enqueue(FileWrite.removeTags(id, normalizedTags), ack),
+                        FileService::checkTagsRemoved);
+                return;
+            }
+            final DocWriteResponse.Result result;
+            try {
+                result = fileCustomRepository.removeTags(id, normalizedTags);
+            } finally {
+                invalidate(id);
+            }
+            checkTagsRemoved(result);
+        });
+    }
+
+    /**
+     * @param item null if acknowledged on enqueue
+     */
+    private static void checkQueuedTagsEdit(BulkItemResponse item, Consumer<DocWriteResponse.Result> check) {
+        if (item == null) {
+            return;
+        }
+        if (item.isFailed() && item.status() != RestStatus.NOT_FOUND) {
+            throw new UncategorizedElasticsearchException(item.getFailureMessage(), item.getFailure().getCause());
+        }
+        check.accept(item.isFailed() ? DocWriteResponse.Result.NOT_FOUND : item.getResponse().getResult());
+    }
+
+    static void checkTagsAdded(DocWriteResponse.Result result) {
+        if (result == DocWriteResponse.Result.NOT_FOUND) {
             throw new FileUpdateTags404Exception();
         }
-        fileRepository.save(fileOptional.get().withTags(tags));
     }
-    
-    public void deleteTags(String id, List<String> tags) {
-        final Optional<File> fileOptional = fileRepository.findById(id);
-        if (fileOptional.isEmpty()) {
+
+    static void checkTagsRemoved(DocWriteResponse.Result result) {
+        if (result == DocWriteResponse.Result.NOT_FOUND) {
             throw new FileDeleteTags404Exception();
         }
-        final File file = fileOptional.get();
-        if (!file.getTags().containsAll(tags)) {
+        if (result == DocWriteResponse.Result.NOOP) {
             throw new FileDeleteTags400Exception();
         }
-        final File withTags = file.withTags(file.getTags().stream()
-                .filter(tag -> !tags.contains(tag))
-                .collect(Collectors.toList()));
-        fileRepository.save(withTags);
     }
 
-    public SlimFilePage findPageByTagsAndName(List<String> tags, Pageable pageable, String name) {
-        Page<File> found = fileCustomRepository.findAllByTagsContainingAllIn(tags, pageable, name);
-        return new SlimFilePage(found.getTotalElements(), found.getContent());
+    /**
+     * adds tags to many files at once, see {@link #editTagsOfMany}
+     */
+    public ResponseEntityBody updateTagsOfMany(TagsEdit edit) {
+        return Timing.record(meterRegistry, TIMER, "method", "updateTagsOfMany", () -> {
+            final List<String> tags = checkTagsEdit(edit, FileUpdateTags400Exception::new);
+            return editTagsOfMany(edit,
+                    ids -> fileCustomRepository.addTags(ids, tags), FileService::checkTagsAdded,
+                    filter -> fileCustomRepository.addTagsByQuery(filter.getTags(), filter.getQ(), tags));
+        });
+    }
+
+    /**
+     * removes tags from many files at once, see {@link #editTagsOfMany}
+     */
+    public ResponseEntityBody deleteTagsOfMany(TagsEdit edit) {
+        return Timing.record(meterRegistry, TIMER, "method", "deleteTagsOfMany", () -> {
+            final List<String> tags = checkTagsEdit(edit, FileDeleteTags400Exception::new);
+            return editTagsOfMany(edit,
+                    ids -> fileCustomRepository.removeTags(ids, tags), FileService::checkTagsRemoved,
+                    filter -> fileCustomRepository.removeTagsByQuery(filter.getTags(), filter.getQ(), tags));
+        });
+    }
+
+    /**
+     * @return normalized tags of the edit
+     */
+    static List<String> checkTagsEdit(TagsEdit edit, Function<String, RuntimeException> badRequest) {
+        if ((edit.getIds() == null) == (edit.getFilter() == null)) {
+            throw badRequest.apply("either ids or filter must be passed");
+        }
+        if (edit.getTags() == null || edit.getTags().isEmpty()) {
+            throw badRequest.apply("tags are missing");
+        }
+        return File.normalizeTags(edit.getTags());
+    }
+
+    /**
+     * Edits the files with the given IDs in bulk and reports each of them like the single file edit would:
+     * {@link BulkReport} with {@link Id} or {@link ErrorMessage} per ID, in order of IDs.
+     * Edits all files matching the filter with a single update by query and reports the counts in
+     * {@link TagsByQueryReport}, then forgets every cached file as it can't tell which ones were edited.
+     */
+    private ResponseEntityBody editTagsOfMany(TagsEdit edit,
+                                              Function<List<String>, List<BulkItemResponse>> editByIds,
+                                              Consumer<DocWriteResponse.Result> check,
+                                              Function<FileFilter, TagsByQueryReport> editByQuery) {
+        if (edit.getFilter() != null) {
+            try {
+                return editByQuery.apply(edit.getFilter());
+            } finally {
+                invalidateAll();
+            }
+        }
+        final List<BulkItemResponse> results;
+        try {
+            results = editByIds.apply(edit.getIds());
+        } finally {
+            edit.getIds().forEach(this::invalidate);
+        }
+        final List<ResponseEntityBody> items = new ArrayList<>(results.size());
+        for (BulkItemResponse result : results) {
+            items.add(toItem(result, check));
+        }
+        return new BulkReport(items);
+    }
+
+    static ResponseEntityBody toItem(BulkItemResponse result, Consumer<DocWriteResponse.Result> check) {
+        if (result.isFailed() && result.status() != RestStatus.NOT_FOUND) {
+            return new ErrorMessage(false, result.getFailureMessage());
+        }
+        try {
+            check.accept(result.isFailed() ? DocWriteResponse.Result.NOT_FOUND : result.getResponse().getResult());
+        } catch (FileUpdateTags404Exception | FileDeleteTags404Exception | FileDeleteTags400Exception e) {
+            return new ErrorMessage(false, e.getMessage());
+        }
+        return new Id(result.getId());
+    }
+
+    /**
+     * Called after the write, also when it failed as it may have been applied anyway. A lookup racing with the write
+     * may cache the old file, but invalidation waits for that lookup and then drops what it cached.
+     * A listing racing with the write caches its page under the previous generation, where it is never looked up.
+     */
+    private void invalidate(String id) {
+        writeGeneration.incrementAndGet();
+        if (id != null) {
+            fileByIdCache.invalidate(id);
+        }
+    }
+
+    /**
+     * starts storing the category of files indexed before categories were kept, then forgets every cached file and
+     * listing, and does so again whenever the task is found completed
+     *
+     * @return the task running it, to pass to {@link #getUpdateByQueryTask}
+     */
+    public UpdateByQueryTask backfillCategories() {
+        return Timing.record(meterRegistry, TIMER, "method", "backfillCategories", () -> {
+            try {
+                return fileCustomRepository.backfillCategories();
+            } finally {
+                invalidateAll();
+            }
+        });
+    }
+
+    /**
+     * @return null if there is no such task
+     */
+    public UpdateByQueryTask getUpdateByQueryTask(String task) {
+        return Timing.record(meterRegistry, TIMER, "method", "getUpdateByQueryTask", () -> {
+            final UpdateByQueryTask status = fileCustomRepository.getUpdateByQueryTask(task);
+            if (status != null && status.isCompleted()) {
+                // files edited since the backfill started may have been cached before it reached them
+                invalidateAll();
+            }
+            return status;
+        });
+    }
+
+    private void invalidateAll() {
+        writeGeneration.incrementAndGet();
+        fileByIdCache.invalidateAll();
+    }
+
+    /**
+     * @param category only files of it are listed, if present
+     */
+    public SlimFilePage findPageByTagsAndName(List<String> tags, Pageable pageable, String name, String category,
+                                              String cursor) {
+        return Timing.record(meterRegistry, TIMER, "method", "findPageByTagsAndName", () -> {
+            final var key = new FilePageCacheKey(writeGeneration.get(), tags, name, category,
+                    pageable.getPageNumber(), pageable.getPageSize(), pageable.getSort(), cursor);
+            final Supplier<SlimFilePage> search = () -> {
+                CursorPage<File> found = fileCustomRepository.findAllByTagsContainingAllIn(tags, pageable, name,
+                        category, cursor);
+                return new SlimFilePage(found.getTotalElements(), found.isTotalExact(), found.getContent(),
+                        found.getNext());
+            };
+            // the key holds the write generation, so a listing requested after a write never joins one started before
+            return listingFlights == null ?
+                    filePageCache.get(key, k -> search.get()) :
+                    listingFlights.execute(key, search);
+        });
+    }
+
+    /**
+     * @return whether the cache is bounded to no entries, so that every page it loads is evicted right away
+     */
+    private static boolean isDisabled(Cache<?, ?> cache) {
+        return cache.policy().eviction().map(eviction -> eviction.getMaximum() == 0).orElse(false);
+    }
+
+    /**
+     * passes all matching files to the consumer batch by batch, so that memory use doesn't grow with their number
+     */
+    public void exportByTagsAndName(List<String> tags, String name, Consumer<List<File>> consumer) {
+        Timing.run(meterRegistry, TIMER, "method", "exportByTagsAndName",
+                () -> fileCustomRepository.scrollAllByTagsContainingAllIn(tags, name, consumer));
+    }
+
+    /**
+     * @param size max number of the most frequent tags to return
+     */
+    public TagCounts countTags(List<String> tags, String name, int size) {
+        return Timing.record(meterRegistry, TIMER, "method", "countTags", () -> {
+            if (size < 1) {
+                throw new FileFind400Exception("size must be positive");
+            }
+            final var key = new TagCountsCacheKey(writeGeneration.get(), tags, name, size);
+            return tagCountsCache.get(key, k -> fileCustomRepository.countTags(tags, name, size));
+        });
+    }
+
+    /**
+     * @param top   number of the largest files to return
+     * @param byTag true to compute statistics per tag as well
+     * @param size  max number of the most frequent tags to compute statistics for, if by tag
+     */
+    public FileStats stats(List<String> tags, String name, int top, boolean byTag, int size) {
+        return Timing.record(meterRegistry, TIMER, "method", "stats", () -> {
+            validateStatsRequest(top, byTag, size);
+            final var key = new FileStatsCacheKey(writeGeneration.get(), tags, name, top, byTag, size);
+            return fileStatsCache.get(key, k -> fileCustomRepository.stats(tags, name, top, byTag, size));
+        });
+    }
+
+    static void validateStatsRequest(int top, boolean byTag, int size) {
+        if (top < 0 || top > MAX_STATS_TOP) {
+            throw new FileFind400Exception("top must be between 0 and " + MAX_STATS_TOP);
+        }
+        if (byTag && size < 1) {
+            throw new FileFind400Exception("size must be positive");
+        }
     }
 }
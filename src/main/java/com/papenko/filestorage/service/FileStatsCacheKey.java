@@ -0,0 +1,51 @@
+package com.papenko.filestorage.service;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Identifies size statistics of files containing all tags, matching the name query, with top largest files and,
+ * if by tag, the size most frequent tags. Like {@link TagCountsCacheKey} it carries the write generation it was
+ * read at.
+ */
+public final class FileStatsCacheKey {
+    private final long generation;
+    private final Set<String> tags;
+    private final String name;
+    private final int top;
+    private final boolean byTag;
+    private final int size;
+
+    FileStatsCacheKey(long generation, List<String> tags, String name, int top, boolean byTag, int size) {
+        this.generation = generation;
+        this.tags = FilePageCacheKey.normalize(tags);
+        this.name = name;
+        this.top = top;
+        this.byTag = byTag;
+        // size only matters when grouping by tag
+        this.size = byTag ? size : 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FileStatsCacheKey that = (FileStatsCacheKey) o;
+        return generation == that.generation &&
+                top == that.top &&
+                byTag == that.byTag &&
+                size == that.size &&
+                tags.equals(that.tags) &&
+                Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(generation, tags, name, top, byTag, size);
+    }
+}
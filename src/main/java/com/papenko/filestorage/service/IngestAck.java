@@ -0,0 +1,15 @@
+package com.papenko.filestorage.service;
+
+/**
+ * when a write through {@link IngestQueue} is acknowledged to the caller
+ */
+public enum IngestAck {
+    /**
+     * once queued, before it is applied; a write failing later is only counted in file.bulk.failures
+     */
+    ENQUEUE,
+    /**
+     * once its bulk request is done, reporting its outcome like a write sent on its own
+     */
+    FLUSH
+}
@@ -0,0 +1,220 @@
+package com.papenko.filestorage.service;
+
+import com.papenko.filestorage.exception.FileIngest429Exception;
+import com.papenko.filestorage.repository.FileCustomRepository;
+import com.papenko.filestorage.repository.FileWrite;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bounded queue of single file writes, applied by one background writer in bulk requests of up to max-actions writes,
+ * sent once that many are waiting or the oldest of them has waited for flush-interval. Used by {@link FileService}
+ * only if enabled, otherwise every write is sent on its own.
+ */
+@Component
+public class IngestQueue {
+    /**
+     * gauge of writes waiting in the queue
+     */
+    static final String DEPTH = "file.ingest.queue";
+    /**
+     * timer of every flush, from sending the bulk requests to completing the writes
+     */
+    static final String FLUSHES = "file.ingest.flush";
+    /**
+     * counter of writes refused because the queue was full
+     */
+    static final String REJECTIONS = "file.ingest.rejections";
+    /**
+     * longest the writer waits without checking whether it is being closed
+     */
+    private static final long STOP_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final boolean enabled;
+    private final FileCustomRepository fileCustomRepository;
+    private final int maxActions;
+    private final long flushIntervalNanos;
+    private final Duration ackTimeout;
+    private final WriteRequest.RefreshPolicy refreshPolicy;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Timer flushes;
+    private final Counter rejections;
+    private final Thread writer;
+    /**
+     * held for reading while queueing and for writing while stopping, so that no write is queued once the writer may
+     * have drained the queue for the last time
+     */
+    private final ReadWriteLock stopping = new ReentrantReadWriteLock();
+    private volatile boolean running = true;
+
+    /**
+     * @param ackTimeout longest a caller waits for its write to be flushed
+     * @param refresh    "none" acknowledges flushed writes before they are visible to searches, "wait_for" only once
+     *                   they are
+     */
+    public IngestQueue(@Value("${file-storage.ingest.batching.enabled:false}") boolean enabled,
+                       FileCustomRepository fileCustomRepository,
+                       @Value("${file-storage.ingest.batching.capacity:10000}") int capacity,
+                       @Value("${file-storage.ingest.batching.max-actions:1000}") int maxActions,
+                       @Value("${file-storage.ingest.batching.flush-interval:200ms}") Duration flushInterval,
+                       @Value("${file-storage.ingest.batching.ack-timeout:30s}") Duration ackTimeout,
+                       @Value("${file-storage.ingest.batching.refresh:wait_for}") String refresh,
+                       MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.fileCustomRepository = fileCustomRepository;
+        this.maxActions = maxActions;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.ackTimeout = ackTimeout;
+        this.refreshPolicy = parseRefreshPolicy(refresh);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        Gauge.builder(DEPTH, queue, BlockingQueue::size)
+                .description("writes waiting to be flushed")
+                .register(meterRegistry);
+        this.flushes = Timer.builder(FLUSHES)
+                .description("flushes of queued writes")
+                .register(meterRegistry);
+        this.rejections = Counter.builder(REJECTIONS)
+                .description("writes refused because the queue was full")
+                .register(meterRegistry);
+        this.writer = new Thread(this::run, "ingest-writer");
+        if (enabled) {
+            writer.start();
+        }
+    }
+
+    private static WriteRequest.RefreshPolicy parseRefreshPolicy(String refresh) {
+        switch (refresh) {
+            case "none":
+                return WriteRequest.RefreshPolicy.NONE;
+            case "wait_for":
+                return WriteRequest.RefreshPolicy.WAIT_UNTIL;
+            default:
+                throw new IllegalArgumentException(
+                        "file-storage.ingest.batching.refresh must be one of none, wait_for");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Duration getAckTimeout() {
+        return ackTimeout;
+    }
+
+    /**
+     * @return completed with the item of the write once it is flushed, or exceptionally if its bulk request failed
+     * @throws FileIngest429Exception if the queue is full
+     * @throws IllegalStateException  if the queue is disabled or closed
+     */
+    public CompletableFuture<BulkItemResponse> submit(FileWrite write) {
+        final PendingWrite pending = new PendingWrite(write);
+        stopping.readLock().lock();
+        try {
+            if (!enabled || !running) {
+                throw new IllegalStateException("ingest queue is not running");
+            }
+            if (!queue.offer(pending)) {
+                rejections.increment();
+                throw new FileIngest429Exception();
+            }
+        } finally {
+            stopping.readLock().unlock();
+        }
+        return pending.result;
+    }
+
+    private void run() {
+        final List<PendingWrite> batch = new ArrayList<>(maxActions);
+        while (running || !queue.isEmpty()) {
+            try {
+                final PendingWrite first = queue.poll(STOP_CHECK_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                final long deadline = first.enqueuedAt + flushIntervalNanos;
+                while (batch.size() < maxActions) {
+                    final long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0 || !running) {
+                        queue.drainTo(batch, maxActions - batch.size());
+                        break;
+                    }
+                    final PendingWrite next = queue.poll(Math.min(remaining, STOP_CHECK_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                // only close() stops the writer, once the queue is drained
+            }
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final List<FileWrite> writes = new ArrayList<>(batch.size());
+        batch.forEach(pending -> writes.add(pending.write));
+        final long start = System.nanoTime();
+        final List<BulkItemResponse> items;
+        try {
+            items = fileCustomRepository.bulkWrite(writes, refreshPolicy);
+        } catch (Throwable e) {
+            // errors too, the writer carries on with the next batch and no caller is left waiting for this one
+            flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            batch.forEach(pending -> pending.result.completeExceptionally(e));
+            return;
+        }
+        // recorded before the writes complete, so that the flush is counted once any caller sees its result
+        flushes.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result.complete(items.get(i));
+        }
+    }
+
+    /**
+     * refuses new writes, then waits until the writes already queued are flushed
+     */
+    @PreDestroy
+    public void close() throws InterruptedException {
+        stopping.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            stopping.writeLock().unlock();
+        }
+        // no write is queued from now on, and the writer only stops once the queue is empty
+        writer.join();
+    }
+
+    private static final class PendingWrite {
+        private final FileWrite write;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<BulkItemResponse> result = new CompletableFuture<>();
+
+        PendingWrite(FileWrite write) {
+            this.write = write;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.papenko.filestorage.service;
+
+import com.papenko.filestorage.dto.*;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.*;
+import com.papenko.filestorage.metrics.Timing;
+import com.papenko.filestorage.repository.ReactiveFileCustomRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * non-blocking counterpart of {@link FileService} with the same validation, errors and timers
+ */
+@Service
+@Profile("reactive")
+public class ReactiveFileService {
+    private final ReactiveFileCustomRepository fileCustomRepository;
+    /**
+     * max number of files held in memory and written with one {@link ReactiveFileCustomRepository#bulkIndex} call
+     */
+    private final int bulkMaxActions;
+    private final MeterRegistry meterRegistry;
+
+    public ReactiveFileService(ReactiveFileCustomRepository fileCustomRepository,
+                               @Value("${file-storage.bulk.max-actions:1000}") int bulkMaxActions,
+                               MeterRegistry meterRegistry) {
+        this.fileCustomRepository = fileCustomRepository;
+        this.bulkMaxActions = bulkMaxActions;
+        this.meterRegistry = meterRegistry;
+    }
+
+    public Mono<File> uploadFile(File file) {
+        return timed("uploadFile", Mono.defer(() -> {
+            final FileValidityCheckReport report = FileService.isFileValid(file);
+            if (!report.isValid()) {
+                return Mono.error(new FileUpload400Exception(report.getErrorMessage()));
+            }
+            return fileCustomRepository.index(file);
+        }));
+    }
+
+    /**
+     * Validates and stores files in batches while they arrive. The next batch is requested from the client
+     * only once the previous one is stored, so a fast client can't fill the memory.
+     *
+     * @param files empty for a file that could not be read, after which no file follows
+     * @return {@link Id} of the stored file or {@link ErrorMessage} per file, in order of files
+     * @see FileService#uploadFiles
+     */
+    public Mono<BulkReport> uploadFiles(Flux<Optional<File>> files) {
+        return timed("uploadFiles", files.buffer(bulkMaxActions)
+                .concatMap(batch -> store(batch, FileService.FILE_MALFORMED))
+                .concatMapIterable(items -> items)
+                .collectList()
+                .map(BulkReport::new));
+    }
+
+    /**
+     * Validates and stores files like {@link #uploadFiles}, but emits the results batch by batch, so that neither
+     * the files nor their results ever sit in memory.
+     *
+     * @param files file per line, empty for a line that could not be parsed
+     * @return {@link Id} of the stored file or {@link ErrorMessage} per line, in order of lines
+     * @see FileService#importFiles
+     */
+    public Flux<ResponseEntityBody> importFiles(Flux<Optional<File>> files) {
+        return Timing.flux(meterRegistry, FileService.TIMER, "method", "importFiles", files.buffer(bulkMaxActions)
+                .concatMap(batch -> store(batch, FileService.LINE_MALFORMED))
+                .concatMapIterable(items -> items));
+    }
+
+    /**
+     * @param batch empty for a file that could not be parsed
+     * @param malformed error of such a file
+     */
+    private Mono<List<ResponseEntityBody>> store(List<Optional<File>> batch, String malformed) {
+        final List<ResponseEntityBody> items = new ArrayList<>(batch.size());
+        final List<File> valid = new ArrayList<>(batch.size());
+        for (Optional<File> file : batch) {
+            final FileValidityCheckReport report = file
+                    .map(FileService::isFileValid)
+                    .orElseGet(() -> new FileValidityCheckReport(false, malformed));
+            if (report.isValid()) {
+                valid.add(file.get());
+                items.add(null);
+            } else {
+                items.add(new ErrorMessage(false, report.getErrorMessage()));
+            }
+        }
+        if (valid.isEmpty()) {
+            return Mono.just(items);
+        }
+        return fileCustomRepository.bulkIndex(valid).map(results -> {
+            int next = 0;
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i) == null) {
+                    items.set(i, results.get(next++));
+                }
+            }
+            return items;
+        });
+    }
+
+    public Mono<File> findById(String id) {
+        return timed("findById", fileCustomRepository.findById(id)
+                .switchIfEmpty(Mono.error(FileFind404Exception::new)));
+    }
+
+    /**
+     * @param refreshPolicy IMMEDIATE to make the deletion visible to searches right away, NONE to skip refreshing
+     */
+    public Mono<Void> delete(String id, WriteRequest.RefreshPolicy refreshPolicy) {
+        return timed("delete", fileCustomRepository.delete(id, refreshPolicy)
+                .flatMap(result -> result == DocWriteResponse.Result.NOT_FOUND ?
+                        Mono.error(new FileDelete404Exception()) :
+                        Mono.empty()));
+    }
+
+    public Mono<Void> updateTags(String id, List<String> tags) {
+        return timed("updateTags", Mono.defer(() -> fileCustomRepository.addTags(id, File.normalizeTags(tags)))
+                .flatMap(result -> result == DocWriteResponse.Result.NOT_FOUND ?
+                        Mono.error(new FileUpdateTags404Exception()) :
+                        Mono.empty()));
+    }
+
+    public Mono<Void> deleteTags(String id, List<String> tags) {
+        return timed("deleteTags", Mono.defer(() -> fileCustomRepository.removeTags(id, File.normalizeTags(tags)))
+                .flatMap(result -> {
+                    if (result == DocWriteResponse.Result.NOT_FOUND) {
+                        return Mono.error(new FileDeleteTags404Exception());
+                    }
+                    if (result == DocWriteResponse.Result.NOOP) {
+                        return Mono.error(new FileDeleteTags400Exception());
+                    }
+                    return Mono.empty();
+                }));
+    }
+
+    /**
+     * @see FileService#updateTagsOfMany
+     */
+    public Mono<ResponseEntityBody> updateTagsOfMany(TagsEdit edit) {
+        return timed("updateTagsOfMany", Mono.fromCallable(() ->
+                FileService.checkTagsEdit(edit, FileUpdateTags400Exception::new))
+                .flatMap(tags -> editTagsOfMany(edit,
+                        ids -> fileCustomRepository.addTags(ids, tags), FileService::checkTagsAdded,
+                        filter -> fileCustomRepository.addTagsByQuery(filter.getTags(), filter.getQ(), tags))));
+    }
+
+    /**
+     * @see FileService#deleteTagsOfMany
+     */
+    public Mono<ResponseEntityBody> deleteTagsOfMany(TagsEdit edit) {
+        return timed("deleteTagsOfMany", Mono.fromCallable(() ->
+                FileService.checkTagsEdit(edit, FileDeleteTags400Exception::new))
+                .flatMap(tags -> editTagsOfMany(edit,
+                        ids -> fileCustomRepository.removeTags(ids, tags), FileService::checkTagsRemoved,
+                        filter -> fileCustomRepository.removeTagsByQuery(filter.getTags(), filter.getQ(), tags))));
+    }
+
+    /**
+     * reports like {@link FileService} does, there is no cache to forget
+     */
+    private Mono<ResponseEntityBody> editTagsOfMany(TagsEdit edit,
+                                                    Function<List<String>, Mono<List<BulkItemResponse>>> editByIds,
+                                                    Consumer<DocWriteResponse.Result> check,
+                                                    Function<FileFilter, Mono<TagsByQueryReport>> editByQuery) {
+        if (edit.getFilter() != null) {
+            return editByQuery.apply(edit.getFilter()).cast(ResponseEntityBody.class);
+        }
+        return editByIds.apply(edit.getIds()).map(results -> {
+            final List<ResponseEntityBody> items = new ArrayList<>(results.size());
+            for (BulkItemResponse result : results) {
+                items.add(FileService.toItem(result, check));
+            }
+            return new BulkReport(items);
+        });
+    }
+
+    public Mono<SlimFilePage> findPageByTagsAndName(List<String> tags, Pageable pageable, String name,
+                                                    String category, String cursor) {
+        return timed("findPageByTagsAndName",
+                fileCustomRepository.findAllByTagsContainingAllIn(tags, pageable, name, category, cursor)
+                        .map(found -> new SlimFilePage(found.getTotalElements(), found.isTotalExact(),
+                                found.getContent(), found.getNext())));
+    }
+
+    public Mono<TagCounts> countTags(List<String> tags, String name, int size) {
+        return timed("countTags", Mono.defer(() -> size < 1 ?
+                Mono.error(new FileFind400Exception("size must be positive")) :
+                fileCustomRepository.countTags(tags, name, size)));
+    }
+
+    public Mono<FileStats> stats(List<String> tags, String name, int top, boolean byTag, int size) {
+        return timed("stats", Mono.fromRunnable(() -> FileService.validateStatsRequest(top, byTag, size))
+                .then(Mono.defer(() -> fileCustomRepository.stats(tags, name, top, byTag, size))));
+    }
+
+    /**
+     * all matching files, read from Elasticsearch only as fast as the client consumes them; timed as
+     * {@link FileService#exportByTagsAndName}
+     */
+    public Flux<File> streamByTagsAndName(List<String> tags, String name, String category) {
+        return Timing.flux(meterRegistry, FileService.TIMER, "method", "exportByTagsAndName",
+                fileCustomRepository.streamAllByTagsContainingAllIn(tags, name, category));
+    }
+
+    /**
+     * @see FileService#backfillCategories
+     */
+    public Mono<UpdateByQueryTask> backfillCategories() {
+        return timed("backfillCategories", fileCustomRepository.backfillCategories());
+    }
+
+    /**
+     * @return empty if there is no such task
+     */
+    public Mono<UpdateByQueryTask> getUpdateByQueryTask(String task) {
+        return timed("getUpdateByQueryTask", fileCustomRepository.getUpdateByQueryTask(task));
+    }
+
+    private <T> Mono<T> timed(String method, Mono<T> call) {
+        return Timing.mono(meterRegistry, FileService.TIMER, "method", method, call);
+    }
+}
@@ -0,0 +1,63 @@
+package com.papenko.filestorage.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent calls with equal keys share one execution: the first caller runs it, the others wait for it and
+ * get its result or exception. Nothing is kept once the call is over, a later caller runs it again.
+ * Counted into a counter tagged with flight "executed" or "coalesced".
+ */
+final class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter executed;
+    private final Counter coalesced;
+
+    SingleFlight(MeterRegistry registry, String name) {
+        this.executed = Counter.builder(name).tag("flight", "executed")
+                .description("calls that were run").register(registry);
+        this.coalesced = Counter.builder(name).tag("flight", "coalesced")
+                .description("calls that waited for an equal call already running").register(registry);
+    }
+
+    V execute(K key, Supplier<V> call) {
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        final CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalesced.increment();
+            return join(running);
+        }
+        executed.increment();
+        try {
+            final V result = call.get();
+            flight.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> flight) {
+        try {
+            return flight.join();
+        } catch (CompletionException e) {
+            // rethrow what the call threw, so that waiters fail exactly like the caller that ran it
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.papenko.filestorage.service;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Identifies tag counts of files containing all tags (so their order, duplicates and case don't matter), matching
+ * the name query, limited to size tags. Like {@link FilePageCacheKey} it carries the write generation it was read at.
+ */
+public final class TagCountsCacheKey {
+    private final long generation;
+    private final Set<String> tags;
+    private final String name;
+    private final int size;
+
+    TagCountsCacheKey(long generation, List<String> tags, String name, int size) {
+        this.generation = generation;
+        this.tags = FilePageCacheKey.normalize(tags);
+        this.name = name;
+        this.size = size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        TagCountsCacheKey that = (TagCountsCacheKey) o;
+        return generation == that.generation &&
+                size == that.size &&
+                tags.equals(that.tags) &&
+                Objects.equals(name, that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(generation, tags, name, size);
+    }
+}
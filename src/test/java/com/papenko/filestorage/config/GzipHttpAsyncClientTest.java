@@ -0,0 +1,115 @@
+package com.papenko.filestorage.config;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GzipHttpAsyncClientTest {
+
+    @Test
+    void elasticsearchClient_shouldSendGzippedBody_whenCompressionIsEnabled() throws Exception {
+        final RawRequest raw = sendThroughSocket(true);
+
+        assertEquals("gzip", raw.headers.get("content-encoding"));
+        assertEquals(String.valueOf(raw.body.length), raw.headers.get("content-length"));
+        assertEquals("{\"name\":\"a.txt\"}", new String(
+                new GZIPInputStream(new ByteArrayInputStream(raw.body)).readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void elasticsearchClient_shouldSendPlainBody_whenCompressionIsDisabled() throws Exception {
+        final RawRequest raw = sendThroughSocket(false);
+
+        assertNull(raw.headers.get("content-encoding"));
+        assertEquals("{\"name\":\"a.txt\"}", new String(raw.body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void compress_shouldKeepProducer_whenRequestIsRetriedOrHasNoBody() throws Exception {
+        final HttpPost post = new HttpPost("/file/_bulk");
+        post.setEntity(new StringEntity("{}", ContentType.APPLICATION_JSON));
+        GzipHttpAsyncClient.compress(HttpAsyncMethods.create(HttpHost.create("localhost:9200"), post));
+        assertEquals("gzip", post.getEntity().getContentEncoding().getValue());
+        assertEquals(ContentType.APPLICATION_JSON.toString(), post.getEntity().getContentType().getValue());
+
+        final HttpAsyncRequestProducer retried = HttpAsyncMethods.create(HttpHost.create("localhost:9201"), post);
+        assertSame(retried, GzipHttpAsyncClient.compress(retried));
+
+        final HttpAsyncRequestProducer get = HttpAsyncMethods.createGet("http://localhost:9200/file/_search");
+        assertSame(get, GzipHttpAsyncClient.compress(get));
+    }
+
+    /**
+     * sends a request with a JSON body through the configured client to a socket and returns what arrived there
+     */
+    private static RawRequest sendThroughSocket(boolean compressionEnabled) throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            final CompletableFuture<RawRequest> received = CompletableFuture.supplyAsync(() -> accept(server));
+            try (RestHighLevelClient client = new ElasticsearchConfig(
+                    new String[]{"localhost:" + server.getLocalPort()}, 1, 1, 1000, 5000, -1, 60000,
+                    compressionEnabled).elasticsearchClient()) {
+                final Request request = new Request("POST", "/file/_doc");
+                request.setJsonEntity("{\"name\":\"a.txt\"}");
+                client.getLowLevelClient().performRequest(request);
+            }
+            return received.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * reads one request with a Content-Length and answers it with an empty JSON object
+     */
+    private static RawRequest accept(ServerSocket server) {
+        try (Socket socket = server.accept()) {
+            final InputStream in = socket.getInputStream();
+            final var head = new ByteArrayOutputStream();
+            while (!head.toString(StandardCharsets.ISO_8859_1).endsWith("\r\n\r\n")) {
+                head.write(in.read());
+            }
+            final Map<String, String> headers = new HashMap<>();
+            final String[] lines = head.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+            for (int i = 1; i < lines.length; i++) {
+                final int colon = lines[i].indexOf(':');
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+            }
+            final byte[] body = in.readNBytes(Integer.parseInt(headers.getOrDefault("content-length", "0")));
+            socket.getOutputStream().write(("HTTP/1.1 200 OK\r\nContent-Type: application/json\r\n" +
+                    "Content-Length: 2\r\nConnection: close\r\n\r\n{}").getBytes(StandardCharsets.ISO_8859_1));
+            socket.getOutputStream().flush();
+            return new RawRequest(headers, body);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final class RawRequest {
+        private final Map<String, String> headers;
+        private final byte[] body;
+
+        RawRequest(Map<String, String> headers, byte[] body) {
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.papenko.filestorage.controller;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.jayway.jsonpath.JsonPath;
 import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.repository.FileIndexManager;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -9,24 +12,33 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.elasticsearch.core.ElasticsearchRestTemplate;
 import org.springframework.data.elasticsearch.core.SearchHit;
 import org.springframework.data.elasticsearch.core.SearchHits;
+import org.springframework.data.elasticsearch.core.mapping.IndexCoordinates;
 import org.springframework.data.elasticsearch.core.query.IndexQuery;
 import org.springframework.data.elasticsearch.core.query.Query;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.*;
 import java.util.regex.Pattern;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
-@SpringBootTest
+// tests write to the index directly, behind the back of the listing cache
+@SpringBootTest(properties = {"file-storage.cache.file-pages.enabled=false",
+        "file-storage.cache.tag-counts.enabled=false"})
 @AutoConfigureMockMvc
 public class FileControllerIntegrationTest {
     private static final Pattern ID_JSON = Pattern.compile("\\{\"ID\":\"[-_a-zA-Z0-9]+\"}");
@@ -36,10 +48,156 @@ public class FileControllerIntegrationTest {
     @Autowired
     private ElasticsearchRestTemplate esTemplate;
 
+    @Autowired
+    private Cache<String, File> fileByIdCache;
+
+    @Autowired
+    private FileIndexManager fileIndexManager;
+
     @BeforeEach
-    void setUp() {
-        esTemplate.indexOps(File.class).delete();
-        esTemplate.indexOps(File.class).create();
+    void setUp() throws IOException {
+        fileByIdCache.invalidateAll();
+        esTemplate.indexOps(IndexCoordinates.of("file-*")).delete();
+        fileIndexManager.initialize();
+    }
+
+    @Test
+    void rollover_shouldKeepFilesOfOldIndexReadableAndEditable_whenWritesGoToNewIndex() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "name0", 0L, List.of("tag")));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+
+        mockMvc.perform(post("/admin/index/_rollover?force=true"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(
+                        "{\"rolledOver\":true,\"oldIndex\":\"file-000001\",\"newIndex\":\"file-000002\"}"));
+        indexQuery = new IndexQuery();
+        indexQuery.setId("id1");
+        indexQuery.setObject(new File("id1", "name1", 1L, List.of("tag")));
+        esTemplate.index(indexQuery, IndexCoordinates.of("file-write"));
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(get("/file/{ID}", "id0"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"id\":\"id0\",\"name\":\"name0\",\"size\":0,\"tags\":[\"tag\"]}"));
+        mockMvc.perform(post("/file/{ID}/tags", "id0")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[\"old\"]"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/file?tags=tag"))
+                .andExpect(status().isOk())
+                .andExpect(content().json(
+                        "{\"total\":2,\"page\":[{\"id\":\"id0\",\"name\":\"name0\",\"size\":0," +
+                                "\"tags\":[\"tag\",\"old\"]},{\"id\":\"id1\",\"name\":\"name1\",\"size\":1," +
+                                "\"tags\":[\"tag\"]}]}"));
+        mockMvc.perform(delete("/file/{ID}", "id0"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/file/{ID}", "id0"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void post_shouldReplaceFileInOldIndex_whenSameIdIsIndexedAfterRollover() throws Exception {
+        mockMvc.perform(post("/file")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\": \"id0\", \"name\": \"name0\", \"size\": 0}"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"ID\":\"id0\"}"));
+        mockMvc.perform(post("/admin/index/_rollover?force=true"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.newIndex").value("file-000002"));
+
+        mockMvc.perform(post("/file")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\": \"id0\", \"name\": \"name1\", \"size\": 1}"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"ID\":\"id0\"}"));
+        mockMvc.perform(post("/file/_bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"id\": \"id0\", \"name\": \"name2\", \"size\": 2}]"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.errors").value(false));
+        mockMvc.perform(post("/file/_tags")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ids\": [\"id0\"], \"tags\": [\"old\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.errors").value(false));
+        esTemplate.indexOps(File.class).refresh();
+
+        final SearchHits<File> hits = esTemplate.search(Query.findAll(), File.class);
+        assertThat(hits.getTotalHits()).isEqualTo(1);
+        assertThat(hits.getSearchHit(0).getContent().getName()).isEqualTo("name2");
+        assertThat(hits.getSearchHit(0).getContent().getTags()).contains("old");
+        assertThat(esTemplate.search(Query.findAll(), File.class, IndexCoordinates.of("file-000001"))
+                .getTotalHits()).isEqualTo(1);
+    }
+
+    @Test
+    void get_shouldListFilesSortedBySizeDescendingThenById_whenSortIsGiven() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            IndexQuery indexQuery = new IndexQuery();
+            indexQuery.setId("id" + i);
+            indexQuery.setObject(new File("id" + i, "name" + i, (long) (i % 2), List.of("tag")));
+            esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        }
+        esTemplate.indexOps(File.class).refresh();
+
+        final MvcResult firstPage = mockMvc.perform(get("/file?tags=tag&sort=size,desc&size=3"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page[*].id").value(contains("id1", "id3", "id0")))
+                .andReturn();
+        final String next = JsonPath.read(firstPage.getResponse().getContentAsString(), "$.next");
+        mockMvc.perform(get("/file?tags=tag&sort=size,desc&size=3&cursor={cursor}", next))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page[*].id").value(contains("id2")));
+        mockMvc.perform(get("/file?sort=color"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("{\"success\":false,\"error\":\"sort must be one of size, name, created\"}"));
+    }
+
+    @Test
+    void get_shouldListFilesOfCategory_whenCategoryTagWasRemovedOrCategoryWasBackfilled() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "song.mp3", 1L, List.of("jazz")));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        // indexed before categories were kept
+        IndexQuery legacyQuery = new IndexQuery();
+        legacyQuery.setId("id1");
+        legacyQuery.setSource("{\"id\":\"id1\",\"name\":\"old.MP3\",\"size\":1,\"tags\":[\"audio\"]}");
+        esTemplate.index(legacyQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        esTemplate.indexOps(File.class).refresh();
+        mockMvc.perform(delete("/file/{ID}/tags", "id0")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[\"audio\"]"))
+                .andExpect(status().isOk());
+
+        mockMvc.perform(get("/file?category=Audio"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page[*].id").value(contains("id0")));
+        final MvcResult backfill = mockMvc.perform(post("/admin/index/_backfill-category"))
+                .andExpect(status().isAccepted())
+                .andExpect(jsonPath("$.completed").value(false))
+                .andReturn();
+        final String task = JsonPath.read(backfill.getResponse().getContentAsString(), "$.task");
+        MvcResult status;
+        do {
+            Thread.sleep(50);
+            status = mockMvc.perform(get("/admin/index/_tasks/{task}", task))
+                    .andExpect(status().isOk())
+                    .andReturn();
+        } while (!JsonPath.<Boolean>read(status.getResponse().getContentAsString(), "$.completed"));
+        assertThat(status.getResponse().getContentAsString()).contains(
+                "\"report\":{\"total\":1,\"updated\":1,\"versionConflicts\":0,\"failures\":{}}");
+        mockMvc.perform(get("/admin/index/_tasks/{task}", "node:1"))
+                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/file?category=audio&tags=audio"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.page[*].id").value(contains("id1")));
+        mockMvc.perform(get("/file/{ID}", "id1"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.category").value("audio"));
     }
 
     @Test
@@ -56,8 +214,10 @@ public class FileControllerIntegrationTest {
         assertTrue(iterator.hasNext());
         final File nextFile = iterator.next().getContent();
         assertFalse(iterator.hasNext());
-        assertThat(nextFile).isEqualToIgnoringGivenFields(new File(null, "file1.txt", 0L, List.of("text")), "id");
+        assertThat(nextFile).isEqualToIgnoringGivenFields(new File(null, "file1.txt", 0L, List.of("text")), "id",
+                "createdAt");
         assertThat(nextFile.getId()).isNotBlank();
+        assertThat(nextFile.getCreatedAt()).isNotNull();
     }
 
     @Test
@@ -71,6 +231,131 @@ public class FileControllerIntegrationTest {
         assertThat(esTemplate.search(Query.findAll(), File.class)).isEmpty();
     }
 
+    @Test
+    void post_shouldNotCreateNewEntity_whenIdNamesAnotherEndpoint() throws Exception {
+        mockMvc.perform(post("/file")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"id\": \"tags\", \"name\": \"name0\", \"size\": 0}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("{\"success\":false,\"error\":\"file ID is reserved\"}"));
+        mockMvc.perform(get("/file/{ID}", "tags"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"tags\":{},\"other\":0}"));
+
+        assertThat(esTemplate.search(Query.findAll(), File.class)).isEmpty();
+    }
+
+    @Test
+    void bulkUpload_shouldCreateValidEntitiesAndReportInvalidOnes_whenJsonArrayIsPassed() throws Exception {
+        mockMvc.perform(post("/file/_bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"name\": \"file1.txt\", \"size\": 0}, {\"name\": \"file2\", \"size\": -1}]"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"errors\":true,\"items\":[{}," +
+                        "{\"success\":false,\"error\":\"file size is negative\"}]}"))
+                .andExpect(jsonPath("$.items[0].ID").isNotEmpty());
+        esTemplate.indexOps(File.class).refresh();
+
+        final SearchHits<File> searchHits = esTemplate.search(Query.findAll(), File.class);
+        assertThat(searchHits.getTotalHits()).isEqualTo(1);
+        assertThat(searchHits.getSearchHit(0).getContent())
+                .isEqualToIgnoringGivenFields(new File(null, "file1.txt", 0L, List.of("document")), "id", "createdAt");
+    }
+
+    @Test
+    void bulkUpload_shouldCreateAllEntities_whenNdjsonIsPassed() throws Exception {
+        mockMvc.perform(post("/file/_bulk")
+                .contentType("application/x-ndjson")
+                .content("{\"name\": \"file1.mp3\", \"size\": 1}\n{\"name\": \"file2.mp4\", \"size\": 2}\n"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"errors\":false}"))
+                .andExpect(jsonPath("$.items.length()").value(2));
+        esTemplate.indexOps(File.class).refresh();
+
+        assertThat(esTemplate.search(Query.findAll(), File.class).getTotalHits()).isEqualTo(2);
+    }
+
+    @Test
+    void bulkUpload_shouldReturnBadRequestAndErrorMessage_whenBodyIsMalformed() throws Exception {
+        mockMvc.perform(post("/file/_bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"name\": \"file1.txt\", \"size\": \"big\"}]"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("{\"success\":false,\"error\":\"request body is malformed\"}"));
+        esTemplate.indexOps(File.class).refresh();
+
+        assertThat(esTemplate.search(Query.findAll(), File.class).getTotalHits()).isEqualTo(0);
+    }
+
+    @Test
+    void bulkUpload_shouldStoreFilesReadBeforeMalformedOneAndReportItLast() throws Exception {
+        mockMvc.perform(post("/file/_bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[{\"name\": \"file1.txt\", \"size\": 0}, {\"name\": \"file2.txt\", \"size\": \"big\"}, " +
+                        "{\"name\": \"file3.txt\", \"size\": 3}]"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"errors\":true,\"items\":[{}," +
+                        "{\"success\":false,\"error\":\"file is malformed, the rest of the body was not read\"}]}"))
+                .andExpect(jsonPath("$.items.length()").value(2));
+        esTemplate.indexOps(File.class).refresh();
+
+        assertThat(esTemplate.search(Query.findAll(), File.class).getTotalHits()).isEqualTo(1);
+    }
+
+    @Test
+    void importFiles_shouldCreateValidEntitiesAndReportEachLine_whenSomeLinesAreInvalidOrMalformed() throws Exception {
+        final String result = mockMvc.perform(post("/file/_import")
+                .contentType("application/x-ndjson")
+                .content("{\"name\": \"file1.mp3\", \"size\": 1}\n" +
+                        "{\"name\": \"file2.txt\", \"size\": -2}\n" +
+                        "\n" +
+                        "{\"name\": \"file3.txt\", \"size\": \"big\"}\n" +
+                        "{\"name\": \"file4.mp4\", \"size\": 4}"))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+        esTemplate.indexOps(File.class).refresh();
+
+        final String[] lines = result.split("\n");
+        assertThat(lines).hasSize(4);
+        assertThat(lines[0]).contains("\"ID\"");
+        assertThat(lines[1]).isEqualTo("{\"success\":false,\"error\":\"file size is negative\"}");
+        assertThat(lines[2]).isEqualTo("{\"success\":false,\"error\":\"line is malformed\"}");
+        assertThat(lines[3]).contains("\"ID\"");
+        assertThat(esTemplate.search(Query.findAll(), File.class).getTotalHits()).isEqualTo(2);
+    }
+
+    @Test
+    void get_shouldReturnNotFoundAndErrorMessage_whenNoDocumentIsFoundBySuchId() throws Exception {
+        mockMvc.perform(get("/file/{ID}", "id0"))
+                .andExpect(status().isNotFound())
+                .andExpect(content().json("{\"success\":false,\"error\":\"file not found\"}"));
+    }
+
+    @Test
+    void get_shouldReturnFileWithLatestTags_whenTagsWereChangedAfterFileWasCached() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "name", 0L, List.of("tag1")));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+
+        mockMvc.perform(get("/file/{ID}", "id0"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"id\":\"id0\",\"name\":\"name\",\"size\":0,\"tags\":[\"tag1\"]}"));
+        mockMvc.perform(post("/file/{ID}/tags", "id0")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[\"tag2\"]"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/file/{ID}", "id0"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.tags").value(contains("tag1", "tag2")));
+
+        mockMvc.perform(delete("/file/{ID}", "id0"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/file/{ID}", "id0"))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void delete_shouldReturnNotFoundAndErrorMessage_whenNoDocumentIsFoundBySuchId() throws Exception {
         mockMvc.perform(delete("/file/{ID}", "id0"))
@@ -93,6 +378,28 @@ public class FileControllerIntegrationTest {
         assertThat(esTemplate.search(Query.findAll(), File.class)).isEmpty();
     }
 
+    @Test
+    void delete_shouldReturnOkAndSuccessStatus_whenDocumentIsFoundBySuchIdAndRefreshIsSkipped() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "name", 0L, null));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+
+        mockMvc.perform(delete("/file/{ID}?refresh=false", "id0"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"success\":true}"));
+
+        assertFalse(esTemplate.exists("id0", File.class));
+    }
+
+    @Test
+    void delete_shouldReturnBadRequestAndErrorMessage_whenRefreshIsInvalid() throws Exception {
+        mockMvc.perform(delete("/file/{ID}?refresh=sometimes", "id0"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json(
+                        "{\"success\":false,\"error\":\"refresh must be one of true, false, wait_for\"}"));
+    }
+
     @Test
     void postTags_shouldReturnNotFoundAndErrorMessage_whenNoDocumentIsFoundBySuchId() throws Exception {
         mockMvc.perform(post("/file/{ID}/tags", "id0")
@@ -126,6 +433,56 @@ public class FileControllerIntegrationTest {
         assertThat(nextFile.getId()).isNotBlank();
     }
 
+    @Test
+    void postTags_shouldKeepExistingTags_whenDocumentAlreadyHasTags() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "name.mp3", 0L, List.of("tag1")));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+
+        mockMvc.perform(post("/file/{ID}/tags", "id0")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[\"tag1\", \"Tag2\"]"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"success\":true}"));
+
+        assertThat(esTemplate.get("id0", File.class).getTags()).containsExactlyInAnyOrder("tag1", "audio", "tag2");
+    }
+
+    @Test
+    void postTags_shouldNotLoseAnyTag_whenTagsOfSameDocumentAreAddedInParallel() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "name", 0L, null));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        final int writers = 8;
+        final int tagsPerWriter = 10;
+        final ExecutorService executor = Executors.newFixedThreadPool(writers);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        for (int writer = 0; writer < writers; writer++) {
+            final int w = writer;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < tagsPerWriter; i++) {
+                    mockMvc.perform(post("/file/{ID}/tags", "id0")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content("[\"tag-" + w + "-" + i + "\"]"))
+                            .andExpect(status().isOk());
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(1, TimeUnit.MINUTES);
+        }
+        executor.shutdown();
+
+        assertThat(esTemplate.get("id0", File.class).getTags()).hasSize(writers * tagsPerWriter);
+    }
+
     @Test
     void deleteTags_shouldReturnNotFoundAndErrorMessage_whenNoDocumentIsFoundBySuchId() throws Exception {
         mockMvc.perform(delete("/file/{ID}/tags", "id0")
@@ -294,4 +651,186 @@ public class FileControllerIntegrationTest {
                                 "\"tags\":[\"yo\",\"document\"]},{\"id\":\"id1\",\"name\":\"yolo.name1.doc\"," +
                                 "\"size\":1,\"tags\":[\"yo\",\"document\"]}]}"));
     }
+
+    @Test
+    void getByTagsAndName_shouldReturnNextPageByCursor_whenCursorOfPreviousPageIsPassed() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            IndexQuery indexQuery = new IndexQuery();
+            indexQuery.setId("id" + i);
+            indexQuery.setObject(new File("id" + i, "name" + i, (long) i, List.of("yo")));
+            esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        }
+        esTemplate.indexOps(File.class).refresh();
+
+        final MvcResult firstPage = mockMvc.perform(get("/file?tags=yo&size=2"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"page\":[{\"id\":\"id0\"},{\"id\":\"id1\"}]}"))
+                .andReturn();
+        final String next = JsonPath.read(firstPage.getResponse().getContentAsString(), "$.next");
+
+        mockMvc.perform(get("/file?tags=yo&size=2&cursor={cursor}", next))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"page\":[{\"id\":\"id2\"}],\"next\":null}"));
+    }
+
+    @Test
+    void getByTagsAndName_shouldReturnTotalOfAllMatchingFiles_whenPageIsSmallerThanMatchSet() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            IndexQuery indexQuery = new IndexQuery();
+            indexQuery.setId("id" + i);
+            indexQuery.setObject(new File("id" + i, "name" + i, (long) i, List.of("yo")));
+            esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        }
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(get("/file?tags=yo&page=1&size=1"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"total\":3,\"totalExact\":true,\"page\":[{\"id\":\"id1\"}]}"));
+    }
+
+    @Test
+    void getByTagsAndName_shouldReturnBadRequestAndErrorMessage_whenCursorIsInvalid() throws Exception {
+        mockMvc.perform(get("/file?cursor=yolo"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("{\"success\":false,\"error\":\"cursor is invalid\"}"));
+    }
+
+    @Test
+    void getByTagsAndName_shouldReturnOkAndPageWithFilesContainingQueryIgnoringCase_whenQueryIsPassed()
+            throws Exception {
+        final List<String> names = List.of("aaaaaaa.txt", "bbbb aaa ccc.zip", "AaAA.mp3", "aa.txt", "a.a.a.mp3");
+        for (int i = 0; i < names.size(); i++) {
+            IndexQuery indexQuery = new IndexQuery();
+            indexQuery.setId("id" + i);
+            indexQuery.setObject(new File("id" + i, names.get(i), 0L, null));
+            esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        }
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(get("/file?q=aaa"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"total\":3,\"page\":[{\"name\":\"aaaaaaa.txt\"}," +
+                        "{\"name\":\"bbbb aaa ccc.zip\"},{\"name\":\"AaAA.mp3\"}]}"));
+    }
+
+    @Test
+    void getByTagsAndName_shouldNotTreatQueryAsPattern_whenQueryContainsRegexSyntax() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "name.txt", 0L, null));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(get("/file?q={q}", ".*"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"total\":0,\"page\":[]}"));
+    }
+
+    @Test
+    void countTags_shouldReturnOkAndCountsOfTagsIncludingCategories_whenFilesMatchTags() throws Exception {
+        mockMvc.perform(post("/file/_bulk")
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .content("{\"name\": \"a.mp3\", \"size\": 1, \"tags\": [\"jazz\", \"live\"]}\n" +
+                        "{\"name\": \"b.mp3\", \"size\": 1, \"tags\": [\"jazz\"]}\n" +
+                        "{\"name\": \"c.pdf\", \"size\": 1, \"tags\": [\"live\"]}\n"))
+                .andExpect(status().isOk());
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(get("/file/tags?tags=jazz"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"tags\":{\"audio\":2,\"jazz\":2,\"live\":1},\"other\":0}", true));
+        mockMvc.perform(get("/file/tags?size=1"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"tags\":{\"audio\":2},\"other\":5}", true));
+    }
+
+    @Test
+    void stats_shouldReturnOkAndSizesAndLargestFiles_whenFilesMatchTags() throws Exception {
+        mockMvc.perform(post("/file/_bulk")
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .content("{\"id\": \"id0\", \"name\": \"a.mp3\", \"size\": 1, \"tags\": [\"jazz\"]}\n" +
+                        "{\"id\": \"id1\", \"name\": \"b.mp3\", \"size\": 5, \"tags\": [\"jazz\", \"live\"]}\n" +
+                        "{\"id\": \"id2\", \"name\": \"c.pdf\", \"size\": 100, \"tags\": [\"live\"]}\n"))
+                .andExpect(status().isOk());
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(get("/file/_stats?tags=jazz&top=1"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"count\":2,\"sum\":6,\"min\":1,\"max\":5,\"avg\":3.0," +
+                        "\"largest\":[{\"id\":\"id1\"}],\"tags\":null}"));
+        mockMvc.perform(get("/file/_stats?tags=live&byTag=true&size=1&top=0"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"count\":2,\"sum\":105,\"largest\":[]," +
+                        "\"tags\":{\"live\":{\"count\":2,\"sum\":105,\"min\":5,\"max\":100}}}"));
+        mockMvc.perform(get("/file/_stats?top=1000"))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().json("{\"success\":false,\"error\":\"top must be between 0 and 100\"}"));
+    }
+
+    @Test
+    void postTagsOfMany_shouldReturnOkAndResultPerFile_whenIdsArePassed() throws Exception {
+        IndexQuery indexQuery = new IndexQuery();
+        indexQuery.setId("id0");
+        indexQuery.setObject(new File("id0", "name", 0L, List.of("tag1")));
+        esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(post("/file/_tags")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"ids\": [\"id0\", \"id1\"], \"tags\": [\"tag2\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"errors\":true,\"items\":[{\"ID\":\"id0\"}," +
+                        "{\"success\":false,\"error\":\"file not found\"}]}"));
+
+        mockMvc.perform(get("/file?tags=tag1,tag2"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"total\":1,\"page\":[{\"id\":\"id0\"}]}"));
+    }
+
+    @Test
+    void deleteTagsOfMany_shouldReturnOkAndCounts_whenFilterIsPassed() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            IndexQuery indexQuery = new IndexQuery();
+            indexQuery.setId("id" + i);
+            indexQuery.setObject(new File("id" + i, "name" + i, 0L, i == 2 ? List.of("tag1") : List.of("tag1", "tag2")));
+            esTemplate.index(indexQuery, esTemplate.getIndexCoordinatesFor(File.class));
+        }
+        esTemplate.indexOps(File.class).refresh();
+
+        mockMvc.perform(delete("/file/_tags")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"filter\": {\"tags\": [\"tag1\"]}, \"tags\": [\"tag2\"]}"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"total\":2,\"updated\":2,\"versionConflicts\":0,\"failures\":{}}"));
+
+        mockMvc.perform(get("/file?tags=tag2"))
+                .andExpect(status().isOk())
+                .andExpect(content().json("{\"total\":0}"));
+    }
+
+    @Test
+    void export_shouldStreamAllMatchingFilesAsNdjson_whenThereAreMoreThanOneScrollBatch() throws Exception {
+        final StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 2500; i++) {
+            body.append("{\"name\": \"file").append(i).append(".txt\", \"size\": ").append(i)
+                    .append(", \"tags\": [\"").append(i % 2 == 0 ? "even" : "odd").append("\"]}\n");
+        }
+        mockMvc.perform(post("/file/_bulk")
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .content(body.toString()))
+                .andExpect(status().isOk());
+        esTemplate.indexOps(File.class).refresh();
+
+        final MvcResult mvcResult = mockMvc.perform(get("/file/_export?tags=even"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        final String export = mockMvc.perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString();
+
+        final String[] lines = export.split("\n");
+        assertThat(lines).hasSize(1250);
+        assertThat(lines).allMatch(line -> JsonPath.<List<String>>read(line, "$.tags").contains("even"));
+    }
 }
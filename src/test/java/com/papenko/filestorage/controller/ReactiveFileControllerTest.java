@@ -0,0 +1,337 @@
+package com.papenko.filestorage.controller;
+
+import com.papenko.filestorage.config.ReactiveWebConfig;
+import com.papenko.filestorage.dto.BulkReport;
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.Id;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.SlimFilePage;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileDelete404Exception;
+import com.papenko.filestorage.exception.FileDeleteTags400Exception;
+import com.papenko.filestorage.exception.FileFind404Exception;
+import com.papenko.filestorage.service.ReactiveFileService;
+import org.elasticsearch.action.support.WriteRequest;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(controllers = ReactiveFileController.class)
+@Import(ReactiveWebConfig.class)
+@ActiveProfiles("reactive")
+class ReactiveFileControllerTest {
+    private static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    @Autowired
+    private WebTestClient webTestClient;
+    @MockBean
+    private ReactiveFileService fileService;
+
+    @Test
+    void upload_shouldReturnOkAndId_whenFileIsValid() {
+        when(fileService.uploadFile(any()))
+                .thenReturn(Mono.just(new File("id0", "file1.txt", 0L, List.of("document"))));
+
+        webTestClient.post().uri("/file")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"name\": \"file1.txt\", \"size\": 0}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"ID\":\"id0\"}");
+    }
+
+    @Test
+    void upload_shouldReturnBadRequestAndErrorMessage_whenBodyIsMalformed() {
+        webTestClient.post().uri("/file")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"name\": ")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"request body is malformed\"}");
+    }
+
+    @Test
+    void bulkUpload_shouldPassAllFilesOfNdjsonToService() {
+        mockUploadFiles();
+
+        webTestClient.post().uri("/file/_bulk")
+                .contentType(APPLICATION_NDJSON)
+                .bodyValue("{\"name\": \"file1.mp3\", \"size\": 1}\n{\"name\": \"file2.mp4\", \"size\": -1}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"errors\":true,\"items\":[{\"ID\":\"file1.mp3\"}," +
+                "{\"success\":false,\"error\":\"file size is negative\"}]}");
+    }
+
+    @Test
+    void bulkUpload_shouldReportMalformedFileAsLastItem_whenFilesWereReadBeforeIt() {
+        mockUploadFiles();
+
+        webTestClient.post().uri("/file/_bulk")
+                .contentType(APPLICATION_NDJSON)
+                .bodyValue("{\"name\": \"file1.mp3\", \"size\": 1}\n" +
+                        "{\"name\": \n" +
+                        "{\"name\": \"file3.mp3\", \"size\": 3}\n")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"errors\":true,\"items\":[{\"ID\":\"file1.mp3\"}," +
+                "{\"success\":false,\"error\":\"malformed\"}]}");
+    }
+
+    @Test
+    void bulkUpload_shouldReturnBadRequestAndErrorMessage_whenNoFileCanBeRead() {
+        mockUploadFiles();
+
+        webTestClient.post().uri("/file/_bulk")
+                .contentType(APPLICATION_NDJSON)
+                .bodyValue("{\"name\": \n{\"name\": \"file2.mp3\", \"size\": 2}\n")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"request body is malformed\"}");
+    }
+
+    private void mockUploadFiles() {
+        when(fileService.uploadFiles(any())).thenAnswer(invocation -> invocation.<Flux<Optional<File>>>getArgument(0)
+                .map(file -> file
+                        .<ResponseEntityBody>map(it -> it.getSize() < 0 ?
+                                new ErrorMessage(false, "file size is negative") :
+                                new Id(it.getName()))
+                        .orElseGet(() -> new ErrorMessage(false, "malformed")))
+                .collectList()
+                .map(BulkReport::new));
+    }
+
+    @Test
+    void findById_shouldReturnNotFoundAndErrorMessage_whenNoFileIsFoundBySuchId() {
+        when(fileService.findById("id0")).thenReturn(Mono.error(new FileFind404Exception()));
+
+        webTestClient.get().uri("/file/{ID}", "id0")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody().json("{\"success\":false,\"error\":\"file not found\"}");
+    }
+
+    @Test
+    void findById_shouldNotBeCalled_whenIdNamesAnotherEndpoint() {
+        when(fileService.countTags(null, null, 100)).thenReturn(Mono.just(new TagCounts(Map.of("audio", 1L), 0)));
+
+        webTestClient.get().uri("/file/{ID}", "tags")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"tags\":{\"audio\":1},\"other\":0}");
+        verify(fileService, never()).findById(any());
+    }
+
+    @Test
+    void delete_shouldReturnNotFoundAndErrorMessage_whenNoFileIsFoundBySuchId() {
+        when(fileService.delete("id0", WriteRequest.RefreshPolicy.NONE))
+                .thenReturn(Mono.error(new FileDelete404Exception()));
+
+        webTestClient.delete().uri("/file/{ID}?refresh=false", "id0")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody().json("{\"success\":false,\"error\":\"file not found\"}");
+    }
+
+    @Test
+    void delete_shouldReturnBadRequestAndErrorMessage_whenRefreshIsInvalid() {
+        webTestClient.delete().uri("/file/{ID}?refresh=sometimes", "id0")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"refresh must be one of true, false, wait_for\"}");
+
+        verifyNoInteractions(fileService);
+    }
+
+    @Test
+    void deleteTags_shouldReturnBadRequestAndErrorMessage_whenFileDoesNotContainTags() {
+        when(fileService.deleteTags("id0", List.of("tag1"))).thenReturn(Mono.error(new FileDeleteTags400Exception()));
+
+        webTestClient.method(HttpMethod.DELETE).uri("/file/{ID}/tags", "id0")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("[\"tag1\"]")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"tag not found on file\"}");
+    }
+
+    @Test
+    void findByTagsAndName_shouldReturnPage_whenJsonIsAccepted() {
+        when(fileService.findPageByTagsAndName(List.of("tag1"), PageRequest.of(0, 10), null, null, null))
+                .thenReturn(Mono.just(new SlimFilePage(1, true, List.of(new File("id0", "a", 0L, List.of("tag1"))),
+                        null)));
+
+        webTestClient.get().uri("/file?tags=tag1")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"total\":1,\"totalExact\":true,\"page\":[{\"id\":\"id0\"}],\"next\":null}");
+    }
+
+    @Test
+    void findByTagsAndName_shouldPassSortToService_whenSortIsGiven() {
+        when(fileService.findPageByTagsAndName(null, PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "size")),
+                null, null, null)).thenReturn(Mono.just(new SlimFilePage(0, true, List.of(), null)));
+
+        webTestClient.get().uri("/file?sort=size,desc")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"total\":0,\"page\":[]}");
+    }
+
+    @Test
+    void findByTagsAndName_shouldReturnBadRequestAndErrorMessage_whenSortDirectionIsInvalid() {
+        webTestClient.get().uri("/file?sort=name,up")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"sort direction must be one of asc, desc\"}");
+        verifyNoInteractions(fileService);
+    }
+
+    @Test
+    void findByTagsAndName_shouldReturnBadRequestAndErrorMessage_whenPageReachesPastResultWindow() {
+        webTestClient.get().uri("/file?page=1000&size=10")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"page and size must not reach past the first " +
+                        "10000 files, use cursor to page further\"}");
+        webTestClient.get().uri("/file?page=2147483647&size=2147483647")
+                .exchange()
+                .expectStatus().isBadRequest();
+        verifyNoInteractions(fileService);
+    }
+
+    @Test
+    void findByTagsAndName_shouldReturnBadRequestAndErrorMessage_whenPageIsNegativeOrSizeIsNotPositive() {
+        webTestClient.get().uri("/file?page=-1")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"page must not be negative\"}");
+        webTestClient.get().uri("/file?size=0")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"size must be positive\"}");
+        verifyNoInteractions(fileService);
+    }
+
+    @Test
+    void findByTagsAndName_shouldIgnorePageInResultWindow_whenCursorIsGiven() {
+        when(fileService.findPageByTagsAndName(null, PageRequest.of(1000, 10), null, null, "cursor"))
+                .thenReturn(Mono.just(new SlimFilePage(0, true, List.of(), null)));
+
+        webTestClient.get().uri("/file?page=1000&size=10&cursor=cursor")
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    void stats_shouldReturnStatsPerTag_whenGroupedByTag() {
+        final FileStats audio = new FileStats(1, 3, 3L, 3L, 3.0, Map.of("50", 3.0), List.of(), null);
+        when(fileService.stats(List.of("audio"), null, 0, true, 5)).thenReturn(Mono.just(
+                new FileStats(1, 3, 3L, 3L, 3.0, Map.of("50", 3.0), List.of(), Map.of("audio", audio))));
+
+        webTestClient.get().uri("/file/_stats?tags=audio&top=0&byTag=true&size=5")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"count\":1,\"sum\":3,\"percentiles\":{\"50\":3.0}," +
+                        "\"tags\":{\"audio\":{\"count\":1,\"max\":3,\"tags\":null}}}");
+    }
+
+    @Test
+    void findByTagsAndName_shouldStreamFilesOnePerLine_whenNdjsonIsAccepted() {
+        when(fileService.streamByTagsAndName(null, "a", null))
+                .thenReturn(Flux.just(new File("id0", "a", 0L, List.of()), new File("id1", "ab", 1L, List.of())));
+
+        final String body = webTestClient.get().uri("/file?q=a")
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_NDJSON)
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        assertThat(body).isEqualTo(
+                "{\"id\":\"id0\",\"name\":\"a\",\"size\":0,\"tags\":[],\"createdAt\":null,\"category\":null}\n" +
+                "{\"id\":\"id1\",\"name\":\"ab\",\"size\":1,\"tags\":[],\"createdAt\":null,\"category\":null}\n");
+    }
+
+    @Test
+    void postTags_shouldReturnBadRequestAndErrorMessage_whenAckIsInvalid() {
+        webTestClient.post().uri("/file/{ID}/tags?ack=never", "id0")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("[\"tag1\"]")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"ack must be one of flush, enqueue\"}");
+        verifyNoInteractions(fileService);
+    }
+
+    @Test
+    void postTagsOfMany_shouldReturnReportPerFile_whenIdsArePassed() {
+        when(fileService.updateTagsOfMany(any())).thenReturn(Mono.just(new BulkReport(List.of(
+                new Id("id0"), new ErrorMessage(false, "file not found")))));
+
+        webTestClient.post().uri("/file/_tags")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"ids\": [\"id0\", \"id1\"], \"tags\": [\"tag1\"]}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"errors\":true,\"items\":[{\"ID\":\"id0\"}," +
+                "{\"success\":false,\"error\":\"file not found\"}]}");
+    }
+
+    @Test
+    void deleteTagsOfMany_shouldReturnBadRequestAndErrorMessage_whenEditIsInvalid() {
+        when(fileService.deleteTagsOfMany(any()))
+                .thenReturn(Mono.error(new FileDeleteTags400Exception("tags are missing")));
+
+        webTestClient.method(HttpMethod.DELETE).uri("/file/_tags")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"ids\": [\"id0\"]}")
+                .exchange()
+                .expectStatus().isBadRequest()
+                .expectBody().json("{\"success\":false,\"error\":\"tags are missing\"}");
+    }
+
+    @Test
+    void importFiles_shouldWriteResultPerLine_whenLineIsMalformed() {
+        when(fileService.importFiles(any())).thenAnswer(invocation -> invocation
+                .<Flux<Optional<File>>>getArgument(0)
+                .map(file -> file.<ResponseEntityBody>map(f -> new Id(f.getName()))
+                        .orElse(new ErrorMessage(false, "line is malformed"))));
+
+        final String body = webTestClient.post().uri("/file/_import")
+                .contentType(APPLICATION_NDJSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue("{\"name\": \"file1.mp3\", \"size\": 1}\n{\"name\": \n\n" +
+                        "{\"name\": \"file2.mp4\", \"size\": 2}")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(APPLICATION_NDJSON)
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        assertThat(body).isEqualTo("{\"ID\":\"file1.mp3\"}\n" +
+                "{\"success\":false,\"error\":\"line is malformed\"}\n" +
+                "{\"ID\":\"file2.mp4\"}\n");
+    }
+}
@@ -0,0 +1,69 @@
+package com.papenko.filestorage.controller;
+
+import com.papenko.filestorage.config.ReactiveWebConfig;
+import com.papenko.filestorage.dto.RolloverReport;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.repository.FileIndexManager;
+import com.papenko.filestorage.service.ReactiveFileService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@WebFluxTest(controllers = ReactiveIndexController.class)
+@Import(ReactiveWebConfig.class)
+@ActiveProfiles("reactive")
+class ReactiveIndexControllerTest {
+    @Autowired
+    private WebTestClient webTestClient;
+    @MockBean
+    private FileIndexManager fileIndexManager;
+    @MockBean
+    private ReactiveFileService fileService;
+
+    @Test
+    void rollover_shouldRollOverOffEventLoop() throws Exception {
+        final AtomicReference<String> thread = new AtomicReference<>();
+        when(fileIndexManager.rollover(true)).thenAnswer(invocation -> {
+            thread.set(Thread.currentThread().getName());
+            return new RolloverReport(true, "file-000001", "file-000002", Map.of());
+        });
+
+        webTestClient.post().uri("/admin/index/_rollover?force=true")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().json("{\"rolledOver\":true,\"oldIndex\":\"file-000001\",\"newIndex\":\"file-000002\"}");
+        assertThat(thread.get()).startsWith("boundedElastic");
+    }
+
+    @Test
+    void backfillCategories_shouldReturnAcceptedAndTask() {
+        when(fileService.backfillCategories())
+                .thenReturn(Mono.just(new UpdateByQueryTask("node:1", false, null, null)));
+
+        webTestClient.post().uri("/admin/index/_backfill-category")
+                .exchange()
+                .expectStatus().isAccepted()
+                .expectBody().json("{\"task\":\"node:1\",\"completed\":false}");
+    }
+
+    @Test
+    void getUpdateByQueryTask_shouldReturnNotFoundAndErrorMessage_whenNoTaskIsFound() {
+        when(fileService.getUpdateByQueryTask("node:1")).thenReturn(Mono.empty());
+
+        webTestClient.get().uri("/admin/index/_tasks/node:1")
+                .exchange()
+                .expectStatus().isNotFound()
+                .expectBody().json("{\"success\":false,\"error\":\"task not found\"}");
+    }
+}
@@ -0,0 +1,87 @@
+package com.papenko.filestorage.entity;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ExtensionClassifierTest {
+
+    @Test
+    void categoryOf_shouldKeepPrecedenceOfDocumentVideoImageAudio_whenExtensionBelongsToSeveralFormats() {
+        assertEquals("video", ExtensionClassifier.categoryOf("name.ogg"));
+        assertEquals("video", ExtensionClassifier.categoryOf("name.3gp"));
+        assertEquals("video", ExtensionClassifier.categoryOf("name.webm"));
+        assertEquals("image", ExtensionClassifier.categoryOf("name.raw"));
+    }
+
+    @Test
+    void categoryOf_shouldIgnoreCase() {
+        assertEquals("audio", ExtensionClassifier.categoryOf("AaAA.MP3"));
+        assertEquals("document", ExtensionClassifier.categoryOf("name.PdF"));
+    }
+
+    @Test
+    void categoryOf_shouldReturnNull_whenExtensionIsMissingOrUnknown() {
+        assertNull(ExtensionClassifier.categoryOf("name"));
+        assertNull(ExtensionClassifier.categoryOf("name."));
+        assertNull(ExtensionClassifier.categoryOf(""));
+        assertNull(ExtensionClassifier.categoryOf("name.vid"));
+        assertNull(ExtensionClassifier.categoryOf("name.mp3.bak"));
+        assertNull(ExtensionClassifier.categoryOf("name.verylongextension"));
+    }
+
+    @Test
+    void categoryOf_shouldUseOnlyLastExtension() {
+        assertEquals("document", ExtensionClassifier.categoryOf("song.mp3.txt"));
+        assertEquals("audio", ExtensionClassifier.categoryOf(".mp3"));
+    }
+
+    @Test
+    void categoriesByExtension_shouldMatchCategoryOf_forEveryKnownExtension() {
+        final Map<String, String> categories = ExtensionClassifier.categoriesByExtension();
+
+        assertEquals("video", categories.get("ogg"));
+        for (AudioFormat format : AudioFormat.values()) {
+            final String extension = format.getExtension().substring(1).toLowerCase(Locale.ROOT);
+            assertEquals(ExtensionClassifier.categoryOf("name." + extension), categories.get(extension));
+        }
+        categories.forEach((extension, category) ->
+                assertEquals(ExtensionClassifier.categoryOf("NAME." + extension.toUpperCase(Locale.ROOT)), category));
+    }
+
+    @Test
+    void formatDetectors_shouldMatchSuffixComparison_forEveryKnownExtensionInAnyCase() {
+        for (DocumentFormat format : DocumentFormat.values()) {
+            assertDetectorsMatchSuffixComparison("name" + format.getExtension());
+            assertDetectorsMatchSuffixComparison("NAME" + format.getExtension().toUpperCase());
+        }
+        for (VideoFormat format : VideoFormat.values()) {
+            assertDetectorsMatchSuffixComparison("name" + format.getExtension());
+            assertDetectorsMatchSuffixComparison("NAME" + format.getExtension().toUpperCase());
+        }
+        for (ImageFormat format : ImageFormat.values()) {
+            assertDetectorsMatchSuffixComparison("name" + format.getExtension());
+            assertDetectorsMatchSuffixComparison("NAME" + format.getExtension().toUpperCase());
+        }
+        for (AudioFormat format : AudioFormat.values()) {
+            assertDetectorsMatchSuffixComparison("name" + format.getExtension());
+            assertDetectorsMatchSuffixComparison("NAME" + format.getExtension().toUpperCase());
+        }
+    }
+
+    private static void assertDetectorsMatchSuffixComparison(String fileName) {
+        final String lowerCase = fileName.toLowerCase();
+        assertEquals(Arrays.stream(DocumentFormat.values()).anyMatch(f -> lowerCase.endsWith(f.getExtension())),
+                DocumentFormat.isDocumentFormat(fileName), fileName);
+        assertEquals(Arrays.stream(VideoFormat.values()).anyMatch(f -> lowerCase.endsWith(f.getExtension())),
+                VideoFormat.isVideoFormat(fileName), fileName);
+        assertEquals(Arrays.stream(ImageFormat.values()).anyMatch(f -> lowerCase.endsWith(f.getExtension())),
+                ImageFormat.isImageFormat(fileName), fileName);
+        assertEquals(Arrays.stream(AudioFormat.values()).anyMatch(f -> lowerCase.endsWith(f.getExtension())),
+                AudioFormat.isAudioFormat(fileName), fileName);
+    }
+}
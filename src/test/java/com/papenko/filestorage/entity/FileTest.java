@@ -8,6 +8,7 @@ import java.util.List;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
 class FileTest {
 
@@ -46,6 +47,15 @@ class FileTest {
         assertThat(withTags.getTags()).containsExactlyInAnyOrder("document", "text");
     }
 
+    @Test
+    void category_shouldBeDetectedFromExtensionOfName_whenItIsKnown() {
+        File file = new File("id0", "song.MP3", 1L, List.of("jazz"));
+
+        assertEquals("audio", file.getCategory());
+        assertEquals("audio", file.withTags(List.of()).getCategory());
+        assertNull(new File("id0", "song", 1L, null).getCategory());
+    }
+
     @Test
     void shouldRemoveDuplicateTagsInConstructor_whenLetterCaseIsDifferent() {
         File file = new File(null, "name", 0L, List.of("Duplicate", "duplicate", "duplicate"));
@@ -181,4 +191,12 @@ class FileTest {
         assertEquals(1, file.getTags().size());
         assertEquals("audio", file.getTags().get(0));
     }
+
+    @Test
+    void withStoredTags_shouldKeepCategoryButNotAddItsTagBack() {
+        File file = new File("id0", "name.mp3", 0L, List.of("rock")).withStoredTags(List.of("rock"));
+
+        assertEquals(List.of("rock"), file.getTags());
+        assertEquals("audio", file.getCategory());
+    }
 }
@@ -0,0 +1,82 @@
+package com.papenko.filestorage.repository;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileIndexManagerTest {
+    private final FileIndexManager fileIndexManager = new FileIndexManager(null, null, true, 3, 2, "30s", 0,
+            "50gb");
+
+    @Test
+    void getSettings_shouldCombineAnalysisWithShardsReplicasAndRefreshIntervalFromProperties() {
+        final Settings settings = fileIndexManager.getSettings();
+
+        assertEquals("3", settings.get("index.number_of_shards"));
+        assertEquals("2", settings.get("index.number_of_replicas"));
+        assertEquals("30s", settings.get("index.refresh_interval"));
+        assertEquals("trigram_tokenizer", settings.get("analysis.analyzer.trigram_analyzer.tokenizer"));
+    }
+
+    @Test
+    void findDrift_shouldReturnNull_whenMappingsAreEqual() {
+        final Map<String, Object> mapping = Map.of("dynamic", "strict",
+                "properties", Map.of("tags", Map.of("type", "keyword")));
+
+        assertNull(FileIndexManager.findDrift(mapping, Map.of("dynamic", "strict",
+                "properties", Map.of("tags", Map.of("type", "keyword"))), ""));
+    }
+
+    @Test
+    void findDrift_shouldReturnPathOfField_whenItsTypeDiffers() {
+        assertEquals("properties.tags.type", FileIndexManager.findDrift(
+                Map.of("properties", Map.of("tags", Map.of("type", "keyword"))),
+                Map.of("properties", Map.of("tags", Map.of("type", "text"))), ""));
+    }
+
+    @Test
+    void findDrift_shouldReturnPathOfField_whenItIsOnlyInOneOfMappings() {
+        assertEquals("properties.tags.fields", FileIndexManager.findDrift(
+                Map.of("properties", Map.of("tags", Map.of("type", "keyword"))),
+                Map.of("properties", Map.of("tags", Map.of("type", "keyword",
+                        "fields", Map.of("keyword", Map.of("type", "keyword"))))), ""));
+        assertEquals("properties.size", FileIndexManager.findDrift(
+                Map.of("properties", Map.of("size", Map.of("type", "long"))),
+                Map.of("properties", Map.of()), ""));
+    }
+
+    @Test
+    void findDrift_shouldIgnoreWhetherValuesAreStringsOrNot() {
+        assertNull(FileIndexManager.findDrift(Map.of("index", false), Map.of("index", "false"), ""));
+    }
+
+    @Test
+    void constructor_shouldThrowElasticsearchParseException_whenRolloverMaxSizeHasNoUnit() {
+        assertThrows(ElasticsearchParseException.class, () -> new FileIndexManager(null, null, true, 1, 1, "1s", 0,
+                "50"));
+    }
+
+    @Test
+    void isRolledOver_shouldReturnNull_whenBackingIndicesWereNotChecked() {
+        assertNull(fileIndexManager.isRolledOver());
+    }
+
+    @Test
+    void isRolledOver_shouldReturnFalse_whenSingleBackingIndexWasJustChecked() {
+        fileIndexManager.setBackingIndices(1);
+
+        assertEquals(false, fileIndexManager.isRolledOver());
+    }
+
+    @Test
+    void isRolledOver_shouldKeepReturningTrue_whenSeveralBackingIndicesWereSeen() {
+        fileIndexManager.setBackingIndices(2);
+        fileIndexManager.setBackingIndices(1);
+
+        assertEquals(true, fileIndexManager.isRolledOver());
+    }
+}
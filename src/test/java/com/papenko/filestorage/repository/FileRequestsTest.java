@@ -0,0 +1,602 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.UpdateByQueryTask;
+import com.papenko.filestorage.entity.ExtensionClassifier;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileFind400Exception;
+import org.apache.http.util.EntityUtils;
+import org.apache.lucene.search.TotalHits;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchResponseSections;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
+import org.elasticsearch.index.reindex.UpdateByQueryRequest;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.internal.SearchContext;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.convert.MappingElasticsearchConverter;
+import org.springframework.data.elasticsearch.core.document.Document;
+import org.springframework.data.elasticsearch.core.mapping.SimpleElasticsearchMappingContext;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
+import static org.elasticsearch.index.query.QueryBuilders.*;
+import static org.elasticsearch.search.sort.SortBuilders.fieldSort;
+import static org.junit.jupiter.api.Assertions.*;
+
+class FileRequestsTest {
+    private MappingElasticsearchConverter converter;
+    private FileRequests fileRequests;
+
+    @BeforeEach
+    void setUp() {
+        converter = new MappingElasticsearchConverter(new SimpleElasticsearchMappingContext());
+        fileRequests = new FileRequests(converter, 100, 300, 7, 1000);
+    }
+
+    @Test
+    void getQueryBuilder_shouldCreateEmptyNativeQueryBuilder_whenTagsListIsNullAndNameIsNull() {
+        assertEquals(boolQuery(), fileRequests.getQueryBuilder(null, null));
+    }
+
+    @Test
+    void getQueryBuilder_shouldCreateProperNativeQueryBuilder_whenTagsListIsNotNullAndNameIsNull() {
+        assertEquals(boolQuery()
+                        .must(termQuery("tags", "tag1"))
+                        .must(termQuery("tags", "tag2")),
+                fileRequests.getQueryBuilder(List.of("tag1", "tag2"), null));
+    }
+
+    @Test
+    void getQueryBuilder_shouldCreateProperNativeQueryBuilder_whenTagsListIsNotNullAndNameIsNotNull() {
+        assertEquals(boolQuery()
+                        .must(termQuery("tags", "tag1"))
+                        .must(termQuery("tags", "tag2"))
+                        .must(matchPhraseQuery("name.trigram", "name")),
+                fileRequests.getQueryBuilder(List.of("tag1", "tag2"), "name"));
+    }
+
+    @Test
+    void getQueryBuilder_shouldCreateProperNativeQueryBuilder_whenTagsListIsNullAndNameIsNotNull() {
+        assertEquals(boolQuery().must(matchPhraseQuery("name.trigram", "name")),
+                fileRequests.getQueryBuilder(null, "name"));
+    }
+
+    @Test
+    void getNameQueryBuilder_shouldNotInterpretRegexSyntax_whenNameContainsSpecialCharacters() {
+        assertEquals(matchPhraseQuery("name.trigram", ".*[a-z]+"), fileRequests.getNameQueryBuilder(".*[a-z]+"));
+    }
+
+    @Test
+    void getNameQueryBuilder_shouldUseLowercaseEscapedWildcard_whenNameIsShorterThanTrigram() {
+        assertEquals(wildcardQuery("name.lowercase", "*a\\**"), fileRequests.getNameQueryBuilder("A*"));
+    }
+
+    @Test
+    void getSearchSourceBuilder_shouldUseFromAndSize_whenCursorIsNull() {
+        final SearchSourceBuilder source =
+                fileRequests.getSearchSourceBuilder(null, PageRequest.of(500, 10), null, null, null);
+
+        assertEquals(5000, source.from());
+        assertEquals(10, source.size());
+        assertNull(source.searchAfter());
+        assertEquals(100, source.trackTotalHitsUpTo());
+        assertEquals(List.of(fieldSort("id").order(SortOrder.ASC)), source.sorts());
+    }
+
+    @Test
+    void getSearchSourceBuilder_shouldUseSearchAfterInsteadOfFrom_whenCursorIsPresent() {
+        final String cursor = SearchAfterCursor.encode(new Object[]{"id9"});
+
+        final SearchSourceBuilder source =
+                fileRequests.getSearchSourceBuilder(null, PageRequest.of(500, 10), null, null, cursor);
+
+        assertEquals(-1, source.from());
+        assertEquals(10, source.size());
+        assertArrayEquals(new Object[]{"id9"}, source.searchAfter());
+    }
+
+    @Test
+    void getSearchSourceBuilder_shouldSortOnFieldOfSortKeyThenById_whenSortIsGiven() {
+        final SearchSourceBuilder source = fileRequests.getSearchSourceBuilder(null,
+                PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "created")), null, null, null);
+
+        assertEquals(List.of(fieldSort("createdAt").order(SortOrder.DESC), fieldSort("id").order(SortOrder.ASC)),
+                source.sorts());
+    }
+
+    @Test
+    void getSearchSourceBuilder_shouldFilterByCategoryWithoutScoring_whenCategoryIsGiven() {
+        final SearchSourceBuilder source = fileRequests.getSearchSourceBuilder(List.of("tag1"),
+                PageRequest.of(0, 10), null, "audio", null);
+
+        assertEquals(boolQuery().must(termQuery("tags", "tag1")).filter(termQuery("category", "audio")),
+                source.query());
+    }
+
+    @Test
+    void getSearchSourceBuilder_shouldThrowFileFind400Exception_whenCursorIsOfListingSortedOtherwise() {
+        final String cursor = SearchAfterCursor.encode(new Object[]{"id9"});
+
+        assertThatExceptionOfType(FileFind400Exception.class)
+                .isThrownBy(() -> fileRequests.getSearchSourceBuilder(null,
+                        PageRequest.of(0, 10, Sort.by("size")), null, null, cursor))
+                .withMessage("cursor is invalid");
+    }
+
+    @Test
+    void getSearchSourceBuilder_shouldThrowFileFind400Exception_whenCursorIsInvalid() {
+        assertThatExceptionOfType(FileFind400Exception.class)
+                .isThrownBy(() ->
+                        fileRequests.getSearchSourceBuilder(null, PageRequest.of(0, 10), null, null, "%%"))
+                .withMessage("cursor is invalid");
+    }
+
+    @Test
+    void convertToPage_shouldReturnFilesAndNextCursor_whenPageIsFull() {
+
+        final CursorPage<File> page = fileRequests.convertToPage(
+                searchResponse(new TotalHits(5, TotalHits.Relation.EQUAL_TO), hit("id0", "name0"), hit("id1", "name1")),
+                PageRequest.of(0, 2));
+
+        assertThat(page.getContent()).containsExactly(
+                new File("id0", "name0", 0L, List.of()), new File("id1", "name1", 0L, List.of()));
+        assertArrayEquals(new Object[]{"id1"}, SearchAfterCursor.decode(page.getNext()));
+        assertEquals(5, page.getTotalElements());
+        assertTrue(page.isTotalExact());
+    }
+
+    @Test
+    void convertToPage_shouldReturnNoNextCursor_whenPageIsNotFull() {
+
+        final CursorPage<File> page = fileRequests.convertToPage(
+                searchResponse(new TotalHits(3, TotalHits.Relation.EQUAL_TO), hit("id0", "name0")),
+                PageRequest.of(1, 2));
+
+        assertEquals(1, page.getContent().size());
+        assertNull(page.getNext());
+        assertEquals(3, page.getTotalElements());
+    }
+
+    @Test
+    void convertToPage_shouldReturnLowerBoundOfTotal_whenCountingStoppedAtThreshold() {
+
+        final CursorPage<File> page = fileRequests.convertToPage(
+                searchResponse(new TotalHits(100, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO), hit("id0", "name0")),
+                PageRequest.of(0, 1));
+
+        assertEquals(100, page.getTotalElements());
+        assertFalse(page.isTotalExact());
+    }
+
+    @Test
+    void getScrollSourceBuilder_shouldFetchBatchesOfScrollSizeInIndexOrder() {
+        final SearchSourceBuilder source = fileRequests.getScrollSourceBuilder(List.of("tag1"), null, null);
+
+        assertEquals(boolQuery().must(termQuery("tags", "tag1")), source.query());
+        assertEquals(1000, source.size());
+        assertEquals(List.of(fieldSort("_doc").order(SortOrder.ASC)), source.sorts());
+    }
+
+    @Test
+    void getTagCountsSourceBuilder_shouldAggregateTagsOfMatchingFilesWithoutFetchingThem() {
+        final SearchSourceBuilder source = fileRequests.getTagCountsSourceBuilder(List.of("tag1"), "name", 20);
+
+        assertEquals(boolQuery().must(termQuery("tags", "tag1")).must(matchPhraseQuery("name.trigram", "name")),
+                source.query());
+        assertEquals(0, source.size());
+        assertThat(source.aggregations().getAggregatorFactories())
+                .containsExactly(AggregationBuilders.terms("tags").field("tags").size(20));
+        assertEquals(SearchContext.TRACK_TOTAL_HITS_DISABLED, source.trackTotalHitsUpTo());
+    }
+
+    @Test
+    void convertToTagCounts_shouldReturnCountsMostFrequentFirstAndCountOfOtherTags() {
+        final StringTerms terms = new StringTerms("tags", BucketOrder.count(false), 2, 1, List.of(), Map.of(),
+                DocValueFormat.RAW, 2, false, 4, List.of(
+                new StringTerms.Bucket(new BytesRef("audio"), 7, InternalAggregations.EMPTY, false, 0, DocValueFormat.RAW),
+                new StringTerms.Bucket(new BytesRef("jazz"), 5, InternalAggregations.EMPTY, false, 0, DocValueFormat.RAW)),
+                0);
+        final SearchResponse response = new SearchResponse(new SearchResponseSections(SearchHits.empty(false),
+                new InternalAggregations(List.of(terms)), null, false, null, null, 1),
+                null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+
+        final TagCounts tagCounts = fileRequests.convertToTagCounts(response);
+
+        assertThat(tagCounts.getTags()).containsExactly(entry("audio", 7L), entry("jazz", 5L));
+        assertEquals(4, tagCounts.getOther());
+    }
+
+    @Test
+    void getStatsSourceBuilder_shouldAggregateSizesOfMatchingFilesAndOfEachTagWithoutFetchingThem() {
+        final SearchSourceBuilder source =
+                fileRequests.getStatsSourceBuilder(List.of("tag1"), null, 3, true, 20);
+
+        assertEquals(boolQuery().must(termQuery("tags", "tag1")), source.query());
+        assertEquals(0, source.size());
+        assertEquals(SearchContext.TRACK_TOTAL_HITS_DISABLED, source.trackTotalHitsUpTo());
+        final List<AggregationBuilder> sizeAggregations = List.of(
+                AggregationBuilders.stats("size_stats").field("size"),
+                AggregationBuilders.percentiles("size_percentiles").field("size").percentiles(50, 90, 95, 99),
+                AggregationBuilders.topHits("largest").size(3)
+                        .sort("size", SortOrder.DESC)
+                        .sort("id", SortOrder.ASC));
+        final TermsAggregationBuilder terms = AggregationBuilders.terms("tags").field("tags").size(20);
+        sizeAggregations.forEach(terms::subAggregation);
+        final List<AggregationBuilder> expected = new ArrayList<>(sizeAggregations);
+        expected.add(terms);
+        assertThat(source.aggregations().getAggregatorFactories()).containsExactlyElementsOf(expected);
+    }
+
+    @Test
+    void getStatsSourceBuilder_shouldNotFetchLargestFiles_whenTopIsZero() {
+        final SearchSourceBuilder source = fileRequests.getStatsSourceBuilder(null, null, 0, false, 20);
+
+        assertThat(source.aggregations().getAggregatorFactories()).extracting(AggregationBuilder::getName)
+                .containsExactly("size_stats", "size_percentiles");
+    }
+
+    @Test
+    void convertToStats_shouldReturnSizesLargestFilesAndStatsPerTag_whenGroupedByTag() {
+        final String largest = "\"top_hits#largest\":{\"hits\":{\"total\":{\"value\":2,\"relation\":\"eq\"}," +
+                "\"max_score\":null,\"hits\":[{\"_index\":\"file-000001\",\"_type\":\"_doc\",\"_id\":\"id1\"," +
+                "\"_score\":null,\"_source\":{\"id\":\"id1\",\"name\":\"b.mp3\",\"size\":3,\"tags\":[\"audio\"]}," +
+                "\"sort\":[3,\"id1\"]}]}}";
+        final String body = "{\"took\":1,\"timed_out\":false," +
+                "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+                "\"hits\":{\"max_score\":null,\"hits\":[]},\"aggregations\":{" +
+                "\"stats#size_stats\":{\"count\":2,\"min\":1.0,\"max\":3.0,\"avg\":2.0,\"sum\":4.0}," +
+                "\"tdigest_percentiles#size_percentiles\":{\"values\":{\"50.0\":2.0,\"99.9\":3.0}}," + largest + "," +
+                "\"sterms#tags\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":0,\"buckets\":[" +
+                "{\"key\":\"audio\",\"doc_count\":1," +
+                "\"stats#size_stats\":{\"count\":1,\"min\":3.0,\"max\":3.0,\"avg\":3.0,\"sum\":3.0}," +
+                "\"tdigest_percentiles#size_percentiles\":{\"values\":{\"50.0\":3.0,\"99.9\":3.0}}," + largest + "}," +
+                "{\"key\":\"empty\",\"doc_count\":1," +
+                "\"stats#size_stats\":{\"count\":0,\"min\":null,\"max\":null,\"avg\":null,\"sum\":0.0}," +
+                "\"tdigest_percentiles#size_percentiles\":{\"values\":{\"50.0\":null,\"99.9\":null}}," +
+                "\"top_hits#largest\":{\"hits\":{\"total\":{\"value\":0,\"relation\":\"eq\"}," +
+                "\"max_score\":null,\"hits\":[]}}}]}}}";
+        final SearchResponse response =
+                ReactiveFileCustomRepositoryImpl.parseSearchResponse(body.getBytes(StandardCharsets.UTF_8));
+
+        final FileStats stats = fileRequests.convertToStats(response, true);
+
+        assertEquals(2, stats.getCount());
+        assertEquals(4, stats.getSum());
+        assertEquals(1L, stats.getMin());
+        assertEquals(3L, stats.getMax());
+        assertEquals(2.0, stats.getAvg());
+        assertThat(stats.getPercentiles()).containsExactly(entry("50", 2.0), entry("99.9", 3.0));
+        assertEquals(List.of(new File("id1", "b.mp3", 3L, List.of("audio"))), stats.getLargest());
+        assertThat(stats.getTags()).containsOnlyKeys("audio", "empty");
+        assertEquals(3L, stats.getTags().get("audio").getMax());
+        assertEquals(stats.getLargest(), stats.getTags().get("audio").getLargest());
+        final FileStats empty = stats.getTags().get("empty");
+        assertEquals(0, empty.getCount());
+        assertNull(empty.getMin());
+        assertNull(empty.getAvg());
+        assertThat(empty.getPercentiles()).isEmpty();
+        assertThat(empty.getLargest()).isEmpty();
+        assertNull(empty.getTags());
+    }
+
+    @Test
+    void toBulkRequests_shouldSplitFilesIntoRequestsBoundedBySize() {
+        final List<File> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            files.add(new File(null, "name" + i, (long) i, List.of("tag" + i)));
+        }
+
+        final List<BulkRequest> bulkRequests = fileRequests.toBulkRequests(files, Map.of());
+
+        assertThat(bulkRequests).hasSizeGreaterThan(1);
+        assertEquals(5, bulkRequests.stream().mapToInt(BulkRequest::numberOfActions).sum());
+        for (BulkRequest bulkRequest : bulkRequests.subList(0, bulkRequests.size() - 1)) {
+            assertThat(bulkRequest.estimatedSizeInBytes()).isGreaterThanOrEqualTo(300);
+        }
+    }
+
+    @Test
+    void getIndicesSourceBuilder_shouldMatchIdsWithoutFetchingSourcesOrCountingHits() {
+        final SearchSourceBuilder source = fileRequests.getIndicesSourceBuilder(List.of("id0", "id1"));
+
+        assertEquals(idsQuery().addIds("id0", "id1"), source.query());
+        assertEquals(2, source.size());
+        assertFalse(source.fetchSource().fetchSource());
+        assertEquals(SearchContext.TRACK_TOTAL_HITS_DISABLED, source.trackTotalHitsUpTo());
+    }
+
+    @Test
+    void toIndexRequest_shouldStoreCreationTimeAsEpochMillisIntoWriteIndex_whenFileHasNone() {
+        final Instant before = Instant.now();
+
+        final IndexRequest request = fileRequests.toIndexRequest(new File("id0", "name", 0L, null), Map.of());
+
+        assertEquals("file-write", request.index());
+        final Object createdAt = request.sourceAsMap().get("createdAt");
+        assertThat(Long.parseLong(createdAt.toString())).isBetween(before.toEpochMilli(), Instant.now().toEpochMilli());
+        final File read = converter.read(File.class, Document.from(request.sourceAsMap()));
+        assertEquals(Instant.ofEpochMilli(Long.parseLong(createdAt.toString())), read.getCreatedAt());
+    }
+
+    @Test
+    void toIndexRequest_shouldKeepCreationTime_whenFileHasOne() {
+
+        final IndexRequest request = fileRequests.toIndexRequest(
+                new File("id0", "name", 0L, null, Instant.ofEpochMilli(1234)), Map.of());
+
+        assertEquals("1234", request.sourceAsMap().get("createdAt").toString());
+    }
+
+    @Test
+    void toIndexRequest_shouldReplaceFileInItsBackingIndex_whenIdIsStoredOutsideWriteIndex() {
+        final Map<String, String> indices = Map.of("id0", "file-000001");
+
+        assertEquals("file-000001",
+                fileRequests.toIndexRequest(new File("id0", "name", 0L, null), indices).index());
+        assertEquals("file-write", fileRequests.toIndexRequest(new File("id1", "name", 0L, null), indices).index());
+        assertEquals("file-write", fileRequests.toIndexRequest(new File(null, "name", 0L, null), indices).index());
+    }
+
+    @Test
+    void getSuppliedIds_shouldSkipFilesWithoutId() {
+        assertEquals(List.of("id0", "id2"), FileRequests.getSuppliedIds(List.of(new File("id0", "a", 0L, null),
+                new File(null, "b", 0L, null), new File("id2", "c", 0L, null))));
+    }
+
+    @Test
+    void getMissedPositions_shouldReturnUpdatesFailedWithNotFoundOnly() {
+        final ShardId shardId = new ShardId("file-000002", "_na_", 0);
+        final List<BulkItemResponse> items = List.of(
+                new BulkItemResponse(0, DocWriteRequest.OpType.INDEX,
+                        new IndexResponse(shardId, "_doc", "id0", 0, 1, 1, true)),
+                new BulkItemResponse(1, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure("file-write",
+                        "_doc", "id1", new DocumentMissingException(shardId, "_doc", "id1"))),
+                new BulkItemResponse(2, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure("file-write",
+                        "_doc", "id2", new EsRejectedExecutionException("queue is full"))),
+                new BulkItemResponse(3, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure("file-write",
+                        "_doc", "id3", new DocumentMissingException(shardId, "_doc", "id3"))));
+
+        assertEquals(List.of(1, 3), FileRequests.getMissedPositions(items));
+    }
+
+    @Test
+    void redirect_shouldResendMissedEditsOfFoundFilesToTheirBackingIndex_whenSpreadOverBulkRequests() {
+        final List<BulkRequest> sent = fileRequests.toTagsBulkRequests(List.of("id0", "id1", "id2", "id3"), Map.of(),
+                "script".repeat(10), List.of("tag1"));
+        assertThat(sent).hasSizeGreaterThan(1);
+
+        final Map<Integer, DocWriteRequest<?>> redirected = FileRequests.redirect(sent, List.of(1, 2, 3),
+                Map.of("id1", "file-000001", "id3", "file-000002"));
+
+        assertEquals(List.of(1, 3), new ArrayList<>(redirected.keySet()));
+        assertEquals("id1", redirected.get(1).id());
+        assertEquals("file-000001", redirected.get(1).index());
+        assertEquals("id3", redirected.get(3).id());
+        assertEquals("file-000002", redirected.get(3).index());
+    }
+
+    @Test
+    void getTagsUpdateRequest_shouldCreateScriptedUpdateWithRetriesAndWaitForRefresh() {
+        final UpdateRequest request = fileRequests.getTagsUpdateRequest("file-000001", "id0", "script",
+                List.of("tag1"));
+
+        assertEquals("file-000001", request.index());
+        assertEquals("id0", request.id());
+        assertEquals("script", request.script().getIdOrCode());
+        assertEquals(Map.of("tags", List.of("tag1")), request.script().getParams());
+        assertEquals(7, request.retryOnConflict());
+        assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, request.getRefreshPolicy());
+        assertNull(request.doc());
+    }
+
+    @Test
+    void toTagsBulkRequests_shouldUpdateEveryFileByScriptAndWaitForRefreshOncePerBulkRequest() {
+        final List<String> ids = List.of("id0", "id1", "id2", "id3", "id4", "id5", "id6", "id7");
+        final Map<String, String> indices = Map.of("id0", "file-000001");
+
+        final String script = "script".repeat(10);
+
+        final List<BulkRequest> bulkRequests = fileRequests.toTagsBulkRequests(ids, indices, script,
+                List.of("tag1"));
+
+        assertThat(bulkRequests).hasSizeGreaterThan(1);
+        final List<String> updatedIds = new ArrayList<>();
+        for (BulkRequest bulkRequest : bulkRequests) {
+            assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, bulkRequest.getRefreshPolicy());
+            for (DocWriteRequest<?> request : bulkRequest.requests()) {
+                final UpdateRequest update = (UpdateRequest) request;
+                assertEquals(script, update.script().getIdOrCode());
+                assertEquals(7, update.retryOnConflict());
+                assertEquals(WriteRequest.RefreshPolicy.NONE, update.getRefreshPolicy());
+                assertEquals(indices.getOrDefault(update.id(), "file-write"), update.index());
+                updatedIds.add(update.id());
+            }
+        }
+        assertEquals(ids, updatedIds);
+    }
+
+    @Test
+    void toWritesBulkRequests_shouldKeepOrderOfMixedWritesAndRefreshOncePerBulkRequest() {
+
+        final List<BulkRequest> bulkRequests = fileRequests.toWritesBulkRequests(List.of(
+                FileWrite.index(new File("id0", "name0", 0L, null)),
+                FileWrite.addTags("id0", List.of("tag1")),
+                FileWrite.removeTags("id1", List.of("tag2"))), Map.of("id1", "file-000001"),
+                WriteRequest.RefreshPolicy.WAIT_UNTIL);
+
+        final List<DocWriteRequest<?>> requests = new ArrayList<>();
+        for (BulkRequest bulkRequest : bulkRequests) {
+            assertEquals(WriteRequest.RefreshPolicy.WAIT_UNTIL, bulkRequest.getRefreshPolicy());
+            requests.addAll(bulkRequest.requests());
+        }
+        assertThat(requests).hasSize(3);
+        assertEquals("id0", ((IndexRequest) requests.get(0)).id());
+        assertEquals("file-write", requests.get(0).index());
+        assertEquals(FileRequests.ADD_TAGS_SCRIPT, ((UpdateRequest) requests.get(1)).script().getIdOrCode());
+        assertEquals("id1", requests.get(2).id());
+        assertEquals("file-000001", requests.get(2).index());
+        assertEquals(FileRequests.REMOVE_TAGS_SCRIPT,
+                ((UpdateRequest) requests.get(2)).script().getIdOrCode());
+        assertEquals(WriteRequest.RefreshPolicy.NONE, ((UpdateRequest) requests.get(2)).getRefreshPolicy());
+    }
+
+    @Test
+    void getTagsUpdateByQueryRequest_shouldRunScriptInSlicesWithoutAbortingOnConflictsAndRefreshAtEnd() {
+
+        final UpdateByQueryRequest request = fileRequests.getTagsUpdateByQueryRequest(
+                termQuery("tags", "tag1"), "script", List.of("tag2"));
+
+        assertArrayEquals(new String[]{"file"}, request.indices());
+        assertEquals(termQuery("tags", "tag1"), request.getSearchRequest().source().query());
+        assertEquals("script", request.getScript().getIdOrCode());
+        assertEquals(Map.of("tags", List.of("tag2")), request.getScript().getParams());
+        assertEquals(AbstractBulkByScrollRequest.AUTO_SLICES, request.getSlices());
+        assertFalse(request.isAbortOnVersionConflict());
+        assertTrue(request.isRefresh());
+    }
+
+    @Test
+    void getCategoryBackfillRequest_shouldClassifyOnlyFilesWithoutCategoryByExtension() {
+
+        final UpdateByQueryRequest request = fileRequests.getCategoryBackfillRequest();
+
+        assertArrayEquals(new String[]{"file"}, request.indices());
+        assertEquals(boolQuery().mustNot(existsQuery("category")), request.getSearchRequest().source().query());
+        assertEquals(FileRequests.BACKFILL_CATEGORY_SCRIPT, request.getScript().getIdOrCode());
+        assertEquals(Map.of("categories", ExtensionClassifier.categoriesByExtension()),
+                request.getScript().getParams());
+        assertEquals(AbstractBulkByScrollRequest.AUTO_SLICES, request.getSlices());
+        assertFalse(request.isAbortOnVersionConflict());
+        assertTrue(request.isRefresh());
+    }
+
+    @Test
+    void toUpdateByQueryTaskRequest_shouldSubmitTaskWithParametersOfRequestAndItsBody() throws IOException {
+        final UpdateByQueryRequest request = new UpdateByQueryRequest("file")
+                .setQuery(termQuery("tags", "tag1"))
+                .setScript(new Script("script"))
+                .setSlices(AbstractBulkByScrollRequest.AUTO_SLICES)
+                .setAbortOnVersionConflict(false)
+                .setRefresh(true);
+
+        final Request taskRequest = FileRequests.toUpdateByQueryTaskRequest(request);
+
+        assertEquals("POST", taskRequest.getMethod());
+        assertEquals("/file/_update_by_query", taskRequest.getEndpoint());
+        assertEquals(Map.of("wait_for_completion", "false", "conflicts", "proceed", "slices", "auto",
+                "refresh", "true"), taskRequest.getParameters());
+        assertEquals(Strings.toString(request), EntityUtils.toString(taskRequest.getEntity()));
+    }
+
+    @Test
+    void toUpdateByQueryTask_shouldReportCountsAndFailuresOfFiles_whenTaskHasCompleted() {
+        final UpdateByQueryTask task = FileRequests.toUpdateByQueryTask("node:1", Map.of(
+                "completed", true,
+                "response", Map.of("total", 3, "updated", 1, "version_conflicts", 1, "failures", List.of(Map.of(
+                        "index", "file-000001", "id", "id2",
+                        "cause", Map.of("type", "mapper_parsing_exception", "reason", "failed to parse"))))));
+
+        assertEquals("node:1", task.getTask());
+        assertTrue(task.isCompleted());
+        assertNull(task.getError());
+        assertEquals(3, task.getReport().getTotal());
+        assertEquals(1, task.getReport().getUpdated());
+        assertEquals(1, task.getReport().getVersionConflicts());
+        assertEquals(Map.of("id2", "mapper_parsing_exception: failed to parse"), task.getReport().getFailures());
+    }
+
+    @Test
+    void toUpdateByQueryTask_shouldReportNoCounts_whenTaskIsRunning() {
+        final UpdateByQueryTask task = FileRequests.toUpdateByQueryTask("node:1", Map.of(
+                "completed", false, "task", Map.of("status", Map.of("total", 3, "updated", 1))));
+
+        assertFalse(task.isCompleted());
+        assertNull(task.getReport());
+    }
+
+    @Test
+    void toUpdateByQueryTask_shouldReportError_whenSearchOrWholeTaskFailed() {
+        assertEquals("update by query failed to search: search_phase_execution_exception: all shards failed",
+                FileRequests.toUpdateByQueryTask("node:1", Map.of("completed", true,
+                        "response", Map.of("total", 0, "failures", List.of(Map.of("index", "file-000001",
+                                "shard", 0, "reason", Map.of("type", "search_phase_execution_exception",
+                                        "reason", "all shards failed")))))).getError());
+        final UpdateByQueryTask failed = FileRequests.toUpdateByQueryTask("node:1", Map.of(
+                "completed", true, "error", Map.of("type", "index_not_found_exception", "reason", "no such index")));
+        assertEquals("index_not_found_exception: no such index", failed.getError());
+        assertNull(failed.getReport());
+    }
+
+    @Test
+    void convertToPage_shouldReadStoredCategory_whenHitHasOne() {
+        final SearchHit stored = new SearchHit(0, "id0", null, Map.of());
+        stored.sourceRef(new BytesArray("{\"id\":\"id0\",\"name\":\"a.bin\",\"size\":0,\"tags\":[]," +
+                "\"category\":\"document\"}"));
+        stored.sortValues(new Object[]{"id0"}, new DocValueFormat[]{DocValueFormat.RAW});
+        final SearchHits hits = new SearchHits(new SearchHit[]{stored, hit("id1", "b.mp3")},
+                new TotalHits(2, TotalHits.Relation.EQUAL_TO), 1);
+        final SearchResponse response = new SearchResponse(new SearchResponseSections(hits, null, null, false, null,
+                null, 1),
+                null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+
+        final List<File> files = fileRequests.convertToPage(response, PageRequest.of(0, 10)).getContent();
+
+        assertEquals("document", files.get(0).getCategory());
+        assertEquals("audio", files.get(1).getCategory());
+        // a removed category tag isn't added back on reading
+        assertEquals(List.of(), files.get(1).getTags());
+    }
+
+    static SearchHit hit(String id, String name) {
+        final SearchHit hit = new SearchHit(0, id, null, Map.of());
+        hit.sourceRef(new BytesArray("{\"id\":\"" + id + "\",\"name\":\"" + name + "\",\"size\":0,\"tags\":[]}"));
+        hit.sortValues(new Object[]{id}, new DocValueFormat[]{DocValueFormat.RAW});
+        return hit;
+    }
+
+    static SearchResponse searchResponse(TotalHits totalHits, SearchHit... hits) {
+        final SearchHits searchHits = new SearchHits(hits, totalHits, 0);
+        return new SearchResponse(new SearchResponseSections(searchHits, null, null, false, null, null, 1),
+                null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+    }
+}
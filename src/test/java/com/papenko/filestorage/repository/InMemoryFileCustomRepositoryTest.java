@@ -0,0 +1,240 @@
+package com.papenko.filestorage.repository;
+
+import com.papenko.filestorage.dto.CursorPage;
+import com.papenko.filestorage.dto.FileStats;
+import com.papenko.filestorage.dto.TagCounts;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileFind400Exception;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.entry;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryFileCustomRepositoryTest {
+    private InMemoryFileCustomRepository repository;
+
+    @BeforeEach
+    void setUp() {
+        repository = new InMemoryFileCustomRepository(4, 3);
+        for (int i = 0; i < 20; i++) {
+            final List<String> tags = new ArrayList<>(List.of("all"));
+            if (i % 2 == 0) {
+                tags.add("even");
+            }
+            if (i % 3 == 0) {
+                tags.add("third");
+            }
+            repository.index(new File("id" + i, (i % 5 == 0 ? "Song" : "doc") + i + ".mp3", (long) i, tags,
+                    Instant.ofEpochMilli(1000 - i)));
+        }
+    }
+
+    @Test
+    void findAllByTagsContainingAllIn_shouldPageIntersectionByCursor_whenTagsAreGiven() {
+        final List<String> ids = new ArrayList<>();
+        String cursor = null;
+        do {
+            final CursorPage<File> page = repository.findAllByTagsContainingAllIn(List.of("Even", "third"),
+                    PageRequest.of(0, 2), null, null, cursor);
+            assertEquals(4, page.getTotalElements());
+            assertTrue(page.isTotalExact());
+            page.forEach(file -> ids.add(file.getId()));
+            cursor = page.getNext();
+        } while (cursor != null);
+
+        assertThat(ids).containsExactlyInAnyOrder("id0", "id6", "id12", "id18");
+        assertEquals(ids.subList(2, 4), ids(repository.findAllByTagsContainingAllIn(List.of("even", "third"),
+                PageRequest.of(1, 2), null, null, null)));
+    }
+
+    @Test
+    void findAllByTagsContainingAllIn_shouldReturnSliceOfWholeListing_whenPagedByOffset() {
+        for (Sort sort : List.of(Sort.unsorted(), Sort.by(Sort.Direction.DESC, "size"))) {
+            final List<String> all = ids(repository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 20, sort),
+                    null, null, null));
+            assertEquals(20, all.size());
+            for (int page = 0; page < 8; page++) {
+                final CursorPage<File> found = repository.findAllByTagsContainingAllIn(null,
+                        PageRequest.of(page, 3, sort), null, null, null);
+
+                assertEquals(all.subList(Math.min(page * 3, 20), Math.min(page * 3 + 3, 20)), ids(found));
+                assertEquals(20, found.getTotalElements());
+            }
+        }
+    }
+
+    @Test
+    void findAllByTagsContainingAllIn_shouldCountOnlyFilesReturned_whenFilesAreDeletedMeanwhile() throws Exception {
+        final Thread writer = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                final String id = "id" + i % 20;
+                repository.delete(id, WriteRequest.RefreshPolicy.NONE);
+                repository.index(new File(id, "doc.mp3", 1L, List.of("all")));
+            }
+        });
+        writer.start();
+        try {
+            while (writer.isAlive()) {
+                final CursorPage<File> page = repository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 30),
+                        null, null, null);
+
+                assertEquals(page.getTotalElements(), page.getNumberOfElements());
+            }
+        } finally {
+            writer.join();
+        }
+    }
+
+    @Test
+    void findAllByTagsContainingAllIn_shouldFilterByNameAndCategory() {
+        assertThat(ids(repository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 10), "sOnG", "AUDIO",
+                null))).containsExactlyInAnyOrder("id0", "id5", "id10", "id15");
+        assertTrue(repository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 10), null, "video", null)
+                .isEmpty());
+        assertTrue(repository.findAllByTagsContainingAllIn(List.of("missing"), PageRequest.of(0, 10), null, null,
+                null).isEmpty());
+    }
+
+    @Test
+    void findAllByTagsContainingAllIn_shouldSortAndContinueAfterCursor_whenSortIsGiven() {
+        final PageRequest pageable = PageRequest.of(0, 3, Sort.by(Sort.Order.desc("size")));
+        final CursorPage<File> first = repository.findAllByTagsContainingAllIn(List.of("even"), pageable, null, null,
+                null);
+        final CursorPage<File> second = repository.findAllByTagsContainingAllIn(List.of("even"), pageable, null,
+                null, first.getNext());
+
+        assertEquals(List.of("id18", "id16", "id14"), ids(first));
+        assertEquals(List.of("id12", "id10", "id8"), ids(second));
+        assertEquals(List.of("id18", "id16", "id14"), ids(repository.findAllByTagsContainingAllIn(List.of("even"),
+                PageRequest.of(0, 3, Sort.by("created")), null, null, null)));
+    }
+
+    @Test
+    void findAllByTagsContainingAllIn_shouldThrow_whenCursorIsOfAnotherSort() {
+        final String cursor = repository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 1), null, null, null)
+                .getNext();
+
+        assertThatExceptionOfType(FileFind400Exception.class).isThrownBy(() ->
+                repository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 1, Sort.by("size")), null, null,
+                        cursor));
+    }
+
+    @Test
+    void editTags_shouldUpdateIndex_andReportNoopAndMissingFiles() {
+        assertEquals(DocWriteResponse.Result.UPDATED, repository.addTags("id1", List.of("new")));
+        assertEquals(DocWriteResponse.Result.NOOP, repository.addTags("id1", List.of("new", "all")));
+        assertEquals(DocWriteResponse.Result.NOOP, repository.removeTags("id1", List.of("new", "even")));
+        assertEquals(DocWriteResponse.Result.NOT_FOUND, repository.addTags("missing", List.of("new")));
+        assertEquals(List.of("id1"), ids(repository.findAllByTagsContainingAllIn(List.of("new"),
+                PageRequest.of(0, 10), null, null, null)));
+
+        assertEquals(DocWriteResponse.Result.UPDATED, repository.removeTags("id1", List.of("new")));
+        assertTrue(repository.findAllByTagsContainingAllIn(List.of("new"), PageRequest.of(0, 10), null, null, null)
+                .isEmpty());
+    }
+
+    @Test
+    void removeTags_shouldRemoveCategoryTagFromReadsAndTagFilters_butKeepCategory() {
+        assertEquals(DocWriteResponse.Result.UPDATED, repository.removeTags("id1", List.of("audio")));
+
+        assertEquals(DocWriteResponse.Result.NOOP, repository.removeTags("id1", List.of("audio")));
+        final File read = repository.findById("id1");
+        assertThat(read.getTags()).doesNotContain("audio");
+        assertEquals("audio", read.getCategory());
+        assertEquals(19, repository.findAllByTagsContainingAllIn(List.of("audio"), PageRequest.of(0, 20), null, null,
+                null).getTotalElements());
+        final CursorPage<File> byCategory = repository.findAllByTagsContainingAllIn(List.of("all"),
+                PageRequest.of(0, 20), null, "audio", null);
+        assertThat(byCategory.getContent()).contains(read);
+        assertEquals(20, repository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 1), null, "audio", null)
+                .getTotalElements());
+    }
+
+    @Test
+    void bulkWrite_shouldReturnItemPerWrite_withNotFoundForMissingFiles() {
+        final List<BulkItemResponse> items = repository.bulkWrite(List.of(
+                FileWrite.index(new File("new", "new.bin", 1L, List.of())),
+                FileWrite.addTags("new", List.of("tag")),
+                FileWrite.removeTags("missing", List.of("tag"))), WriteRequest.RefreshPolicy.NONE);
+
+        assertEquals("new", items.get(0).getId());
+        assertEquals(DocWriteResponse.Result.UPDATED, items.get(1).getResponse().getResult());
+        assertTrue(items.get(2).isFailed());
+        assertEquals(RestStatus.NOT_FOUND, items.get(2).status());
+        assertEquals(List.of("tag"), repository.findById("new").getTags());
+    }
+
+    @Test
+    void tagsByQuery_shouldOnlyEditFilesNeedingIt() {
+        final TagsByQueryReport added = repository.addTagsByQuery(List.of("third"), null, List.of("even", "x"));
+        final TagsByQueryReport removed = repository.removeTagsByQuery(null, "song", List.of("x"));
+
+        assertEquals(7, added.getTotal());
+        assertEquals(2, removed.getUpdated());
+        assertEquals(5, repository.findAllByTagsContainingAllIn(List.of("x"), PageRequest.of(0, 1), null, null, null)
+                .getTotalElements());
+    }
+
+    @Test
+    void countTags_shouldCountMatchingFilesPerTag_mostFrequentFirst() {
+        final TagCounts counts = repository.countTags(List.of("even"), null, 3);
+
+        assertThat(counts.getTags()).containsExactly(entry("all", 10L), entry("audio", 10L), entry("even", 10L));
+        assertEquals(4, counts.getOther());
+    }
+
+    @Test
+    void stats_shouldComputeSizeStatistics_perTagToo() {
+        final FileStats stats = repository.stats(List.of("third"), null, 2, true, 1);
+
+        assertEquals(7, stats.getCount());
+        assertEquals(63, stats.getSum());
+        assertEquals(0L, stats.getMin());
+        assertEquals(18L, stats.getMax());
+        assertEquals(9.0, stats.getAvg());
+        assertEquals(9.0, stats.getPercentiles().get("50"));
+        assertEquals(List.of("id18", "id15"), stats.getLargest().stream().map(File::getId)
+                .collect(Collectors.toList()));
+        assertThat(stats.getTags()).containsOnlyKeys("all");
+        assertEquals(7, stats.getTags().get("all").getCount());
+    }
+
+    @Test
+    void scrollAllByTagsContainingAllIn_shouldPassAllMatchingFilesInBatches() {
+        final List<List<File>> batches = new ArrayList<>();
+
+        repository.scrollAllByTagsContainingAllIn(List.of("even"), null, batches::add);
+
+        assertTrue(batches.stream().allMatch(batch -> batch.size() <= 3));
+        assertEquals(10, batches.stream().mapToInt(List::size).sum());
+    }
+
+    @Test
+    void delete_shouldRemoveFileFromIndex() {
+        assertEquals(DocWriteResponse.Result.DELETED, repository.delete("id0", WriteRequest.RefreshPolicy.NONE));
+        assertEquals(DocWriteResponse.Result.NOT_FOUND, repository.delete("id0", WriteRequest.RefreshPolicy.NONE));
+
+        assertNull(repository.findById("id0"));
+        assertEquals(3, repository.findAllByTagsContainingAllIn(List.of("even", "third"), PageRequest.of(0, 10),
+                null, null, null).getTotalElements());
+    }
+
+    private static List<String> ids(CursorPage<File> page) {
+        return page.stream().map(File::getId).collect(Collectors.toList());
+    }
+}
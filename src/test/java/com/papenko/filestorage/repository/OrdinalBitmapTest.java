@@ -0,0 +1,119 @@
+package com.papenko.filestorage.repository;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class OrdinalBitmapTest {
+    @Test
+    void next_shouldIterateInOrdinalOrder_acrossChunks() {
+        final OrdinalBitmap bitmap = new OrdinalBitmap();
+        bitmap.add(200_000);
+        bitmap.add(3);
+        bitmap.add(65_536);
+        bitmap.add(3);
+
+        assertEquals(3, bitmap.cardinality());
+        assertEquals(3, bitmap.next(0));
+        assertEquals(65_536, bitmap.next(4));
+        assertEquals(200_000, bitmap.next(65_537));
+        assertEquals(-1, bitmap.next(200_001));
+    }
+
+    @Test
+    void remove_shouldDropEmptyChunks() {
+        final OrdinalBitmap bitmap = new OrdinalBitmap();
+        bitmap.add(70_000);
+
+        assertTrue(bitmap.remove(70_000));
+        assertFalse(bitmap.remove(70_000));
+        assertTrue(bitmap.isEmpty());
+        assertEquals(-1, bitmap.next(0));
+    }
+
+    @Test
+    void operations_shouldMatchBitSet_whenChunksTurnFromArraysToBitmapsAndBack() {
+        final Random random = new Random(42);
+        final OrdinalBitmap dense = new OrdinalBitmap();
+        final OrdinalBitmap sparse = new OrdinalBitmap();
+        final BitSet expectedDense = new BitSet();
+        final BitSet expectedSparse = new BitSet();
+        for (int i = 0; i < 100_000; i++) {
+            final int ordinal = random.nextInt(3 * 65_536);
+            assertEquals(!expectedDense.get(ordinal), dense.add(ordinal));
+            expectedDense.set(ordinal);
+            if (i % 20 == 0) {
+                sparse.add(ordinal + 7);
+                expectedSparse.set(ordinal + 7);
+            }
+        }
+        for (int i = 0; i < 80_000; i++) {
+            final int ordinal = random.nextInt(3 * 65_536);
+            assertEquals(expectedDense.get(ordinal), dense.remove(ordinal));
+            expectedDense.clear(ordinal);
+        }
+
+        assertBitmapEquals(expectedDense, dense);
+        assertBitmapEquals(expectedSparse, sparse);
+        final BitSet expectedAnd = (BitSet) expectedDense.clone();
+        expectedAnd.and(expectedSparse);
+        assertBitmapEquals(expectedAnd, dense.and(sparse));
+        assertBitmapEquals(expectedAnd, sparse.and(dense));
+        assertEquals(expectedAnd.cardinality(), dense.andCardinality(sparse));
+        assertEquals(expectedDense.cardinality(), dense.andCardinality(dense.copy()));
+    }
+
+    @Test
+    void rankAndSelect_shouldCountAcrossChunks_whenOrdinalsAreAtWordAndChunkBoundaries() {
+        final OrdinalBitmap bitmap = new OrdinalBitmap();
+        for (int i = 0; i < 5000; i++) {
+            bitmap.add(i * 2);
+        }
+        bitmap.add(65_536 + 64);
+        bitmap.add(200_000);
+
+        assertEquals(0, bitmap.rank(0));
+        assertEquals(32, bitmap.rank(64));
+        assertEquals(33, bitmap.rank(65));
+        assertEquals(5000, bitmap.rank(65_536 + 64));
+        assertEquals(5001, bitmap.rank(200_000));
+        assertEquals(5002, bitmap.rank(Integer.MAX_VALUE));
+        assertEquals(0, bitmap.select(0));
+        assertEquals(128, bitmap.select(64));
+        assertEquals(65_536 + 64, bitmap.select(5000));
+        assertEquals(200_000, bitmap.select(5001));
+        assertEquals(-1, bitmap.select(5002));
+    }
+
+    @Test
+    void copy_shouldNotShareChunks() {
+        final OrdinalBitmap bitmap = new OrdinalBitmap();
+        for (int i = 0; i < 5000; i++) {
+            bitmap.add(i);
+        }
+        final OrdinalBitmap copy = bitmap.copy();
+        copy.remove(10);
+
+        assertTrue(bitmap.contains(10));
+        assertFalse(copy.contains(10));
+        assertEquals(4999, copy.cardinality());
+    }
+
+    private static void assertBitmapEquals(BitSet expected, OrdinalBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        int next = actual.next(0);
+        int rank = 0;
+        for (int ordinal = expected.nextSetBit(0); ordinal >= 0; ordinal = expected.nextSetBit(ordinal + 1)) {
+            assertEquals(ordinal, next);
+            assertTrue(actual.contains(ordinal));
+            assertEquals(rank, actual.rank(ordinal));
+            assertEquals(ordinal, actual.select(rank++));
+            next = actual.next(next + 1);
+        }
+        assertEquals(-1, next);
+        assertEquals(-1, actual.select(rank));
+    }
+}
@@ -0,0 +1,110 @@
+package com.papenko.filestorage.repository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.elasticsearch.client.reactive.ReactiveElasticsearchClient;
+import org.springframework.http.HttpHeaders;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ReactiveFileCustomRepositoryImplTest {
+    private static final ShardId SHARD_ID = new ShardId("file-write", "_na_", 0);
+
+    @Test
+    void parseSearchResponse_shouldReadHitsSortValuesAndTotal() {
+        final String body = "{\"took\":1,\"timed_out\":false," +
+                "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+                "\"hits\":{\"total\":{\"value\":10000,\"relation\":\"gte\"},\"max_score\":null,\"hits\":[" +
+                "{\"_index\":\"file\",\"_type\":\"_doc\",\"_id\":\"id0\",\"_score\":null," +
+                "\"_source\":{\"id\":\"id0\",\"name\":\"a.txt\",\"size\":1,\"tags\":[\"document\"]}," +
+                "\"sort\":[\"id0\"]}]}}";
+
+        final SearchResponse response =
+                ReactiveFileCustomRepositoryImpl.parseSearchResponse(body.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(new TotalHits(10000, TotalHits.Relation.GREATER_THAN_OR_EQUAL_TO),
+                response.getHits().getTotalHits());
+        assertEquals(1, response.getHits().getHits().length);
+        assertEquals("id0", response.getHits().getAt(0).getId());
+        assertArrayEquals(new Object[]{"id0"}, response.getHits().getAt(0).getSortValues());
+        assertEquals("a.txt", response.getHits().getAt(0).getSourceAsMap().get("name"));
+    }
+
+    @Test
+    void parseSearchResponse_shouldReadTypedTermsAggregation() {
+        final String body = "{\"took\":1,\"timed_out\":false," +
+                "\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+                "\"hits\":{\"max_score\":null,\"hits\":[]}," +
+                "\"aggregations\":{\"sterms#tags\":{\"doc_count_error_upper_bound\":0,\"sum_other_doc_count\":4," +
+                "\"buckets\":[{\"key\":\"audio\",\"doc_count\":7},{\"key\":\"jazz\",\"doc_count\":5}]}}}";
+
+        final SearchResponse response =
+                ReactiveFileCustomRepositoryImpl.parseSearchResponse(body.getBytes(StandardCharsets.UTF_8));
+
+        final Terms terms = response.getAggregations().get("tags");
+        assertEquals(4, terms.getSumOfOtherDocCounts());
+        assertEquals(2, terms.getBuckets().size());
+        assertEquals("audio", terms.getBuckets().get(0).getKeyAsString());
+        assertEquals(7, terms.getBuckets().get(0).getDocCount());
+    }
+
+    @Test
+    void bulk_shouldResendOnlyRejectedItems_untilTheyAreStored() {
+        final ReactiveElasticsearchClient client = mock(ReactiveElasticsearchClient.class);
+        final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        final ReactiveFileCustomRepositoryImpl repository =
+                new ReactiveFileCustomRepositoryImpl(client, null, null, 3, 1, meterRegistry);
+        final List<List<String>> sent = new ArrayList<>();
+        when(client.bulk(eq(HttpHeaders.EMPTY), any(BulkRequest.class))).thenAnswer(invocation -> {
+            final BulkRequest request = invocation.getArgument(1);
+            final List<String> ids = new ArrayList<>();
+            final BulkItemResponse[] items = new BulkItemResponse[request.numberOfActions()];
+            for (int i = 0; i < items.length; i++) {
+                final String id = request.requests().get(i).id();
+                ids.add(id);
+                // id1 is rejected the first time only
+                items[i] = id.equals("id1") && sent.isEmpty() ?
+                        new BulkItemResponse(i, DocWriteRequest.OpType.INDEX, new BulkItemResponse.Failure(
+                                "file-write", "_doc", id, new EsRejectedExecutionException("queue is full"))) :
+                        new BulkItemResponse(i, DocWriteRequest.OpType.INDEX,
+                                new IndexResponse(SHARD_ID, "_doc", id, 0, 1, 1, true));
+            }
+            sent.add(ids);
+            return Mono.just(new BulkResponse(items, 1));
+        });
+
+        final List<BulkItemResponse> items = repository.bulk("bulk", new BulkRequest()
+                .add(new IndexRequest("file-write").id("id0").source("{}", XContentType.JSON))
+                .add(new IndexRequest("file-write").id("id1").source("{}", XContentType.JSON)))
+                .block();
+
+        assertEquals(List.of(List.of("id0", "id1"), List.of("id1")), sent);
+        assertEquals(2, items.size());
+        assertEquals("id0", items.get(0).getId());
+        assertEquals("id1", items.get(1).getId());
+        assertFalse(items.get(1).isFailed());
+        assertEquals(1, meterRegistry.get("file.bulk.rejections").counter().count());
+        assertEquals(2, meterRegistry.get(FileCustomRepository.TIMER).tag("operation", "bulk").timer().count());
+    }
+}
@@ -1,35 +1,73 @@
 package com.papenko.filestorage.service;
 
-import com.papenko.filestorage.dto.FileValidityCheckReport;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.papenko.filestorage.dto.*;
 import com.papenko.filestorage.entity.File;
 import com.papenko.filestorage.exception.FileDelete404Exception;
 import com.papenko.filestorage.exception.FileDeleteTags400Exception;
 import com.papenko.filestorage.exception.FileDeleteTags404Exception;
+import com.papenko.filestorage.exception.FileFind400Exception;
+import com.papenko.filestorage.exception.FileFind404Exception;
+import com.papenko.filestorage.exception.FileIngest504Exception;
+import com.papenko.filestorage.exception.FileUpdateTags400Exception;
 import com.papenko.filestorage.exception.FileUpdateTags404Exception;
-import com.papenko.filestorage.repository.FileRepository;
+import com.papenko.filestorage.repository.FileCustomRepository;
+import com.papenko.filestorage.repository.FileWrite;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.action.support.WriteRequest;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.InjectMocks;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Optional;
-
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
 class FileServiceTest {
-    @InjectMocks
     private FileService fileService;
+    private SimpleMeterRegistry meterRegistry;
+    private Cache<String, File> fileByIdCache;
     @Mock
-    private FileRepository fileRepository;
+    private FileCustomRepository fileCustomRepository;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        fileByIdCache = Caffeine.newBuilder().build();
+        fileService = new FileService(fileCustomRepository, 2, meterRegistry, fileByIdCache,
+                Caffeine.newBuilder().build(), Caffeine.newBuilder().build(), Caffeine.newBuilder().build(),
+                new IngestQueue(false, fileCustomRepository, 1, 1, Duration.ZERO, Duration.ofSeconds(30),
+                    "none", meterRegistry));
+    }
 
     @Test
     void isFileValid_shouldReturnTrueAndNull_whenValidFileIsPassed() {
-        FileValidityCheckReport report = fileService.isFileValid(new File("id0", "name", 0L, null));
+        FileValidityCheckReport report = FileService.isFileValid(new File("id0", "name", 0L, null));
 
         assertTrue(report.isValid());
         assertNull(report.getErrorMessage());
@@ -37,7 +75,7 @@ class FileServiceTest {
 
     @Test
     void isFileValid_shouldReturnFalseAndErrorMessage_whenNameIsMissing() {
-        FileValidityCheckReport report = fileService.isFileValid(new File("id0", null, 0L, null));
+        FileValidityCheckReport report = FileService.isFileValid(new File("id0", null, 0L, null));
 
         assertFalse(report.isValid());
         assertEquals("file name is missing", report.getErrorMessage());
@@ -45,7 +83,7 @@ class FileServiceTest {
 
     @Test
     void isFileValid_shouldReturnFalseAndErrorMessage_whenSizeIsMissing() {
-        FileValidityCheckReport report = fileService.isFileValid(new File("id0", "name", null, null));
+        FileValidityCheckReport report = FileService.isFileValid(new File("id0", "name", null, null));
 
         assertFalse(report.isValid());
         assertEquals("file size is missing", report.getErrorMessage());
@@ -53,79 +91,224 @@ class FileServiceTest {
 
     @Test
     void isFileValid_shouldReturnFalseAndErrorMessage_whenSizeIsNegative() {
-        FileValidityCheckReport report = fileService.isFileValid(new File("id0", "name", -1L, null));
+        FileValidityCheckReport report = FileService.isFileValid(new File("id0", "name", -1L, null));
 
         assertFalse(report.isValid());
         assertEquals("file size is negative", report.getErrorMessage());
     }
 
     @Test
-    void uploadFile_shouldCallSaveMethodOfRepository() {
+    void isFileValid_shouldReturnFalseAndErrorMessage_whenIdIsRoutedToAnotherEndpoint() {
+        FileValidityCheckReport report = FileService.isFileValid(new File("_stats", "name", 0L, null));
+
+        assertFalse(report.isValid());
+        assertEquals("file ID is reserved", report.getErrorMessage());
+    }
+
+    @Test
+    void uploadFile_shouldIndexFileAndReturnItWithId() {
         File fileWithoutId = new File(null, "name", 0L, null);
         File fileWithId = new File("id1", "name", 0L, null);
-        when(fileRepository.save(fileWithoutId)).thenReturn(fileWithId);
+        when(fileCustomRepository.index(fileWithoutId)).thenReturn(fileWithId);
+
+        assertSame(fileWithId, fileService.uploadFile(fileWithoutId));
+
+        verify(fileCustomRepository).index(fileWithoutId);
+    }
 
-        fileService.uploadFile(fileWithoutId);
+    @Test
+    void uploadFile_shouldQueueFileWithAssignedIdAndReturnBeforeFlush_whenBatchingAndAckIsEnqueue() {
+        final IngestQueue ingestQueue = enabledIngestQueue();
+        when(ingestQueue.submit(any())).thenReturn(new CompletableFuture<>());
+
+        final File uploaded = batchingFileService(ingestQueue)
+                .uploadFile(new File(null, "name.mp3", 0L, List.of("Tag")), IngestAck.ENQUEUE);
+
+        assertNotNull(uploaded.getId());
+        assertEquals(List.of("tag", "audio"), uploaded.getTags());
+        final ArgumentCaptor<FileWrite> write = ArgumentCaptor.forClass(FileWrite.class);
+        verify(ingestQueue).submit(write.capture());
+        assertEquals(FileWrite.Type.INDEX, write.getValue().getType());
+        assertTrue(write.getValue().isGeneratedId());
+        assertSame(uploaded, write.getValue().getFile());
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void updateTags_shouldThrowFileUpdateTags404Exception_whenBatchingAndFlushedWriteFindsNoFile() {
+        final IngestQueue ingestQueue = enabledIngestQueue();
+        when(ingestQueue.submit(any())).thenReturn(CompletableFuture.completedFuture(
+                new BulkItemResponse(0, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure("file", "_doc",
+                        "id", new DocumentMissingException(new ShardId("file", "_na_", 0), "_doc", "id")))));
+
+        assertThatExceptionOfType(FileUpdateTags404Exception.class)
+                .isThrownBy(() -> batchingFileService(ingestQueue).updateTags("id", List.of("Tag"), IngestAck.FLUSH));
+    }
+
+    @Test
+    void updateTags_shouldThrowFileIngest504Exception_whenBatchingAndWriteIsNotFlushedInTime() {
+        final IngestQueue ingestQueue = enabledIngestQueue();
+        when(ingestQueue.submit(any())).thenReturn(new CompletableFuture<>());
 
-        verify(fileRepository).save(fileWithoutId);
+        assertThatExceptionOfType(FileIngest504Exception.class)
+                .isThrownBy(() -> batchingFileService(ingestQueue).updateTags("id", List.of("Tag"), IngestAck.FLUSH));
+    }
+
+    @Test
+    void deleteTags_shouldInvalidateCachedFileOnceFlushed_whenBatchingAndAckIsEnqueue() {
+        final IngestQueue ingestQueue = enabledIngestQueue();
+        final CompletableFuture<BulkItemResponse> flushed = new CompletableFuture<>();
+        when(ingestQueue.submit(any())).thenReturn(flushed);
+        fileByIdCache.put("id", new File("id", "name", 0L, List.of("tag")));
+
+        batchingFileService(ingestQueue).deleteTags("id", List.of("tag"), IngestAck.ENQUEUE);
+
+        assertNotNull(fileByIdCache.getIfPresent("id"));
+        flushed.complete(updated("id", DocWriteResponse.Result.UPDATED));
+        assertNull(fileByIdCache.getIfPresent("id"));
     }
 
     @Test
     void delete_shouldThrowFileDelete404Exception_whenNoFileIsFoundBySuchId() {
+        when(fileCustomRepository.delete("id0", WriteRequest.RefreshPolicy.IMMEDIATE))
+                .thenReturn(DocWriteResponse.Result.NOT_FOUND);
+
         assertThatExceptionOfType(FileDelete404Exception.class)
-                .isThrownBy(() -> fileService.delete("id0"))
+                .isThrownBy(() -> fileService.delete("id0", WriteRequest.RefreshPolicy.IMMEDIATE))
                 .withMessage("file not found");
 
-        verify(fileRepository).existsById("id0");
-        verifyNoMoreInteractions(fileRepository);
     }
 
     @Test
-    void delete_shouldCallDeleteByIdMethodOfRepository() {
-        when(fileRepository.existsById("id0")).thenReturn(true);
+    void delete_shouldTimeMethodTaggedWithException_whenItThrows() {
+        when(fileCustomRepository.delete("id0", WriteRequest.RefreshPolicy.IMMEDIATE))
+                .thenReturn(DocWriteResponse.Result.DELETED, DocWriteResponse.Result.NOT_FOUND);
+
+        fileService.delete("id0", WriteRequest.RefreshPolicy.IMMEDIATE);
+        assertThatExceptionOfType(FileDelete404Exception.class)
+                .isThrownBy(() -> fileService.delete("id0", WriteRequest.RefreshPolicy.IMMEDIATE));
+
+        assertEquals(1, meterRegistry.get("file.service").tag("method", "delete")
+                .tag("exception", "none").timer().count());
+        assertEquals(1, meterRegistry.get("file.service").tag("method", "delete")
+                .tag("exception", "FileDelete404Exception").timer().count());
+    }
+
+    @Test
+    void uploadFile_shouldTimeServiceMethod() {
+        File file = new File("id1", "name", 0L, null);
+        when(fileCustomRepository.index(file)).thenReturn(file);
 
-        fileService.delete("id0");
+        fileService.uploadFile(file);
 
-        verify(fileRepository).deleteById("id0");
+        assertEquals(1, meterRegistry.get("file.service").tag("method", "uploadFile").timer().count());
     }
 
     @Test
-    void updateTags_shouldUpdateTagsById_whenFileExistsBySuchId() {
-        when(fileRepository.findById("id")).thenReturn(Optional.of(new File("id", "name", 0L, null)));
-        final List<String> tags = List.of("tag1", "tag2", "tag3");
+    void findById_shouldReadFileOnce_whenItIsLookedUpRepeatedly() {
+        File file = new File("id0", "name", 0L, List.of("tag"));
+        when(fileCustomRepository.findById("id0")).thenReturn(file);
 
-        fileService.updateTags("id", tags);
+        assertEquals(file, fileService.findById("id0"));
+        assertEquals(file, fileService.findById("id0"));
 
-        verify(fileRepository).findById("id");
-        verify(fileRepository).save(eq(new File("id", "name", 0L, null).withTags(tags)));
+        verify(fileCustomRepository, times(1)).findById("id0");
+    }
 
+    @Test
+    void findById_shouldThrowFileFind404ExceptionAndNotCacheAbsence_whenNoFileIsFoundById() {
+        when(fileCustomRepository.findById("id0")).thenReturn(null);
+
+        assertThatExceptionOfType(FileFind404Exception.class)
+                .isThrownBy(() -> fileService.findById("id0"))
+                .withMessage("file not found");
+        assertThatExceptionOfType(FileFind404Exception.class)
+                .isThrownBy(() -> fileService.findById("id0"));
+
+        verify(fileCustomRepository, times(2)).findById("id0");
+    }
+
+    @Test
+    void updateTags_shouldInvalidateCachedFile_evenWhenUpdateFails() {
+        fileByIdCache.put("id0", new File("id0", "name", 0L, List.of()));
+        fileByIdCache.put("id1", new File("id1", "name", 0L, List.of()));
+        when(fileCustomRepository.addTags("id0", List.of("tag"))).thenReturn(DocWriteResponse.Result.UPDATED);
+        when(fileCustomRepository.addTags("id1", List.of("tag"))).thenThrow(new IllegalStateException());
+
+        fileService.updateTags("id0", List.of("tag"));
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> fileService.updateTags("id1", List.of("tag")));
+
+        assertNull(fileByIdCache.getIfPresent("id0"));
+        assertNull(fileByIdCache.getIfPresent("id1"));
+    }
+
+    @Test
+    void uploadFiles_shouldInvalidateCachedFilesOfBatch() {
+        fileByIdCache.put("id0", new File("id0", "name", 0L, List.of()));
+        fileByIdCache.put("id9", new File("id9", "name", 0L, List.of()));
+        File file = new File("id0", "name", 1L, List.of());
+        when(fileCustomRepository.bulkIndex(List.of(file))).thenReturn(List.of(new Id("id0")));
+
+        fileService.uploadFiles(List.of(file).iterator());
+
+        assertNull(fileByIdCache.getIfPresent("id0"));
+        assertNotNull(fileByIdCache.getIfPresent("id9"));
+    }
+
+    @Test
+    void delete_shouldCallDeleteMethodOfRepositoryOnce() {
+        when(fileCustomRepository.delete("id0", WriteRequest.RefreshPolicy.NONE))
+                .thenReturn(DocWriteResponse.Result.DELETED);
+
+        fileService.delete("id0", WriteRequest.RefreshPolicy.NONE);
+
+        verify(fileCustomRepository).delete("id0", WriteRequest.RefreshPolicy.NONE);
+        verifyNoMoreInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void updateTags_shouldAddNormalizedTagsById_whenFileExistsBySuchId() {
+        when(fileCustomRepository.addTags("id", List.of("tag1", "tag2"))).thenReturn(DocWriteResponse.Result.UPDATED);
+
+        fileService.updateTags("id", List.of("Tag1", "tag2", "tag1"));
+
+        verify(fileCustomRepository).addTags("id", List.of("tag1", "tag2"));
+    }
+
+    @Test
+    void updateTags_shouldNotThrow_whenFileAlreadyHasAllTags() {
+        when(fileCustomRepository.addTags("id", List.of("tag1"))).thenReturn(DocWriteResponse.Result.NOOP);
+
+        fileService.updateTags("id", List.of("tag1"));
+
+        verify(fileCustomRepository).addTags("id", List.of("tag1"));
     }
 
     @Test
     void updateTags_shouldThrowFileUpdateTags404Exception_whenNoFileExistsBySuchId() {
-        when(fileRepository.findById("id")).thenReturn(Optional.empty());
+        when(fileCustomRepository.addTags("id", List.of("tag1", "tag2", "tag3")))
+                .thenReturn(DocWriteResponse.Result.NOT_FOUND);
 
         assertThatExceptionOfType(FileUpdateTags404Exception.class)
                 .isThrownBy(() -> fileService.updateTags("id", List.of("tag1", "tag2", "tag3")))
                 .withMessage("file not found");
 
-        verifyNoMoreInteractions(fileRepository);
     }
 
     @Test
     void deleteTags_shouldThrowFileDeleteTags404Exception_whenNoFileIsFoundById() {
-        when(fileRepository.findById("id")).thenReturn(Optional.empty());
+        when(fileCustomRepository.removeTags("id", List.of("tag1", "tag2"))).thenReturn(DocWriteResponse.Result.NOT_FOUND);
 
         assertThatExceptionOfType(FileDeleteTags404Exception.class)
                 .isThrownBy(() -> fileService.deleteTags("id", List.of("tag1", "tag2")))
                 .withMessage("file not found");
 
-        verifyNoMoreInteractions(fileRepository);
     }
 
     @Test
-    void deleteTags_shouldThrowFileDeleteTags400Exception_whenNoTagsArePresentInFoundFile() {
-        when(fileRepository.findById("id")).thenReturn(Optional.of(new File("id", "name", 0L, null)));
+    void deleteTags_shouldThrowFileDeleteTags400Exception_whenNotAllTagsArePresentInFoundFile() {
+        when(fileCustomRepository.removeTags("id", List.of("tag1", "tag2"))).thenReturn(DocWriteResponse.Result.NOOP);
 
         assertThatExceptionOfType(FileDeleteTags400Exception.class)
                 .isThrownBy(() -> fileService.deleteTags("id", List.of("tag1", "tag2")))
@@ -133,33 +316,356 @@ class FileServiceTest {
     }
 
     @Test
-    void deleteTags_shouldReturnFalse_whenNotAllTagsArePresentInFoundFile() {
-        when(fileRepository.findById("id")).thenReturn(Optional.of(new File("id", "name", 0L, List.of("tag1"))));
+    void deleteTags_shouldRemoveNormalizedTags_whenAllTagsArePresentInFoundFile() {
+        when(fileCustomRepository.removeTags("id", List.of("tag1", "tag2"))).thenReturn(DocWriteResponse.Result.UPDATED);
 
-        assertThatExceptionOfType(FileDeleteTags400Exception.class)
-                .isThrownBy(() -> fileService.deleteTags("id", List.of("tag1", "tag2")))
-                .withMessage("tag not found on file");
+        fileService.deleteTags("id", List.of("TAG1", "tag2"));
+
+        verify(fileCustomRepository).removeTags("id", List.of("tag1", "tag2"));
+    }
+
+    @Test
+    void uploadFiles_shouldIndexValidFilesInBatchesAndReportInvalidOnes_whenSomeFilesAreInvalid() {
+        final File file0 = new File(null, "name0", 0L, null);
+        final File file1 = new File(null, "name1", 1L, null);
+        final File file2 = new File(null, "name2", 2L, null);
+        when(fileCustomRepository.bulkIndex(List.of(file0, file1))).thenReturn(List.of(new Id("id0"), new Id("id1")));
+        when(fileCustomRepository.bulkIndex(List.of(file2))).thenReturn(List.of(new ErrorMessage(false, "es error")));
+
+        final BulkReport report = fileService.uploadFiles(
+                List.of(file0, new File(null, "", 0L, null), file1, file2).iterator());
+
+        assertTrue(report.getErrors());
+        assertThat(report.getItems()).hasSize(4);
+        assertEquals("id0", ((Id) report.getItems().get(0)).getId());
+        assertEquals("file name is missing", ((ErrorMessage) report.getItems().get(1)).getError());
+        assertEquals("id1", ((Id) report.getItems().get(2)).getId());
+        assertEquals("es error", ((ErrorMessage) report.getItems().get(3)).getError());
+        verify(fileCustomRepository, times(2)).bulkIndex(anyList());
     }
 
     @Test
-    void deleteTags_shouldReturnTrueAndRemoveAllTags_whenAllTagsArePresentInFoundFile() {
-        final File file = new File("id", "name", 0L, List.of("tag1", "tag2"));
-        when(fileRepository.findById("id")).thenReturn(Optional.of(file));
+    void uploadFiles_shouldReportMalformedFileAfterStoredOnes_whenFileCouldNotBeRead() {
+        final File file0 = new File(null, "name0", 0L, null);
+        when(fileCustomRepository.bulkIndex(List.of(file0))).thenReturn(List.of(new Id("id0")));
 
-        fileService.deleteTags("id", List.of("tag1", "tag2"));
+        final BulkReport report = fileService.uploadFiles(Arrays.asList(file0, null).iterator());
 
-        verify(fileRepository).findById("id");
-        verify(fileRepository).save(eq(file.withTags(List.of())));
+        assertTrue(report.getErrors());
+        assertEquals("id0", ((Id) report.getItems().get(0)).getId());
+        assertEquals(FileService.FILE_MALFORMED, ((ErrorMessage) report.getItems().get(1)).getError());
+    }
+
+    @Test
+    void uploadFiles_shouldNotCallRepository_whenAllFilesAreInvalid() {
+        final BulkReport report = fileService.uploadFiles(List.of(new File(null, "name", -1L, null)).iterator());
+
+        assertTrue(report.getErrors());
+        assertEquals("file size is negative", ((ErrorMessage) report.getItems().get(0)).getError());
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void importFiles_shouldPassResultsOnPerBatch_whenBatchesAreFull() {
+        final File file0 = new File(null, "name0", 0L, null);
+        final File file1 = new File(null, "name1", 1L, null);
+        final File file2 = new File(null, "name2", 2L, null);
+        when(fileCustomRepository.bulkIndex(List.of(file0, file1))).thenReturn(List.of(new Id("id0"), new Id("id1")));
+        when(fileCustomRepository.bulkIndex(List.of(file2))).thenReturn(List.of(new Id("id2")));
+        final List<List<String>> results = new ArrayList<>();
+
+        fileService.importFiles(Arrays.asList(file0, null, file1, file2).iterator(), items -> results.add(
+                items.stream().map(item -> item instanceof Id ? ((Id) item).getId() : ((ErrorMessage) item).getError())
+                        .collect(Collectors.toList())));
+
+        assertEquals(List.of(List.of("id0", "line is malformed", "id1"), List.of("id2")), results);
     }
 
     @Test
-    void deleteTags_shouldReturnTrueAndRemoveUnwantedTags_whenAllTagsArePresentInFoundFile() {
-        final File file = new File("id", "name", 0L, List.of("tag1", "tag2", "tag3"));
-        when(fileRepository.findById("id")).thenReturn(Optional.of(file));
+    void importFiles_shouldStoreIncompleteBatch_whenAsManyInvalidFilesAsBatchHoldsAreWaiting() {
+        final File file0 = new File(null, "name0", 0L, null);
+        when(fileCustomRepository.bulkIndex(List.of(file0))).thenReturn(List.of(new Id("id0")));
+        final List<Integer> resultSizes = new ArrayList<>();
 
-        fileService.deleteTags("id", List.of("tag1", "tag2"));
+        fileService.importFiles(Arrays.asList(file0, null, new File(null, "", 0L, null), null).iterator(),
+                items -> resultSizes.add(items.size()));
+
+        assertEquals(List.of(3, 1), resultSizes);
+        verify(fileCustomRepository).bulkIndex(anyList());
+    }
+
+    @Test
+    void findPageByTagsAndName_shouldSearchOnce_whenSameListingIsRequestedWithTagsInAnyOrder() {
+        when(fileCustomRepository.findAllByTagsContainingAllIn(List.of("b", "a"), PageRequest.of(1, 3), "q", null,
+                null))
+                .thenReturn(new CursorPage<>(List.of(), PageRequest.of(1, 3), 7, true, null));
+
+        SlimFilePage first =
+                fileService.findPageByTagsAndName(List.of("b", "a"), PageRequest.of(1, 3), "q", null, null);
+        SlimFilePage second =
+                fileService.findPageByTagsAndName(List.of("a", "b", "a"), PageRequest.of(1, 3), "q", null, null);
+
+        assertSame(first, second);
+        assertEquals(7, first.getTotal());
+        verify(fileCustomRepository)
+                .findAllByTagsContainingAllIn(List.of("b", "a"), PageRequest.of(1, 3), "q", null, null);
+        verifyNoMoreInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void findPageByTagsAndName_shouldLetCacheShareSearchAndNotCountFlights_whenEqualListingsRunConcurrently()
+            throws Exception {
+        assertEquals(1, concurrentEqualListings(fileService));
+
+        assertNull(meterRegistry.find(FileService.LISTINGS).counter());
+    }
+
+    @Test
+    void findPageByTagsAndName_shouldShareSearchAndCountCoalescedListingOnce_whenCacheIsDisabled() throws Exception {
+        final FileService uncachedFileService = new FileService(fileCustomRepository, 2, meterRegistry, fileByIdCache,
+                Caffeine.newBuilder().maximumSize(0).executor(Runnable::run).build(), Caffeine.newBuilder().build(),
+                Caffeine.newBuilder().build(), new IngestQueue(false, fileCustomRepository, 1, 1, Duration.ZERO,
+                Duration.ofSeconds(30), "none", meterRegistry));
+
+        assertEquals(1, concurrentEqualListings(uncachedFileService));
+
+        assertEquals(1, meterRegistry.get(FileService.LISTINGS).tag("flight", "executed").counter().count());
+        assertEquals(1, meterRegistry.get(FileService.LISTINGS).tag("flight", "coalesced").counter().count());
+    }
+
+    /**
+     * lists the same page from two threads, the second one while the first one is searching
+     *
+     * @return number of searches
+     */
+    private int concurrentEqualListings(FileService service) throws Exception {
+        final CountDownLatch searching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger searches = new AtomicInteger();
+        when(fileCustomRepository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 10), null, null, null))
+                .thenAnswer(invocation -> {
+                    searches.incrementAndGet();
+                    searching.countDown();
+                    release.await(5, TimeUnit.SECONDS);
+                    return new CursorPage<>(List.of(), PageRequest.of(0, 10), 0, true, null);
+                });
+        final Runnable listing = () -> service.findPageByTagsAndName(null, PageRequest.of(0, 10), null, null, null);
+        final Thread first = new Thread(listing);
+        final Thread second = new Thread(listing);
+
+        first.start();
+        searching.await(5, TimeUnit.SECONDS);
+        second.start();
+        while (second.getState() != Thread.State.BLOCKED && second.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join(5000);
+        second.join(5000);
+        return searches.get();
+    }
+
+    @Test
+    void cacheKeys_shouldBeEqual_whenTagsAndCategoryDifferOnlyInCase() {
+        assertEquals(new FilePageCacheKey(1, List.of("Rock", "a"), "q", "Audio", 0, 10, Sort.unsorted(), null),
+                new FilePageCacheKey(1, List.of("a", "rock", "ROCK"), "q", "audio", 0, 10, Sort.unsorted(), null));
+        assertEquals(new FilePageCacheKey(1, List.of("Rock"), "q", "Audio", 0, 10, Sort.unsorted(), null).hashCode(),
+                new FilePageCacheKey(1, List.of("rock"), "q", "audio", 0, 10, Sort.unsorted(), null).hashCode());
+        assertEquals(new TagCountsCacheKey(1, List.of("Rock"), "q", 5),
+                new TagCountsCacheKey(1, List.of("rock"), "q", 5));
+        assertEquals(new FileStatsCacheKey(1, List.of("Rock"), "q", 3, true, 5),
+                new FileStatsCacheKey(1, List.of("rOCK"), "q", 3, true, 5));
+        assertNotEquals(new TagCountsCacheKey(1, List.of("rock"), "q", 5),
+                new TagCountsCacheKey(2, List.of("rock"), "q", 5));
+    }
+
+    @Test
+    void findPageByTagsAndName_shouldSearchAgain_whenFileWasWrittenSinceLastListing() {
+        when(fileCustomRepository.findAllByTagsContainingAllIn(null, PageRequest.of(0, 10), null, null, null))
+                .thenReturn(new CursorPage<>(List.of(), PageRequest.of(0, 10), 0, true, null));
+        when(fileCustomRepository.addTags("id0", List.of("tag"))).thenReturn(DocWriteResponse.Result.UPDATED);
+
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10), null, null, null);
+        fileService.updateTags("id0", List.of("tag"));
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10), null, null, null);
+        fileService.findPageByTagsAndName(List.of(), PageRequest.of(0, 10), null, null, null);
+
+        verify(fileCustomRepository, times(2))
+                .findAllByTagsContainingAllIn(null, PageRequest.of(0, 10), null, null, null);
+    }
+
+    @Test
+    void findPageByTagsAndName_shouldSearchSeparately_whenPagesSortsCategoriesOrCursorsDiffer() {
+        when(fileCustomRepository.findAllByTagsContainingAllIn(any(), any(), any(), any(), any()))
+                .thenReturn(new CursorPage<>(List.of(), PageRequest.of(0, 10), 0, true, null));
+
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10), null, null, null);
+        fileService.findPageByTagsAndName(null, PageRequest.of(1, 10), null, null, null);
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 20), null, null, null);
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10), null, null, "cursor");
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10), "q", null, null);
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10, Sort.by("size")), null, null, null);
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "size")), null, null,
+                null);
+        fileService.findPageByTagsAndName(null, PageRequest.of(0, 10), null, "audio", null);
+
+        verify(fileCustomRepository, times(8)).findAllByTagsContainingAllIn(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void countTags_shouldCountOnce_whenSameTagsAreRequestedUntilNextWrite() {
+        final TagCounts tagCounts = new TagCounts(Map.of("audio", 2L), 0);
+        when(fileCustomRepository.countTags(List.of("b", "a"), "q", 5)).thenReturn(tagCounts);
+        when(fileCustomRepository.delete("id0", WriteRequest.RefreshPolicy.NONE))
+                .thenReturn(DocWriteResponse.Result.DELETED);
+
+        assertSame(tagCounts, fileService.countTags(List.of("b", "a"), "q", 5));
+        assertSame(tagCounts, fileService.countTags(List.of("a", "b"), "q", 5));
+        fileService.delete("id0", WriteRequest.RefreshPolicy.NONE);
+        fileService.countTags(List.of("b", "a"), "q", 5);
+
+        verify(fileCustomRepository, times(2)).countTags(List.of("b", "a"), "q", 5);
+        verify(fileCustomRepository, never()).countTags(List.of("a", "b"), "q", 5);
+    }
+
+    @Test
+    void countTags_shouldThrowFileFind400Exception_whenSizeIsNotPositive() {
+        assertThatExceptionOfType(FileFind400Exception.class)
+                .isThrownBy(() -> fileService.countTags(null, null, 0))
+                .withMessage("size must be positive");
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void backfillCategories_shouldForgetCachedFiles_whenBackfillFails() {
+        fileByIdCache.put("id0", new File("id0", "a.mp3", 0L, List.of()));
+        when(fileCustomRepository.backfillCategories()).thenThrow(new IllegalStateException("unreachable"));
+
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(() -> fileService.backfillCategories());
+
+        assertNull(fileByIdCache.getIfPresent("id0"));
+    }
+
+    @Test
+    void getUpdateByQueryTask_shouldForgetCachedFilesOnlyOnceTaskHasCompleted() {
+        fileByIdCache.put("id0", new File("id0", "a.mp3", 0L, List.of()));
+        when(fileCustomRepository.getUpdateByQueryTask("node:1"))
+                .thenReturn(new UpdateByQueryTask("node:1", false, null, null),
+                        new UpdateByQueryTask("node:1", true, new TagsByQueryReport(1, 1, 0, Map.of()), null));
+
+        assertFalse(fileService.getUpdateByQueryTask("node:1").isCompleted());
+        assertNotNull(fileByIdCache.getIfPresent("id0"));
+        assertTrue(fileService.getUpdateByQueryTask("node:1").isCompleted());
+        assertNull(fileByIdCache.getIfPresent("id0"));
+        assertNull(fileService.getUpdateByQueryTask("node:2"));
+    }
+
+    @Test
+    void stats_shouldComputeOnce_whenSameStatsAreRequestedUntilNextWrite() {
+        final FileStats stats = new FileStats(1, 2, 2L, 2L, 2.0, Map.of("50", 2.0), List.of(), null);
+        when(fileCustomRepository.stats(List.of("b", "a"), "q", 10, false, 100)).thenReturn(stats);
+        when(fileCustomRepository.delete("id0", WriteRequest.RefreshPolicy.NONE))
+                .thenReturn(DocWriteResponse.Result.DELETED);
+
+        assertSame(stats, fileService.stats(List.of("b", "a"), "q", 10, false, 100));
+        assertSame(stats, fileService.stats(List.of("a", "b"), "q", 10, false, 5));
+        fileService.delete("id0", WriteRequest.RefreshPolicy.NONE);
+        fileService.stats(List.of("b", "a"), "q", 10, false, 100);
+
+        verify(fileCustomRepository, times(2)).stats(List.of("b", "a"), "q", 10, false, 100);
+        verify(fileCustomRepository, never()).stats(List.of("a", "b"), "q", 10, false, 5);
+    }
+
+    @Test
+    void stats_shouldThrowFileFind400Exception_whenTopIsTooLarge() {
+        assertThatExceptionOfType(FileFind400Exception.class)
+                .isThrownBy(() -> fileService.stats(null, null, 101, false, 100))
+                .withMessage("top must be between 0 and 100");
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void stats_shouldThrowFileFind400Exception_whenGroupedBySizeIsNotPositive() {
+        assertThatExceptionOfType(FileFind400Exception.class)
+                .isThrownBy(() -> fileService.stats(null, null, 10, true, 0))
+                .withMessage("size must be positive");
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void deleteTagsOfMany_shouldReportEveryFileLikeSingleEdit_whenIdsArePassed() {
+        fileByIdCache.put("id0", new File("id0", "name", 0L, List.of("tag")));
+        when(fileCustomRepository.removeTags(List.of("id0", "id1", "id2"), List.of("tag"))).thenReturn(List.of(
+                updated("id0", DocWriteResponse.Result.UPDATED),
+                updated("id1", DocWriteResponse.Result.NOOP),
+                new BulkItemResponse(2, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure("file", "_doc",
+                        "id2", new DocumentMissingException(new ShardId("file", "_na_", 0), "_doc", "id2")))));
+
+        final BulkReport report = (BulkReport) fileService.deleteTagsOfMany(
+                new TagsEdit(List.of("id0", "id1", "id2"), null, List.of("TAG")));
+
+        assertTrue(report.getErrors());
+        assertEquals("id0", ((Id) report.getItems().get(0)).getId());
+        assertEquals("tag not found on file", ((ErrorMessage) report.getItems().get(1)).getError());
+        assertEquals("file not found", ((ErrorMessage) report.getItems().get(2)).getError());
+        assertNull(fileByIdCache.getIfPresent("id0"));
+    }
+
+    @Test
+    void updateTagsOfMany_shouldReportSuccess_whenFileAlreadyHasAllTags() {
+        when(fileCustomRepository.addTags(List.of("id0"), List.of("tag")))
+                .thenReturn(List.of(updated("id0", DocWriteResponse.Result.NOOP)));
+
+        final BulkReport report = (BulkReport) fileService.updateTagsOfMany(
+                new TagsEdit(List.of("id0"), null, List.of("tag")));
+
+        assertFalse(report.getErrors());
+        assertEquals("id0", ((Id) report.getItems().get(0)).getId());
+    }
+
+    @Test
+    void updateTagsOfMany_shouldEditByQueryAndForgetCachedFiles_whenFilterIsPassed() {
+        fileByIdCache.put("id0", new File("id0", "name", 0L, List.of()));
+        final TagsByQueryReport byQuery = new TagsByQueryReport(2, 2, 0, Map.of());
+        when(fileCustomRepository.addTagsByQuery(List.of("jazz"), "live", List.of("tag"))).thenReturn(byQuery);
+
+        assertSame(byQuery, fileService.updateTagsOfMany(
+                new TagsEdit(null, new FileFilter(List.of("jazz"), "live"), List.of("Tag"))));
+
+        assertNull(fileByIdCache.getIfPresent("id0"));
+    }
+
+    @Test
+    void updateTagsOfMany_shouldThrowFileUpdateTags400Exception_whenBothIdsAndFilterArePassed() {
+        assertThatExceptionOfType(FileUpdateTags400Exception.class)
+                .isThrownBy(() -> fileService.updateTagsOfMany(
+                        new TagsEdit(List.of("id0"), new FileFilter(null, null), List.of("tag"))))
+                .withMessage("either ids or filter must be passed");
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void deleteTagsOfMany_shouldThrowFileDeleteTags400Exception_whenTagsAreMissing() {
+        assertThatExceptionOfType(FileDeleteTags400Exception.class)
+                .isThrownBy(() -> fileService.deleteTagsOfMany(new TagsEdit(List.of("id0"), null, List.of())))
+                .withMessage("tags are missing");
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    private static IngestQueue enabledIngestQueue() {
+        final IngestQueue ingestQueue = mock(IngestQueue.class);
+        when(ingestQueue.isEnabled()).thenReturn(true);
+        lenient().when(ingestQueue.getAckTimeout()).thenReturn(Duration.ofMillis(100));
+        return ingestQueue;
+    }
+
+    private FileService batchingFileService(IngestQueue ingestQueue) {
+        return new FileService(fileCustomRepository, 2, meterRegistry, fileByIdCache,
+                Caffeine.newBuilder().build(), Caffeine.newBuilder().build(), Caffeine.newBuilder().build(), ingestQueue);
+    }
 
-        verify(fileRepository).findById("id");
-        verify(fileRepository).save(eq(file.withTags(List.of("tag3"))));
+    private static BulkItemResponse updated(String id, DocWriteResponse.Result result) {
+        return new BulkItemResponse(0, DocWriteRequest.OpType.UPDATE,
+                new UpdateResponse(new ShardId("file", "_na_", 0), "_doc", id, 0, 1, 1, result));
     }
 }
@@ -0,0 +1,213 @@
+package com.papenko.filestorage.service;
+
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileIngest429Exception;
+import com.papenko.filestorage.repository.FileCustomRepository;
+import com.papenko.filestorage.repository.FileWrite;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.elasticsearch.UncategorizedElasticsearchException;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class IngestQueueTest {
+    private SimpleMeterRegistry meterRegistry;
+    private IngestQueue ingestQueue;
+    @Mock
+    private FileCustomRepository fileCustomRepository;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        if (ingestQueue != null) {
+            ingestQueue.close();
+        }
+    }
+
+    @Test
+    void submit_shouldFlushWritesInOneBulkWrite_whenMaxActionsAreQueued() throws Exception {
+        ingestQueue = new IngestQueue(true, fileCustomRepository, 10, 2, Duration.ofHours(1), Duration.ofSeconds(30),
+                "wait_for", meterRegistry);
+        final FileWrite write0 = FileWrite.index(new File("id0", "name0", 0L, null));
+        final FileWrite write1 = FileWrite.addTags("id1", List.of("tag"));
+        when(fileCustomRepository.bulkWrite(anyList(), eq(WriteRequest.RefreshPolicy.WAIT_UNTIL)))
+                .thenReturn(List.of(item("id0"), item("id1")));
+
+        final CompletableFuture<BulkItemResponse> result0 = ingestQueue.submit(write0);
+        final CompletableFuture<BulkItemResponse> result1 = ingestQueue.submit(write1);
+
+        assertEquals("id0", result0.get(5, TimeUnit.SECONDS).getId());
+        assertEquals("id1", result1.get(5, TimeUnit.SECONDS).getId());
+        verify(fileCustomRepository).bulkWrite(List.of(write0, write1), WriteRequest.RefreshPolicy.WAIT_UNTIL);
+        assertEquals(1, meterRegistry.get(IngestQueue.FLUSHES).timer().count());
+    }
+
+    @Test
+    void submit_shouldFlushIncompleteBatch_whenOldestWriteHasWaitedForFlushInterval() throws Exception {
+        ingestQueue = new IngestQueue(true, fileCustomRepository, 10, 100, Duration.ofMillis(20),
+                Duration.ofSeconds(30), "none", meterRegistry);
+        when(fileCustomRepository.bulkWrite(anyList(), eq(WriteRequest.RefreshPolicy.NONE)))
+                .thenReturn(List.of(item("id0")));
+
+        final CompletableFuture<BulkItemResponse> result = ingestQueue.submit(FileWrite.addTags("id0", List.of("tag")));
+
+        assertEquals("id0", result.get(5, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    void submit_shouldThrowFileIngest429Exception_whenQueueIsFull() throws Exception {
+        ingestQueue = new IngestQueue(true, fileCustomRepository, 1, 1, Duration.ZERO, Duration.ofSeconds(30),
+                "none", meterRegistry);
+        final CountDownLatch flushing = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(fileCustomRepository.bulkWrite(anyList(), any())).thenAnswer(invocation -> {
+            flushing.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of(item("id"));
+        });
+
+        final CompletableFuture<BulkItemResponse> flushed = ingestQueue.submit(FileWrite.addTags("id", List.of("a")));
+        assertTrue(flushing.await(5, TimeUnit.SECONDS));
+        final CompletableFuture<BulkItemResponse> queued = ingestQueue.submit(FileWrite.addTags("id", List.of("b")));
+
+        assertThatExceptionOfType(FileIngest429Exception.class)
+                .isThrownBy(() -> ingestQueue.submit(FileWrite.addTags("id", List.of("c"))));
+        assertEquals(1, meterRegistry.get(IngestQueue.REJECTIONS).counter().count());
+        release.countDown();
+        flushed.get(5, TimeUnit.SECONDS);
+        queued.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void submit_shouldFailEveryWriteOfBatch_whenBulkWriteFails() {
+        ingestQueue = new IngestQueue(true, fileCustomRepository, 10, 1, Duration.ZERO, Duration.ofSeconds(30),
+                "none", meterRegistry);
+        final UncategorizedElasticsearchException failure = new UncategorizedElasticsearchException("es error", null);
+        when(fileCustomRepository.bulkWrite(anyList(), any())).thenThrow(failure);
+
+        final CompletableFuture<BulkItemResponse> result = ingestQueue.submit(FileWrite.addTags("id", List.of("a")));
+
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertSame(failure, e.getCause());
+    }
+
+    @Test
+    void submit_shouldFailBatchAndKeepFlushing_whenBulkWriteThrowsError() throws Exception {
+        ingestQueue = new IngestQueue(true, fileCustomRepository, 10, 1, Duration.ZERO, Duration.ofSeconds(30), "none",
+                meterRegistry);
+        final AssertionError error = new AssertionError("error");
+        when(fileCustomRepository.bulkWrite(anyList(), any())).thenThrow(error).thenReturn(List.of(item("id")));
+
+        final CompletableFuture<BulkItemResponse> failed = ingestQueue.submit(FileWrite.addTags("id", List.of("a")));
+        final ExecutionException e = assertThrows(ExecutionException.class, () -> failed.get(5, TimeUnit.SECONDS));
+        assertSame(error, e.getCause());
+
+        final CompletableFuture<BulkItemResponse> next = ingestQueue.submit(FileWrite.addTags("id", List.of("b")));
+        assertEquals("id", next.get(5, TimeUnit.SECONDS).getId());
+    }
+
+    @Test
+    void close_shouldFlushEveryAcceptedWrite_whenWritesAreSubmittedWhileClosing() throws Exception {
+        ingestQueue = new IngestQueue(true, fileCustomRepository, 10000, 100, Duration.ofMillis(1),
+                Duration.ofSeconds(30), "none", meterRegistry);
+        when(fileCustomRepository.bulkWrite(anyList(), any())).thenAnswer(invocation -> {
+            final List<BulkItemResponse> items = new ArrayList<>();
+            for (Object write : invocation.<List<?>>getArgument(0)) {
+                items.add(item(((FileWrite) write).getId()));
+            }
+            return items;
+        });
+        final List<CompletableFuture<BulkItemResponse>> accepted = new ArrayList<>();
+        final CountDownLatch submitted = new CountDownLatch(100);
+        final Thread submitter = new Thread(() -> {
+            while (true) {
+                try {
+                    accepted.add(ingestQueue.submit(FileWrite.addTags("id", List.of("a"))));
+                    submitted.countDown();
+                } catch (FileIngest429Exception e) {
+                    Thread.onSpinWait();
+                } catch (IllegalStateException e) {
+                    return;
+                }
+            }
+        });
+        submitter.start();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+
+        ingestQueue.close();
+        submitter.join(5000);
+
+        assertFalse(submitter.isAlive());
+        accepted.forEach(result -> assertTrue(result.isDone()));
+    }
+
+    @Test
+    void close_shouldFlushQueuedWritesAndRefuseNewOnes() throws Exception {
+        ingestQueue = new IngestQueue(true, fileCustomRepository, 10, 100, Duration.ofHours(1), Duration.ofSeconds(30),
+                "none", meterRegistry);
+        when(fileCustomRepository.bulkWrite(anyList(), any())).thenAnswer(invocation -> {
+            final List<BulkItemResponse> items = new ArrayList<>();
+            for (Object write : invocation.<List<?>>getArgument(0)) {
+                items.add(item(((FileWrite) write).getId()));
+            }
+            return items;
+        });
+        final CompletableFuture<BulkItemResponse> result = ingestQueue.submit(FileWrite.addTags("id", List.of("a")));
+
+        ingestQueue.close();
+
+        assertTrue(result.isDone());
+        assertEquals("id", result.get().getId());
+        assertThrows(IllegalStateException.class, () -> ingestQueue.submit(FileWrite.addTags("id", List.of("b"))));
+    }
+
+    @Test
+    void submit_shouldThrowIllegalStateException_whenDisabled() {
+        ingestQueue = new IngestQueue(false, fileCustomRepository, 10, 1, Duration.ZERO, Duration.ofSeconds(30),
+                "none", meterRegistry);
+
+        assertFalse(ingestQueue.isEnabled());
+        assertThrows(IllegalStateException.class, () -> ingestQueue.submit(FileWrite.addTags("id", List.of("a"))));
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void constructor_shouldThrowIllegalArgumentException_whenRefreshIsTrue() {
+        assertThrows(IllegalArgumentException.class, () -> new IngestQueue(false, fileCustomRepository, 10, 1,
+                Duration.ZERO, Duration.ofSeconds(30), "true", meterRegistry));
+    }
+
+    private static BulkItemResponse item(String id) {
+        return new BulkItemResponse(0, DocWriteRequest.OpType.UPDATE,
+                new UpdateResponse(new ShardId("file", "_na_", 0), "_doc", id, 0, 1, 1,
+                        DocWriteResponse.Result.UPDATED));
+    }
+}
@@ -0,0 +1,187 @@
+package com.papenko.filestorage.service;
+
+import com.papenko.filestorage.dto.BulkReport;
+import com.papenko.filestorage.dto.ErrorMessage;
+import com.papenko.filestorage.dto.FileFilter;
+import com.papenko.filestorage.dto.Id;
+import com.papenko.filestorage.dto.ResponseEntityBody;
+import com.papenko.filestorage.dto.TagsByQueryReport;
+import com.papenko.filestorage.dto.TagsEdit;
+import com.papenko.filestorage.entity.File;
+import com.papenko.filestorage.exception.FileDeleteTags400Exception;
+import com.papenko.filestorage.exception.FileFind404Exception;
+import com.papenko.filestorage.exception.FileUpdateTags400Exception;
+import com.papenko.filestorage.exception.FileUpload400Exception;
+import com.papenko.filestorage.repository.ReactiveFileCustomRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ReactiveFileServiceTest {
+    private ReactiveFileService fileService;
+    private SimpleMeterRegistry meterRegistry;
+    @Mock
+    private ReactiveFileCustomRepository fileCustomRepository;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        fileService = new ReactiveFileService(fileCustomRepository, 2, meterRegistry);
+    }
+
+    @Test
+    void uploadFile_shouldFailWithFileUpload400Exception_whenFileIsInvalid() {
+        assertThatExceptionOfType(FileUpload400Exception.class)
+                .isThrownBy(() -> fileService.uploadFile(new File(null, "name", -1L, null)).block())
+                .withMessage("file size is negative");
+
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    @Test
+    void uploadFiles_shouldReportEveryFileInOrder_whenFilesSpanSeveralBatches() {
+        File valid1 = new File(null, "a.txt", 1L, null);
+        File valid2 = new File(null, "b.txt", 2L, null);
+        File valid3 = new File(null, "c.txt", 3L, null);
+        when(fileCustomRepository.bulkIndex(List.of(valid1))).thenReturn(Mono.just(List.of(new Id("id1"))));
+        when(fileCustomRepository.bulkIndex(List.of(valid2, valid3)))
+                .thenReturn(Mono.just(List.of(new Id("id2"), new ErrorMessage(false, "rejected"))));
+
+        List<ResponseEntityBody> items = fileService.uploadFiles(Flux.just(
+                new File(null, "", 0L, null), valid1, valid2, valid3).map(Optional::of)).block().getItems();
+
+        assertThat(items).hasSize(4);
+        assertThat(((ErrorMessage) items.get(0)).getError()).isEqualTo("file name is missing");
+        assertThat(((Id) items.get(1)).getId()).isEqualTo("id1");
+        assertThat(((Id) items.get(2)).getId()).isEqualTo("id2");
+        assertThat(((ErrorMessage) items.get(3)).getError()).isEqualTo("rejected");
+    }
+
+    @Test
+    void uploadFiles_shouldReportMalformedFileAfterStoredOnes() {
+        File valid = new File(null, "a.txt", 1L, null);
+        when(fileCustomRepository.bulkIndex(List.of(valid))).thenReturn(Mono.just(List.of(new Id("id1"))));
+
+        List<ResponseEntityBody> items = fileService.uploadFiles(Flux.just(Optional.of(valid), Optional.empty()))
+                .block().getItems();
+
+        assertThat(items).hasSize(2);
+        assertThat(((Id) items.get(0)).getId()).isEqualTo("id1");
+        assertThat(((ErrorMessage) items.get(1)).getError()).isEqualTo(FileService.FILE_MALFORMED);
+    }
+
+    @Test
+    void findById_shouldFailWithFileFind404Exception_whenNoFileIsFoundById() {
+        when(fileCustomRepository.findById("id0")).thenReturn(Mono.empty());
+
+        assertThatExceptionOfType(FileFind404Exception.class)
+                .isThrownBy(() -> fileService.findById("id0").block());
+    }
+
+    @Test
+    void findById_shouldBeTimedWithException_whenSubscribed() {
+        when(fileCustomRepository.findById("id0")).thenReturn(Mono.empty());
+        final Mono<File> found = fileService.findById("id0");
+
+        assertThat(meterRegistry.find(FileService.TIMER).timers()).isEmpty();
+        assertThatExceptionOfType(FileFind404Exception.class).isThrownBy(found::block);
+        assertThat(meterRegistry.get(FileService.TIMER)
+                .tags("method", "findById", "exception", "FileFind404Exception").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    void deleteTags_shouldFailWithFileDeleteTags400Exception_whenNotAllTagsArePresentInFoundFile() {
+        when(fileCustomRepository.removeTags("id", List.of("tag1"))).thenReturn(Mono.just(DocWriteResponse.Result.NOOP));
+
+        assertThatExceptionOfType(FileDeleteTags400Exception.class)
+                .isThrownBy(() -> fileService.deleteTags("id", List.of("TAG1")).block());
+    }
+
+    @Test
+    void updateTags_shouldComplete_whenTagsAreAdded() {
+        when(fileCustomRepository.addTags("id", List.of("tag1"))).thenReturn(Mono.just(DocWriteResponse.Result.UPDATED));
+
+        fileService.updateTags("id", List.of("tag1")).block();
+
+        verify(fileCustomRepository).addTags("id", List.of("tag1"));
+    }
+
+    @Test
+    void importFiles_shouldReportEveryLineInOrder_whenLinesAreMalformedOrInvalid() {
+        final File valid1 = new File(null, "a.txt", 1L, null);
+        final File valid2 = new File(null, "b.txt", 2L, null);
+        when(fileCustomRepository.bulkIndex(List.of(valid1))).thenReturn(Mono.just(List.of(new Id("id1"))));
+        when(fileCustomRepository.bulkIndex(List.of(valid2))).thenReturn(Mono.just(List.of(new Id("id2"))));
+
+        final List<ResponseEntityBody> items = fileService.importFiles(Flux.just(Optional.of(valid1), Optional.empty(),
+                Optional.of(new File(null, "", 0L, null)), Optional.of(valid2))).collectList().block();
+
+        assertThat(items).hasSize(4);
+        assertThat(((Id) items.get(0)).getId()).isEqualTo("id1");
+        assertThat(((ErrorMessage) items.get(1)).getError()).isEqualTo("line is malformed");
+        assertThat(((ErrorMessage) items.get(2)).getError()).isEqualTo("file name is missing");
+        assertThat(((Id) items.get(3)).getId()).isEqualTo("id2");
+    }
+
+    @Test
+    void deleteTagsOfMany_shouldReportEveryFileLikeSingleEdit_whenIdsArePassed() {
+        when(fileCustomRepository.removeTags(List.of("id0", "id1", "id2"), List.of("tag"))).thenReturn(Mono.just(
+                List.of(updated("id0", DocWriteResponse.Result.UPDATED),
+                updated("id1", DocWriteResponse.Result.NOOP),
+                new BulkItemResponse(2, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure("file", "_doc",
+                        "id2", new DocumentMissingException(new ShardId("file", "_na_", 0), "_doc", "id2"))))));
+
+        final BulkReport report = (BulkReport) fileService.deleteTagsOfMany(
+                new TagsEdit(List.of("id0", "id1", "id2"), null, List.of("TAG"))).block();
+
+        assertThat(report.getErrors()).isTrue();
+        assertThat(((Id) report.getItems().get(0)).getId()).isEqualTo("id0");
+        assertThat(((ErrorMessage) report.getItems().get(1)).getError()).isEqualTo("tag not found on file");
+        assertThat(((ErrorMessage) report.getItems().get(2)).getError()).isEqualTo("file not found");
+    }
+
+    @Test
+    void updateTagsOfMany_shouldEditByQuery_whenFilterIsPassed() {
+        final TagsByQueryReport byQuery = new TagsByQueryReport(2, 2, 0, Map.of());
+        when(fileCustomRepository.addTagsByQuery(List.of("jazz"), "live", List.of("tag")))
+                .thenReturn(Mono.just(byQuery));
+
+        assertThat(fileService.updateTagsOfMany(
+                new TagsEdit(null, new FileFilter(List.of("jazz"), "live"), List.of("Tag"))).block())
+                .isSameAs(byQuery);
+    }
+
+    @Test
+    void updateTagsOfMany_shouldFailWithFileUpdateTags400Exception_whenBothIdsAndFilterArePassed() {
+        assertThatExceptionOfType(FileUpdateTags400Exception.class)
+                .isThrownBy(() -> fileService.updateTagsOfMany(
+                        new TagsEdit(List.of("id0"), new FileFilter(null, null), List.of("tag"))).block())
+                .withMessage("either ids or filter must be passed");
+        verifyNoInteractions(fileCustomRepository);
+    }
+
+    private static BulkItemResponse updated(String id, DocWriteResponse.Result result) {
+        return new BulkItemResponse(0, DocWriteRequest.OpType.UPDATE,
+                new UpdateResponse(new ShardId("file", "_na_", 0), "_doc", id, 0, 1, 1, result));
+    }
+}
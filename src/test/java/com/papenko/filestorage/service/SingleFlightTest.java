@@ -0,0 +1,116 @@
+package com.papenko.filestorage.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+    private SimpleMeterRegistry meterRegistry;
+    private SingleFlight<String, Object> singleFlight;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        singleFlight = new SingleFlight<>(meterRegistry, "flights");
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void execute_shouldRunCallOnceAndShareResult_whenEqualKeysAreExecutedConcurrently() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+        final Object result = new Object();
+
+        final Future<Object> first = executor.submit(() -> singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            running.countDown();
+            await(release);
+            return result;
+        }));
+        running.await(5, TimeUnit.SECONDS);
+        final Future<Object> second = executor.submit(() -> singleFlight.execute("key", () -> {
+            calls.incrementAndGet();
+            return new Object();
+        }));
+        while (coalesced() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertSame(result, first.get(5, TimeUnit.SECONDS));
+        assertSame(result, second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertEquals(1, executed());
+    }
+
+    @Test
+    void execute_shouldThrowExceptionOfCallToEveryWaiter_whenCallFails() throws Exception {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final IllegalStateException failure = new IllegalStateException("search failed");
+
+        final Future<Object> first = executor.submit(() -> singleFlight.execute("key", () -> {
+            running.countDown();
+            await(release);
+            throw failure;
+        }));
+        running.await(5, TimeUnit.SECONDS);
+        final Future<Object> second = executor.submit(() -> singleFlight.execute("key", Object::new));
+        while (coalesced() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+
+        assertSame(failure, assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS)).getCause());
+        assertSame(failure, assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS)).getCause());
+    }
+
+    @Test
+    void execute_shouldRunCallAgain_whenPreviousCallIsOverOrKeyDiffers() {
+        final AtomicInteger calls = new AtomicInteger();
+
+        singleFlight.execute("key", calls::incrementAndGet);
+        singleFlight.execute("key", calls::incrementAndGet);
+        singleFlight.execute("other key", calls::incrementAndGet);
+
+        assertEquals(3, calls.get());
+        assertEquals(3, executed());
+        assertEquals(0, coalesced());
+    }
+
+    private double executed() {
+        return meterRegistry.get("flights").tag("flight", "executed").counter().count();
+    }
+
+    private double coalesced() {
+        return meterRegistry.get("flights").tag("flight", "coalesced").counter().count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}